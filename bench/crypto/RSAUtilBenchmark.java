@@ -0,0 +1,93 @@
+package crypto;
+
+import java.security.KeyFactory;
+import java.security.KeyPair;
+import java.security.PublicKey;
+import java.security.Signature;
+import java.security.spec.X509EncodedKeySpec;
+import java.util.Base64;
+import java.util.concurrent.TimeUnit;
+import javax.crypto.Cipher;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * JMH: per-call JCA lookup vs the per-thread engines in RSAUtil
+ *
+ * The *Lookup benchmarks repeat what RSAUtil did before (getInstance on
+ * every call); the *Cached ones call RSAUtil itself.
+ *
+ * Run: mvn -Pbench test-compile exec:exec [-Dbench.include=RSAUtilBenchmark]
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RSAUtilBenchmark {
+
+    private KeyPair keyPair;
+    private String encodedPublicKey;
+    private String message;
+    private String signature;
+    private String sessionKey;
+
+    @Setup
+    public void setUp() throws Exception {
+        keyPair = RSAUtil.generateRSAKeyPair();
+        encodedPublicKey = RSAUtil.publicKeyToString(keyPair.getPublic());
+        message = "Hello from the benchmark - a typical short chat message";
+        signature = RSAUtil.signMessage(message, keyPair.getPrivate());
+        sessionKey = KeyGenerator.generate128BitKeyHex();
+    }
+
+    @Benchmark
+    public String signLookup() throws Exception {
+        Signature engine = Signature.getInstance("SHA256withRSA");
+        engine.initSign(keyPair.getPrivate());
+        engine.update(message.getBytes());
+        return Base64.getEncoder().encodeToString(engine.sign());
+    }
+
+    @Benchmark
+    public String signCached() {
+        return RSAUtil.signMessage(message, keyPair.getPrivate());
+    }
+
+    @Benchmark
+    public boolean verifyLookup() throws Exception {
+        Signature engine = Signature.getInstance("SHA256withRSA");
+        engine.initVerify(keyPair.getPublic());
+        engine.update(message.getBytes());
+        return engine.verify(Base64.getDecoder().decode(signature));
+    }
+
+    @Benchmark
+    public boolean verifyCached() {
+        return RSAUtil.verifySignature(message, signature, keyPair.getPublic());
+    }
+
+    @Benchmark
+    public String wrapLookup() throws Exception {
+        Cipher cipher = Cipher.getInstance("RSA");
+        cipher.init(Cipher.ENCRYPT_MODE, keyPair.getPublic());
+        return Base64.getEncoder().encodeToString(cipher.doFinal(sessionKey.getBytes()));
+    }
+
+    @Benchmark
+    public String wrapCached() throws Exception {
+        return RSAUtil.encryptWithPublicKey(sessionKey, keyPair.getPublic());
+    }
+
+    @Benchmark
+    public PublicKey decodeKeyLookup() throws Exception {
+        return KeyFactory.getInstance("RSA").generatePublic(
+            new X509EncodedKeySpec(Base64.getDecoder().decode(encodedPublicKey)));
+    }
+
+    @Benchmark
+    public PublicKey decodeKeyCached() throws Exception {
+        return RSAUtil.stringToPublicKey(encodedPublicKey);
+    }
+}
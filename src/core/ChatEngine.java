@@ -0,0 +1,260 @@
+package core;
+
+import crypto.*;
+import network.Handshake;
+import network.LineChannel;
+import network.LineLimitInputStream;
+import network.NioConnection;
+import network.NioTransport;
+import network.RateLimiter;
+import network.SessionScope;
+import network.SocketLineChannel;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.security.KeyPair;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Connection setup for one side of the chat, independent of any UI
+ *
+ * Holds what outlives a single connection: the RSA identity (persistent
+ * keystore or a fresh pooled key pair per connection), pinned peer keys,
+ * the ticket issuer (server) and the last resumption ticket (client).
+ * accept()/connect() block until the handshake is done and return a
+ * running ChatSession; connectViaRelay() does the same with another client
+ * through a ChatRelay.
+ */
+public class ChatEngine {
+
+    private final boolean isServer;
+    private final IdentityStore identityStore;
+    private final PeerKeyCache peerKeyCache;          // null = identities off, nothing pinned or checked
+    private final TicketIssuer ticketIssuer;          // server only
+    private SessionCapabilities localCapabilities = SessionCapabilities.local();
+    private int maxLineLength;                        // 0 = unlimited (file chunks are megabytes per line)
+    private boolean sharedIdentity;                   // one identity for every connection (hub)
+    private NioTransport transport;                   // null = blocking reader task per connection
+    private RateLimiter rateLimiter;                  // null = peers may send as fast as they like
+    private int handshakeTimeoutMillis;               // 0 = wait for the peer indefinitely
+    private final ReentrantLock identityLock = new ReentrantLock();
+    private KeyPair identity;                         // guarded by identityLock
+    private volatile ChatSession lastSession;         // client: source of the next resumption ticket
+
+    private ChatEngine(boolean isServer) {
+        this.isServer = isServer;
+        String role = isServer ? "server" : "client";
+        this.identityStore = IdentityStore.forRole(role);
+        this.peerKeyCache = IdentityStore.isEnabled() ? PeerKeyCache.forRole(role) : null;
+        this.ticketIssuer = isServer ? new TicketIssuer() : null;
+    }
+
+    public static ChatEngine server() {
+        return new ChatEngine(true);
+    }
+
+    public static ChatEngine client() {
+        return new ChatEngine(false);
+    }
+
+    /**
+     * Features offered in the handshake (defaults to the system property configuration)
+     */
+    public ChatEngine withCapabilities(SessionCapabilities capabilities) {
+        this.localCapabilities = capabilities;
+        return this;
+    }
+
+    /**
+     * Drop connections that send a line longer than this (bounds reader memory per connection)
+     */
+    public ChatEngine withMaxLineLength(int maxLineLength) {
+        this.maxLineLength = maxLineLength;
+        return this;
+    }
+
+    /**
+     * Use the first identity for all later connections instead of one per connection
+     */
+    public ChatEngine withSharedIdentity() {
+        this.sharedIdentity = true;
+        return this;
+    }
+
+    /**
+     * Move accepted connections onto these event loops once the handshake is done
+     * (sockets from a ServerSocketChannel; anything else stays blocking)
+     */
+    public ChatEngine withTransport(NioTransport transport) {
+        this.transport = transport;
+        return this;
+    }
+
+    /**
+     * Throttle what peers send once the handshake is done (server: a flooding client only slows itself down)
+     */
+    public ChatEngine withRateLimiter(RateLimiter rateLimiter) {
+        this.rateLimiter = rateLimiter;
+        return this;
+    }
+
+    /**
+     * Give up on a peer that has not finished the handshake in this time
+     */
+    public ChatEngine withHandshakeTimeout(int millis) {
+        this.handshakeTimeoutMillis = millis;
+        return this;
+    }
+
+    public boolean isServer() {
+        return isServer;
+    }
+
+    /**
+     * Accept the next client and run the handshake (server)
+     */
+    public ChatSession accept(ServerSocket serverSocket, SessionScope scope, ChatSessionListener listener) throws Exception {
+        return accept(serverSocket.accept(), scope, listener);
+    }
+
+    /**
+     * Run the handshake on an accepted client socket (server)
+     */
+    public ChatSession accept(Socket socket, SessionScope scope, ChatSessionListener listener) throws Exception {
+        try {
+            socket.setTcpNoDelay(true);
+            KeyPair identity = takeIdentity(listener);
+            String clientIp = socket.getInetAddress().getHostAddress();
+            listener.onConnected(clientIp);
+            return open(socket, clientIp, identity, true, ticketIssuer, scope, listener, null);
+        } catch (Exception e) {
+            socket.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Connect to a server and run the handshake, resuming with the last ticket if there is one (client)
+     */
+    public ChatSession connect(String host, int port, SessionScope scope, ChatSessionListener listener) throws Exception {
+        KeyPair identity = takeIdentity(listener);
+        Socket socket = new Socket(host, port);
+        try {
+            socket.setTcpNoDelay(true);
+            String peer = host + ":" + port;
+            listener.onConnected(peer);
+            // Last ticket (if any) rides in front of the full flight - single use either way
+            ChatSession previous = lastSession;
+            SessionTicket ticket = previous != null ? previous.getResumptionTicket() : null;
+            lastSession = null;
+            ChatSession session = open(socket, peer, identity, false, null, scope, listener, ticket);
+            lastSession = session;
+            return session;
+        } catch (Exception e) {
+            socket.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Meet another client through a relay and run the handshake end to end with it
+     *
+     * Blocks until a peer with the same token shows up. The relay decides who
+     * plays the server side; there is no resumption, since the roles can
+     * change with every pairing.
+     */
+    public ChatSession connectViaRelay(String host, int port, String token, SessionScope scope,
+                                       ChatSessionListener listener) throws Exception {
+        KeyPair identity = takeIdentity(listener);
+        Socket socket = new Socket(host, port);
+        try {
+            socket.setTcpNoDelay(true);
+            boolean serverRole = ChatRelay.rendezvous(socket, token);
+            // Pinned under the token: that is who we asked to talk to
+            String peer = "relay:" + token;
+            listener.onConnected(peer);
+            return open(socket, peer, identity, serverRole, null, scope, listener, null);
+        } catch (Exception e) {
+            socket.close();
+            throw e;
+        }
+    }
+
+    private ChatSession open(Socket socket, String peer, KeyPair identity, boolean serverRole, TicketIssuer issuer,
+                             SessionScope scope, ChatSessionListener listener, SessionTicket ticket) throws Exception {
+        PrintWriter out = new PrintWriter(socket.getOutputStream(), true);
+        InputStream input = socket.getInputStream();
+        BufferedReader in = new BufferedReader(new InputStreamReader(
+            maxLineLength > 0 ? new LineLimitInputStream(input, maxLineLength) : input));
+
+        Handshake handshake = new Handshake(identity, localCapabilities).withPeerKeyCache(peerKeyCache, peer);
+        socket.setSoTimeout(handshakeTimeoutMillis);
+        Handshake.Result result = serverRole
+            ? handshake.runServer(in, out, issuer)
+            : handshake.runClient(in, out, ticket);
+        socket.setSoTimeout(0);
+
+        // The handshake runs blocking in the connection's scope either way; afterwards an
+        // NIO connection needs no thread until the peer sends something
+        LineChannel channel = transport != null && socket.getChannel() != null
+            ? transport.adopt(socket.getChannel(), takeBuffered(in),
+                maxLineLength > 0 ? maxLineLength : NioConnection.DEFAULT_MAX_LINE_LENGTH)
+            : new SocketLineChannel(socket, in, out, scope);
+        if (rateLimiter != null) {
+            channel = rateLimiter.limit(channel);
+        }
+        ChatSession session = new ChatSession(channel, serverRole, peer, identity, result, scope, listener);
+        listener.onSessionReady(session, result);
+        session.start();
+        return session;
+    }
+
+    /**
+     * Whatever the handshake's reader already pulled off the socket past its last line
+     * (protocol lines are ASCII, so no character is split here)
+     */
+    private static byte[] takeBuffered(BufferedReader in) throws IOException {
+        StringBuilder buffered = new StringBuilder();
+        char[] chunk = new char[1024];
+        while (in.ready()) {
+            int n = in.read(chunk);
+            if (n < 0) break;
+            buffered.append(chunk, 0, n);
+        }
+        return buffered.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Persistent identity from the keystore, or a fresh key pair from the background pool
+     */
+    private KeyPair takeIdentity(ChatSessionListener listener) throws Exception {
+        boolean persistent = IdentityStore.isEnabled();
+        KeyPair keyPair;
+        if (sharedIdentity) {
+            // Concurrent first handshakes must not end up with different identities
+            identityLock.lock();
+            try {
+                if (identity == null) identity = loadIdentity(persistent);
+                keyPair = identity;
+            } finally {
+                identityLock.unlock();
+            }
+        } else {
+            keyPair = loadIdentity(persistent);
+        }
+        listener.onIdentityLoaded(keyPair, persistent);
+        return keyPair;
+    }
+
+    private KeyPair loadIdentity(boolean persistent) throws Exception {
+        return persistent
+            ? identityStore.loadOrCreate(KeyPairPool.shared())
+            : KeyPairPool.shared().take();
+    }
+}
@@ -0,0 +1,1036 @@
+package core;
+
+import crypto.GroupKeyring;
+import network.NioTransport;
+import network.RateLimiter;
+import network.SessionScope;
+import network.SharedFrame;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.channels.ServerSocketChannel;
+import java.time.LocalTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.StringJoiner;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.regex.Pattern;
+
+/**
+ * Chat server for many clients at once, routing messages between them
+ *
+ * Every accepted connection gets its own scope, handshake, session key and
+ * BlockCipher session, exactly like a one-to-one chat with the GUI server -
+ * the GUI client connects unchanged. A verified message from one member is
+ * encrypted once with the group key (GroupKeyring) and the same encoded
+ * GMSG line (SharedFrame) goes to every member that negotiated group keys;
+ * members without it get the message re-encrypted with their own session.
+ *
+ * The group key travels over each member's session. A join ratchets the key
+ * forward and sends it to the newcomer only; a leave starts a fresh key,
+ * sent to each remaining member, so the one who left cannot read on.
+ *
+ * Rooms: members can /join #room, /part #room and list /rooms; a message
+ * starting with #room goes to that room's members only, everything else
+ * to everyone. Rooms are an index - room to a member array, member to a
+ * room array - both replaced on change and read without locking, so
+ * routing to a room visits its members and not the whole hub. Each room has
+ * its own group key, handled like the hub-wide one, and disappears with its
+ * last member.
+ *
+ * Memory per connection is bounded: lines are capped under the reader
+ * (LineLimitInputStream), received frames by the session's receive
+ * pipeline and outgoing messages by a fixed-size queue per member, drained
+ * by one sender thread. File transfers are not relayed.
+ *
+ * Slow readers: a member whose backlog (its queue plus whatever its
+ * connection has not written yet) passes the high watermark is lagging
+ * until it is back under the low watermark. The SlowConsumerPolicy decides
+ * what happens meanwhile - skip chat messages for it, stop reading from
+ * everybody for a bounded time, or disconnect it. Producers never block on
+ * a member, so one stuck client does not hold up the others (except under
+ * PAUSE, by choice and for at most the pause limit). A member whose queue
+ * is full is dropped under every policy. Bytes in the kernel's send buffer
+ * count as delivered; fleurdelyx.sendBuffer caps it so lag shows up sooner.
+ *
+ * Admission: at most maxHandshakes handshakes (RSA work) run at once, a
+ * bounded number of accepted connections wait for a slot, and connections
+ * beyond that are closed right away instead of timing out in the queue.
+ * Handshakes have a deadline, so silent connections cannot hold the slots.
+ * After the handshake each member's frames and bytes per second, and the
+ * hub's total, are throttled by a RateLimiter. Rejections and throttling
+ * show up in the periodic stats.
+ *
+ * With --nio, connections move to event loop shards after the handshake
+ * (NioTransport, one per core) instead of keeping a blocked reader each,
+ * and the per-shard load is logged every fleurdelyx.statsInterval seconds.
+ *
+ * Run: java -cp target/classes core.ChatHub [port] [--nio]
+ *      -Dfleurdelyx.nioPlacement=least-loaded|hash|round-robin
+ *      -Dfleurdelyx.slowConsumer=disconnect|drop-bulk|pause -Dfleurdelyx.sendBuffer=bytes
+ *      -Dfleurdelyx.clientFrameRate=n -Dfleurdelyx.clientByteRate=n (per second, 0 = unlimited)
+ *      -Dfleurdelyx.hubFrameRate=n -Dfleurdelyx.hubByteRate=n
+ */
+public class ChatHub implements ChatSessionListener {
+
+    public static final int DEFAULT_PORT = 12345;
+    public static final int DEFAULT_MAX_LINE_LENGTH = 256 * 1024;
+    public static final int DEFAULT_OUTBOUND_CAPACITY = 256;
+    public static final long DEFAULT_LOW_WATERMARK = 256 * 1024;
+    public static final long DEFAULT_HIGH_WATERMARK = 1024 * 1024;
+    public static final long DEFAULT_PAUSE_LIMIT_MS = 5000;
+    public static final int DEFAULT_MAX_HANDSHAKES = Math.max(2, Runtime.getRuntime().availableProcessors());
+    public static final int DEFAULT_MAX_QUEUED_HANDSHAKES = 64;
+    public static final int DEFAULT_HANDSHAKE_TIMEOUT_MS = 10_000;
+    public static final int DEFAULT_ACCEPT_BACKLOG = 256;
+    public static final int MAX_ROOMS_PER_MEMBER = 64;
+    public static final int MAX_ROOM_NAME_LENGTH = 32;
+    private static final Pattern ROOM_NAME = Pattern.compile("[A-Za-z0-9_-]{1," + MAX_ROOM_NAME_LENGTH + "}");
+    private static final long LAG_CHECK_INTERVAL_MS = 100;
+
+    private static final DateTimeFormatter TIME = DateTimeFormatter.ofPattern("HH:mm:ss");
+
+    private final ChatEngine engine;
+    private final int outboundCapacity;
+    private final PrintStream console;
+    private final Map<ChatSession, Member> members = new ConcurrentHashMap<>();
+    private final AtomicInteger nextMemberId = new AtomicInteger(1);
+    private final AtomicLong messagesRouted = new AtomicLong();
+    private final AtomicLong slowMembersDropped = new AtomicLong();
+    private final AtomicLong groupRekeys = new AtomicLong();
+    private final AtomicLong framesDropped = new AtomicLong();
+    private final AtomicLong intakePauses = new AtomicLong();
+    private final AtomicLong connectionsRejected = new AtomicLong();
+    private final AtomicInteger handshakesQueued = new AtomicInteger();
+
+    private SlowConsumerPolicy slowConsumerPolicy = SlowConsumerPolicy.DISCONNECT;
+    private long lowWatermark = DEFAULT_LOW_WATERMARK;
+    private long highWatermark = DEFAULT_HIGH_WATERMARK;
+    private long pauseLimitMillis = DEFAULT_PAUSE_LIMIT_MS;
+    private int sendBufferSize; // 0 = kernel default
+    private int maxHandshakes = DEFAULT_MAX_HANDSHAKES;
+    private Semaphore handshakeSlots = new Semaphore(DEFAULT_MAX_HANDSHAKES, true);
+    private int maxQueuedHandshakes = DEFAULT_MAX_QUEUED_HANDSHAKES;
+    private RateLimiter rateLimiter;
+
+    // Group key and membership change together: a member is either sent the current key or not in the map yet.
+    // Room membership changes under the same lock. Lock order: groupLock, a room's lock, lagLock.
+    private final ReentrantLock groupLock = new ReentrantLock();
+    private final GroupKeyring group = GroupKeyring.create();
+    private final Map<String, Room> rooms = new ConcurrentHashMap<>();
+    private final ReentrantLock lagLock = new ReentrantLock();
+    private final Set<Member> lagging = new LinkedHashSet<>(); // guarded by lagLock
+    private boolean intakePaused;                              // guarded by lagLock
+
+    /**
+     * What to do with a member that has fallen behind the high watermark
+     */
+    public enum SlowConsumerPolicy {
+        /** Skip chat messages for it until it catches up (keys and notices still go out) */
+        DROP_BULK,
+        /** Stop reading from every member until it catches up, for at most the pause limit */
+        PAUSE,
+        /** Disconnect it */
+        DISCONNECT
+    }
+
+    /**
+     * One member's outbound state, for stats and logs
+     *
+     * @param queuedBytes   waiting in the member's queue or in its connection
+     * @param laggingMillis how long it has been over the watermarks, 0 if keeping up
+     */
+    public record MemberStats(String name, String peer, long queuedBytes, long laggingMillis, long framesDropped) {
+        public boolean isLagging() {
+            return laggingMillis > 0;
+        }
+    }
+
+    /**
+     * Something to send to one member, run by its sender thread
+     *
+     * @param bulk chat traffic that DROP_BULK may skip (group keys and notices are never skipped)
+     */
+    private record Delivery(int bytes, boolean bulk, Send send) {
+
+        interface Send {
+            void to(ChatSession session) throws Exception;
+        }
+
+        static Delivery message(String text) {
+            return new Delivery(text.length(), true, s -> s.sendMessage(text));
+        }
+
+        static Delivery notice(String text) {
+            return new Delivery(text.length(), false, s -> s.sendMessage(text));
+        }
+
+        static Delivery frame(SharedFrame frame) {
+            return new Delivery(frame.size(), true, s -> s.sendFrame(frame));
+        }
+
+        static Delivery groupKey(String epoch, String key) {
+            return new Delivery(epoch.length() + key.length(), false, s -> s.sendGroupKey(epoch, key));
+        }
+    }
+
+    /**
+     * One connected client and the messages waiting to be sent to it
+     */
+    private final class Member {
+        final String name;
+        final ChatSession session;
+        final BlockingQueue<Delivery> outbound;
+        final AtomicLong queuedBytes = new AtomicLong(); // in outbound, not yet handed to the session
+        volatile long laggingSince;                      // 0 = keeping up; written under lagLock
+        long droppedWhileLagging;                        // guarded by lagLock
+        volatile Room[] rooms = NO_ROOMS;                // copy-on-write under groupLock
+        final AtomicLong framesDropped = new AtomicLong();
+
+        Member(String name, ChatSession session) {
+            this.name = name;
+            this.session = session;
+            this.outbound = new LinkedBlockingQueue<>(outboundCapacity); // no memory while empty
+        }
+
+        /**
+         * Queue a message without ever blocking the sender's thread
+         */
+        boolean enqueue(Delivery delivery) {
+            queuedBytes.addAndGet(delivery.bytes());
+            if (outbound.offer(delivery)) return true;
+            queuedBytes.addAndGet(-delivery.bytes());
+            return false;
+        }
+
+        /**
+         * Bytes this member still has to receive
+         */
+        long backlog() {
+            return queuedBytes.get() + session.getQueuedBytes();
+        }
+
+        boolean isIn(Room room) {
+            for (Room r : rooms) {
+                if (r == room) return true;
+            }
+            return false;
+        }
+
+        MemberStats stats() {
+            long since = laggingSince;
+            return new MemberStats(name, session.getPeer(), backlog(),
+                since != 0 ? Math.max(1, System.currentTimeMillis() - since) : 0, framesDropped.get());
+        }
+
+        /**
+         * Sender loop: one message at a time, in queue order
+         */
+        void drain() {
+            try {
+                while (!session.isClosed()) {
+                    Delivery delivery = outbound.take();
+                    delivery.send().to(session);
+                    queuedBytes.addAndGet(-delivery.bytes());
+                }
+            } catch (InterruptedException e) {
+                // Session ended
+            } catch (Exception e) {
+                leave(this, "send failed: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * A room: its own group key and a member array that routing reads without locking
+     *
+     * The array is replaced, never modified (copy-on-write under groupLock), so
+     * a message to a room touches its members and nobody else. Senders share
+     * the room's lock and fan out side by side; a key change takes it alone,
+     * so every frame sealed with the old key is queued before the new key.
+     * Rooms never wait for each other or for the hub-wide group.
+     */
+    private static final class Room {
+        final String name;
+        final GroupKeyring keys;
+        final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+        volatile Member[] members = NO_MEMBERS;
+
+        Room(String name) {
+            this.name = name;
+            this.keys = GroupKeyring.create(name);
+        }
+    }
+
+    private static final Room[] NO_ROOMS = new Room[0];
+    private static final Member[] NO_MEMBERS = new Member[0];
+
+    public ChatHub(PrintStream console) {
+        this(ChatEngine.server(), DEFAULT_MAX_LINE_LENGTH, DEFAULT_OUTBOUND_CAPACITY, console);
+    }
+
+    public ChatHub(ChatEngine engine, int maxLineLength, int outboundCapacity, PrintStream console) {
+        this.engine = engine.withMaxLineLength(maxLineLength).withSharedIdentity()
+            .withHandshakeTimeout(DEFAULT_HANDSHAKE_TIMEOUT_MS);
+        this.outboundCapacity = outboundCapacity;
+        this.console = console;
+    }
+
+    /**
+     * How to treat members whose backlog passes highWatermark, until it is back at lowWatermark
+     */
+    public ChatHub withSlowConsumerPolicy(SlowConsumerPolicy policy, long lowWatermark, long highWatermark) {
+        this.slowConsumerPolicy = policy;
+        this.lowWatermark = lowWatermark;
+        this.highWatermark = highWatermark;
+        return this;
+    }
+
+    /**
+     * Longest a lagging member may pause everybody (PAUSE) before it is disconnected
+     */
+    public ChatHub withPauseLimit(long millis) {
+        this.pauseLimitMillis = millis;
+        return this;
+    }
+
+    /**
+     * Cap the kernel send buffer of accepted sockets, so a stalled member shows up in its backlog after
+     * kilobytes rather than after the megabytes the kernel would otherwise buffer for it
+     */
+    public ChatHub withSendBufferSize(int bytes) {
+        this.sendBufferSize = bytes;
+        return this;
+    }
+
+    /**
+     * Run at most maxHandshakes handshakes at once with up to maxQueued connections waiting; reject the rest
+     */
+    public ChatHub withAdmission(int maxHandshakes, int maxQueued) {
+        this.maxHandshakes = maxHandshakes;
+        this.handshakeSlots = new Semaphore(maxHandshakes, true);
+        this.maxQueuedHandshakes = maxQueued;
+        return this;
+    }
+
+    /**
+     * Throttle what members send
+     */
+    public ChatHub withRateLimiter(RateLimiter rateLimiter) {
+        this.rateLimiter = rateLimiter;
+        engine.withRateLimiter(rateLimiter);
+        return this;
+    }
+
+    /**
+     * Rate limits from fleurdelyx.clientFrameRate/clientByteRate (per member) and hubFrameRate/hubByteRate
+     */
+    public static RateLimiter rateLimiter() {
+        return new RateLimiter(
+            new RateLimiter.Limits(Integer.getInteger("fleurdelyx.clientFrameRate", 100),
+                                   Integer.getInteger("fleurdelyx.clientByteRate", 1024 * 1024)),
+            new RateLimiter.Limits(Integer.getInteger("fleurdelyx.hubFrameRate", 20_000),
+                                   Integer.getInteger("fleurdelyx.hubByteRate", 64 * 1024 * 1024)));
+    }
+
+    /**
+     * Slow consumer policy from fleurdelyx.slowConsumer (disconnect, drop-bulk or pause)
+     */
+    public static SlowConsumerPolicy slowConsumerPolicy() {
+        String configured = System.getProperty("fleurdelyx.slowConsumer", "disconnect");
+        return SlowConsumerPolicy.valueOf(configured.toUpperCase(Locale.ROOT).replace('-', '_'));
+    }
+
+    public static void main(String[] args) throws Exception {
+        boolean nio = List.of(args).contains("--nio");
+        int port = args.length > 0 && !args[0].startsWith("--") ? Integer.parseInt(args[0]) : DEFAULT_PORT;
+        PrintStream console = HeadlessServer.takeConsole();
+
+        ChatEngine engine = ChatEngine.server();
+        NioTransport transport = null;
+        ServerSocket serverSocket;
+        if (nio) {
+            // Sockets accepted from a channel can be switched to non-blocking after the handshake
+            transport = new NioTransport(NioTransport.loopCount(), NioTransport.placement());
+            engine.withTransport(transport);
+            ServerSocketChannel serverChannel = ServerSocketChannel.open();
+            serverChannel.bind(new InetSocketAddress(port), DEFAULT_ACCEPT_BACKLOG);
+            serverSocket = serverChannel.socket();
+        } else {
+            serverSocket = new ServerSocket(port, DEFAULT_ACCEPT_BACKLOG);
+        }
+        try (serverSocket) {
+            ChatHub hub = new ChatHub(engine, DEFAULT_MAX_LINE_LENGTH, DEFAULT_OUTBOUND_CAPACITY, console)
+                .withSlowConsumerPolicy(slowConsumerPolicy(), DEFAULT_LOW_WATERMARK, DEFAULT_HIGH_WATERMARK)
+                .withSendBufferSize(Integer.getInteger("fleurdelyx.sendBuffer", 0))
+                .withRateLimiter(rateLimiter());
+            if (transport != null) {
+                hub.log("Hub listening on port " + port + " (NIO transport, " + transport.getLoopCount() + " shards, " +
+                    transport.getPlacement().name().toLowerCase() + " placement)");
+            } else {
+                hub.log("Hub listening on port " + port);
+            }
+            hub.logStatsPeriodically(transport, Integer.getInteger("fleurdelyx.statsInterval", 60));
+            hub.serve(serverSocket);
+        }
+    }
+
+    /**
+     * Accept clients until the server socket is closed; handshakes run in each client's own scope
+     *
+     * A connection that finds the handshake queue full is closed at once: the
+     * queue already holds more work than the slots finish in a handshake
+     * timeout, so it would only wait to fail.
+     */
+    public void serve(ServerSocket serverSocket) throws IOException {
+        Thread lagMonitor = Thread.ofVirtual().name("hub-lag-monitor").start(this::monitorLagging);
+        try {
+            while (!serverSocket.isClosed()) {
+                Socket socket;
+                try {
+                    socket = serverSocket.accept();
+                } catch (IOException e) {
+                    if (serverSocket.isClosed()) break;
+                    throw e;
+                }
+                if (handshakeSlots.availablePermits() == 0 && handshakesQueued.get() >= maxQueuedHandshakes) {
+                    reject(socket);
+                    continue;
+                }
+                handshakesQueued.incrementAndGet();
+                SessionScope scope = new SessionScope("hub-client");
+                scope.fork(() -> {
+                    boolean admitted = false;
+                    try {
+                        admitted = handshakeSlots.tryAcquire(DEFAULT_HANDSHAKE_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+                    } finally {
+                        handshakesQueued.decrementAndGet();
+                    }
+                    if (!admitted) {
+                        reject(socket);
+                        scope.cancel();
+                        return null;
+                    }
+                    try {
+                        if (sendBufferSize > 0) socket.setSendBufferSize(sendBufferSize);
+                        engine.accept(socket, scope, this);
+                    } catch (Exception e) {
+                        log("Handshake with " + socket.getInetAddress().getHostAddress() + " failed: " + e.getMessage());
+                        scope.cancel();
+                    } finally {
+                        handshakeSlots.release();
+                    }
+                    return null;
+                });
+            }
+        } finally {
+            lagMonitor.interrupt();
+        }
+    }
+
+    /**
+     * Close a connection before its handshake; counted, not logged one by one (a flood would flood the log)
+     */
+    private void reject(Socket socket) {
+        connectionsRejected.incrementAndGet();
+        try {
+            socket.close();
+        } catch (IOException e) {
+            // Ignore
+        }
+    }
+
+    public int getMemberCount() {
+        return members.size();
+    }
+
+    /**
+     * Connections closed before their handshake (queue full or no slot in time)
+     */
+    public long getConnectionsRejected() {
+        return connectionsRejected.get();
+    }
+
+    /**
+     * Accepted connections waiting for a handshake slot
+     */
+    public int getHandshakesQueued() {
+        return handshakesQueued.get();
+    }
+
+    /**
+     * Handshakes running right now
+     */
+    public int getHandshakesInProgress() {
+        return maxHandshakes - handshakeSlots.availablePermits();
+    }
+
+    public long getMessagesRouted() {
+        return messagesRouted.get();
+    }
+
+    public long getSlowMembersDropped() {
+        return slowMembersDropped.get();
+    }
+
+    /**
+     * Fresh group keys sent to every member (one per departure)
+     */
+    public long getGroupRekeys() {
+        return groupRekeys.get();
+    }
+
+    public String getGroupEpoch() {
+        return group.getEpoch();
+    }
+
+    /**
+     * Chat messages skipped for lagging members (DROP_BULK)
+     */
+    public long getFramesDropped() {
+        return framesDropped.get();
+    }
+
+    /**
+     * Times reading from all members was paused for a lagging one (PAUSE)
+     */
+    public long getIntakePauses() {
+        return intakePauses.get();
+    }
+
+    /**
+     * Outbound state of every member, lagging ones first
+     */
+    public List<MemberStats> getMemberStats() {
+        List<MemberStats> stats = new ArrayList<>();
+        for (Member member : members.values()) {
+            stats.add(member.stats());
+        }
+        stats.sort((a, b) -> Long.compare(b.laggingMillis(), a.laggingMillis()));
+        return stats;
+    }
+
+    /**
+     * Handshake queue, rejections and throttling, for the log
+     */
+    public String describeAdmission() {
+        String admission = getHandshakesInProgress() + " handshakes (" + getHandshakesQueued() + " queued), " +
+            getConnectionsRejected() + " rejected";
+        return rateLimiter == null ? admission : admission + ", throttled " + rateLimiter.getThrottled() + " times (" +
+            rateLimiter.getThrottledMillis() / 1000 + " s)";
+    }
+
+    /**
+     * One line naming the lagging members, for the log
+     */
+    public String describeLagging() {
+        StringBuilder sb = new StringBuilder();
+        for (MemberStats stats : getMemberStats()) {
+            if (!stats.isLagging()) break;
+            sb.append(sb.isEmpty() ? "" : ", ").append(String.format("%s (%d KB queued, %.1f s, %d dropped)",
+                stats.name(), stats.queuedBytes() / 1024, stats.laggingMillis() / 1000.0, stats.framesDropped()));
+        }
+        return sb.isEmpty() ? "nobody lagging" : "lagging: " + sb;
+    }
+
+    /**
+     * Disconnect every member
+     */
+    public void closeAll() {
+        for (Member member : List.copyOf(members.values())) {
+            leave(member, "hub shutting down");
+        }
+    }
+
+    @Override
+    public void onSessionReady(ChatSession session, network.Handshake.Result handshake) {
+        Member member = new Member("client-" + nextMemberId.getAndIncrement(), session);
+        groupLock.lock();
+        try {
+            if (session.isGroupKeyCapable()) {
+                // Newcomer gets the next key in the chain; the others derive it from the first frame that uses it
+                group.advance();
+                member.enqueue(Delivery.groupKey(group.getEpoch(), group.getKey()));
+            }
+            lagLock.lock();
+            try {
+                if (intakePaused) session.pauseReading(true);
+            } finally {
+                lagLock.unlock();
+            }
+            members.put(session, member);
+        } finally {
+            groupLock.unlock();
+        }
+        session.getScope().fork(member::drain);
+        log(member.name + " joined from " + session.getPeer() + " (" + members.size() + " online" +
+            (handshake.isResumed() ? ", resumed" : "") + ")");
+        broadcast(member, "*** " + member.name + " joined (" + members.size() + " online)");
+    }
+
+    /**
+     * Room commands (/join, /part, /rooms), #room messages to a room the sender is in, anything else to everyone
+     */
+    @Override
+    public void onMessage(ChatSession session, String text, boolean verified) {
+        Member from = members.get(session);
+        if (from == null) return;
+        if (!verified) {
+            log("Dropped unverified message from " + from.name);
+            return;
+        }
+        String[] words = text.strip().split("\\s+", 2);
+        String argument = words.length > 1 ? words[1].strip() : "";
+        switch (words[0]) {
+            case "/join" -> joinRoom(from, roomName(argument));
+            case "/part" -> partRoom(from, roomName(argument));
+            case "/rooms" -> notify(from, describeRooms(from));
+            default -> {
+                Room room = words[0].startsWith("#") ? rooms.get(words[0].substring(1)) : null;
+                if (room != null && from.isIn(room)) {
+                    if (argument.isEmpty()) return;
+                    roomBroadcast(from, room, "#" + room.name + " " + from.name + ": " + argument);
+                } else {
+                    broadcast(from, from.name + ": " + text);
+                }
+            }
+        }
+    }
+
+    /**
+     * Members cannot send files through the hub - say so, or the sender waits for an answer forever
+     */
+    @Override
+    public void onControlLine(ChatSession session, String line) {
+        FileTransfers.reject(session, line, "the hub does not relay files");
+    }
+
+    @Override
+    public void onWarning(ChatSession session, String message) {
+        Member member = members.get(session);
+        log((member != null ? member.name : session.getPeer()) + ": " + message);
+    }
+
+    @Override
+    public void onDisconnected(ChatSession session, Exception cause) {
+        Member member = members.get(session);
+        if (member != null) {
+            leave(member, cause != null ? cause.getMessage() : "disconnected");
+        }
+    }
+
+    /**
+     * Number of rooms with at least one member
+     */
+    public int getRoomCount() {
+        return rooms.size();
+    }
+
+    /**
+     * Members of a room, 0 if there is no such room
+     */
+    public int getRoomSize(String name) {
+        Room room = rooms.get(name);
+        return room != null ? room.members.length : 0;
+    }
+
+    public String getRoomEpoch(String name) {
+        Room room = rooms.get(name);
+        return room != null ? room.keys.getEpoch() : null;
+    }
+
+    private static String roomName(String argument) {
+        return argument.startsWith("#") ? argument.substring(1) : argument;
+    }
+
+    private void joinRoom(Member member, String name) {
+        if (!ROOM_NAME.matcher(name).matches()) {
+            notify(member, "*** Room names are 1-" + MAX_ROOM_NAME_LENGTH + " letters, digits, - or _");
+            return;
+        }
+        Room room;
+        int size;
+        groupLock.lock();
+        try {
+            if (!members.containsKey(member.session)) return;
+            room = rooms.get(name);
+            if (room != null && member.isIn(room)) return;
+            if (member.rooms.length >= MAX_ROOMS_PER_MEMBER) {
+                notify(member, "*** You are in " + MAX_ROOMS_PER_MEMBER + " rooms already");
+                return;
+            }
+            if (room == null) {
+                room = new Room(name);
+                rooms.put(name, room);
+            }
+            room.lock.writeLock().lock();
+            try {
+                if (member.session.isGroupKeyCapable()) {
+                    // Same as the hub-wide group: the newcomer is sent the next key in the room's chain
+                    room.keys.advance();
+                    member.enqueue(Delivery.groupKey(room.keys.getEpoch(), room.keys.getKey()));
+                }
+                room.members = append(room.members, member);
+                member.rooms = append(member.rooms, room);
+                size = room.members.length;
+            } finally {
+                room.lock.writeLock().unlock();
+            }
+        } finally {
+            groupLock.unlock();
+        }
+        roomBroadcast(null, room, "*** " + member.name + " joined #" + name + " (" + size + " in the room)");
+    }
+
+    private void partRoom(Member member, String name) {
+        Room room = rooms.get(name);
+        if (room == null || !member.isIn(room)) {
+            notify(member, "*** You are not in #" + name);
+            return;
+        }
+        int size;
+        groupLock.lock();
+        try {
+            size = removeFromRoom(member, room);
+        } finally {
+            groupLock.unlock();
+        }
+        notify(member, "*** You left #" + name);
+        if (size > 0) {
+            roomBroadcast(null, room, "*** " + member.name + " left #" + name + " (" + size + " in the room)");
+        }
+    }
+
+    /**
+     * Take a member out of a room; the rest get a fresh room key (caller holds the group lock)
+     *
+     * @return members left in the room
+     */
+    private int removeFromRoom(Member member, Room room) {
+        if (!member.isIn(room)) return room.members.length;
+        Map<Member, String> evicted = new LinkedHashMap<>();
+        int size;
+        room.lock.writeLock().lock();
+        try {
+            room.members = remove(room.members, member);
+            member.rooms = remove(member.rooms, room);
+            size = room.members.length;
+            if (size == 0) {
+                rooms.remove(room.name, room);
+            } else if (member.session.isGroupKeyCapable()) {
+                room.keys.renew();
+                Delivery key = Delivery.groupKey(room.keys.getEpoch(), room.keys.getKey());
+                for (Member other : room.members) {
+                    if (other.session.isGroupKeyCapable()) deliver(other, key, evicted);
+                }
+            }
+        } finally {
+            room.lock.writeLock().unlock();
+        }
+        evict(evicted);
+        return size;
+    }
+
+    /**
+     * Queue a message for the members of one room except the sender (null = from the hub)
+     *
+     * Only the room's members are visited, read from its member array without
+     * locking; whoever left since is skipped. Concurrent senders seal and fan
+     * out in parallel under the shared lock (members accept frames a little
+     * out of order, see GroupKeyring), and members that cannot keep up are
+     * dropped once it is released.
+     */
+    private void roomBroadcast(Member from, Room room, String text) {
+        Member[] recipients = room.members;
+        Map<Member, String> evicted = new LinkedHashMap<>();
+        room.lock.readLock().lock();
+        try {
+            Delivery sealed = null;
+            Delivery plain = null;
+            for (Member member : recipients) {
+                if (member == from || !member.isIn(room)) continue;
+                Delivery delivery;
+                if (member.session.isGroupKeyCapable()) {
+                    if (sealed == null) sealed = Delivery.frame(SharedFrame.of(room.keys.seal(text)));
+                    delivery = sealed;
+                } else {
+                    if (plain == null) plain = Delivery.message(text);
+                    delivery = plain;
+                }
+                if (deliver(member, delivery, evicted)) {
+                    messagesRouted.incrementAndGet();
+                }
+            }
+        } finally {
+            room.lock.readLock().unlock();
+        }
+        evict(evicted);
+    }
+
+    /**
+     * The member's rooms and how many rooms there are, as a notice
+     */
+    private String describeRooms(Member member) {
+        StringJoiner mine = new StringJoiner(", ");
+        for (Room room : member.rooms) {
+            mine.add("#" + room.name + " (" + room.members.length + ")");
+        }
+        return "*** " + (mine.length() == 0 ? "You are in no rooms" : "Your rooms: " + mine) + "; " +
+            rooms.size() + " rooms on this hub";
+    }
+
+    private void notify(Member member, String text) {
+        if (!member.enqueue(Delivery.notice(text))) {
+            log("Notice to " + member.name + " dropped: queue full");
+        }
+    }
+
+    private static <T> T[] append(T[] array, T element) {
+        T[] copy = Arrays.copyOf(array, array.length + 1);
+        copy[array.length] = element;
+        return copy;
+    }
+
+    private static <T> T[] remove(T[] array, T element) {
+        for (int i = 0; i < array.length; i++) {
+            if (array[i] != element) continue;
+            T[] copy = Arrays.copyOf(array, array.length - 1);
+            System.arraycopy(array, i + 1, copy, i, array.length - i - 1);
+            return copy;
+        }
+        return array;
+    }
+
+    /**
+     * Queue a message for every member except the sender (null = from the hub)
+     *
+     * Encrypted once for all group-key members; under the group lock, so every
+     * member receives group frames in sequence order and after its key.
+     * Members that cannot keep up are dropped after the loop: their departure
+     * rekeys the group, which must not happen halfway through one frame.
+     */
+    private void broadcast(Member from, String text) {
+        groupLock.lock();
+        try {
+            Map<Member, String> evicted = new LinkedHashMap<>();
+            Delivery sealed = null;
+            Delivery plain = null;
+            for (Member member : members.values()) {
+                if (member == from) continue;
+                Delivery delivery;
+                if (member.session.isGroupKeyCapable()) {
+                    // Sealed and encoded once; NIO connections queue views of the same bytes
+                    if (sealed == null) sealed = Delivery.frame(SharedFrame.of(group.seal(text)));
+                    delivery = sealed;
+                } else {
+                    if (plain == null) plain = Delivery.message(text);
+                    delivery = plain;
+                }
+                if (deliver(member, delivery, evicted)) {
+                    messagesRouted.incrementAndGet();
+                }
+            }
+            evict(evicted);
+        } finally {
+            groupLock.unlock();
+        }
+    }
+
+    /**
+     * Queue one delivery for a member, applying the slow consumer policy
+     * (caller holds the lock that orders these frames - the group's or a room's)
+     *
+     * @param evicted collects members to drop, with the reason, once the caller is done with the others
+     */
+    private boolean deliver(Member member, Delivery delivery, Map<Member, String> evicted) {
+        if (evicted.containsKey(member)) return false;
+        if (member.laggingSince != 0 || member.backlog() > highWatermark) {
+            lagLock.lock();
+            try {
+                if (member.laggingSince == 0 && member.backlog() > highWatermark) {
+                    startLagging(member);
+                }
+                if (member.laggingSince != 0) {
+                    if (slowConsumerPolicy == SlowConsumerPolicy.DISCONNECT) {
+                        evicted.put(member, "not keeping up (" + member.backlog() / 1024 + " KB queued)");
+                        return false;
+                    }
+                    if (slowConsumerPolicy == SlowConsumerPolicy.DROP_BULK && delivery.bulk()) {
+                        member.droppedWhileLagging++;
+                        member.framesDropped.incrementAndGet();
+                        framesDropped.incrementAndGet();
+                        return false;
+                    }
+                }
+            } finally {
+                lagLock.unlock();
+            }
+        }
+        if (member.enqueue(delivery)) return true;
+        evicted.put(member, "not keeping up (" + outboundCapacity + " messages queued)");
+        return false;
+    }
+
+    private void evict(Map<Member, String> evicted) {
+        for (Map.Entry<Member, String> entry : evicted.entrySet()) {
+            slowMembersDropped.incrementAndGet();
+            leave(entry.getKey(), entry.getValue());
+        }
+    }
+
+    // startLagging, stopLagging and pauseIntake run under lagLock
+
+    private void startLagging(Member member) {
+        member.laggingSince = System.currentTimeMillis();
+        lagging.add(member);
+        log(member.name + " is lagging (" + member.backlog() / 1024 + " KB queued, " +
+            slowConsumerPolicy.name().toLowerCase(Locale.ROOT).replace('_', '-') + ")");
+        if (slowConsumerPolicy == SlowConsumerPolicy.PAUSE && !intakePaused) {
+            pauseIntake(true);
+        }
+    }
+
+    private void stopLagging(Member member, boolean caughtUp) {
+        member.laggingSince = 0;
+        lagging.remove(member);
+        if (caughtUp) {
+            log(member.name + " caught up" +
+                (member.droppedWhileLagging > 0 ? " (" + member.droppedWhileLagging + " messages skipped)" : ""));
+            if (member.droppedWhileLagging > 0) {
+                member.enqueue(Delivery.notice("*** " + member.droppedWhileLagging +
+                    " messages were skipped while your connection was lagging"));
+            }
+        }
+        member.droppedWhileLagging = 0;
+        if (intakePaused && lagging.isEmpty()) {
+            pauseIntake(false);
+        }
+    }
+
+    /**
+     * Stop or resume reading from every member (PAUSE); their TCP windows slow the senders down meanwhile
+     */
+    private void pauseIntake(boolean paused) {
+        intakePaused = paused;
+        if (paused) intakePauses.incrementAndGet();
+        for (Member member : members.values()) {
+            member.session.pauseReading(paused);
+        }
+        log(paused ? "Paused reading from all members" : "Resumed reading");
+    }
+
+    /**
+     * Lagging members are checked a few times a second: back under the low watermark, or paused too long
+     */
+    private void monitorLagging() {
+        try {
+            while (true) {
+                Thread.sleep(LAG_CHECK_INTERVAL_MS);
+                List<Member> overdue = new ArrayList<>();
+                lagLock.lock();
+                try {
+                    for (Member member : List.copyOf(lagging)) {
+                        if (member.backlog() <= lowWatermark) {
+                            stopLagging(member, true);
+                        } else if (slowConsumerPolicy == SlowConsumerPolicy.PAUSE &&
+                                   System.currentTimeMillis() - member.laggingSince > pauseLimitMillis) {
+                            overdue.add(member);
+                        }
+                    }
+                } finally {
+                    lagLock.unlock();
+                }
+                for (Member member : overdue) {
+                    slowMembersDropped.incrementAndGet();
+                    leave(member, "lagging for more than " + pauseLimitMillis / 1000.0 + " s");
+                }
+            }
+        } catch (InterruptedException e) {
+            // Hub stopped
+        }
+    }
+
+    private void leave(Member member, String reason) {
+        groupLock.lock();
+        try {
+            if (members.remove(member.session) == null) return;
+            lagLock.lock();
+            try {
+                if (member.laggingSince != 0) stopLagging(member, false);
+            } finally {
+                lagLock.unlock();
+            }
+            for (Room room : member.rooms) {
+                removeFromRoom(member, room);
+            }
+            if (member.session.isGroupKeyCapable()) {
+                rekey();
+            }
+        } finally {
+            groupLock.unlock();
+        }
+        member.session.close();
+        member.session.getScope().cancel();
+        log(member.name + " left: " + reason + " (" + members.size() + " online)");
+        broadcast(null, "*** " + member.name + " left (" + members.size() + " online)");
+    }
+
+    /**
+     * Log routing totals, lagging members and the transport's per-shard load (NIO) every few seconds
+     */
+    private void logStatsPeriodically(NioTransport transport, int intervalSeconds) {
+        if (intervalSeconds <= 0) return;
+        Thread.ofVirtual().name("hub-stats").start(() -> {
+            try {
+                while (true) {
+                    Thread.sleep(intervalSeconds * 1000L);
+                    if (members.isEmpty() && connectionsRejected.get() == 0) continue;
+                    log("Routed " + messagesRouted.get() + " messages to " + members.size() + " members in " +
+                        rooms.size() + " rooms, " +
+                        describeLagging() + ", " + describeAdmission() +
+                        (transport != null ? "\n" + transport.describeStats() : ""));
+                }
+            } catch (InterruptedException e) {
+                // Stopped
+            }
+        });
+    }
+
+    /**
+     * Fresh group key for everyone still here (caller holds the group lock)
+     */
+    private void rekey() {
+        group.renew();
+        groupRekeys.incrementAndGet();
+        Delivery key = Delivery.groupKey(group.getEpoch(), group.getKey());
+        Map<Member, String> evicted = new LinkedHashMap<>();
+        for (Member member : members.values()) {
+            if (member.session.isGroupKeyCapable()) {
+                deliver(member, key, evicted);
+            }
+        }
+        evict(evicted);
+    }
+
+    private void log(String message) {
+        console.println("[" + LocalTime.now().format(TIME) + "] * " + message);
+    }
+}
@@ -0,0 +1,229 @@
+package core;
+
+import network.NioTransport;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalTime;
+import java.time.format.DateTimeFormatter;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Relay server that pairs clients and forwards their traffic without reading it
+ *
+ * Unlike ChatHub, the relay holds no keys. Each client sends one line,
+ * RELAY||token; two clients with the same token are paired and told which
+ * side of the handshake to play (PAIRED||server to the one that waited,
+ * PAIRED||client to the other). From then on the relay only moves bytes
+ * between the two sockets (RelayLink), and the clients run the normal
+ * handshake and chat protocol end to end through it: key agreement,
+ * identity pinning, MACs and file transfers all work as on a direct
+ * connection, and plaintext never exists on the relay.
+ *
+ * A client waits without a thread until its peer arrives. The waiting list
+ * is capped; a client that gives up while waiting is only noticed when it
+ * is paired, and its peer then sees the connection close.
+ *
+ * Run: java -cp target/classes core.ChatRelay [port]
+ * Clients: -Dfleurdelyx.relay=token on the GUI client, or ChatEngine.connectViaRelay()
+ */
+public class ChatRelay {
+
+    public static final int DEFAULT_PORT = 12347;
+    public static final int MAX_TOKEN_LENGTH = 128;
+    public static final int DEFAULT_MAX_WAITING = 10_000;
+    private static final int RENDEZVOUS_TIMEOUT_MS = 10_000;
+
+    private static final DateTimeFormatter TIME = DateTimeFormatter.ofPattern("HH:mm:ss");
+
+    private final NioTransport transport;
+    private final int maxWaiting;
+    private final PrintStream console;
+    private final Map<String, SocketChannel> waiting = new ConcurrentHashMap<>();
+    private final AtomicLong pairsOpened = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+
+    public ChatRelay(NioTransport transport, int maxWaiting, PrintStream console) {
+        this.transport = transport;
+        this.maxWaiting = maxWaiting;
+        this.console = console;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_PORT;
+        PrintStream console = HeadlessServer.takeConsole();
+        try (NioTransport transport = new NioTransport(NioTransport.loopCount(), NioTransport.placement());
+             ServerSocketChannel serverChannel = ServerSocketChannel.open()) {
+            serverChannel.bind(new InetSocketAddress(port));
+            ChatRelay relay = new ChatRelay(transport, DEFAULT_MAX_WAITING, console);
+            relay.log("Relay listening on port " + port + " (" + transport.getLoopCount() + " shards)");
+            relay.serve(serverChannel);
+        }
+    }
+
+    /**
+     * Client side of the rendezvous: send the token and wait for a peer
+     *
+     * @return true if this client plays the server side of the handshake
+     */
+    public static boolean rendezvous(Socket socket, String token) throws IOException {
+        checkToken(token);
+        OutputStream out = socket.getOutputStream();
+        out.write(("RELAY||" + token + "\n").getBytes(StandardCharsets.UTF_8));
+        out.flush();
+        String reply = readLine(socket.getInputStream());
+        if ("PAIRED||server".equals(reply)) return true;
+        if ("PAIRED||client".equals(reply)) return false;
+        throw new IOException(reply != null && reply.startsWith("RELAY_REJECTED||")
+            ? "Relay rejected: " + reply.substring("RELAY_REJECTED||".length())
+            : "Unexpected relay reply: " + reply);
+    }
+
+    /**
+     * Accept clients until the server channel is closed; each rendezvous runs on its own virtual thread
+     */
+    public void serve(ServerSocketChannel serverChannel) throws IOException {
+        while (serverChannel.isOpen()) {
+            SocketChannel channel;
+            try {
+                channel = serverChannel.accept();
+            } catch (IOException e) {
+                if (!serverChannel.isOpen()) break;
+                throw e;
+            }
+            Thread.ofVirtual().name("relay-rendezvous").start(() -> rendezvous(channel));
+        }
+        for (SocketChannel channel : List.copyOf(waiting.values())) {
+            closeQuietly(channel);
+        }
+    }
+
+    public int getWaitingCount() {
+        return waiting.size();
+    }
+
+    public int getLinkCount() {
+        return transport.getConnectionCount() / 2;
+    }
+
+    public long getPairsOpened() {
+        return pairsOpened.get();
+    }
+
+    public long getRejected() {
+        return rejected.get();
+    }
+
+    private void rendezvous(SocketChannel channel) {
+        String token;
+        try {
+            // Read unbuffered, byte by byte: nothing after the line may be consumed here
+            channel.socket().setSoTimeout(RENDEZVOUS_TIMEOUT_MS);
+            channel.socket().setTcpNoDelay(true);
+            String line = readLine(channel.socket().getInputStream());
+            channel.socket().setSoTimeout(0);
+            if (line == null || !line.startsWith("RELAY||")) throw new IOException("not a relay request");
+            token = line.substring("RELAY||".length());
+            checkToken(token);
+        } catch (IOException e) {
+            reject(channel, e.getMessage());
+            return;
+        }
+
+        while (true) {
+            SocketChannel partner = waiting.remove(token);
+            if (partner == null) {
+                if (waiting.size() >= maxWaiting) {
+                    reject(channel, "too many clients waiting");
+                    return;
+                }
+                if (waiting.putIfAbsent(token, channel) == null) return; // the peer will pick this one up
+                continue; // another client with the token arrived meanwhile
+            }
+            if (pair(partner, channel)) return;
+            // The waiting client was gone - this one waits instead
+        }
+    }
+
+    private boolean pair(SocketChannel waited, SocketChannel arrived) {
+        try {
+            send(waited, "PAIRED||server");
+        } catch (IOException e) {
+            closeQuietly(waited);
+            return false;
+        }
+        try {
+            send(arrived, "PAIRED||client");
+        } catch (IOException e) {
+            closeQuietly(waited);
+            closeQuietly(arrived);
+            return true;
+        }
+        transport.splice(waited, arrived);
+        pairsOpened.incrementAndGet();
+        log("Paired " + describe(waited) + " with " + describe(arrived) + " (" + getLinkCount() + " links, " +
+            waiting.size() + " waiting)");
+        return true;
+    }
+
+    private void reject(SocketChannel channel, String reason) {
+        rejected.incrementAndGet();
+        try {
+            send(channel, "RELAY_REJECTED||" + reason);
+        } catch (IOException e) {
+            // Gone already
+        }
+        closeQuietly(channel);
+    }
+
+    private static void checkToken(String token) throws IOException {
+        if (token.isEmpty() || token.length() > MAX_TOKEN_LENGTH || token.contains("|")) {
+            throw new IOException("invalid token");
+        }
+    }
+
+    private static void send(SocketChannel channel, String line) throws IOException {
+        channel.socket().getOutputStream().write((line + "\n").getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * One short line without reading past it (null at end of stream)
+     */
+    private static String readLine(InputStream in) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        int b;
+        while ((b = in.read()) != '\n') {
+            if (b < 0) return line.size() > 0 ? line.toString(StandardCharsets.UTF_8) : null;
+            if (line.size() > MAX_TOKEN_LENGTH + 32) throw new IOException("rendezvous line too long");
+            line.write(b);
+        }
+        return line.toString(StandardCharsets.UTF_8).strip();
+    }
+
+    private static String describe(SocketChannel channel) {
+        return channel.socket().getInetAddress().getHostAddress();
+    }
+
+    private static void closeQuietly(SocketChannel channel) {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            // Ignore
+        }
+    }
+
+    private void log(String message) {
+        console.println("[" + LocalTime.now().format(TIME) + "] * " + message);
+    }
+}
@@ -0,0 +1,438 @@
+package core;
+
+import crypto.*;
+import network.Handshake;
+import network.LineChannel;
+import network.OrderedPipeline;
+import network.SessionScope;
+import network.SharedFrame;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.util.Base64;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * One established chat connection, independent of any UI
+ *
+ * Owns everything that depends on the session key: text message framing
+ * (compression, encryption, session MAC or signatures, RSA transcript
+ * checkpoints), the receive pipeline and the resumption ticket. Lines it
+ * does not handle itself (file transfer, stripe offers) go to the listener.
+ * The transport underneath is a LineChannel - a blocking socket with a
+ * reader task, or a connection on an NIO event loop.
+ *
+ * Text frame: [ZMSG||SMSG||]encrypted + (||MAC||seq||mac  or  ||SIG||signature)
+ * Group key:  GROUP_KEY||epoch||encrypted key + the same trailer
+ * Group text: GMSG||... from a hub, sealed with the group key (GroupKeyring)
+ *             of the hub or of one of its rooms - one keyring per group
+ */
+public class ChatSession {
+
+    private final LineChannel channel;
+    private final boolean isServer;
+    private final String peer;
+    private final KeyPair identity;
+    private final SessionScope scope;
+    private final ChatSessionListener listener;
+
+    private final String sessionKey;
+    private final PublicKey peerPublicKey;
+    private final SessionCapabilities capabilities;
+    private final SignatureSuite signatureSuite;
+    private final PrivateKey signingKey;
+    private final PublicKey peerSigningKey;
+    private final SessionAuthenticator authenticator;      // null = signature on every message
+    private final StreamingCompressor compressor;          // null = per-message compression
+    private final ReentrantLock sendLock = new ReentrantLock(); // frames leave in MAC sequence and compression order
+    private final OrderedPipeline<ReceivedText> receivePipeline;
+    private final ReentrantLock pauseLock = new ReentrantLock();
+    private boolean pausedByOwner;                         // guarded by pauseLock
+    private boolean pipelineFull;                          // guarded by pauseLock
+    private final Map<String, GroupKeyring> groupKeys;     // by group name; null = no group messages negotiated
+    private final CompressionStats compressionStats = new CompressionStats();
+    private final AtomicInteger messagesSent = new AtomicInteger();
+    private final AtomicInteger messagesReceived = new AtomicInteger();
+
+    private volatile SessionTicket resumptionTicket; // client only, latest TICKET from the server
+    private volatile boolean closed;
+
+    /**
+     * Received text frame after the parallel stage (text still deflated for SMSG frames),
+     * or the outcome of a transcript checkpoint (checkpoint = true, verified = its result)
+     */
+    private record ReceivedText(String text, boolean streamed, String signature, Boolean verified, boolean checkpoint) {
+        ReceivedText(String text, boolean streamed, String signature, Boolean verified) {
+            this(text, streamed, signature, verified, false);
+        }
+    }
+
+    ChatSession(LineChannel channel, boolean isServer, String peer, KeyPair identity,
+                Handshake.Result handshake, SessionScope scope, ChatSessionListener listener) throws Exception {
+        this.channel = channel;
+        this.isServer = isServer;
+        this.peer = peer;
+        this.identity = identity;
+        this.scope = scope;
+        this.listener = listener;
+
+        this.sessionKey = handshake.getSessionKey();
+        this.peerPublicKey = handshake.getPeerPublicKey();
+        this.capabilities = handshake.getCapabilities();
+        this.signatureSuite = handshake.getSignatureSuite();
+        this.signingKey = handshake.getSigningKey();
+        this.peerSigningKey = handshake.getPeerSigningKey();
+        this.compressor = capabilities.supports(SessionCapabilities.STREAM_COMPRESSION) ? new StreamingCompressor() : null;
+        // Session MAC replaces per-message signatures when both sides support it
+        this.authenticator = capabilities.supports(SessionCapabilities.SESSION_MAC)
+            ? new SessionAuthenticator(sessionKey, isServer) : null;
+        this.groupKeys = capabilities.supports(SessionCapabilities.GROUP_KEYS) ? new ConcurrentHashMap<>() : null;
+        this.receivePipeline = OrderedPipeline.onSharedWorkers(this::deliverTextFrame,
+            e -> warn("Dropped unreadable message: " + e.getMessage()), this::pauseForPipeline);
+    }
+
+    /**
+     * Start reading from the peer
+     */
+    void start() {
+        channel.start(new LineChannel.Handler() {
+            @Override
+            public void onLine(String line) throws Exception {
+                handleLine(line);
+            }
+
+            @Override
+            public void onClosed(Exception cause) {
+                if (!closed) listener.onDisconnected(ChatSession.this, cause);
+            }
+        });
+    }
+
+    public boolean isServer() { return isServer; }
+    public String getPeer() { return peer; }
+    public String getSessionKey() { return sessionKey; }
+    public PublicKey getPublicKey() { return identity.getPublic(); }
+    public PrivateKey getPrivateKey() { return identity.getPrivate(); }
+    public PublicKey getPeerPublicKey() { return peerPublicKey; }
+    public SessionCapabilities getCapabilities() { return capabilities; }
+    public SignatureSuite getSignatureSuite() { return signatureSuite; }
+    public PrivateKey getSigningKey() { return signingKey; }
+    public PublicKey getPeerSigningKey() { return peerSigningKey; }
+    public SessionScope getScope() { return scope; }
+    public CompressionStats getCompressionStats() { return compressionStats; }
+    public int getMessagesSent() { return messagesSent.get(); }
+    public int getMessagesReceived() { return messagesReceived.get(); }
+    public boolean isStreamCompressed() { return compressor != null; }
+    public boolean isMacAuthenticated() { return authenticator != null; }
+    public boolean isGroupKeyCapable() { return groupKeys != null; }
+    public boolean isClosed() { return closed; }
+
+    /**
+     * Latest resumption ticket from the server (client side), null if none
+     */
+    public SessionTicket getResumptionTicket() {
+        return resumptionTicket;
+    }
+
+    /**
+     * Encrypt, authenticate and send a text message
+     */
+    public void sendMessage(String msg) throws Exception {
+        if (compressor != null) {
+            // Session compression stream: every message, dictionary shared with earlier ones
+            sendStreamedMessage(msg);
+        } else {
+            // Compress (long messages only), then encrypt
+            BlockCipher cipher = new BlockCipher(sessionKey);
+            String compressedMsg = CompressionStage.compressText(msg);
+            String encryptedMsg = cipher.encrypt(compressedMsg != null ? compressedMsg : msg);
+            if (compressedMsg != null) {
+                int rawLength = msg.getBytes(StandardCharsets.UTF_8).length;
+                compressionStats.record(rawLength, compressedMsg.length(), true);
+                System.out.println("[COMPRESSION] Message " + rawLength + " → " + compressedMsg.length() + " bytes (session: " + compressionStats + ")");
+            }
+            // ZMSG marks a deflated payload
+            sendAuthenticatedFrame((compressedMsg != null ? "ZMSG||" : "") + encryptedMsg, msg);
+        }
+        messagesSent.incrementAndGet();
+    }
+
+    /**
+     * Hand the peer a group key, encrypted and authenticated like a text message
+     */
+    public void sendGroupKey(String epoch, String groupKey) {
+        BlockCipher cipher = new BlockCipher(sessionKey);
+        sendAuthenticatedFrame("GROUP_KEY||" + epoch + "||" + cipher.encrypt(groupKey), epoch + "||" + groupKey);
+    }
+
+    /**
+     * Send a protocol line as is (file transfer, stripe offers)
+     */
+    public void sendLine(String line) {
+        channel.sendLine(line);
+    }
+
+    /**
+     * Send a line encoded once for many sessions (sealed group messages)
+     */
+    public void sendFrame(SharedFrame frame) {
+        channel.sendFrame(frame);
+    }
+
+    /**
+     * Bytes handed to the connection but not written to the socket yet
+     */
+    public long getQueuedBytes() {
+        return channel.getQueuedBytes();
+    }
+
+    /**
+     * Stop or resume reading from the peer (the hub slowing everybody down for a lagging member)
+     */
+    public void pauseReading(boolean paused) {
+        pauseLock.lock();
+        try {
+            pausedByOwner = paused;
+            channel.pauseReading(pausedByOwner || pipelineFull);
+        } finally {
+            pauseLock.unlock();
+        }
+    }
+
+    /**
+     * The receive pipeline is full (or has room again); reading stays paused while either side wants it
+     */
+    private void pauseForPipeline(boolean full) {
+        pauseLock.lock();
+        try {
+            pipelineFull = full;
+            channel.pauseReading(pausedByOwner || pipelineFull);
+        } finally {
+            pauseLock.unlock();
+        }
+    }
+
+    /**
+     * Close the connection; undelivered frames are dropped
+     */
+    public void close() {
+        closed = true;
+        receivePipeline.close();
+        channel.close();
+        if (compressor != null) compressor.close();
+    }
+
+    private void sendStreamedMessage(String msg) throws Exception {
+        byte[] raw = msg.getBytes(StandardCharsets.UTF_8);
+        BlockCipher cipher = new BlockCipher(sessionKey);
+        // Lock, not synchronized: a virtual thread blocked in the socket write would pin its carrier
+        sendLock.lock();
+        try {
+            byte[] frame = compressor.compressFrame(raw);
+            String encryptedMsg = cipher.encrypt(Base64.getEncoder().encodeToString(frame));
+            sendAuthenticatedFrame("SMSG||" + encryptedMsg, msg);
+            compressionStats.record(raw.length, frame.length, frame.length < raw.length);
+        } finally {
+            sendLock.unlock();
+        }
+        System.out.println("[COMPRESSION] Streamed message (session: " + compressionStats + ")");
+    }
+
+    private void sendAuthenticatedFrame(String body, String msg) {
+        if (authenticator == null) {
+            channel.sendLine(body + "||SIG||" + signatureSuite.sign(msg, signingKey));
+            return;
+        }
+        // Seal and send as one step: the peer rejects a sequence number that arrives out of order
+        sendLock.lock();
+        try {
+            channel.sendLine(authenticator.seal(body));
+            if (authenticator.checkpointDue()) {
+                channel.sendLine(authenticator.createCheckpoint(identity.getPrivate()));
+            }
+        } finally {
+            sendLock.unlock();
+        }
+    }
+
+    /**
+     * Lines handled by the listener rather than the session
+     */
+    static boolean isControlLine(String line) {
+        return line.startsWith("FILE_") || line.startsWith("STRIPES||");
+    }
+
+    /**
+     * One received line, in arrival order (on the transport's thread)
+     */
+    private void handleLine(String receivedLine) throws Exception {
+        if (isControlLine(receivedLine)) {
+            listener.onControlLine(this, receivedLine);
+            return;
+        } else if (receivedLine.startsWith("CHECKPOINT||")) {
+            handleTranscriptCheckpoint(receivedLine);
+            return;
+        } else if (receivedLine.startsWith("TICKET||")) {
+            resumptionTicket = SessionTicket.fromProtocolString(receivedLine, sessionKey, capabilities,
+                RSAUtil.publicKeyToString(peerPublicKey));
+            return;
+        } else if (receivedLine.startsWith(GroupKeyring.FRAME_PREFIX)) {
+            handleGroupFrame(receivedLine);
+            return;
+        }
+
+        // Regular text message: body||MAC||seq||mac (session MAC) or body||SIG||sig (signature suite)
+        String receivedSignature = null;
+        Boolean macVerified = null;
+        int macIndex = receivedLine.lastIndexOf(SessionAuthenticator.MAC_MARKER);
+        if (macIndex >= 0) {
+            // Encrypt-then-MAC: checked over the frame exactly as received, in arrival order
+            String body = receivedLine.substring(0, macIndex);
+            macVerified = authenticator != null && authenticator.verify(
+                body, receivedLine.substring(macIndex + SessionAuthenticator.MAC_MARKER.length()));
+            receivedLine = body;
+        } else {
+            String[] parts = receivedLine.split("\\|\\|SIG\\|\\|");
+            if (parts.length != 2) return;
+            receivedLine = parts[0];
+            receivedSignature = parts[1];
+        }
+        if (receivedLine.startsWith("GROUP_KEY||")) {
+            installGroupKey(receivedLine, macVerified, receivedSignature);
+            return;
+        }
+
+        // Decryption and signature checks run on the crypto workers, results come back in order
+        final String frame = receivedLine;
+        final String signature = receivedSignature;
+        final Boolean mac = macVerified;
+        receivePipeline.submit(() -> openTextFrame(frame, signature, mac));
+    }
+
+    /**
+     * Parallel stage: decrypt and, unless it waits for stream decompression, verify the signature
+     */
+    private ReceivedText openTextFrame(String frame, String signature, Boolean macVerified) throws Exception {
+        // ZMSG = deflated before encryption, SMSG = session compression stream
+        boolean compressedMsg = frame.startsWith("ZMSG||");
+        boolean streamedMsg = frame.startsWith("SMSG||");
+        if (compressedMsg || streamedMsg) {
+            frame = frame.substring("ZMSG||".length());
+        }
+
+        BlockCipher cipher = new BlockCipher(sessionKey);
+        String decryptedMsg = cipher.decrypt(frame);
+        if (compressedMsg) {
+            decryptedMsg = CompressionStage.decompressText(decryptedMsg);
+        }
+
+        // MAC frames were verified by the reader already
+        Boolean verified = macVerified;
+        if (verified == null && !streamedMsg) {
+            verified = signatureSuite.verify(decryptedMsg, signature, peerSigningKey);
+        }
+        return new ReceivedText(decryptedMsg, streamedMsg, signature, verified);
+    }
+
+    /**
+     * Ordered stage: stream decompression and delivery, one frame at a time in arrival order
+     */
+    private void deliverTextFrame(ReceivedText received) throws Exception {
+        if (received.checkpoint()) {
+            reportTranscriptCheckpoint(received.verified());
+            return;
+        }
+        String decryptedMsg = received.text();
+        if (received.streamed()) {
+            // Must run in arrival order - the stream dictionary depends on every earlier frame
+            decryptedMsg = inflateStreamedMessage(decryptedMsg);
+        }
+        boolean isAuthentic = received.verified() != null ? received.verified() : signatureSuite.verify(
+            decryptedMsg, received.signature(), peerSigningKey
+        );
+
+        messagesReceived.incrementAndGet();
+        listener.onMessage(this, decryptedMsg, isAuthentic);
+    }
+
+    private String inflateStreamedMessage(String frameBase64) throws Exception {
+        if (compressor == null) {
+            throw new IOException("Streamed message without negotiated stream compression");
+        }
+        byte[] frame = Base64.getDecoder().decode(frameBase64);
+        byte[] raw = compressor.decompressFrame(frame, CompressionStage.MAX_TEXT_SIZE);
+        compressionStats.record(raw.length, frame.length, frame.length < raw.length);
+        return new String(raw, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Group key from the hub; installed here, in arrival order, so the group frames after it can use it
+     */
+    private void installGroupKey(String frame, Boolean macVerified, String signature) {
+        String[] parts = frame.split("\\|\\|");
+        if (groupKeys == null || parts.length != 3) return;
+        String groupKey = new BlockCipher(sessionKey).decrypt(parts[2]);
+        boolean verified = macVerified != null ? macVerified
+            : signatureSuite.verify(parts[1] + "||" + groupKey, signature, peerSigningKey);
+        if (!verified) {
+            warn("Rejected unauthenticated group key");
+            return;
+        }
+        try {
+            GroupKeyring keyring = groupKeys.computeIfAbsent(GroupKeyring.groupOf(parts[1]), GroupKeyring::receiver);
+            keyring.install(parts[1], groupKey);
+            System.out.println("[GROUP] Installed group key " + parts[1]);
+        } catch (GeneralSecurityException e) {
+            warn(e.getMessage());
+        }
+    }
+
+    /**
+     * Group message: MAC and replay check here, decryption on the crypto workers like any text frame
+     */
+    private void handleGroupFrame(String frame) throws InterruptedException {
+        if (groupKeys == null) return;
+        try {
+            String group = GroupKeyring.groupOfFrame(frame);
+            GroupKeyring keyring = groupKeys.get(group);
+            if (keyring == null) throw new GeneralSecurityException("No key for group '" + group + "'");
+            GroupKeyring.Opened opened = keyring.open(frame);
+            receivePipeline.submit(() -> new ReceivedText(opened.decrypt(), false, null, true));
+        } catch (GeneralSecurityException e) {
+            warn("Dropped group message: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Transcript checkpoint: the expected transcript is taken here, in arrival order,
+     * the RSA signature is checked on the crypto workers
+     */
+    private void handleTranscriptCheckpoint(String message) throws InterruptedException {
+        if (authenticator == null) {
+            reportTranscriptCheckpoint(false);
+            return;
+        }
+        String expected = authenticator.receivedStatement();
+        receivePipeline.submit(() -> new ReceivedText(null, false, null,
+            SessionAuthenticator.verifyCheckpoint(message, expected, peerPublicKey), true));
+    }
+
+    private void reportTranscriptCheckpoint(boolean valid) {
+        System.out.println("[AUTH] Transcript checkpoint " + (valid ? "verified" : "FAILED"));
+        if (!valid) {
+            listener.onWarning(this, "Transcript checkpoint failed - messages may have been altered");
+        }
+    }
+
+    private void warn(String message) {
+        System.out.println("[RECEIVE] " + message);
+        listener.onWarning(this, message);
+    }
+}
@@ -0,0 +1,46 @@
+package core;
+
+import network.Handshake;
+
+import java.security.KeyPair;
+
+/**
+ * Callbacks from the chat engine (called on network threads, never on a UI thread)
+ */
+public interface ChatSessionListener {
+
+    /**
+     * RSA identity for the next connection (persistent = loaded from the keystore)
+     */
+    default void onIdentityLoaded(KeyPair identity, boolean persistent) {}
+
+    /**
+     * TCP connection is up, handshake not done yet
+     */
+    default void onConnected(String peer) {}
+
+    /**
+     * Handshake finished; the session can send. Called before the reader starts.
+     */
+    default void onSessionReady(ChatSession session, Handshake.Result handshake) {}
+
+    /**
+     * Decrypted text message, in arrival order
+     */
+    void onMessage(ChatSession session, String text, boolean verified);
+
+    /**
+     * Protocol line the engine does not handle itself (FILE_*, STRIPES - see FileTransfers)
+     */
+    default void onControlLine(ChatSession session, String line) {}
+
+    /**
+     * Something went wrong but the session continues (dropped frame, failed checkpoint)
+     */
+    default void onWarning(ChatSession session, String message) {}
+
+    /**
+     * Reader stopped; cause is null when the peer closed the connection cleanly
+     */
+    default void onDisconnected(ChatSession session, Exception cause) {}
+}
@@ -0,0 +1,34 @@
+package core;
+
+import crypto.FileMetadata;
+
+/**
+ * Callbacks from file transfers (called on network threads, never on a UI thread)
+ */
+public interface FileTransferListener {
+
+    /**
+     * Something worth showing in the chat: compression decision, resume, stripes
+     */
+    default void onTransferNotice(String message) {}
+
+    /**
+     * Progress of the running transfer, e.g. "Sending file: 40% (4/10)"
+     */
+    default void onTransferProgress(String status) {}
+
+    /**
+     * The peer stored and acknowledged a file we sent
+     */
+    default void onFileSent(FileMetadata metadata) {}
+
+    /**
+     * A file arrived and passed the signature and checksum checks (FileTransfers.saveReceivedFile copies it out)
+     */
+    void onFileReceived(FileMetadata metadata);
+
+    /**
+     * A send or receive failed or was declined by the peer; the session continues
+     */
+    default void onTransferFailed(String message) {}
+}
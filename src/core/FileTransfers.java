@@ -0,0 +1,829 @@
+package core;
+
+import crypto.*;
+import network.StripedChannel;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.IntConsumer;
+
+/**
+ * File transfers between the two ends of a chat connection, independent of any UI
+ *
+ * Handles the control lines a ChatSession passes to its listener. Three
+ * ways to move a file:
+ *   FILE_START / FILE_CHUNK / FILE_END     - in-memory transfer (receive only, older peers)
+ *   FILE_OFFER / FILE_RESUME / FILE_DATA   - checkpointed on disk, resumable, optionally
+ *                                            spread over data stripes (STRIPES)
+ *   FILE_MANIFEST / FILE_NEED / FILE_CDC   - content-defined chunks, only those missing
+ *                                            from the local chunk store are sent
+ * The sender ends with FILE_END||checksum||SIG||signature, the receiver
+ * acknowledges with FILE_DONE||checksum. FILE_REJECT||checksum||reason
+ * answers an offer the receiver will not take, or a resume request whose
+ * chunk ranges the sender cannot serve.
+ *
+ * Outgoing files, checkpoints on disk and manifests outlive a connection:
+ * attach() the next session and announceIncomplete() to continue where an
+ * interrupted transfer stopped.
+ */
+public class FileTransfers {
+
+    private final File transferDirectory;
+    private final File chunkDirectory;
+    private final FileTransferListener listener;
+    private volatile String stripeHost; // client: host the server's STRIPES offer points to
+
+    // Current connection
+    private volatile ChatSession session;
+    private volatile FileTransferHandler fileTransferHandler;
+    private final AtomicReference<StripedChannel> stripedChannel = new AtomicReference<>();
+
+    // In-memory transfers (by filename)
+    private final Map<String, List<EncryptedFileChunk>> incomingFileChunks = new ConcurrentHashMap<>();
+    private final Map<String, FileMetadata> incomingFileMetadata = new ConcurrentHashMap<>();
+    private final Map<String, byte[]> receivedFilesData = new ConcurrentHashMap<>();
+
+    // Resumable transfers (receiver checkpoints on disk, sender keeps files until FILE_DONE)
+    private final Map<String, TransferCheckpoint> incomingCheckpoints = new ConcurrentHashMap<>();
+    private final Map<String, File> outgoingFiles = new ConcurrentHashMap<>();
+    private final Map<String, FileMetadata> outgoingFileMetadata = new ConcurrentHashMap<>();
+    private final Map<String, File> receivedFilesOnDisk = new ConcurrentHashMap<>();
+    private final Map<String, String> pendingFileEnds = new ConcurrentHashMap<>(); // FILE_END that overtook striped chunks
+
+    // How long a parked FILE_END waits for striped chunks without progress before asking again
+    private static final int STRIPE_GRACE_MS = Integer.getInteger("fleurdelyx.stripeGraceMs", 5_000);
+
+    // Deduplicated transfers (content-defined chunks already in the local chunk store are skipped)
+    private volatile ChunkStore chunkStore;
+    private final Map<String, List<ContentDefinedChunker.Chunk>> incomingManifests = new ConcurrentHashMap<>();
+    private final Map<String, FileMetadata> incomingManifestMetadata = new ConcurrentHashMap<>();
+    private final Map<String, List<ContentDefinedChunker.Chunk>> outgoingManifests = new ConcurrentHashMap<>();
+    private final Map<String, CompressionStats> incomingCompressionStats = new ConcurrentHashMap<>();
+
+    /**
+     * @param transferDirectory Checkpoints and received files
+     * @param chunkDirectory    Chunk store for deduplicated transfers (created on first use)
+     */
+    public FileTransfers(File transferDirectory, File chunkDirectory, FileTransferListener listener) {
+        this.transferDirectory = transferDirectory;
+        this.chunkDirectory = chunkDirectory;
+        this.listener = listener;
+    }
+
+    /**
+     * Accept STRIPES offers by connecting to this host (the client; servers make the offers)
+     */
+    public FileTransfers withStripeHost(String host) {
+        this.stripeHost = host;
+        return this;
+    }
+
+    /**
+     * Use a new session (call from onSessionReady, before the reader starts)
+     */
+    public void attach(ChatSession session) {
+        this.fileTransferHandler = new FileTransferHandler(new BlockCipher(session.getSessionKey()));
+        this.session = session;
+    }
+
+    /**
+     * Drop the connection's stripes and checkpoints (reloaded by announceIncomplete after reconnect)
+     */
+    public void detach() {
+        StripedChannel stripes = stripedChannel.getAndSet(null);
+        if (stripes != null) stripes.close();
+        session = null;
+        incomingCheckpoints.values().forEach(TransferCheckpoint::close);
+        incomingCheckpoints.clear();
+        pendingFileEnds.clear();
+    }
+
+    /**
+     * Handle a control line from the session
+     *
+     * @return false if the line is not about file transfer
+     */
+    public boolean handle(String line) {
+        if (line.startsWith("FILE_START||")) {
+            handleFileStart(line);
+        } else if (line.startsWith("FILE_CHUNK||")) {
+            handleFileChunk(line);
+        } else if (line.startsWith("FILE_END||")) {
+            handleFileEnd(line);
+        } else if (line.startsWith("FILE_OFFER||")) {
+            handleFileOffer(line);
+        } else if (line.startsWith("FILE_RESUME||")) {
+            handleFileResume(line);
+        } else if (line.startsWith("FILE_DATA||")) {
+            handleFileData(line);
+        } else if (line.startsWith("FILE_DONE||")) {
+            handleFileDone(line);
+        } else if (line.startsWith("FILE_REJECT||")) {
+            handleFileReject(line);
+        } else if (line.startsWith("FILE_MANIFEST||")) {
+            handleFileManifest(line);
+        } else if (line.startsWith("FILE_NEED||")) {
+            handleFileNeed(line);
+        } else if (line.startsWith("FILE_CDC||")) {
+            handleDedupChunk(line);
+        } else if (line.startsWith("STRIPES||")) {
+            handleStripeOffer(line);
+        } else {
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Answer a file offer with FILE_REJECT, for peers that do not take files (a hub)
+     *
+     * @return true if the line was an offer and was answered
+     */
+    public static boolean reject(ChatSession session, String line, String reason) {
+        String metadata;
+        if (line.startsWith("FILE_OFFER||")) {
+            metadata = line.substring("FILE_OFFER||".length());
+        } else if (line.startsWith("FILE_MANIFEST||")) {
+            metadata = line.substring("FILE_MANIFEST||".length()).split("\\|\\|", 2)[0];
+        } else {
+            return false;
+        }
+        try {
+            session.sendLine("FILE_REJECT||" + FileMetadata.fromProtocolString(metadata).getChecksum() + "||" + reason);
+            return true;
+        } catch (IllegalArgumentException e) {
+            return false; // Malformed offer - there is no transfer to reject
+        }
+    }
+
+    /**
+     * Offer data stripes on the given socket (server side, after the handshake)
+     */
+    public void offerStripes(ServerSocket dataServer) {
+        int count = StripedChannel.configuredStripes();
+        ChatSession current = session;
+        if (count < 2 || current == null) return;
+
+        String nonce = StripedChannel.createNonce();
+        current.getScope().fork(() -> {
+            try {
+                useStripes(StripedChannel.accept(dataServer, count, current.getSessionKey(), nonce));
+            } catch (Exception e) {
+                listener.onTransferNotice("Striped transfer unavailable: " + e.getMessage());
+            }
+        });
+        current.sendLine("STRIPES||" + count + "||" + dataServer.getLocalPort() + "||" + nonce);
+    }
+
+    /**
+     * Handle STRIPES offer: open the extra data sockets and prove they belong to this session
+     */
+    private void handleStripeOffer(String message) {
+        String host = stripeHost;
+        ChatSession current = session;
+        if (host == null || current == null) return;
+        String[] parts = message.substring("STRIPES||".length()).split("\\|\\|", -1);
+        int count;
+        int dataPort;
+        try {
+            if (parts.length != 3 || parts[2].isEmpty()) throw new NumberFormatException();
+            count = Integer.parseInt(parts[0]);
+            dataPort = Integer.parseInt(parts[1]);
+        } catch (NumberFormatException e) {
+            listener.onTransferNotice("Ignoring malformed stripe offer");
+            return;
+        }
+        if (count < 1 || count > StripedChannel.MAX_STRIPES || dataPort < 1 || dataPort > 65535) {
+            listener.onTransferNotice("Ignoring stripe offer for " + count + " stripes on port " + dataPort);
+            return;
+        }
+        String nonce = parts[2];
+
+        current.getScope().fork(() -> {
+            try {
+                useStripes(StripedChannel.connect(host, dataPort, count, current.getSessionKey(), nonce));
+            } catch (Exception e) {
+                listener.onTransferNotice("Striped transfer unavailable: " + e.getMessage());
+            }
+        });
+    }
+
+    /**
+     * Start reading the new stripes; if one of them ends, drop them all and carry on without
+     */
+    private void useStripes(StripedChannel stripes) {
+        stripedChannel.set(stripes);
+        stripes.startReaders(this::handleFileData, () -> dropStripes(stripes));
+        listener.onTransferNotice(stripes.size() + " data stripes ready for large files");
+    }
+
+    /**
+     * Stop using the stripes (once, whoever notices first) and ask again, on the
+     * control connection, for chunks of files whose FILE_END is waiting on them
+     */
+    private void dropStripes(StripedChannel stripes) {
+        if (!stripedChannel.compareAndSet(stripes, null)) return;
+        stripes.close();
+        listener.onTransferNotice("Data stripes closed, continuing on the main connection");
+        for (Map.Entry<String, String> pending : pendingFileEnds.entrySet()) {
+            if (pendingFileEnds.remove(pending.getKey(), pending.getValue())) {
+                requestMissingChunks(pending.getKey());
+            }
+        }
+    }
+
+    /**
+     * Ask the sender again for the chunks a checkpoint still lacks
+     */
+    private void requestMissingChunks(String checksum) {
+        TransferCheckpoint checkpoint = incomingCheckpoints.get(checksum);
+        ChatSession current = session;
+        if (checkpoint != null && current != null) {
+            current.sendLine("FILE_RESUME||" + checksum + "||" + checkpoint.getMissingRanges());
+        }
+    }
+
+    /**
+     * Offer a file to the peer (resumable, or deduplicated with -Dfleurdelyx.transfer=dedup)
+     */
+    public void send(File file) {
+        ChatSession current = session;
+        listener.onTransferNotice("Sending file: " + file.getName());
+        current.getScope().fork(() -> {
+            try {
+                FileMetadata metadata = fileTransferHandler.prepareFileMetadata(file);
+                outgoingFiles.put(metadata.getChecksum(), file);
+                outgoingFileMetadata.put(metadata.getChecksum(), metadata);
+                listener.onTransferNotice("Compression: " + fileTransferHandler.getLastCompressionDecision());
+
+                if (FileTransferHandler.configuredTransferMode() == FileTransferHandler.TransferMode.DEDUP) {
+                    // Send the chunk hash list first; the receiver asks only for chunks it lacks
+                    List<ContentDefinedChunker.Chunk> chunks = ContentDefinedChunker.chunk(file);
+                    metadata.setTotalChunks(chunks.size());
+                    outgoingManifests.put(metadata.getChecksum(), chunks);
+                    current.sendLine("FILE_MANIFEST||" + metadata.toProtocolString() + "||" + ContentDefinedChunker.toManifest(chunks));
+                } else {
+                    current.sendLine("FILE_OFFER||" + metadata.toProtocolString());
+                }
+                listener.onTransferNotice("Metadata sent: " + metadata.getFormattedSize());
+            } catch (Exception e) {
+                e.printStackTrace();
+                listener.onTransferFailed("File send failed: " + e.getMessage());
+            }
+        });
+    }
+
+    /**
+     * Where a received file is kept until saved elsewhere (null for in-memory transfers)
+     */
+    public File getReceivedFile(FileMetadata metadata) {
+        return receivedFilesOnDisk.get(metadata.getFilename());
+    }
+
+    /**
+     * Copy a received file (held on disk or, for in-memory transfers, in memory) to where the user wants it
+     */
+    public void saveReceivedFile(FileMetadata metadata, File target) throws IOException {
+        byte[] fileData = receivedFilesData.get(metadata.getFilename());
+        File fileOnDisk = receivedFilesOnDisk.get(metadata.getFilename());
+        if (fileData != null) {
+            fileTransferHandler.saveFile(fileData, target);
+        } else if (fileOnDisk != null) {
+            fileTransferHandler.saveFile(fileOnDisk, target);
+        } else {
+            throw new IOException("File data not found. It may have been already downloaded or cleared.");
+        }
+    }
+
+    /**
+     * Handle FILE_RESUME: stream the missing chunk ranges, then FILE_END
+     */
+    private void handleFileResume(String message) {
+        String[] parts = message.substring("FILE_RESUME||".length()).split("\\|\\|", -1);
+        String checksum = parts[0];
+        File file = outgoingFiles.get(checksum);
+        FileMetadata metadata = outgoingFileMetadata.get(checksum);
+        if (file == null || metadata == null) {
+            // Sent before a restart, or already given up - let the receiver drop its checkpoint
+            System.out.println("Rejecting resume request for unknown transfer " + FileMetadata.abbreviate(checksum));
+            session.sendLine("FILE_REJECT||" + checksum + "||unknown transfer");
+            return;
+        }
+
+        BitSet missing;
+        try {
+            missing = TransferCheckpoint.decodeRanges(parts.length > 1 ? parts[1] : "", metadata.getTotalChunks());
+        } catch (IllegalArgumentException e) {
+            abandonOutgoing(checksum, "invalid resume request", e.getMessage());
+            return;
+        }
+
+        ChatSession current = session;
+        FileTransferHandler handler = fileTransferHandler;
+        current.getScope().fork(() -> {
+            try {
+                int alreadyThere = metadata.getTotalChunks() - missing.cardinality();
+                if (alreadyThere > 0) {
+                    listener.onTransferNotice("Resuming " + metadata.getFilename() +
+                        ": " + alreadyThere + "/" + metadata.getTotalChunks() + " chunks already delivered");
+                }
+
+                final int total = metadata.getTotalChunks();
+                final CompressionStats stats = metadata.isCompressed() ? new CompressionStats() : null;
+                IntConsumer onChunkSent = sent -> {
+                    int delivered = alreadyThere + sent;
+                    listener.onTransferProgress("Sending file: " + (delivered * 100 / total) + "% (" + delivered + "/" + total + ")");
+                };
+
+                StripedChannel stripes = stripedChannel.get();
+                if (stripes != null && StripedChannel.stripesFor(missing.cardinality(), stripes.size()) > 1) {
+                    // Large file: spread chunks over the data stripes, encrypting in parallel
+                    try {
+                        stripes.sendAll(missing, i -> "FILE_DATA||" + checksum + "||" +
+                            handler.encryptChunk(file, i, total, stats).toProtocolString(), onChunkSent);
+                    } catch (IOException e) {
+                        // A stripe broke - FILE_END below makes the receiver ask for what did not arrive
+                        dropStripes(stripes);
+                    }
+                } else {
+                    int sent = 0;
+                    for (int i = missing.nextSetBit(0); i >= 0; i = missing.nextSetBit(i + 1)) {
+                        EncryptedFileChunk chunk = handler.encryptChunk(file, i, total, stats);
+                        current.sendLine("FILE_DATA||" + checksum + "||" + chunk.toProtocolString());
+                        onChunkSent.accept(++sent);
+                    }
+                }
+                if (stats != null) {
+                    listener.onTransferNotice("Compressed " + metadata.getFilename() + ": " + stats);
+                }
+
+                String signature = current.getSignatureSuite().sign(checksum, current.getSigningKey());
+                current.sendLine("FILE_END||" + checksum + "||SIG||" + signature);
+            } catch (Exception e) {
+                e.printStackTrace();
+                listener.onTransferFailed("File send failed: " + e.getMessage());
+            }
+        });
+    }
+
+    /**
+     * Handle FILE_DONE: receiver has verified and stored the complete file
+     */
+    private void handleFileDone(String message) {
+        String checksum = message.substring("FILE_DONE||".length());
+        File file = outgoingFiles.remove(checksum);
+        FileMetadata metadata = outgoingFileMetadata.remove(checksum);
+        outgoingManifests.remove(checksum);
+        if (file != null && metadata != null) {
+            listener.onFileSent(metadata);
+        }
+    }
+
+    /**
+     * Give up on a file we were sending after a request we cannot serve, and tell the peer
+     */
+    private void abandonOutgoing(String checksum, String reason, String detail) {
+        FileMetadata metadata = outgoingFileMetadata.remove(checksum);
+        outgoingFiles.remove(checksum);
+        outgoingManifests.remove(checksum);
+        session.sendLine("FILE_REJECT||" + checksum + "||" + reason);
+        if (metadata != null) {
+            listener.onTransferFailed("Stopped sending " + metadata.getFilename() + ": " + reason + " - " + detail);
+        }
+    }
+
+    /**
+     * Handle FILE_REJECT: the peer will not take the file - stop waiting for it -
+     * or will not send the rest of one we are receiving - drop what we have of it
+     */
+    private void handleFileReject(String message) {
+        String[] parts = message.substring("FILE_REJECT||".length()).split("\\|\\|", 2);
+        String reason = parts.length > 1 ? ": " + parts[1] : "";
+        FileMetadata metadata = outgoingFileMetadata.remove(parts[0]);
+        outgoingFiles.remove(parts[0]);
+        outgoingManifests.remove(parts[0]);
+        if (metadata != null) {
+            listener.onTransferFailed("Peer declined " + metadata.getFilename() + reason);
+        }
+
+        TransferCheckpoint checkpoint = incomingCheckpoints.remove(parts[0]);
+        List<ContentDefinedChunker.Chunk> manifest = incomingManifests.remove(parts[0]);
+        FileMetadata incoming = checkpoint != null ? checkpoint.getMetadata() : incomingManifestMetadata.remove(parts[0]);
+        pendingFileEnds.remove(parts[0]);
+        incomingCompressionStats.remove(parts[0]);
+        try {
+            if (checkpoint != null) checkpoint.discard();
+        } catch (IOException e) {
+            System.out.println("Could not delete checkpoint " + FileMetadata.abbreviate(parts[0]) + ": " + e.getMessage());
+        }
+        if (incoming != null || manifest != null) {
+            listener.onTransferFailed("Sender dropped " + (incoming != null ? incoming.getFilename() : "a transfer") + reason);
+        }
+    }
+
+    /**
+     * Handle FILE_OFFER: open (or reopen) the on-disk checkpoint and ask for missing chunks
+     */
+    private void handleFileOffer(String message) {
+        try {
+            FileMetadata metadata = FileMetadata.fromProtocolString(message.substring("FILE_OFFER||".length()));
+            TransferCheckpoint checkpoint = incomingCheckpoints.get(metadata.getChecksum());
+            if (checkpoint == null) {
+                checkpoint = TransferCheckpoint.open(transferDirectory, metadata);
+                incomingCheckpoints.put(metadata.getChecksum(), checkpoint);
+            }
+
+            int alreadyThere = checkpoint.getCompletedCount();
+            listener.onTransferNotice("Receiving file: " + metadata.getFilename() + " (" + metadata.getFormattedSize() + ")" +
+                (alreadyThere > 0 ? " - resuming, " + alreadyThere + "/" + metadata.getTotalChunks() + " chunks on disk" : ""));
+
+            session.sendLine("FILE_RESUME||" + metadata.getChecksum() + "||" + checkpoint.getMissingRanges());
+        } catch (Exception e) {
+            e.printStackTrace();
+            listener.onTransferFailed("File receive error: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Handle FILE_DATA: decrypt a chunk and write it straight into the checkpoint
+     */
+    private void handleFileData(String message) {
+        try {
+            String[] parts = message.substring("FILE_DATA||".length()).split("\\|\\|", 2);
+            TransferCheckpoint checkpoint = incomingCheckpoints.get(parts[0]);
+            if (checkpoint == null) {
+                System.out.println("Dropping chunk for unknown transfer " + FileMetadata.abbreviate(parts[0]));
+                return;
+            }
+
+            EncryptedFileChunk chunk = EncryptedFileChunk.fromProtocolString(parts[1]);
+            byte[] chunkData = fileTransferHandler.decryptChunk(chunk, compressionStatsFor(checkpoint.getMetadata()));
+            checkpoint.writeChunk(chunk.getChunkIndex(), chunkData);
+            listener.onTransferProgress("Receiving file: " + checkpoint.getProgressPercentage() + "%");
+
+            // Striped chunks can arrive after FILE_END on the control connection
+            String pendingSignature = checkpoint.isComplete() ? pendingFileEnds.remove(parts[0]) : null;
+            if (pendingSignature != null) {
+                session.getScope().fork(() -> {
+                    try {
+                        finishResumableFile(parts[0], pendingSignature);
+                    } catch (Exception e) {
+                        e.printStackTrace();
+                        listener.onTransferFailed("File receive error: " + e.getMessage());
+                    }
+                });
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Finish a resumable transfer after FILE_END: verify signature and checksum, then acknowledge
+     */
+    private void finishResumableFile(String checksum, String signature) throws Exception {
+        TransferCheckpoint checkpoint = incomingCheckpoints.get(checksum);
+        FileMetadata metadata = checkpoint.getMetadata();
+
+        if (!session.getSignatureSuite().verify(checksum, signature, session.getPeerSigningKey())) {
+            listener.onTransferFailed("File signature verification failed!");
+            return;
+        }
+
+        if (!checkpoint.isComplete()) {
+            if (stripedChannel.get() == null) {
+                // Some chunks never arrived - ask again for what is still missing
+                requestMissingChunks(checksum);
+                return;
+            }
+
+            // Remaining chunks may still be in flight on the stripes - finish when they land.
+            // Re-check afterwards in case the last chunk landed in between.
+            pendingFileEnds.put(checksum, signature);
+            if (stripedChannel.get() == null && pendingFileEnds.remove(checksum, signature)) {
+                requestMissingChunks(checksum); // Stripes dropped while parking
+                return;
+            }
+            if (!checkpoint.isComplete() || pendingFileEnds.remove(checksum) == null) {
+                awaitStripedChunks(checksum, signature, checkpoint);
+                return;
+            }
+        }
+
+        if (!checkpoint.verifyChecksum()) {
+            incomingCheckpoints.remove(checksum);
+            checkpoint.discard();
+            throw new Exception("Checksum mismatch! File may be corrupted.");
+        }
+
+        File completedFile = checkpoint.complete();
+        incomingCheckpoints.remove(checksum);
+        onFileReceivedToDisk(metadata, completedFile);
+    }
+
+    /**
+     * Ask again for the missing chunks if a parked FILE_END sees no striped chunk land for STRIPE_GRACE_MS
+     */
+    private void awaitStripedChunks(String checksum, String signature, TransferCheckpoint checkpoint) {
+        session.getScope().fork(() -> {
+            int landed;
+            do {
+                landed = checkpoint.getCompletedCount();
+                Thread.sleep(STRIPE_GRACE_MS);
+                if (!pendingFileEnds.containsKey(checksum)) return null;
+            } while (checkpoint.getCompletedCount() > landed);
+
+            if (pendingFileEnds.remove(checksum, signature)) {
+                listener.onTransferNotice("Striped chunks stalled, asking again for the rest of " + checkpoint.getMetadata().getFilename());
+                requestMissingChunks(checksum);
+            }
+            return null;
+        });
+    }
+
+    /**
+     * Per-transfer compression counters, or null when the sender did not compress
+     */
+    private CompressionStats compressionStatsFor(FileMetadata metadata) {
+        if (metadata == null || !metadata.isCompressed()) {
+            return null;
+        }
+        return incomingCompressionStats.computeIfAbsent(metadata.getChecksum(), k -> new CompressionStats());
+    }
+
+    /**
+     * Acknowledge a file assembled on disk and hand it to the listener
+     */
+    private void onFileReceivedToDisk(FileMetadata metadata, File completedFile) {
+        receivedFilesOnDisk.put(metadata.getFilename(), completedFile);
+        session.sendLine("FILE_DONE||" + metadata.getChecksum());
+        CompressionStats stats = incomingCompressionStats.remove(metadata.getChecksum());
+        if (stats != null) {
+            listener.onTransferNotice("Decompressed " + metadata.getFilename() + ": " + stats);
+        }
+        listener.onFileReceived(metadata);
+    }
+
+    /**
+     * Handle FILE_MANIFEST: compare chunk hashes with the local chunk store and request only the missing ones
+     */
+    private void handleFileManifest(String message) {
+        try {
+            String[] parts = message.substring("FILE_MANIFEST||".length()).split("\\|\\|", 2);
+            FileMetadata metadata = FileMetadata.fromProtocolString(parts[0]);
+            List<ContentDefinedChunker.Chunk> chunks = ContentDefinedChunker.fromManifest(parts.length > 1 ? parts[1] : "");
+            if (chunkStore == null) {
+                chunkStore = new ChunkStore(chunkDirectory);
+            }
+
+            incomingManifests.put(metadata.getChecksum(), chunks);
+            incomingManifestMetadata.put(metadata.getChecksum(), metadata);
+
+            String needed = missingChunkRanges(chunks);
+            int neededCount = TransferCheckpoint.decodeRanges(needed, chunks.size()).cardinality();
+            listener.onTransferNotice("Receiving file: " + metadata.getFilename() + " (" + metadata.getFormattedSize() + ") - " +
+                neededCount + "/" + chunks.size() + " chunks needed, rest already on disk");
+
+            session.sendLine("FILE_NEED||" + metadata.getChecksum() + "||" + needed);
+        } catch (Exception e) {
+            e.printStackTrace();
+            listener.onTransferFailed("File receive error: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Chunk indexes whose hash is not in the chunk store (each distinct hash requested once)
+     */
+    private String missingChunkRanges(List<ContentDefinedChunker.Chunk> chunks) {
+        BitSet missing = new BitSet(chunks.size());
+        Set<String> requested = new HashSet<>();
+        for (int i = 0; i < chunks.size(); i++) {
+            String hash = chunks.get(i).getHash();
+            if (!chunkStore.has(hash) && requested.add(hash)) {
+                missing.set(i);
+            }
+        }
+        return TransferCheckpoint.encodeRanges(missing);
+    }
+
+    /**
+     * Handle FILE_NEED: send only the content-defined chunks the receiver lacks, then FILE_END
+     */
+    private void handleFileNeed(String message) {
+        String[] parts = message.substring("FILE_NEED||".length()).split("\\|\\|", -1);
+        String checksum = parts[0];
+        File file = outgoingFiles.get(checksum);
+        FileMetadata metadata = outgoingFileMetadata.get(checksum);
+        List<ContentDefinedChunker.Chunk> chunks = outgoingManifests.get(checksum);
+        if (file == null || metadata == null || chunks == null) {
+            System.out.println("Rejecting chunk request for unknown transfer " + FileMetadata.abbreviate(checksum));
+            session.sendLine("FILE_REJECT||" + checksum + "||unknown transfer");
+            return;
+        }
+
+        BitSet needed;
+        try {
+            needed = TransferCheckpoint.decodeRanges(parts.length > 1 ? parts[1] : "", chunks.size());
+        } catch (IllegalArgumentException e) {
+            abandonOutgoing(checksum, "invalid chunk request", e.getMessage());
+            return;
+        }
+
+        ChatSession current = session;
+        FileTransferHandler handler = fileTransferHandler;
+        current.getScope().fork(() -> {
+            try {
+                final int total = chunks.size();
+                final int neededCount = needed.cardinality();
+                final CompressionStats stats = metadata.isCompressed() ? new CompressionStats() : null;
+                long bytesSent = 0;
+                int sent = 0;
+
+                for (int i = needed.nextSetBit(0); i >= 0; i = needed.nextSetBit(i + 1)) {
+                    ContentDefinedChunker.Chunk chunk = chunks.get(i);
+                    EncryptedFileChunk encrypted = handler.encryptRange(file, chunk.getOffset(), chunk.getLength(), i, total, stats);
+                    current.sendLine("FILE_CDC||" + checksum + "||" + encrypted.toProtocolString());
+                    bytesSent += chunk.getLength();
+                    listener.onTransferProgress("Sending file: " + (++sent * 100 / neededCount) + "% of changed chunks");
+                }
+
+                long saved = metadata.getFileSize() - bytesSent;
+                listener.onTransferNotice("Deduplicated: sent " + neededCount + "/" + total + " chunks, " +
+                    FileMetadata.formatSize(saved) + " already at receiver" + (stats != null ? ", compressed " + stats : ""));
+
+                String signature = current.getSignatureSuite().sign(checksum, current.getSigningKey());
+                current.sendLine("FILE_END||" + checksum + "||SIG||" + signature);
+            } catch (Exception e) {
+                e.printStackTrace();
+                listener.onTransferFailed("File send failed: " + e.getMessage());
+            }
+        });
+    }
+
+    /**
+     * Handle FILE_CDC: decrypt a content-defined chunk and add it to the chunk store
+     */
+    private void handleDedupChunk(String message) {
+        try {
+            String[] parts = message.substring("FILE_CDC||".length()).split("\\|\\|", 2);
+            List<ContentDefinedChunker.Chunk> chunks = incomingManifests.get(parts[0]);
+            if (chunks == null) {
+                System.out.println("Dropping chunk for unknown transfer " + FileMetadata.abbreviate(parts[0]));
+                return;
+            }
+
+            EncryptedFileChunk chunk = EncryptedFileChunk.fromProtocolString(parts[1]);
+            if (chunk.getChunkIndex() < 0 || chunk.getChunkIndex() >= chunks.size()) {
+                throw new Exception("Chunk index out of range: " + chunk.getChunkIndex());
+            }
+
+            byte[] chunkData = fileTransferHandler.decryptChunk(chunk, compressionStatsFor(incomingManifestMetadata.get(parts[0])));
+            chunkStore.put(chunks.get(chunk.getChunkIndex()).getHash(), chunkData); // Verifies the hash
+            listener.onTransferProgress("Receiving file: " + chunk.getProgressPercentage() + "%");
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Finish a deduplicated transfer after FILE_END: assemble from the chunk store and verify
+     */
+    private void finishDedupFile(String checksum, String signature) throws Exception {
+        List<ContentDefinedChunker.Chunk> chunks = incomingManifests.get(checksum);
+        FileMetadata metadata = incomingManifestMetadata.get(checksum);
+
+        if (!session.getSignatureSuite().verify(checksum, signature, session.getPeerSigningKey())) {
+            listener.onTransferFailed("File signature verification failed!");
+            return;
+        }
+
+        String stillMissing = missingChunkRanges(chunks);
+        if (!stillMissing.isEmpty()) {
+            session.sendLine("FILE_NEED||" + checksum + "||" + stillMissing);
+            return;
+        }
+
+        if (!transferDirectory.exists() && !transferDirectory.mkdirs()) {
+            throw new IOException("Cannot create transfer directory: " + transferDirectory.getAbsolutePath());
+        }
+        File completedFile = new File(transferDirectory, checksum + ".done");
+        chunkStore.assemble(chunks, completedFile);
+        if (!FileTransferHandler.calculateChecksum(completedFile).equals(checksum)) {
+            Files.deleteIfExists(completedFile.toPath());
+            throw new Exception("Checksum mismatch! File may be corrupted.");
+        }
+
+        incomingManifests.remove(checksum);
+        incomingManifestMetadata.remove(checksum);
+        onFileReceivedToDisk(metadata, completedFile);
+    }
+
+    /**
+     * After (re)connecting, tell the peer which chunks of interrupted transfers are still missing
+     */
+    public void announceIncomplete() {
+        for (TransferCheckpoint checkpoint : TransferCheckpoint.loadIncomplete(transferDirectory)) {
+            FileMetadata metadata = checkpoint.getMetadata();
+            incomingCheckpoints.put(metadata.getChecksum(), checkpoint);
+            session.sendLine("FILE_RESUME||" + metadata.getChecksum() + "||" + checkpoint.getMissingRanges());
+            listener.onTransferNotice("Interrupted transfer found: " + metadata.getFilename() +
+                " (" + checkpoint.getProgressPercentage() + "% on disk) - requesting the rest");
+        }
+
+        // Deduplicated transfers keep their chunks in the chunk store - ask for whatever is still missing
+        for (String checksum : incomingManifests.keySet()) {
+            session.sendLine("FILE_NEED||" + checksum + "||" + missingChunkRanges(incomingManifests.get(checksum)));
+        }
+    }
+
+    /**
+     * Handle FILE_START: metadata of an in-memory transfer
+     */
+    private void handleFileStart(String message) {
+        try {
+            FileMetadata metadata = FileMetadata.fromProtocolString(message.substring("FILE_START||".length()));
+            incomingFileMetadata.put(metadata.getFilename(), metadata);
+            incomingFileChunks.put(metadata.getFilename(), new ArrayList<>());
+            listener.onTransferNotice("Receiving file: " + metadata.getFilename() + " (" + metadata.getFormattedSize() + ")");
+        } catch (Exception e) {
+            e.printStackTrace();
+            listener.onTransferFailed("File receive error: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Handle FILE_CHUNK: next chunk of an in-memory transfer
+     */
+    private void handleFileChunk(String message) {
+        try {
+            EncryptedFileChunk chunk = EncryptedFileChunk.fromProtocolString(message.substring("FILE_CHUNK||".length()));
+            for (FileMetadata metadata : incomingFileMetadata.values()) {
+                List<EncryptedFileChunk> chunks = incomingFileChunks.get(metadata.getFilename());
+                if (chunks != null && chunks.size() == chunk.getChunkIndex()) {
+                    chunks.add(chunk);
+                    listener.onTransferProgress("Receiving file: " + chunk.getProgressPercentage() + "%");
+                    break;
+                }
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Handle FILE_END: finish whichever kind of transfer the checksum belongs to
+     */
+    private void handleFileEnd(String message) {
+        session.getScope().fork(() -> {
+            try {
+                String[] parts = message.substring("FILE_END||".length()).split("\\|\\|SIG\\|\\|");
+                String checksum = parts[0];
+                String signature = parts[1];
+                if (incomingCheckpoints.containsKey(checksum)) {
+                    finishResumableFile(checksum, signature);
+                    return;
+                }
+                if (incomingManifests.containsKey(checksum)) {
+                    finishDedupFile(checksum, signature);
+                    return;
+                }
+
+                FileMetadata metadata = null;
+                for (FileMetadata meta : incomingFileMetadata.values()) {
+                    if (meta.getChecksum().equals(checksum)) {
+                        metadata = meta;
+                        break;
+                    }
+                }
+                if (metadata == null) {
+                    listener.onTransferFailed("File metadata not found");
+                    return;
+                }
+                if (!session.getSignatureSuite().verify(checksum, signature, session.getPeerSigningKey())) {
+                    listener.onTransferFailed("File signature verification failed!");
+                    return;
+                }
+
+                // Decrypt and reassemble, keep the data in memory for a later download
+                byte[] fileData = fileTransferHandler.receiveAndDecryptFile(metadata, incomingFileChunks.get(metadata.getFilename()));
+                receivedFilesData.put(metadata.getFilename(), fileData);
+                incomingFileMetadata.remove(metadata.getFilename());
+                incomingFileChunks.remove(metadata.getFilename());
+                listener.onFileReceived(metadata);
+            } catch (Exception e) {
+                e.printStackTrace();
+                listener.onTransferFailed("File receive error: " + e.getMessage());
+            }
+        });
+    }
+}
@@ -0,0 +1,167 @@
+package core;
+
+import crypto.ChunkStore;
+import crypto.FileMetadata;
+import crypto.TransferCheckpoint;
+import network.SessionScope;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.ServerSocket;
+import java.time.LocalTime;
+import java.time.format.DateTimeFormatter;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Chat server without JavaFX, for machines without a display
+ *
+ * Accepts one client at a time on the chat port (like the GUI server) and
+ * serves the next one after a disconnect. Received messages are printed
+ * to stdout; lines typed on stdin are sent to the connected client. With
+ * stdin closed (daemon) it just keeps serving and logging. Files the client
+ * sends are received like in the GUI and kept in ~/.fleurdelyx/transfers/headless.
+ *
+ * Run: java -cp target/classes core.HeadlessServer [port]
+ *      -Dfleurdelyx.verbose=true keeps the cipher's round-by-round log
+ */
+public final class HeadlessServer implements ChatSessionListener, FileTransferListener {
+
+    public static final int DEFAULT_PORT = 12345;
+
+    private static final DateTimeFormatter TIME = DateTimeFormatter.ofPattern("HH:mm:ss");
+
+    private final PrintStream console;
+    private final FileTransfers transfers;
+    private volatile ChatSession current;
+    private volatile CountDownLatch disconnected;
+
+    public HeadlessServer(PrintStream console) {
+        this.console = console;
+        // Created last: transfers report back through log(), which needs the console
+        this.transfers = new FileTransfers(new File(TransferCheckpoint.DEFAULT_DIRECTORY, "headless"),
+            new File(ChunkStore.DEFAULT_DIRECTORY, "headless"), this);
+    }
+
+    public static void main(String[] args) throws Exception {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_PORT;
+        new HeadlessServer(takeConsole()).serve(port);
+    }
+
+    /**
+     * Console stream for chat output; crypto classes trace to System.out, which is muted unless verbose
+     */
+    static PrintStream takeConsole() {
+        PrintStream console = System.out;
+        if (!Boolean.getBoolean("fleurdelyx.verbose")) {
+            System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        }
+        return console;
+    }
+
+    public void serve(int port) throws Exception {
+        ChatEngine engine = ChatEngine.server();
+        Thread.ofVirtual().name("headless-stdin").start(this::forwardStdin);
+
+        try (ServerSocket serverSocket = new ServerSocket(port)) {
+            log("Listening on port " + port);
+            while (true) {
+                disconnected = new CountDownLatch(1);
+                try (SessionScope scope = new SessionScope("headless-session")) {
+                    try {
+                        current = engine.accept(serverSocket, scope, this);
+                    } catch (Exception e) {
+                        log("Handshake failed: " + e.getMessage());
+                        continue;
+                    }
+                    transfers.announceIncomplete();
+                    disconnected.await();
+                    transfers.detach();
+                    current.close();
+                    current = null;
+                }
+            }
+        }
+    }
+
+    private void forwardStdin() {
+        try (BufferedReader stdin = new BufferedReader(new InputStreamReader(System.in))) {
+            String line;
+            while ((line = stdin.readLine()) != null) {
+                ChatSession session = current;
+                if (line.isBlank()) continue;
+                if (session == null) {
+                    log("No client connected");
+                    continue;
+                }
+                try {
+                    session.sendMessage(line);
+                } catch (Exception e) {
+                    log("Send failed: " + e.getMessage());
+                }
+            }
+        } catch (Exception e) {
+            // stdin gone - keep serving
+        }
+    }
+
+    @Override
+    public void onConnected(String peer) {
+        log("Client connected from " + peer);
+    }
+
+    @Override
+    public void onSessionReady(ChatSession session, network.Handshake.Result handshake) {
+        transfers.attach(session);
+        log("Secure channel established (" + (handshake.isResumed() ? "resumed" : session.getSignatureSuite().getId()) +
+            ", features: " + session.getCapabilities() + ")");
+        if (handshake.getPeerIdentityStatus() != null) {
+            log("Peer identity " + handshake.getPeerIdentityStatus());
+        }
+    }
+
+    @Override
+    public void onMessage(ChatSession session, String text, boolean verified) {
+        console.println("[" + LocalTime.now().format(TIME) + "] " + session.getPeer() + (verified ? "" : " (UNVERIFIED)") + ": " + text);
+    }
+
+    @Override
+    public void onControlLine(ChatSession session, String line) {
+        transfers.handle(line);
+    }
+
+    @Override
+    public void onTransferNotice(String message) {
+        log(message);
+    }
+
+    @Override
+    public void onFileReceived(FileMetadata metadata) {
+        File file = transfers.getReceivedFile(metadata);
+        log("File received: " + metadata.getFilename() + " (" + metadata.getFormattedSize() + ")" +
+            (file != null ? " -> " + file.getAbsolutePath() : ""));
+    }
+
+    @Override
+    public void onTransferFailed(String message) {
+        log("File transfer: " + message);
+    }
+
+    @Override
+    public void onWarning(ChatSession session, String message) {
+        log("Warning: " + message);
+    }
+
+    @Override
+    public void onDisconnected(ChatSession session, Exception cause) {
+        log("Client disconnected" + (cause != null ? ": " + cause.getMessage() : ""));
+        CountDownLatch latch = disconnected;
+        if (latch != null) latch.countDown();
+    }
+
+    private void log(String message) {
+        console.println("[" + LocalTime.now().format(TIME) + "] * " + message);
+    }
+}
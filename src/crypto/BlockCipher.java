@@ -13,11 +13,11 @@ public class BlockCipher {
     // Set to true to enable educational logging (optimized for performance)
     public static final boolean VERBOSE_LOGGING = true;  // Public so PerRoundLogic can access
     
-    // File transfer mode: minimal logging for performance
-    private static boolean fileTransferMode = false;
+    // File transfer mode: minimal logging for performance (per instance, see quiet())
+    private final boolean fileTransferMode;
     
     // Helper method for conditional logging
-    private static void log(String message) {
+    private void log(String message) {
         if (VERBOSE_LOGGING && !fileTransferMode) {
             System.out.println(message);
         }
@@ -29,20 +29,25 @@ public class BlockCipher {
             System.out.println(message);
         }
     }
-    
-    // Enable/disable file transfer mode
-    public static void setFileTransferMode(boolean enabled) {
-        fileTransferMode = enabled;
-        if (enabled) {
-            minimalLog("[PERFORMANCE MODE] Detailed encryption logs minimized for file transfer");
-        }
-    }
 
     public BlockCipher(String key128Bit) {
+        this(key128Bit, false);
+    }
+
+    private BlockCipher(String key128Bit, boolean fileTransferMode) {
         if (key128Bit == null || key128Bit.length() != 32) { // 32 hex chars = 128 bits
             throw new IllegalArgumentException("Key must be a 32-character hex string (128-bit).");
         }
         this.key128Bit = key128Bit;
+        this.fileTransferMode = fileTransferMode;
+    }
+
+    /**
+     * Same key, one log line per call instead of every round (file chunks, stripe tokens).
+     * Per instance, so concurrent chunk encryptions never switch each other's logging.
+     */
+    public BlockCipher quiet() {
+        return fileTransferMode ? this : new BlockCipher(key128Bit, true);
     }
 
     /**
@@ -0,0 +1,102 @@
+package crypto;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Local store of content-defined chunks, addressed by SHA-256
+ *
+ * Layout: <directory>/<first 2 hex chars>/<hash>
+ *
+ * The in-memory index is rebuilt from the directory on startup, so the
+ * receiver can answer "which of these chunks do you already hold?" without
+ * touching the disk for every hash.
+ */
+public class ChunkStore {
+
+    // Default location: ~/.fleurdelyx/chunks
+    public static final File DEFAULT_DIRECTORY =
+        new File(System.getProperty("user.home"), ".fleurdelyx" + File.separator + "chunks");
+
+    private final File directory;
+    private final Set<String> index = ConcurrentHashMap.newKeySet();
+
+    public ChunkStore(File directory) throws IOException {
+        this.directory = directory;
+        if (!directory.exists() && !directory.mkdirs()) {
+            throw new IOException("Cannot create chunk directory: " + directory.getAbsolutePath());
+        }
+
+        File[] shards = directory.listFiles(File::isDirectory);
+        if (shards != null) {
+            for (File shard : shards) {
+                String[] names = shard.list();
+                if (names == null) continue;
+                for (String name : names) {
+                    if (!name.endsWith(".tmp")) index.add(name);
+                }
+            }
+        }
+        System.out.println("Chunk store: " + index.size() + " chunks indexed in " + directory.getAbsolutePath());
+    }
+
+    public boolean has(String hash) {
+        return index.contains(hash);
+    }
+
+    public int size() {
+        return index.size();
+    }
+
+    /**
+     * Store a chunk after checking that its content matches the hash
+     */
+    public void put(String hash, byte[] data) throws IOException {
+        if (!ContentDefinedChunker.hash(data).equals(hash)) {
+            throw new IOException("Chunk content does not match hash " + hash.substring(0, 16) + "...");
+        }
+        if (index.contains(hash)) {
+            return;
+        }
+
+        File target = fileFor(hash);
+        File parent = target.getParentFile();
+        if (!parent.exists() && !parent.mkdirs()) {
+            throw new IOException("Cannot create chunk directory: " + parent.getAbsolutePath());
+        }
+
+        // Write-then-rename so a crash never leaves a truncated chunk in the index
+        // (unique temp name: concurrent writers of the same chunk never share one)
+        Path temp = Files.createTempFile(parent.toPath(), hash, ".tmp");
+        try {
+            Files.write(temp, data);
+            Files.move(temp, target.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+        index.add(hash);
+    }
+
+    public byte[] get(String hash) throws IOException {
+        return Files.readAllBytes(fileFor(hash).toPath());
+    }
+
+    /**
+     * Write the chunks of a manifest, in order, into the output file
+     */
+    public void assemble(List<ContentDefinedChunker.Chunk> chunks, File output) throws IOException {
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(output), 256 * 1024)) {
+            for (ContentDefinedChunker.Chunk chunk : chunks) {
+                out.write(get(chunk.getHash()));
+            }
+        }
+    }
+
+    private File fileFor(String hash) {
+        return new File(new File(directory, hash.substring(0, 2)), hash);
+    }
+}
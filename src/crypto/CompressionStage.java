@@ -0,0 +1,180 @@
+package crypto;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Optional compression applied before BlockCipher.encrypt
+ *
+ * Ciphertext is incompressible, so this is the only place compression can
+ * help. Already-compressed content (images, video, archives, Office XML)
+ * is skipped by MIME type, and anything else is sampled: if the first 4KB
+ * look random (high Shannon entropy) Deflate would only burn CPU.
+ */
+public class CompressionStage {
+
+    public static final String DEFLATE = "deflate";
+    public static final String NONE = "none";
+
+    // Bytes inspected for the entropy estimate
+    public static final int SAMPLE_SIZE = 4096;
+
+    // Above ~7.5 bits/byte the data is effectively random already
+    public static final double MAX_ENTROPY_BITS = 7.5;
+
+    // Shorter text messages don't win anything after Base64 + Deflate overhead
+    public static final int MIN_TEXT_LENGTH = 64;
+
+    // Upper bound for a decompressed text message (guards against zip bombs)
+    public static final int MAX_TEXT_SIZE = 1024 * 1024;
+
+    /**
+     * Compression decision with the reason, for the transfer stats
+     */
+    public static class Decision {
+        private final boolean compress;
+        private final String reason;
+
+        public Decision(boolean compress, String reason) {
+            this.compress = compress;
+            this.reason = reason;
+        }
+
+        public boolean shouldCompress() {
+            return compress;
+        }
+
+        public String getAlgorithm() {
+            return compress ? DEFLATE : NONE;
+        }
+
+        public String getReason() {
+            return reason;
+        }
+
+        @Override
+        public String toString() {
+            return getAlgorithm() + " (" + reason + ")";
+        }
+    }
+
+    /**
+     * Decide whether a file is worth compressing from its MIME type and a content sample
+     */
+    public static Decision decide(String mimeType, byte[] sample, int sampleLength) {
+        if (isPrecompressedType(mimeType)) {
+            return new Decision(false, mimeType + " is already compressed");
+        }
+        if (sampleLength == 0) {
+            return new Decision(false, "empty file");
+        }
+
+        double entropy = sampleEntropy(sample, 0, sampleLength);
+        String entropyText = String.format("entropy %.2f bits/byte", entropy);
+        if (entropy > MAX_ENTROPY_BITS) {
+            return new Decision(false, entropyText + ", looks random");
+        }
+        return new Decision(true, mimeType + ", " + entropyText);
+    }
+
+    /**
+     * MIME types whose content is already compressed
+     */
+    public static boolean isPrecompressedType(String mimeType) {
+        if (mimeType == null) return false;
+        if (mimeType.startsWith("video/")) return true;
+        if (mimeType.startsWith("image/")) return !mimeType.equals("image/bmp");
+        if (mimeType.startsWith("audio/")) return !mimeType.equals("audio/wav");
+        return mimeType.contains("zip")
+            || mimeType.contains("rar")
+            || mimeType.contains("7z")
+            || mimeType.contains("openxmlformats") // docx/xlsx/pptx are zip containers
+            || mimeType.equals("application/pdf");
+    }
+
+    /**
+     * Shannon entropy of a byte range in bits per byte (0 = constant, 8 = random)
+     */
+    public static double sampleEntropy(byte[] data, int offset, int length) {
+        int[] counts = new int[256];
+        for (int i = offset; i < offset + length; i++) {
+            counts[data[i] & 0xFF]++;
+        }
+
+        double entropy = 0;
+        for (int count : counts) {
+            if (count == 0) continue;
+            double p = (double) count / length;
+            entropy -= p * (Math.log(p) / Math.log(2));
+        }
+        return entropy;
+    }
+
+    /**
+     * Deflate with the fastest level (compression must not become the bottleneck)
+     */
+    public static byte[] compress(byte[] data) {
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try {
+            deflater.setInput(data);
+            deflater.finish();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(64, data.length / 2));
+            byte[] buffer = new byte[8192];
+            while (!deflater.finished()) {
+                int count = deflater.deflate(buffer);
+                out.write(buffer, 0, count);
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /**
+     * Inflate, refusing to produce more than maxSize bytes
+     */
+    public static byte[] decompress(byte[] data, int maxSize) throws DataFormatException {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(data);
+            ByteArrayOutputStream out = new ByteArrayOutputStream(Math.min(maxSize, data.length * 4));
+            byte[] buffer = new byte[8192];
+            while (!inflater.finished()) {
+                int count = inflater.inflate(buffer);
+                if (count == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new DataFormatException("Truncated compressed data");
+                }
+                if (out.size() + count > maxSize) {
+                    throw new DataFormatException("Decompressed data exceeds " + maxSize + " bytes");
+                }
+                out.write(buffer, 0, count);
+            }
+            return out.toByteArray();
+        } finally {
+            inflater.end();
+        }
+    }
+
+    /**
+     * Compress a chat message for the text path
+     *
+     * @return Base64 of the deflated UTF-8 bytes, or null if compression doesn't pay off
+     */
+    public static String compressText(String message) {
+        byte[] raw = message.getBytes(StandardCharsets.UTF_8);
+        if (raw.length < MIN_TEXT_LENGTH) {
+            return null;
+        }
+        String compressed = Base64.getEncoder().encodeToString(compress(raw));
+        return compressed.length() < raw.length ? compressed : null;
+    }
+
+    public static String decompressText(String compressedBase64) throws DataFormatException {
+        byte[] raw = decompress(Base64.getDecoder().decode(compressedBase64), MAX_TEXT_SIZE);
+        return new String(raw, StandardCharsets.UTF_8);
+    }
+}
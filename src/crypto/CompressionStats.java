@@ -0,0 +1,57 @@
+package crypto;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Byte counters for the compression stage (thread-safe)
+ *
+ * rawBytes  - payload size before compression
+ * sentBytes - payload size handed to the cipher (compressed, or raw if skipped)
+ */
+public class CompressionStats {
+    private final AtomicLong rawBytes = new AtomicLong();
+    private final AtomicLong sentBytes = new AtomicLong();
+    private final AtomicLong compressedFrames = new AtomicLong();
+    private final AtomicLong skippedFrames = new AtomicLong();
+
+    public void record(long raw, long sent, boolean compressed) {
+        rawBytes.addAndGet(raw);
+        sentBytes.addAndGet(sent);
+        (compressed ? compressedFrames : skippedFrames).incrementAndGet();
+    }
+
+    public long getRawBytes() {
+        return rawBytes.get();
+    }
+
+    public long getSentBytes() {
+        return sentBytes.get();
+    }
+
+    public long getSavedBytes() {
+        return rawBytes.get() - sentBytes.get();
+    }
+
+    public long getCompressedFrames() {
+        return compressedFrames.get();
+    }
+
+    public long getSkippedFrames() {
+        return skippedFrames.get();
+    }
+
+    /**
+     * Compression ratio (raw / sent), 1.0 when nothing was saved
+     */
+    public double getRatio() {
+        long sent = sentBytes.get();
+        return sent == 0 ? 1.0 : (double) rawBytes.get() / sent;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s → %s (%.1fx, %d compressed / %d stored raw)",
+            FileMetadata.formatSize(getRawBytes()), FileMetadata.formatSize(getSentBytes()),
+            getRatio(), getCompressedFrames(), getSkippedFrames());
+    }
+}
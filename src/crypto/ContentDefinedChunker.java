@@ -0,0 +1,168 @@
+package crypto;
+
+import java.io.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Content-defined chunking (CDC) using a Gear rolling hash
+ *
+ * Boundaries are placed where the rolling hash of the last bytes matches a
+ * mask, so they depend on content rather than position. Inserting or
+ * editing bytes only changes the chunks around the edit; every other chunk
+ * keeps its hash and does not have to be sent again.
+ *
+ * Chunk sizes: min 16KB, average ~64KB, max 256KB.
+ */
+public class ContentDefinedChunker {
+
+    public static final int MIN_CHUNK_SIZE = 16 * 1024;
+    public static final int MAX_CHUNK_SIZE = 256 * 1024;
+    private static final long BOUNDARY_MASK = (1L << 16) - 1; // ~64KB average after MIN
+
+    // Gear table - fixed seed so both peers cut at the same boundaries
+    private static final long[] GEAR = new long[256];
+    static {
+        Random random = new Random(0x466C6575726465L);
+        for (int i = 0; i < GEAR.length; i++) {
+            GEAR[i] = random.nextLong();
+        }
+    }
+
+    /**
+     * One content-defined chunk of a file
+     */
+    public static class Chunk {
+        private final long offset;
+        private final int length;
+        private final String hash; // SHA-256 hex
+
+        public Chunk(long offset, int length, String hash) {
+            this.offset = offset;
+            this.length = length;
+            this.hash = hash;
+        }
+
+        public long getOffset() {
+            return offset;
+        }
+
+        public int getLength() {
+            return length;
+        }
+
+        public String getHash() {
+            return hash;
+        }
+    }
+
+    /**
+     * Split a file into content-defined chunks (streamed, constant memory)
+     */
+    public static List<Chunk> chunk(File file) throws IOException {
+        List<Chunk> chunks = new ArrayList<>();
+        MessageDigest digest = newDigest();
+
+        try (InputStream input = new FileInputStream(file)) {
+            byte[] buffer = new byte[256 * 1024];
+            long chunkStart = 0;
+            long position = 0;
+            int length = 0;
+            long hash = 0;
+            int read;
+
+            while ((read = input.read(buffer)) != -1) {
+                int segmentStart = 0; // Part of the buffer not yet fed to the digest
+                for (int i = 0; i < read; i++) {
+                    position++;
+                    length++;
+                    hash = (hash << 1) + GEAR[buffer[i] & 0xFF];
+
+                    boolean boundary = length >= MIN_CHUNK_SIZE && (hash & BOUNDARY_MASK) == 0;
+                    if (boundary || length >= MAX_CHUNK_SIZE) {
+                        digest.update(buffer, segmentStart, i + 1 - segmentStart);
+                        chunks.add(new Chunk(chunkStart, length, toHex(digest.digest())));
+                        segmentStart = i + 1;
+                        chunkStart = position;
+                        length = 0;
+                        hash = 0;
+                    }
+                }
+                digest.update(buffer, segmentStart, read - segmentStart);
+            }
+
+            if (length > 0) {
+                chunks.add(new Chunk(chunkStart, length, toHex(digest.digest())));
+            }
+        }
+        return chunks;
+    }
+
+    /**
+     * Manifest protocol format: hash:length,hash:length,...
+     */
+    public static String toManifest(List<Chunk> chunks) {
+        StringBuilder sb = new StringBuilder();
+        for (Chunk chunk : chunks) {
+            if (sb.length() > 0) sb.append(',');
+            sb.append(chunk.getHash()).append(':').append(chunk.getLength());
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Parse a manifest; offsets are rebuilt from the running length sum
+     */
+    public static List<Chunk> fromManifest(String manifest) {
+        List<Chunk> chunks = new ArrayList<>();
+        if (manifest == null || manifest.isEmpty()) {
+            return chunks;
+        }
+
+        long offset = 0;
+        for (String entry : manifest.split(",")) {
+            String[] parts = entry.split(":");
+            if (parts.length != 2) {
+                throw new IllegalArgumentException("Invalid manifest entry: " + entry);
+            }
+            if (!parts[0].matches("[0-9a-f]{64}")) {
+                throw new IllegalArgumentException("Invalid chunk hash in manifest: " + parts[0]);
+            }
+            int length = Integer.parseInt(parts[1]);
+            if (length <= 0 || length > MAX_CHUNK_SIZE) {
+                throw new IllegalArgumentException("Invalid chunk length in manifest: " + length);
+            }
+            chunks.add(new Chunk(offset, length, parts[0]));
+            offset += length;
+        }
+        return chunks;
+    }
+
+    /**
+     * SHA-256 hex of a chunk's bytes
+     */
+    public static String hash(byte[] data) {
+        return toHex(newDigest().digest(data));
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException("SHA-256 algorithm not available", e);
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder hexString = new StringBuilder();
+        for (byte b : bytes) {
+            String hex = Integer.toHexString(0xff & b);
+            if (hex.length() == 1) hexString.append('0');
+            hexString.append(hex);
+        }
+        return hexString.toString();
+    }
+}
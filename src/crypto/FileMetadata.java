@@ -1,6 +1,7 @@
 package crypto;
 
 import java.io.Serializable;
+import java.util.regex.Pattern;
 
 /**
  * File metadata for encrypted file transfers
@@ -9,11 +10,15 @@ import java.io.Serializable;
 public class FileMetadata implements Serializable {
     private static final long serialVersionUID = 1L;
     
+    // Lowercase hex SHA-256, as produced by FileTransferHandler.calculateChecksum
+    private static final Pattern CHECKSUM_FORMAT = Pattern.compile("[0-9a-f]{64}");
+    
     private String filename;
     private long fileSize;        // Total file size in bytes
     private String mimeType;      // e.g., "image/jpeg", "application/pdf"
     private int totalChunks;      // Number of chunks
     private String checksum;      // SHA-256 checksum for integrity verification
+    private String compression = CompressionStage.NONE; // Compression applied to each chunk before encryption
     
     public FileMetadata() {}
     
@@ -66,6 +71,18 @@ public class FileMetadata implements Serializable {
         this.checksum = checksum;
     }
     
+    public String getCompression() {
+        return compression;
+    }
+    
+    public void setCompression(String compression) {
+        this.compression = compression;
+    }
+    
+    public boolean isCompressed() {
+        return CompressionStage.DEFLATE.equals(compression);
+    }
+    
     /**
      * Get human-readable file size
      */
@@ -90,34 +107,72 @@ public class FileMetadata implements Serializable {
     
     /**
      * Convert to protocol string format
-     * Format: filename|fileSize|mimeType|totalChunks|checksum
+     * Format: filename|fileSize|mimeType|totalChunks|checksum[|compression]
+     * (compression is only appended when used, so older peers still parse uncompressed offers)
      */
     public String toProtocolString() {
-        return String.join("|", 
+        String base = String.join("|", 
             filename, 
             String.valueOf(fileSize), 
             mimeType, 
             String.valueOf(totalChunks), 
             checksum
         );
+        return isCompressed() ? base + "|" + compression : base;
+    }
+    
+    /**
+     * Whether a peer-supplied checksum is safe to use as a file name and map key
+     */
+    public static boolean isValidChecksum(String checksum) {
+        return checksum != null && CHECKSUM_FORMAT.matcher(checksum).matches();
+    }
+    
+    /**
+     * Short form of a checksum for log lines; ids from the peer may be malformed
+     */
+    public static String abbreviate(String checksum) {
+        return isValidChecksum(checksum) ? checksum.substring(0, 16) + "..." : "(malformed id)";
     }
     
     /**
      * Parse from protocol string format
+     * 
+     * The checksum must be a SHA-256 hex string, the size within the resumable
+     * limit and the chunk count one that fixed-size or content-defined chunking
+     * could produce for that size.
      */
     public static FileMetadata fromProtocolString(String protocolString) {
         String[] parts = protocolString.split("\\|");
-        if (parts.length != 5) {
+        if (parts.length != 5 && parts.length != 6) {
             throw new IllegalArgumentException("Invalid protocol string format");
         }
         
-        return new FileMetadata(
+        long fileSize = Long.parseLong(parts[1]);
+        int totalChunks = Integer.parseInt(parts[3]);
+        if (fileSize < 0 || fileSize > FileTransferHandler.MAX_RESUMABLE_FILE_SIZE) {
+            throw new IllegalArgumentException("Invalid file size: " + fileSize);
+        }
+        long fewest = (fileSize + FileTransferHandler.CHUNK_SIZE - 1) / FileTransferHandler.CHUNK_SIZE;
+        long most = fileSize / ContentDefinedChunker.MIN_CHUNK_SIZE + 1;
+        if (totalChunks < fewest || totalChunks > most) {
+            throw new IllegalArgumentException("Chunk count " + totalChunks + " does not fit a file of " + fileSize + " bytes");
+        }
+        if (!isValidChecksum(parts[4])) {
+            throw new IllegalArgumentException("Invalid checksum");
+        }
+        
+        FileMetadata metadata = new FileMetadata(
             parts[0],                    // filename
-            Long.parseLong(parts[1]),    // fileSize
+            fileSize,                    // fileSize
             parts[2],                    // mimeType
-            Integer.parseInt(parts[3]),  // totalChunks
+            totalChunks,                 // totalChunks
             parts[4]                     // checksum
         );
+        if (parts.length == 6) {
+            metadata.setCompression(parts[5]);
+        }
+        return metadata;
     }
     
     @Override
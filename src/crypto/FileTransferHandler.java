@@ -20,10 +20,29 @@ public class FileTransferHandler {
     // Maximum file size: 100MB
     public static final long MAX_FILE_SIZE = 100 * 1024 * 1024;
     
-    private BlockCipher cipher;
+    // Resumable transfers stream chunks from disk, so they can be much larger: 4GB
+    public static final long MAX_RESUMABLE_FILE_SIZE = 4L * 1024 * 1024 * 1024;
+    
+    /**
+     * How files are sent
+     * RESUMABLE - fixed 1MB chunks, checkpointed by the receiver
+     * DEDUP     - content-defined chunks, only those the receiver lacks are sent
+     */
+    public enum TransferMode { RESUMABLE, DEDUP }
+    
+    private final BlockCipher cipher; // quiet: chunks log one line each, not every round
+    private CompressionStage.Decision lastCompressionDecision;
+    
+    /**
+     * Transfer mode from -Dfleurdelyx.transfer (resumable | dedup), default resumable
+     */
+    public static TransferMode configuredTransferMode() {
+        String setting = System.getProperty("fleurdelyx.transfer", "resumable");
+        return setting.equalsIgnoreCase("dedup") ? TransferMode.DEDUP : TransferMode.RESUMABLE;
+    }
     
     public FileTransferHandler(BlockCipher cipher) {
-        this.cipher = cipher;
+        this.cipher = cipher.quiet();
     }
     
     /**
@@ -80,8 +99,6 @@ public class FileTransferHandler {
         // Encrypt file in chunks
         List<EncryptedFileChunk> encryptedChunks = new ArrayList<>();
         
-        // Enable file transfer mode for minimal logging
-        BlockCipher.setFileTransferMode(true);
         System.out.println("📝 Encryption logs minimized for performance. Send text message to see detailed logs.");
         
         for (int i = 0; i < totalChunks; i++) {
@@ -114,9 +131,6 @@ public class FileTransferHandler {
             encryptedChunks.add(chunk);
         }
         
-        // Disable file transfer mode after completion
-        BlockCipher.setFileTransferMode(false);
-        
         System.out.println("============================================================");
         System.out.println("        FILE PREPARATION COMPLETE");
         System.out.println("============================================================");
@@ -154,8 +168,6 @@ public class FileTransferHandler {
         // Decrypt all chunks
         ByteArrayOutputStream fileOutputStream = new ByteArrayOutputStream();
         
-        // Enable file transfer mode for minimal logging
-        BlockCipher.setFileTransferMode(true);
         System.out.println("📝 Decryption logs minimized for performance. Send text message to see detailed logs.");
         
         for (int i = 0; i < encryptedChunks.size(); i++) {
@@ -179,9 +191,6 @@ public class FileTransferHandler {
             fileOutputStream.write(chunkData);
         }
         
-        // Disable file transfer mode after completion
-        BlockCipher.setFileTransferMode(false);
-        
         byte[] completeFile = fileOutputStream.toByteArray();
         
         System.out.println("------------------------------------------------------------");
@@ -213,6 +222,138 @@ public class FileTransferHandler {
         return completeFile;
     }
     
+    // ========================================
+    // RESUMABLE (STREAMING) TRANSFER METHODS
+    // ========================================
+    
+    /**
+     * Build metadata for a resumable transfer without loading the file into memory
+     * 
+     * @param file File to send
+     * @return Metadata with streamed SHA-256 checksum
+     * @throws IOException If file reading fails
+     */
+    public FileMetadata prepareFileMetadata(File file) throws IOException {
+        if (!file.exists() || !file.isFile()) {
+            throw new IOException("File does not exist or is not a valid file");
+        }
+        if (file.length() > MAX_RESUMABLE_FILE_SIZE) {
+            throw new IOException("File too large. Maximum size: " + formatFileSize(MAX_RESUMABLE_FILE_SIZE));
+        }
+        
+        String checksum = calculateChecksum(file);
+        int totalChunks = (int) ((file.length() + CHUNK_SIZE - 1) / CHUNK_SIZE);
+        String mimeType = determineMimeType(file.getName());
+        
+        // Sample the start of the file to decide whether compression is worth it
+        byte[] sample = new byte[CompressionStage.SAMPLE_SIZE];
+        int sampleLength;
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            sampleLength = (int) Math.min(sample.length, file.length());
+            raf.readFully(sample, 0, sampleLength);
+        }
+        CompressionStage.Decision decision = CompressionStage.decide(mimeType, sample, sampleLength);
+        
+        System.out.println("Resumable transfer prepared: " + file.getName() + " (" + formatFileSize(file.length()) + 
+                           ", " + totalChunks + " chunks, checksum " + checksum.substring(0, 16) + "...)");
+        System.out.println("Compression: " + decision);
+        
+        FileMetadata metadata = new FileMetadata(file.getName(), file.length(), mimeType, totalChunks, checksum);
+        metadata.setCompression(decision.getAlgorithm());
+        lastCompressionDecision = decision;
+        return metadata;
+    }
+    
+    /**
+     * Compression decision made by the last prepareFileMetadata call (for the transfer stats)
+     */
+    public CompressionStage.Decision getLastCompressionDecision() {
+        return lastCompressionDecision;
+    }
+    
+    /**
+     * Read and encrypt a single chunk straight from disk, compressing it first when stats != null
+     */
+    public EncryptedFileChunk encryptChunk(File file, int chunkIndex, int totalChunks, CompressionStats stats) throws IOException {
+        long start = (long) chunkIndex * CHUNK_SIZE;
+        int chunkSize = (int) Math.min(CHUNK_SIZE, file.length() - start);
+        if (chunkIndex < 0 || chunkSize < 0) {
+            throw new IOException("Chunk index out of range: " + chunkIndex);
+        }
+        return encryptRange(file, start, chunkSize, chunkIndex, totalChunks, stats);
+    }
+    
+    /**
+     * Read and encrypt an arbitrary byte range (content-defined chunks); with stats != null it is deflated first
+     * 
+     * Compressed chunk payload: "Z" + Base64(deflated), or "R" + Base64(raw) when
+     * deflating this particular chunk did not make it smaller.
+     */
+    public EncryptedFileChunk encryptRange(File file, long offset, int length, int chunkIndex, int totalChunks, 
+                                           CompressionStats stats) throws IOException {
+        byte[] chunkData = new byte[length];
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            raf.seek(offset);
+            raf.readFully(chunkData);
+        }
+        
+        String payload;
+        if (stats == null) {
+            payload = Base64.getEncoder().encodeToString(chunkData);
+        } else {
+            byte[] deflated = CompressionStage.compress(chunkData);
+            boolean smaller = deflated.length < chunkData.length;
+            byte[] sent = smaller ? deflated : chunkData;
+            stats.record(chunkData.length, sent.length, smaller);
+            payload = (smaller ? "Z" : "R") + Base64.getEncoder().encodeToString(sent);
+        }
+        return new EncryptedFileChunk(chunkIndex, totalChunks, cipher.encrypt(payload), length);
+    }
+    
+    /**
+     * Decrypt a chunk and check its size; stats != null for a compressed transfer, null for a plain one
+     */
+    public byte[] decryptChunk(EncryptedFileChunk chunk, CompressionStats stats) throws Exception {
+        String decryptedBase64 = cipher.decrypt(chunk.getEncryptedData());
+        byte[] chunkData;
+        if (stats == null) {
+            chunkData = Base64.getDecoder().decode(decryptedBase64);
+        } else {
+            boolean compressed = decryptedBase64.startsWith("Z");
+            byte[] received = Base64.getDecoder().decode(decryptedBase64.substring(1));
+            chunkData = compressed ? CompressionStage.decompress(received, chunk.getOriginalSize()) : received;
+            stats.record(chunkData.length, received.length, compressed);
+        }
+        if (chunkData.length != chunk.getOriginalSize()) {
+            throw new Exception("Chunk " + chunk.getChunkIndex() + " size mismatch after decryption!");
+        }
+        return chunkData;
+    }
+    
+    /**
+     * Calculate SHA-256 checksum of a file on disk (streamed, constant memory)
+     */
+    public static String calculateChecksum(File file) throws IOException {
+        try (InputStream input = new BufferedInputStream(new FileInputStream(file))) {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            byte[] buffer = new byte[64 * 1024];
+            int read;
+            while ((read = input.read(buffer)) != -1) {
+                digest.update(buffer, 0, read);
+            }
+            
+            StringBuilder hexString = new StringBuilder();
+            for (byte b : digest.digest()) {
+                String hex = Integer.toHexString(0xff & b);
+                if (hex.length() == 1) hexString.append('0');
+                hexString.append(hex);
+            }
+            return hexString.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException("SHA-256 algorithm not available", e);
+        }
+    }
+    
     /**
      * Calculate SHA-256 checksum of data
      */
@@ -237,7 +378,7 @@ public class FileTransferHandler {
     /**
      * Determine MIME type from filename extension
      */
-    private String determineMimeType(String filename) {
+    public static String determineMimeType(String filename) {
         String lower = filename.toLowerCase();
         
         // Images
@@ -306,4 +447,13 @@ public class FileTransferHandler {
         Files.write(destinationFile.toPath(), fileData);
         System.out.println("File saved successfully: " + formatFileSize(fileData.length));
     }
+    
+    /**
+     * Save a file that was already assembled on disk (resumable transfers)
+     */
+    public void saveFile(File sourceFile, File destinationFile) throws IOException {
+        System.out.println("Saving file to: " + destinationFile.getAbsolutePath());
+        Files.copy(sourceFile.toPath(), destinationFile.toPath(), java.nio.file.StandardCopyOption.REPLACE_EXISTING);
+        System.out.println("File saved successfully: " + formatFileSize(sourceFile.length()));
+    }
 }
@@ -0,0 +1,297 @@
+package crypto;
+
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.HexFormat;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Shared key of a chat group, so a message is encrypted once for all members
+ *
+ * The group key is distributed over each member's own session (GROUP_KEY
+ * lines, see ChatSession.sendGroupKey); group messages then go out as one
+ * identical line for everybody. Keys are identified by an epoch
+ * "generation.step":
+ * - a new generation starts with a fresh random key, sent to every member
+ *   (after someone leaves, so they cannot read on)
+ * - a step hashes the previous key forward (after someone joins): only the
+ *   newcomer is sent the key, the others derive it themselves, and the
+ *   newcomer cannot derive the keys before it
+ *
+ * A hub can run several groups (rooms), each with its own keyring. A named
+ * group's epochs read "name:generation.step", so key lines and frames say
+ * which keyring they belong to; the hub-wide group has no name.
+ *
+ * Frame: GMSG||epoch||seq||ciphertext||hex(mac)
+ * mac = HMAC(macKey(epoch), "GMSG||epoch||seq||ciphertext"), encrypt-then-MAC.
+ * Sequence numbers increase per epoch, so replayed frames are rejected. A
+ * hub fans out concurrent senders' frames side by side, so a member may get
+ * them slightly out of order: a frame up to REPLAY_WINDOW behind the highest
+ * one is still accepted, once.
+ *
+ * The same class serves both ends: the hub seals, members open.
+ */
+public class GroupKeyring {
+
+    public static final String FRAME_PREFIX = "GMSG||";
+    public static final int MAX_RATCHET_STEPS = 1024; // per received frame
+    public static final int REPLAY_WINDOW = 1024;     // frames behind the highest one still accepted
+
+    private static final String RATCHET_LABEL = "fleurdelyx group ratchet v1";
+    private static final String MAC_LABEL = "fleurdelyx group mac v1";
+
+    private final String group;  // "" = the hub-wide group
+    private long generation;
+    private long step;
+    private String key;          // null until the first key is installed
+    private SecretKeySpec macKey;
+    private long seq;            // sender: last sealed, receiver: highest accepted
+    private final long[] accepted = new long[REPLAY_WINDOW / 64]; // receiver: bit per seq in the window
+
+    /**
+     * A frame that passed the MAC and replay checks, still encrypted
+     */
+    public record Opened(String key, String ciphertext) {
+        public String decrypt() {
+            return new BlockCipher(key).decrypt(ciphertext);
+        }
+    }
+
+    private GroupKeyring(String group) {
+        this.group = group;
+    }
+
+    /**
+     * Sender side: a group with a fresh key
+     */
+    public static GroupKeyring create() {
+        return create("");
+    }
+
+    /**
+     * Sender side: a named group (a room) with a fresh key
+     */
+    public static GroupKeyring create(String group) {
+        if (group.contains(":") || group.contains("|")) throw new IllegalArgumentException("Invalid group name " + group);
+        GroupKeyring keyring = new GroupKeyring(group);
+        keyring.renew();
+        return keyring;
+    }
+
+    /**
+     * Receiver side: no key until install()
+     */
+    public static GroupKeyring receiver() {
+        return new GroupKeyring("");
+    }
+
+    /**
+     * Receiver side for a named group
+     */
+    public static GroupKeyring receiver(String group) {
+        return new GroupKeyring(group);
+    }
+
+    /**
+     * Group an epoch belongs to ("" for the hub-wide group)
+     */
+    public static String groupOf(String epoch) {
+        int colon = epoch.indexOf(':');
+        return colon < 0 ? "" : epoch.substring(0, colon);
+    }
+
+    /**
+     * Group a GMSG frame belongs to, from its epoch field
+     */
+    public static String groupOfFrame(String frame) {
+        int end = frame.indexOf("||", FRAME_PREFIX.length());
+        return end < 0 ? "" : groupOf(frame.substring(FRAME_PREFIX.length(), end));
+    }
+
+    public String getGroup() {
+        return group;
+    }
+
+    /**
+     * Start a new generation with a fresh random key (everyone needs the new key)
+     */
+    public synchronized void renew() {
+        setKey(generation + 1, 0, KeyGenerator.generate128BitKeyHex());
+    }
+
+    /**
+     * Hash the key one step forward (existing members follow without being sent anything)
+     */
+    public synchronized void advance() {
+        setKey(generation, step + 1, ratchet(key));
+    }
+
+    public synchronized String getEpoch() {
+        return (group.isEmpty() ? "" : group + ":") + generation + "." + step;
+    }
+
+    public synchronized String getKey() {
+        return key;
+    }
+
+    /**
+     * Encrypt and authenticate one message for the whole group
+     */
+    public synchronized String seal(String text) {
+        String ciphertext = new BlockCipher(key).encrypt(text);
+        String body = FRAME_PREFIX + getEpoch() + "||" + (++seq) + "||" + ciphertext;
+        return body + "||" + HexFormat.of().formatHex(mac(macKey, body));
+    }
+
+    /**
+     * Take a key delivered over the member's session
+     */
+    public synchronized void install(String epoch, String groupKey) throws GeneralSecurityException {
+        long[] parsed = parseEpoch(epoch);
+        if (key != null && (parsed[0] < generation || (parsed[0] == generation && parsed[1] <= step))) {
+            throw new GeneralSecurityException("Stale group key " + epoch + " (have " + getEpoch() + ")");
+        }
+        setKey(parsed[0], parsed[1], groupKey);
+    }
+
+    /**
+     * Check a GMSG frame and advance the key if the sender did; decryption is left to the caller
+     */
+    public synchronized Opened open(String frame) throws GeneralSecurityException {
+        int macIndex = frame.lastIndexOf("||");
+        if (!frame.startsWith(FRAME_PREFIX) || macIndex < FRAME_PREFIX.length()) {
+            throw new GeneralSecurityException("Malformed group frame");
+        }
+        String body = frame.substring(0, macIndex);
+        String[] parts = body.substring(FRAME_PREFIX.length()).split("\\|\\|", 3);
+        if (parts.length != 3) {
+            throw new GeneralSecurityException("Malformed group frame");
+        }
+        if (key == null) throw new GeneralSecurityException("No group key yet");
+        long[] epoch = parseEpoch(parts[0]);
+        long frameSeq;
+        try {
+            frameSeq = Long.parseLong(parts[1]);
+        } catch (NumberFormatException e) {
+            throw new GeneralSecurityException("Malformed group frame");
+        }
+        if (epoch[0] != generation || epoch[1] < step || epoch[1] - step > MAX_RATCHET_STEPS) {
+            throw new GeneralSecurityException("Group frame for epoch " + parts[0] + " (have " + getEpoch() + ")");
+        }
+
+        // Derive forward on a copy: a forged frame must not move the key
+        String frameKey = key;
+        for (long s = step; s < epoch[1]; s++) {
+            frameKey = ratchet(frameKey);
+        }
+        SecretKeySpec frameMacKey = epoch[1] == step ? macKey : deriveMacKey(frameKey);
+        byte[] received;
+        try {
+            received = HexFormat.of().parseHex(frame.substring(macIndex + 2));
+        } catch (IllegalArgumentException e) {
+            throw new GeneralSecurityException("Malformed group MAC");
+        }
+        if (!MessageDigest.isEqual(mac(frameMacKey, body), received)) {
+            throw new GeneralSecurityException("Group MAC mismatch");
+        }
+        if (epoch[1] > step) {
+            // Old keys are forgotten once the group has moved on
+            step = epoch[1];
+            key = frameKey;
+            macKey = frameMacKey;
+            resetWindow();
+        }
+        if (!accept(frameSeq)) throw new GeneralSecurityException("Replayed group frame");
+        return new Opened(key, parts[2]);
+    }
+
+    private void setKey(long generation, long step, String key) {
+        this.generation = generation;
+        this.step = step;
+        this.key = key;
+        this.macKey = deriveMacKey(key);
+        resetWindow();
+    }
+
+    /**
+     * Mark a sequence number as seen; false if it was seen already or fell out of the window
+     */
+    private boolean accept(long frameSeq) {
+        if (frameSeq <= 0 || frameSeq <= seq - REPLAY_WINDOW) return false;
+        if (frameSeq > seq) {
+            // Slide the window: the numbers skipped over have not been seen yet
+            if (frameSeq - seq >= REPLAY_WINDOW) {
+                Arrays.fill(accepted, 0);
+            } else {
+                for (long s = seq + 1; s < frameSeq; s++) {
+                    accepted[windowWord(s)] &= ~windowBit(s);
+                }
+            }
+            seq = frameSeq;
+        } else if ((accepted[windowWord(frameSeq)] & windowBit(frameSeq)) != 0) {
+            return false;
+        }
+        accepted[windowWord(frameSeq)] |= windowBit(frameSeq);
+        return true;
+    }
+
+    private static int windowWord(long seq) {
+        return (int) (seq % REPLAY_WINDOW) >>> 6;
+    }
+
+    private static long windowBit(long seq) {
+        return 1L << (seq & 63);
+    }
+
+    private void resetWindow() {
+        seq = 0;
+        Arrays.fill(accepted, 0);
+    }
+
+    private long[] parseEpoch(String epoch) throws GeneralSecurityException {
+        if (!groupOf(epoch).equals(group)) {
+            throw new GeneralSecurityException("Epoch " + epoch + " is not for group '" + group + "'");
+        }
+        String[] parts = epoch.substring(epoch.indexOf(':') + 1).split("\\.");
+        try {
+            if (parts.length != 2) throw new NumberFormatException();
+            return new long[] { Long.parseLong(parts[0]), Long.parseLong(parts[1]) };
+        } catch (NumberFormatException e) {
+            throw new GeneralSecurityException("Malformed group epoch " + epoch);
+        }
+    }
+
+    private static String ratchet(String key) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(RATCHET_LABEL.getBytes(StandardCharsets.UTF_8));
+            byte[] next = digest.digest(key.getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(next, 0, 16); // 128-bit key, like the session keys
+        } catch (java.security.NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static SecretKeySpec deriveMacKey(String key) {
+        try {
+            Mac kdf = Mac.getInstance("HmacSHA256");
+            kdf.init(new SecretKeySpec(key.getBytes(StandardCharsets.UTF_8), "HmacSHA256"));
+            return new SecretKeySpec(kdf.doFinal(MAC_LABEL.getBytes(StandardCharsets.UTF_8)), "HmacSHA256");
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static byte[] mac(SecretKeySpec macKey, String body) {
+        try {
+            Mac mac = Mac.getInstance("HmacSHA256");
+            mac.init(macKey);
+            return mac.doFinal(body.getBytes(StandardCharsets.UTF_8));
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
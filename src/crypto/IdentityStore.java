@@ -0,0 +1,190 @@
+package crypto;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.Key;
+import java.security.KeyFactory;
+import java.security.KeyPair;
+import java.security.KeyStore;
+import java.security.MessageDigest;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.security.interfaces.RSAPrivateCrtKey;
+import java.security.spec.PKCS8EncodedKeySpec;
+import java.security.spec.RSAPublicKeySpec;
+import java.util.HexFormat;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Long-term RSA identity kept in a PKCS12 keystore
+ *
+ * Location: ~/.fleurdelyx/identity-<role>.p12 (role = server or client)
+ *
+ * The JDK can only store private keys with a certificate chain, so the
+ * PKCS#8 encoded key is stored as a secret key entry. The public key is
+ * rebuilt from the CRT parameters. The keystore password defaults to a
+ * fixed value (-Dfleurdelyx.identity.password overrides it); the file is
+ * created owner-readable only.
+ *
+ * Command line:
+ *   java crypto.IdentityStore show   <role>
+ *   java crypto.IdentityStore rotate <role>         (old key kept as .p12.old)
+ *   java crypto.IdentityStore forget <role> <peer>  (drop a pinned peer key)
+ */
+public class IdentityStore {
+
+    public static final File DEFAULT_DIRECTORY = new File(System.getProperty("user.home"), ".fleurdelyx");
+
+    private static final String ALIAS = "identity";
+
+    private final File file;
+    private final char[] password;
+    private KeyPair cached; // loaded once per process, reconnects reuse it
+
+    public IdentityStore(File file) {
+        this.file = file;
+        this.password = System.getProperty("fleurdelyx.identity.password", "fleurdelyx-identity").toCharArray();
+    }
+
+    public static IdentityStore forRole(String role) {
+        return new IdentityStore(new File(DEFAULT_DIRECTORY, "identity-" + role + ".p12"));
+    }
+
+    /**
+     * Persistent identity is on by default (-Dfleurdelyx.identity=false for a fresh key every launch)
+     */
+    public static boolean isEnabled() {
+        return Boolean.parseBoolean(System.getProperty("fleurdelyx.identity", "true"));
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public boolean exists() {
+        return file.isFile();
+    }
+
+    /**
+     * Load the stored identity, or create one from the given pool on first use
+     */
+    public synchronized KeyPair loadOrCreate(KeyPairPool pool) throws Exception {
+        if (cached != null) {
+            return cached;
+        }
+        if (exists()) {
+            cached = load();
+            return cached;
+        }
+        KeyPair keyPair = pool != null ? pool.take() : RSAUtil.generateRSAKeyPair();
+        save(keyPair);
+        cached = keyPair;
+        return keyPair;
+    }
+
+    public synchronized KeyPair load() throws Exception {
+        KeyStore keyStore = KeyStore.getInstance("PKCS12");
+        try (FileInputStream in = new FileInputStream(file)) {
+            keyStore.load(in, password);
+        }
+        Key entry = keyStore.getKey(ALIAS, password);
+        if (entry == null) {
+            throw new IOException("No identity entry in " + file);
+        }
+        KeyFactory keyFactory = KeyFactory.getInstance("RSA");
+        PrivateKey privateKey = keyFactory.generatePrivate(new PKCS8EncodedKeySpec(entry.getEncoded()));
+        RSAPrivateCrtKey crtKey = (RSAPrivateCrtKey) privateKey;
+        PublicKey publicKey = keyFactory.generatePublic(
+            new RSAPublicKeySpec(crtKey.getModulus(), crtKey.getPublicExponent()));
+        return new KeyPair(publicKey, privateKey);
+    }
+
+    public synchronized void save(KeyPair keyPair) throws Exception {
+        KeyStore keyStore = KeyStore.getInstance("PKCS12");
+        keyStore.load(null, null);
+        keyStore.setEntry(ALIAS,
+            new KeyStore.SecretKeyEntry(new SecretKeySpec(keyPair.getPrivate().getEncoded(), "RSA")),
+            new KeyStore.PasswordProtection(password));
+
+        file.getParentFile().mkdirs();
+        File temp = new File(file.getPath() + ".tmp");
+        try (FileOutputStream out = new FileOutputStream(temp)) {
+            keyStore.store(out, password);
+        }
+        restrictToOwner(temp);
+        Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Replace the identity with a new key pair, keeping the old one as .old
+     */
+    public synchronized KeyPair rotate() throws Exception {
+        if (exists()) {
+            Files.copy(file.toPath(), new File(file.getPath() + ".old").toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+        KeyPair keyPair = RSAUtil.generateRSAKeyPair();
+        save(keyPair);
+        cached = keyPair;
+        return keyPair;
+    }
+
+    /**
+     * SHA-256 fingerprint of a public key, colon-separated hex (first 16 bytes)
+     */
+    public static String fingerprint(PublicKey publicKey) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(publicKey.getEncoded());
+            return HexFormat.ofDelimiter(":").formatHex(digest, 0, 16);
+        } catch (java.security.NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static void restrictToOwner(File file) {
+        try {
+            Files.setPosixFilePermissions(file.toPath(), PosixFilePermissions.fromString("rw-------"));
+        } catch (UnsupportedOperationException | IOException e) {
+            // Not a POSIX file system (Windows) - rely on the user profile ACLs
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2) {
+            System.out.println("Usage: IdentityStore show|rotate <server|client>");
+            System.out.println("       IdentityStore forget <server|client> <peer>");
+            return;
+        }
+        String command = args[0];
+        String role = args[1];
+        IdentityStore store = forRole(role);
+
+        switch (command) {
+            case "show" -> {
+                if (!store.exists()) {
+                    System.out.println("No identity yet: " + store.getFile());
+                } else {
+                    System.out.println(store.getFile() + "\nFingerprint: " + fingerprint(store.load().getPublic()));
+                }
+            }
+            case "rotate" -> {
+                KeyPair keyPair = store.rotate();
+                System.out.println("New identity: " + fingerprint(keyPair.getPublic()));
+                System.out.println("Peers that pinned the old key will refuse it until they run 'forget'.");
+            }
+            case "forget" -> {
+                if (args.length < 3) {
+                    System.out.println("Usage: IdentityStore forget <server|client> <peer>");
+                    return;
+                }
+                boolean removed = PeerKeyCache.forRole(role).forget(args[2]);
+                System.out.println(removed ? "Forgot " + args[2] : "No pinned key for " + args[2]);
+            }
+            default -> System.out.println("Unknown command: " + command);
+        }
+    }
+}
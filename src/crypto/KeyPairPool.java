@@ -0,0 +1,103 @@
+package crypto;
+
+import java.security.KeyPair;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Pre-generated RSA key pairs, filled by a background daemon thread
+ *
+ * RSA-2048 generation takes hundreds of milliseconds. The pool keeps a few
+ * pairs ready so startup and reconnects take one instantly; the worker
+ * refills the slot right away and otherwise sleeps on the full queue.
+ *
+ * take() blocks until a pair is ready - call it from a background thread,
+ * never from the FX thread.
+ */
+public class KeyPairPool {
+
+    public static final int DEFAULT_SIZE = 2;
+
+    private static volatile KeyPairPool shared;
+
+    private final BlockingQueue<KeyPair> ready;
+    private final AtomicLong generated = new AtomicLong();
+    private final AtomicLong waits = new AtomicLong();
+
+    public KeyPairPool(int size) {
+        this.ready = new ArrayBlockingQueue<>(size);
+        Thread worker = new Thread(this::fill, "rsa-keypair-pool");
+        worker.setDaemon(true);
+        worker.setPriority(Thread.MIN_PRIORITY);
+        worker.start();
+    }
+
+    /**
+     * Process-wide pool, started on first use (call early to warm it up)
+     */
+    public static KeyPairPool shared() {
+        if (shared == null) {
+            synchronized (KeyPairPool.class) {
+                if (shared == null) {
+                    shared = new KeyPairPool(DEFAULT_SIZE);
+                }
+            }
+        }
+        return shared;
+    }
+
+    /**
+     * Take a ready key pair, waiting for the worker if the pool is empty
+     */
+    public KeyPair take() throws InterruptedException {
+        KeyPair keyPair = ready.poll();
+        if (keyPair == null) {
+            waits.incrementAndGet();
+            keyPair = ready.take();
+        }
+        return keyPair;
+    }
+
+    /**
+     * Take a key pair if one arrives within the timeout, otherwise null
+     */
+    public KeyPair poll(long timeout, TimeUnit unit) throws InterruptedException {
+        return ready.poll(timeout, unit);
+    }
+
+    public int available() {
+        return ready.size();
+    }
+
+    public long getGeneratedCount() {
+        return generated.get();
+    }
+
+    /**
+     * Number of take() calls that found the pool empty
+     */
+    public long getWaitCount() {
+        return waits.get();
+    }
+
+    private void fill() {
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                KeyPair keyPair = RSAUtil.generateRSAKeyPair();
+                generated.incrementAndGet();
+                ready.put(keyPair);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (Exception e) {
+                System.err.println("[KEYPOOL] Key generation failed: " + e.getMessage());
+                try {
+                    Thread.sleep(1000);
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+    }
+}
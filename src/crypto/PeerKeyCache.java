@@ -0,0 +1,96 @@
+package crypto;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.PublicKey;
+import java.util.Properties;
+
+/**
+ * Pinned public keys of peers with a persistent identity (trust on first use)
+ *
+ * Location: ~/.fleurdelyx/known_peers-<role>.properties
+ * Entry:    peer (host:port for servers, address for clients) = Base64 public key
+ *
+ * The first key seen for a peer is remembered. Later sessions report
+ * whether the peer presented the same key; a changed key is never
+ * overwritten automatically (IdentityStore forget removes it) and the
+ * handshake refuses the peer until then.
+ */
+public class PeerKeyCache {
+
+    public enum Status { NEW, MATCH, CHANGED }
+
+    private final File file;
+    private final Properties keys = new Properties();
+
+    public PeerKeyCache(File file) {
+        this.file = file;
+        if (file.isFile()) {
+            try (FileInputStream in = new FileInputStream(file)) {
+                keys.load(in);
+            } catch (IOException e) {
+                System.err.println("[IDENTITY] Could not read " + file + ": " + e.getMessage());
+            }
+        }
+    }
+
+    public static PeerKeyCache forRole(String role) {
+        return new PeerKeyCache(new File(IdentityStore.DEFAULT_DIRECTORY, "known_peers-" + role + ".properties"));
+    }
+
+    /**
+     * Compare a peer's key with the pinned one, pinning it if the peer is new
+     */
+    public Status check(String peer, PublicKey publicKey) throws IOException {
+        return check(peer, publicKey, true);
+    }
+
+    /**
+     * Compare a peer's key with the pinned one
+     *
+     * @param pinIfNew pin the key of a peer seen for the first time; otherwise an unknown peer gives null
+     */
+    public synchronized Status check(String peer, PublicKey publicKey, boolean pinIfNew) throws IOException {
+        String encoded = RSAUtil.publicKeyToString(publicKey);
+        String known = keys.getProperty(peer);
+        if (known == null) {
+            if (!pinIfNew) return null;
+            keys.setProperty(peer, encoded);
+            save();
+            return Status.NEW;
+        }
+        return known.equals(encoded) ? Status.MATCH : Status.CHANGED;
+    }
+
+    /**
+     * Pinned key for a peer, or null
+     */
+    public synchronized PublicKey get(String peer) {
+        String known = keys.getProperty(peer);
+        if (known == null) return null;
+        try {
+            return RSAUtil.stringToPublicKey(known);
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    public synchronized boolean forget(String peer) throws IOException {
+        if (keys.remove(peer) == null) return false;
+        save();
+        return true;
+    }
+
+    private void save() throws IOException {
+        file.getParentFile().mkdirs();
+        File temp = new File(file.getPath() + ".tmp");
+        try (FileOutputStream out = new FileOutputStream(temp)) {
+            keys.store(out, "Fleurdelyx pinned peer identity keys");
+        }
+        Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
@@ -6,6 +6,43 @@ import javax.crypto.Cipher;
 
 public class RSAUtil {
 
+    // JCA engines cached per platform thread (the crypto workers) - getInstance() resolves
+    // the provider on every call. Virtual threads are short-lived and get a fresh engine.
+    // Each use starts with init/initSign/initVerify, which resets any earlier state.
+    private static final EngineCache<Cipher> RSA_CIPHER = new EngineCache<>(() -> Cipher.getInstance("RSA"));
+    private static final EngineCache<Signature> SHA256_WITH_RSA = new EngineCache<>(() -> Signature.getInstance("SHA256withRSA"));
+    private static final EngineCache<KeyFactory> RSA_KEY_FACTORY = new EngineCache<>(() -> KeyFactory.getInstance("RSA"));
+
+    interface EngineFactory<T> {
+        T create() throws GeneralSecurityException;
+    }
+
+    /**
+     * One engine per long-lived platform thread; a virtual thread would build
+     * one, use it once and drop it with its ThreadLocal map, so it skips the cache
+     */
+    static final class EngineCache<T> {
+        private final EngineFactory<T> factory;
+        private final ThreadLocal<T> cached;
+
+        EngineCache(EngineFactory<T> factory) {
+            this.factory = factory;
+            this.cached = ThreadLocal.withInitial(this::create);
+        }
+
+        T get() {
+            return Thread.currentThread().isVirtual() ? create() : cached.get();
+        }
+
+        private T create() {
+            try {
+                return factory.create();
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+
     // Generate RSA Key Pair (Public + Private)
     public static KeyPair generateRSAKeyPair() throws NoSuchAlgorithmException {
         KeyPairGenerator keyGen = KeyPairGenerator.getInstance("RSA");
@@ -15,7 +52,7 @@ public class RSAUtil {
 
     // Encrypt data (e.g. symmetric key) using RSA Public Key
     public static String encryptWithPublicKey(String data, PublicKey publicKey) throws Exception {
-        Cipher cipher = Cipher.getInstance("RSA");
+        Cipher cipher = RSA_CIPHER.get();
         cipher.init(Cipher.ENCRYPT_MODE, publicKey);
         byte[] encryptedBytes = cipher.doFinal(data.getBytes());
         return Base64.getEncoder().encodeToString(encryptedBytes);
@@ -23,7 +60,7 @@ public class RSAUtil {
 
     // Decrypt data (e.g. encrypted symmetric key) using RSA Private Key
     public static String decryptWithPrivateKey(String encryptedData, PrivateKey privateKey) throws Exception {
-        Cipher cipher = Cipher.getInstance("RSA");
+        Cipher cipher = RSA_CIPHER.get();
         cipher.init(Cipher.DECRYPT_MODE, privateKey);
         byte[] decodedBytes = Base64.getDecoder().decode(encryptedData);
         byte[] decryptedBytes = cipher.doFinal(decodedBytes);
@@ -39,8 +76,7 @@ public class RSAUtil {
     public static PublicKey stringToPublicKey(String keyStr) throws Exception {
         byte[] keyBytes = Base64.getDecoder().decode(keyStr);
         java.security.spec.X509EncodedKeySpec spec = new java.security.spec.X509EncodedKeySpec(keyBytes);
-        java.security.KeyFactory keyFactory = java.security.KeyFactory.getInstance("RSA");
-        return keyFactory.generatePublic(spec);
+        return RSA_KEY_FACTORY.get().generatePublic(spec);
     }
 
     /**
@@ -48,7 +84,7 @@ public class RSAUtil {
      */
     public static String signMessage(String message, PrivateKey privateKey) {
         try {
-            Signature signature = Signature.getInstance("SHA256withRSA");
+            Signature signature = SHA256_WITH_RSA.get();
             signature.initSign(privateKey);
             signature.update(message.getBytes());
             byte[] digitalSignature = signature.sign();
@@ -64,7 +100,7 @@ public class RSAUtil {
      */
     public static boolean verifySignature(String message, String signatureBase64, PublicKey publicKey) {
         try {
-            Signature signature = Signature.getInstance("SHA256withRSA");
+            Signature signature = SHA256_WITH_RSA.get();
             signature.initVerify(publicKey);
             signature.update(message.getBytes());
             byte[] signatureBytes = Base64.getDecoder().decode(signatureBase64);
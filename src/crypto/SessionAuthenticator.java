@@ -0,0 +1,155 @@
+package crypto;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.util.HexFormat;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Per-message authentication with HMAC-SHA256 instead of RSA signatures
+ *
+ * The MAC key is derived from the session key exchanged during the RSA
+ * handshake, so only the handshake and the periodic transcript
+ * checkpoints still need a private-key operation.
+ *
+ * Frame format: body||MAC||seq||hex(mac)
+ * mac = HMAC(macKey, direction | seq | body), computed over the encrypted
+ * body (encrypt-then-MAC). Sequence numbers run per direction and must
+ * arrive in order, so replayed or reordered frames fail verification.
+ *
+ * Every CHECKPOINT_INTERVAL messages the sender signs a hash chain over
+ * all MACs it has sent (CHECKPOINT||seq||transcript||SIG||sig); the
+ * receiver compares it with the chain over the MACs it accepted.
+ */
+public class SessionAuthenticator {
+
+    public static final String MAC_MARKER = "||MAC||";
+    public static final int CHECKPOINT_INTERVAL = 100;
+
+    private static final String KEY_LABEL = "fleurdelyx session mac v1";
+
+    private final Mac sendMac;
+    private final Mac receiveMac;
+    private final byte sendDirection;
+    private final byte receiveDirection;
+
+    private long sendSeq = 0;
+    private long receiveSeq = 0;
+    private byte[] sendTranscript = new byte[32];
+    private byte[] receiveTranscript = new byte[32];
+
+    /**
+     * @param sessionKey the symmetric key agreed in the handshake
+     * @param isServer   which end of the connection this is (frames are bound to a direction)
+     */
+    public SessionAuthenticator(String sessionKey, boolean isServer) throws Exception {
+        Mac kdf = Mac.getInstance("HmacSHA256");
+        kdf.init(new SecretKeySpec(sessionKey.getBytes(StandardCharsets.UTF_8), "HmacSHA256"));
+        SecretKeySpec macKey = new SecretKeySpec(kdf.doFinal(KEY_LABEL.getBytes(StandardCharsets.UTF_8)), "HmacSHA256");
+
+        sendMac = Mac.getInstance("HmacSHA256");
+        sendMac.init(macKey);
+        receiveMac = Mac.getInstance("HmacSHA256");
+        receiveMac.init(macKey);
+        sendDirection = (byte) (isServer ? 'S' : 'C');
+        receiveDirection = (byte) (isServer ? 'C' : 'S');
+    }
+
+    /**
+     * Append the MAC trailer to an outgoing frame body
+     */
+    public String seal(String body) {
+        synchronized (sendMac) {
+            long seq = ++sendSeq;
+            byte[] mac = compute(sendMac, sendDirection, seq, body);
+            sendTranscript = chain(sendTranscript, mac);
+            return body + MAC_MARKER + seq + "||" + HexFormat.of().formatHex(mac);
+        }
+    }
+
+    /**
+     * Check the MAC trailer of an incoming frame
+     *
+     * @param body    everything before ||MAC||
+     * @param trailer everything after ||MAC|| (seq||mac)
+     */
+    public boolean verify(String body, String trailer) {
+        String[] parts = trailer.split("\\|\\|");
+        if (parts.length != 2) return false;
+        try {
+            long seq = Long.parseLong(parts[0]);
+            byte[] received = HexFormat.of().parseHex(parts[1]);
+            synchronized (receiveMac) {
+                if (seq != receiveSeq + 1) return false;
+                byte[] expected = compute(receiveMac, receiveDirection, seq, body);
+                if (!MessageDigest.isEqual(expected, received)) return false;
+                receiveSeq = seq;
+                receiveTranscript = chain(receiveTranscript, expected);
+                return true;
+            }
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    /**
+     * True right after every CHECKPOINT_INTERVAL-th sealed frame
+     */
+    public boolean checkpointDue() {
+        synchronized (sendMac) {
+            return sendSeq > 0 && sendSeq % CHECKPOINT_INTERVAL == 0;
+        }
+    }
+
+    /**
+     * RSA-signed transcript checkpoint over everything sent so far
+     *
+     * Format: CHECKPOINT||seq||transcript||SIG||signature
+     */
+    public String createCheckpoint(PrivateKey privateKey) {
+        String statement;
+        synchronized (sendMac) {
+            statement = sendSeq + "||" + HexFormat.of().formatHex(sendTranscript);
+        }
+        return "CHECKPOINT||" + statement + "||SIG||" + RSAUtil.signMessage(statement, privateKey);
+    }
+
+    /**
+     * What a peer checkpoint arriving now must state: seq||transcript over the frames accepted so far
+     */
+    public String receivedStatement() {
+        synchronized (receiveMac) {
+            return receiveSeq + "||" + HexFormat.of().formatHex(receiveTranscript);
+        }
+    }
+
+    /**
+     * Verify a peer checkpoint against the receivedStatement() taken when it arrived
+     * (the RSA check can then run later, off the reader, while more frames come in)
+     */
+    public static boolean verifyCheckpoint(String message, String expectedStatement, PublicKey peerPublicKey) {
+        String[] parts = message.substring("CHECKPOINT||".length()).split("\\|\\|SIG\\|\\|");
+        return parts.length == 2 && expectedStatement.equals(parts[0])
+            && RSAUtil.verifySignature(parts[0], parts[1], peerPublicKey);
+    }
+
+    private static byte[] compute(Mac mac, byte direction, long seq, String body) {
+        mac.update(direction);
+        mac.update(ByteBuffer.allocate(Long.BYTES).putLong(seq).array());
+        return mac.doFinal(body.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static byte[] chain(byte[] transcript, byte[] mac) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(transcript);
+            return digest.digest(mac);
+        } catch (java.security.NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
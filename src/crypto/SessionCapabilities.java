@@ -0,0 +1,114 @@
+package crypto;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * Optional protocol features negotiated during the handshake
+ *
+ * Each side sends "CAPS||feature,feature,..." right after its public key.
+ * A feature is used only if both sides listed it.
+ */
+public class SessionCapabilities {
+
+    // Per-session Deflate stream for chat messages (StreamingCompressor)
+    public static final String STREAM_COMPRESSION = "zstream";
+
+    // HMAC-SHA256 per message, RSA only for checkpoints (SessionAuthenticator)
+    public static final String SESSION_MAC = "hmac";
+
+    // Ed25519 message/file signatures instead of SHA256withRSA (SignatureSuite)
+    public static final String ED25519_SIGNATURES = "ed25519";
+
+    // Ephemeral X25519 agreement instead of RSA key transport (X25519KeyExchange)
+    public static final String X25519_KEY_AGREEMENT = "x25519";
+
+    // Group messages encrypted once with a shared key (GroupKeyring), keys sent over the session
+    public static final String GROUP_KEYS = "groupkey";
+
+    // Sender uses a long-term identity key, so the receiver can pin it (IdentityStore, PeerKeyCache)
+    public static final String PERSISTENT_IDENTITY = "identity";
+
+    private final Set<String> features;
+
+    public SessionCapabilities(Set<String> features) {
+        this.features = Collections.unmodifiableSet(new LinkedHashSet<>(features));
+    }
+
+    /**
+     * Features this build supports and has enabled
+     * (-Dfleurdelyx.zstream=false disables stream compression,
+     * -Dfleurdelyx.hmac=false keeps signatures on every message,
+     * -Dfleurdelyx.ed25519=true offers Ed25519 signatures,
+     * -Dfleurdelyx.x25519=false keeps RSA key transport,
+     * -Dfleurdelyx.groupkey=false asks a hub for per-member encryption,
+     * -Dfleurdelyx.identity=false uses a fresh RSA key every launch)
+     */
+    public static SessionCapabilities local() {
+        Set<String> features = new LinkedHashSet<>();
+        if (Boolean.parseBoolean(System.getProperty("fleurdelyx.zstream", "true"))) {
+            features.add(STREAM_COMPRESSION);
+        }
+        if (Boolean.parseBoolean(System.getProperty("fleurdelyx.hmac", "true"))) {
+            features.add(SESSION_MAC);
+        }
+        if (Boolean.parseBoolean(System.getProperty("fleurdelyx.ed25519", "false"))) {
+            features.add(ED25519_SIGNATURES);
+        }
+        if (Boolean.parseBoolean(System.getProperty("fleurdelyx.x25519", "true"))) {
+            features.add(X25519_KEY_AGREEMENT);
+        }
+        if (Boolean.parseBoolean(System.getProperty("fleurdelyx.groupkey", "true"))) {
+            features.add(GROUP_KEYS);
+        }
+        if (IdentityStore.isEnabled()) {
+            features.add(PERSISTENT_IDENTITY);
+        }
+        return new SessionCapabilities(features);
+    }
+
+    /**
+     * Features both sides support
+     */
+    public SessionCapabilities negotiate(SessionCapabilities peer) {
+        Set<String> common = new LinkedHashSet<>(features);
+        common.retainAll(peer.features);
+        return new SessionCapabilities(common);
+    }
+
+    public boolean supports(String feature) {
+        return features.contains(feature);
+    }
+
+    public Set<String> getFeatures() {
+        return features;
+    }
+
+    /**
+     * Format: CAPS||feature,feature,...
+     */
+    public String toProtocolString() {
+        return "CAPS||" + String.join(",", features);
+    }
+
+    /**
+     * Parse a CAPS line; anything else means the peer supports no optional features
+     */
+    public static SessionCapabilities fromProtocolString(String line) {
+        if (line == null || !line.startsWith("CAPS||")) {
+            return new SessionCapabilities(Collections.emptySet());
+        }
+        String list = line.substring("CAPS||".length()).trim();
+        if (list.isEmpty()) {
+            return new SessionCapabilities(Collections.emptySet());
+        }
+        return new SessionCapabilities(new LinkedHashSet<>(Arrays.asList(list.split(","))));
+    }
+
+    @Override
+    public String toString() {
+        return features.isEmpty() ? "none" : String.join(", ", features);
+    }
+}
@@ -0,0 +1,133 @@
+package crypto;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.HexFormat;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Session resumption ticket held by the client
+ *
+ * The server issues an opaque ticket (see TicketIssuer) after every
+ * handshake. On reconnect the client presents it instead of running the
+ * key exchange again, and both sides derive a fresh session key from the
+ * ticket's key and two new nonces - one round trip, no RSA operations.
+ *
+ * Protocol:
+ *   server: TICKET||ticket||lifetimeSeconds                       (after the handshake)
+ *   client: RESUME||ticket||clientNonce||clientPublicKey||binder  (followed by its full handshake flight)
+ *   server: RESUMED||serverNonce||serverPublicKey||mac            (or RESUME_REJECTED||reason + full flight)
+ *
+ *   binder = HMAC(ticketKey, "resume" | ticket | clientNonce | clientPublicKey)
+ *   newKey = HMAC(ticketKey, "resumed key" | clientNonce | serverNonce)[0..16]
+ *   mac    = HMAC(newKey, "resumed" | clientNonce | serverNonce | serverPublicKey)
+ *
+ * The binder proves the client knows the ticket's session key, so a
+ * ticket observed on the wire cannot be redeemed (or burned) by anyone else.
+ * Both public keys are tied to the original handshake: the server sealed
+ * the client's key into the ticket, and the client keeps the server's key
+ * with it and refuses a RESUMED that names another.
+ */
+public class SessionTicket {
+
+    private final String ticket;
+    private final String sessionKey;
+    private final SessionCapabilities capabilities;
+    private final String serverPublicKey;
+    private final long expiresAt;
+
+    public SessionTicket(String ticket, String sessionKey, SessionCapabilities capabilities, String serverPublicKey,
+                         long expiresAt) {
+        this.ticket = ticket;
+        this.sessionKey = sessionKey;
+        this.capabilities = capabilities;
+        this.serverPublicKey = serverPublicKey;
+        this.expiresAt = expiresAt;
+    }
+
+    /**
+     * Parse a TICKET line for the session it was issued in, with the server key of that session
+     */
+    public static SessionTicket fromProtocolString(String line, String sessionKey, SessionCapabilities capabilities,
+                                                   String serverPublicKey) {
+        String[] parts = line.substring("TICKET||".length()).split("\\|\\|");
+        long lifetimeSeconds = Long.parseLong(parts[1]);
+        return new SessionTicket(parts[0], sessionKey, capabilities, serverPublicKey,
+            System.currentTimeMillis() + lifetimeSeconds * 1000);
+    }
+
+    public String getTicket() {
+        return ticket;
+    }
+
+    public String getSessionKey() {
+        return sessionKey;
+    }
+
+    /**
+     * Features negotiated by the session the ticket came from
+     */
+    public SessionCapabilities getCapabilities() {
+        return capabilities;
+    }
+
+    /**
+     * Public key the server had in the session the ticket came from
+     */
+    public String getServerPublicKey() {
+        return serverPublicKey;
+    }
+
+    public boolean isExpired() {
+        return System.currentTimeMillis() >= expiresAt;
+    }
+
+    /**
+     * Build the RESUME line for this ticket
+     */
+    public String createResumeRequest(String clientNonce, String clientPublicKey) {
+        String binder = binder(sessionKey, ticket, clientNonce, clientPublicKey);
+        return "RESUME||" + ticket + "||" + clientNonce + "||" + clientPublicKey + "||" + binder;
+    }
+
+    public static String binder(String ticketKey, String ticket, String clientNonce, String clientPublicKey) {
+        return hmacHex(ticketKey, "resume|" + ticket + "|" + clientNonce + "|" + clientPublicKey);
+    }
+
+    /**
+     * Fresh 32-hex-character BlockCipher key for the resumed session
+     */
+    public static String deriveResumedKey(String ticketKey, String clientNonce, String serverNonce) {
+        return hmacHex(ticketKey, "resumed key|" + clientNonce + "|" + serverNonce).substring(0, 32);
+    }
+
+    public static String resumedMac(String resumedKey, String clientNonce, String serverNonce, String serverPublicKey) {
+        return hmacHex(resumedKey, "resumed|" + clientNonce + "|" + serverNonce + "|" + serverPublicKey);
+    }
+
+    /**
+     * Constant-time comparison of two hex MACs
+     */
+    public static boolean macEquals(String expected, String received) {
+        return received != null && MessageDigest.isEqual(
+            expected.getBytes(StandardCharsets.UTF_8), received.getBytes(StandardCharsets.UTF_8));
+    }
+
+    public static String createNonce() {
+        byte[] nonce = new byte[16];
+        new SecureRandom().nextBytes(nonce);
+        return HexFormat.of().formatHex(nonce);
+    }
+
+    private static String hmacHex(String key, String data) {
+        try {
+            Mac mac = Mac.getInstance("HmacSHA256");
+            mac.init(new SecretKeySpec(key.getBytes(StandardCharsets.UTF_8), "HmacSHA256"));
+            return HexFormat.of().formatHex(mac.doFinal(data.getBytes(StandardCharsets.UTF_8)));
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package crypto;
+
+import java.nio.charset.StandardCharsets;
+import java.security.KeyFactory;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.security.Signature;
+import java.security.spec.X509EncodedKeySpec;
+import java.util.Base64;
+
+/**
+ * Signature algorithms for message and file signatures
+ *
+ * RSA      - SHA256withRSA with the 2048-bit handshake key (original behaviour)
+ * ED25519  - Ed25519 (JDK built-in): 32-byte keys, 64-byte signatures,
+ *            signing is cheaper than an RSA private-key operation but
+ *            verification is slower than RSA's public-key check on the
+ *            JDK's pure-Java implementation, so it is opt-in
+ *
+ * The suite is negotiated through SessionCapabilities. With Ed25519 each
+ * side generates a signing key per session and announces it in a SIGKEY
+ * line signed by its RSA key, so the identity stays anchored to RSA.
+ */
+public enum SignatureSuite {
+    RSA("rsa", "RSA", "SHA256withRSA"),
+    ED25519("ed25519", "Ed25519", "Ed25519");
+
+    private final String id;
+    private final String keyAlgorithm;
+    private final RSAUtil.EngineCache<Signature> signatures; // cached per platform thread, see RSAUtil
+
+    SignatureSuite(String id, String keyAlgorithm, String signatureAlgorithm) {
+        this.id = id;
+        this.keyAlgorithm = keyAlgorithm;
+        this.signatures = new RSAUtil.EngineCache<>(() -> Signature.getInstance(signatureAlgorithm));
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public KeyPair generateKeyPair() throws Exception {
+        if (this == RSA) {
+            return RSAUtil.generateRSAKeyPair();
+        }
+        return KeyPairGenerator.getInstance(keyAlgorithm).generateKeyPair();
+    }
+
+    /**
+     * Sign UTF-8 text, returns Base64 (null on failure, like RSAUtil.signMessage)
+     */
+    public String sign(String message, PrivateKey privateKey) {
+        try {
+            Signature signature = signatures.get();
+            signature.initSign(privateKey);
+            signature.update(message.getBytes(StandardCharsets.UTF_8));
+            return Base64.getEncoder().encodeToString(signature.sign());
+        } catch (Exception e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    public boolean verify(String message, String signatureBase64, PublicKey publicKey) {
+        if (signatureBase64 == null || publicKey == null) return false;
+        try {
+            Signature signature = signatures.get();
+            signature.initVerify(publicKey);
+            signature.update(message.getBytes(StandardCharsets.UTF_8));
+            return signature.verify(Base64.getDecoder().decode(signatureBase64));
+        } catch (Exception e) {
+            return false;
+        }
+    }
+
+    public String publicKeyToString(PublicKey publicKey) {
+        return Base64.getEncoder().encodeToString(publicKey.getEncoded());
+    }
+
+    public PublicKey stringToPublicKey(String keyStr) throws Exception {
+        byte[] keyBytes = Base64.getDecoder().decode(keyStr);
+        return KeyFactory.getInstance(keyAlgorithm).generatePublic(new X509EncodedKeySpec(keyBytes));
+    }
+
+    /**
+     * Announce a session signing key, signed with the RSA identity key
+     *
+     * Format: SIGKEY||suite||publicKey||SIG||rsaSignature
+     */
+    public String createKeyAnnouncement(PublicKey signingKey, PrivateKey rsaIdentityKey) {
+        String statement = id + "||" + publicKeyToString(signingKey);
+        return "SIGKEY||" + statement + "||SIG||" + RSAUtil.signMessage(statement, rsaIdentityKey);
+    }
+
+    /**
+     * Parse and check a SIGKEY line against the peer's RSA identity key
+     */
+    public PublicKey readKeyAnnouncement(String line, PublicKey rsaIdentityKey) throws Exception {
+        if (line == null || !line.startsWith("SIGKEY||")) {
+            throw new IllegalArgumentException("Expected SIGKEY announcement");
+        }
+        String[] parts = line.substring("SIGKEY||".length()).split("\\|\\|SIG\\|\\|");
+        if (parts.length != 2 || !RSAUtil.verifySignature(parts[0], parts[1], rsaIdentityKey)) {
+            throw new SecurityException("SIGKEY announcement not signed by peer identity");
+        }
+        String[] fields = parts[0].split("\\|\\|");
+        if (fields.length != 2 || !fields[0].equals(id)) {
+            throw new IllegalArgumentException("Unexpected signature suite: " + fields[0]);
+        }
+        return stringToPublicKey(fields[1]);
+    }
+
+    public static SignatureSuite fromId(String id) {
+        for (SignatureSuite suite : values()) {
+            if (suite.id.equals(id)) return suite;
+        }
+        throw new IllegalArgumentException("Unknown signature suite: " + id);
+    }
+}
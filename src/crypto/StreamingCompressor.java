@@ -0,0 +1,109 @@
+package crypto;
+
+import java.io.ByteArrayOutputStream;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Per-session compression stream for chat messages
+ *
+ * One Deflater (outgoing) and one Inflater (incoming) live for the whole
+ * session. Every message is flushed with SYNC_FLUSH so it can be decoded
+ * on its own, but the 32KB dictionary window is kept, so names, phrases
+ * and JSON keys seen earlier compress to a few bytes later on.
+ *
+ * Frames must be decompressed in exactly the order they were compressed.
+ * The zlib state (a few hundred KB of native memory) is only created on
+ * first use, so sessions that stay idle do not pay for it.
+ */
+public class StreamingCompressor {
+
+    // Every SYNC_FLUSH ends with an empty stored block: 00 00 FF FF.
+    // It is stripped before sending and restored before inflating.
+    private static final byte[] SYNC_TRAILER = {0x00, 0x00, (byte) 0xFF, (byte) 0xFF};
+
+    private Deflater deflater;
+    private Inflater inflater;
+    private byte[] buffer;
+
+    /**
+     * Compress one message frame, keeping the dictionary for the next one
+     */
+    public synchronized byte[] compressFrame(byte[] data) {
+        if (deflater == null) {
+            deflater = new Deflater(Deflater.BEST_SPEED, true);
+        }
+        byte[] buffer = buffer();
+        deflater.setInput(data);
+        ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(32, data.length / 2));
+        int count;
+        do {
+            count = deflater.deflate(buffer, 0, buffer.length, Deflater.SYNC_FLUSH);
+            out.write(buffer, 0, count);
+        } while (count == buffer.length || !deflater.needsInput());
+
+        byte[] frame = out.toByteArray();
+        if (endsWithTrailer(frame)) {
+            byte[] trimmed = new byte[frame.length - SYNC_TRAILER.length];
+            System.arraycopy(frame, 0, trimmed, 0, trimmed.length);
+            return trimmed;
+        }
+        return frame;
+    }
+
+    /**
+     * Decompress one frame produced by the peer's compressFrame
+     */
+    public synchronized byte[] decompressFrame(byte[] frame, int maxSize) throws DataFormatException {
+        byte[] input = new byte[frame.length + SYNC_TRAILER.length];
+        System.arraycopy(frame, 0, input, 0, frame.length);
+        System.arraycopy(SYNC_TRAILER, 0, input, frame.length, SYNC_TRAILER.length);
+
+        if (inflater == null) {
+            inflater = new Inflater(true);
+        }
+        byte[] buffer = buffer();
+        inflater.setInput(input);
+        ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(64, frame.length * 4));
+        while (!inflater.needsInput()) {
+            int remaining = inflater.getRemaining();
+            int count = inflater.inflate(buffer);
+            if (out.size() + count > maxSize) {
+                throw new DataFormatException("Decompressed frame exceeds " + maxSize + " bytes");
+            }
+            out.write(buffer, 0, count);
+            if (count == 0 && inflater.needsDictionary()) {
+                throw new DataFormatException("Unexpected dictionary request");
+            }
+            // A final block (or input inflate cannot use) would leave the trailer unread forever
+            if (inflater.finished()) {
+                throw new DataFormatException("Compression stream ended by the peer");
+            }
+            if (count == 0 && inflater.getRemaining() == remaining) {
+                throw new DataFormatException("Compressed frame makes no progress");
+            }
+        }
+        return out.toByteArray();
+    }
+
+    public synchronized void close() {
+        if (deflater != null) deflater.end();
+        if (inflater != null) inflater.end();
+    }
+
+    private byte[] buffer() {
+        if (buffer == null) {
+            buffer = new byte[8192];
+        }
+        return buffer;
+    }
+
+    private static boolean endsWithTrailer(byte[] frame) {
+        if (frame.length < SYNC_TRAILER.length) return false;
+        for (int i = 0; i < SYNC_TRAILER.length; i++) {
+            if (frame[frame.length - SYNC_TRAILER.length + i] != SYNC_TRAILER[i]) return false;
+        }
+        return true;
+    }
+}
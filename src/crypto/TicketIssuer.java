@@ -0,0 +1,147 @@
+package crypto;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import javax.crypto.Cipher;
+import javax.crypto.KeyGenerator;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+
+/**
+ * Server side of session resumption: issues and redeems tickets
+ *
+ * A ticket is AES-256-GCM(ticketKey, id | expiry | sessionKey | clientPublicKey | capabilities)
+ * so the server keeps no per-session state until a ticket is redeemed. The
+ * client's public key is sealed in, so a ticket only resumes for the key
+ * that ran the original handshake.
+ * The ticket key lives in memory only - tickets die with the server
+ * process and clients fall back to a full handshake.
+ *
+ * Tickets are single-use: redeemed ids are remembered until they expire.
+ * (AES-GCM rather than BlockCipher, because the ticket must be tamper-proof.)
+ */
+public class TicketIssuer {
+
+    public static final long DEFAULT_LIFETIME_SECONDS = 10 * 60;
+
+    private static final int IV_LENGTH = 12;
+    private static final int TAG_BITS = 128;
+
+    private final SecretKey ticketKey;
+    private final long lifetimeSeconds;
+    private final SecureRandom random = new SecureRandom();
+    private final Map<String, Long> redeemed = new ConcurrentHashMap<>(); // ticket id -> expiry
+
+    /**
+     * Contents of a valid ticket
+     */
+    public static class Redemption {
+        private final String sessionKey;
+        private final String capabilities;
+
+        Redemption(String sessionKey, String capabilities) {
+            this.sessionKey = sessionKey;
+            this.capabilities = capabilities;
+        }
+
+        public String getSessionKey() {
+            return sessionKey;
+        }
+
+        /**
+         * Capabilities negotiated by the original session (CAPS line format)
+         */
+        public String getCapabilities() {
+            return capabilities;
+        }
+    }
+
+    public TicketIssuer() {
+        this(DEFAULT_LIFETIME_SECONDS);
+    }
+
+    public TicketIssuer(long lifetimeSeconds) {
+        try {
+            KeyGenerator generator = KeyGenerator.getInstance("AES");
+            generator.init(256);
+            this.ticketKey = generator.generateKey();
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+        this.lifetimeSeconds = lifetimeSeconds;
+    }
+
+    /**
+     * Issue a TICKET line for the current session with the client holding clientPublicKey
+     */
+    public String issue(String sessionKey, SessionCapabilities capabilities, String clientPublicKey)
+            throws GeneralSecurityException {
+        byte[] id = new byte[16];
+        random.nextBytes(id);
+        long expiresAt = System.currentTimeMillis() + lifetimeSeconds * 1000;
+        String plain = Base64.getEncoder().encodeToString(id) + "|" + expiresAt + "|" + sessionKey + "|" +
+            clientPublicKey + "|" + capabilities.toProtocolString();
+
+        byte[] iv = new byte[IV_LENGTH];
+        random.nextBytes(iv);
+        Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+        cipher.init(Cipher.ENCRYPT_MODE, ticketKey, new GCMParameterSpec(TAG_BITS, iv));
+        byte[] sealed = cipher.doFinal(plain.getBytes(StandardCharsets.UTF_8));
+
+        byte[] ticket = ByteBuffer.allocate(iv.length + sealed.length).put(iv).put(sealed).array();
+        return "TICKET||" + Base64.getUrlEncoder().withoutPadding().encodeToString(ticket) + "||" + lifetimeSeconds;
+    }
+
+    /**
+     * Validate a RESUME request and consume its ticket
+     *
+     * @throws GeneralSecurityException with the reason if the ticket is forged,
+     *         expired, already used, issued to another key or the binder does not match
+     */
+    public Redemption redeem(String ticket, String clientNonce, String clientPublicKey, String binder)
+            throws GeneralSecurityException {
+        byte[] raw;
+        try {
+            raw = Base64.getUrlDecoder().decode(ticket);
+        } catch (IllegalArgumentException e) {
+            throw new GeneralSecurityException("malformed ticket");
+        }
+        if (raw.length <= IV_LENGTH) {
+            throw new GeneralSecurityException("malformed ticket");
+        }
+
+        Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+        cipher.init(Cipher.DECRYPT_MODE, ticketKey, new GCMParameterSpec(TAG_BITS, raw, 0, IV_LENGTH));
+        String[] fields;
+        try {
+            fields = new String(cipher.doFinal(raw, IV_LENGTH, raw.length - IV_LENGTH), StandardCharsets.UTF_8).split("\\|", 5);
+        } catch (GeneralSecurityException e) {
+            throw new GeneralSecurityException("unknown ticket");
+        }
+
+        String id = fields[0];
+        long expiresAt = Long.parseLong(fields[1]);
+        String sessionKey = fields[2];
+        long now = System.currentTimeMillis();
+        if (now >= expiresAt) {
+            throw new GeneralSecurityException("ticket expired");
+        }
+        if (!SessionTicket.macEquals(SessionTicket.binder(sessionKey, ticket, clientNonce, clientPublicKey), binder)) {
+            throw new GeneralSecurityException("binder mismatch");
+        }
+        if (!fields[3].equals(clientPublicKey)) {
+            throw new GeneralSecurityException("ticket issued to another key");
+        }
+
+        redeemed.values().removeIf(expiry -> expiry <= now);
+        if (redeemed.putIfAbsent(id, expiresAt) != null) {
+            throw new GeneralSecurityException("ticket already used");
+        }
+        return new Redemption(sessionKey, fields[4]);
+    }
+}
@@ -0,0 +1,284 @@
+package crypto;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * On-disk checkpoint for a resumable file transfer
+ *
+ * Layout (inside the transfer directory, keyed by file checksum):
+ *   <checksum>.part   - decrypted chunks written at their final offsets
+ *   <checksum>.bitmap - compact bitset of completed chunks
+ *   <checksum>.meta   - FileMetadata protocol string
+ *
+ * Survives dropped connections and application restarts, so a reconnecting
+ * receiver can tell the sender exactly which chunk ranges are still missing.
+ * Chunk data is synced before the bitmap that marks it done. Checkpoints
+ * untouched for longer than the expiry (-Dfleurdelyx.transferExpiryHours,
+ * default one week) are deleted instead of being resumed.
+ */
+public class TransferCheckpoint {
+
+    // Default location: ~/.fleurdelyx/transfers
+    public static final File DEFAULT_DIRECTORY =
+        new File(System.getProperty("user.home"), ".fleurdelyx" + File.separator + "transfers");
+
+    public static final Duration DEFAULT_EXPIRY = Duration.ofHours(Integer.getInteger("fleurdelyx.transferExpiryHours", 7 * 24));
+
+    private final File directory;
+    private final FileMetadata metadata;
+    private final BitSet completed;
+    private final RandomAccessFile partialFile;
+
+    private TransferCheckpoint(File directory, FileMetadata metadata, BitSet completed) throws IOException {
+        this.directory = directory;
+        this.metadata = metadata;
+        this.completed = completed;
+        this.partialFile = new RandomAccessFile(getPartialFile(), "rw");
+    }
+
+    /**
+     * Open the checkpoint for a transfer, creating it if this is a new file
+     *
+     * The checksum names the files on disk, so anything but a SHA-256 hex
+     * string is refused, as is a chunk count that does not match the size.
+     */
+    public static TransferCheckpoint open(File directory, FileMetadata metadata) throws IOException {
+        if (!FileMetadata.isValidChecksum(metadata.getChecksum())) {
+            throw new IOException("Invalid transfer checksum");
+        }
+        long expectedChunks = (metadata.getFileSize() + FileTransferHandler.CHUNK_SIZE - 1) / FileTransferHandler.CHUNK_SIZE;
+        if (metadata.getFileSize() < 0 || metadata.getTotalChunks() != expectedChunks) {
+            throw new IOException("Inconsistent transfer size: " + metadata.getFileSize() + " bytes in " + metadata.getTotalChunks() + " chunks");
+        }
+        if (!directory.exists() && !directory.mkdirs()) {
+            throw new IOException("Cannot create transfer directory: " + directory.getAbsolutePath());
+        }
+
+        File bitmapFile = new File(directory, metadata.getChecksum() + ".bitmap");
+        BitSet completed = bitmapFile.exists()
+            ? BitSet.valueOf(Files.readAllBytes(bitmapFile.toPath()))
+            : new BitSet(metadata.getTotalChunks());
+
+        Files.write(new File(directory, metadata.getChecksum() + ".meta").toPath(),
+            metadata.toProtocolString().getBytes());
+
+        return new TransferCheckpoint(directory, metadata, completed);
+    }
+
+    /**
+     * Load every unfinished transfer found in the directory (used after reconnect)
+     */
+    public static List<TransferCheckpoint> loadIncomplete(File directory) {
+        return loadIncomplete(directory, DEFAULT_EXPIRY);
+    }
+
+    /**
+     * Load every unfinished transfer, deleting those not written to within the expiry
+     */
+    public static List<TransferCheckpoint> loadIncomplete(File directory, Duration expiry) {
+        List<TransferCheckpoint> checkpoints = new ArrayList<>();
+        File[] metaFiles = directory.listFiles((dir, name) -> name.endsWith(".meta"));
+        if (metaFiles == null) {
+            return checkpoints;
+        }
+
+        long cutoff = System.currentTimeMillis() - expiry.toMillis();
+        for (File metaFile : metaFiles) {
+            String checksum = metaFile.getName().substring(0, metaFile.getName().length() - ".meta".length());
+            try {
+                if (lastWritten(directory, checksum) < cutoff) {
+                    System.out.println("Deleting expired checkpoint " + FileMetadata.abbreviate(checksum));
+                    deleteFiles(directory, checksum);
+                    continue;
+                }
+                String protocolString = new String(Files.readAllBytes(metaFile.toPath()));
+                TransferCheckpoint checkpoint = open(directory, FileMetadata.fromProtocolString(protocolString));
+                if (checkpoint.isComplete()) {
+                    checkpoint.close();
+                } else {
+                    checkpoints.add(checkpoint);
+                }
+            } catch (Exception e) {
+                System.out.println("Skipping unreadable checkpoint " + metaFile.getName() + ": " + e.getMessage());
+            }
+        }
+        return checkpoints;
+    }
+
+    /**
+     * Newest modification time of a checkpoint's files (0 if none exist)
+     */
+    private static long lastWritten(File directory, String checksum) {
+        long newest = 0;
+        for (String suffix : new String[] {".meta", ".bitmap", ".part"}) {
+            newest = Math.max(newest, new File(directory, checksum + suffix).lastModified());
+        }
+        return newest;
+    }
+
+    private static void deleteFiles(File directory, String checksum) throws IOException {
+        for (String suffix : new String[] {".part", ".bitmap", ".bitmap.tmp", ".meta"}) {
+            Files.deleteIfExists(new File(directory, checksum + suffix).toPath());
+        }
+    }
+
+    public FileMetadata getMetadata() {
+        return metadata;
+    }
+
+    public File getPartialFile() {
+        return new File(directory, metadata.getChecksum() + ".part");
+    }
+
+    /**
+     * Write a decrypted chunk at its final offset and persist the bitmap
+     */
+    public synchronized void writeChunk(int chunkIndex, byte[] chunkData) throws IOException {
+        if (chunkIndex < 0 || chunkIndex >= metadata.getTotalChunks()) {
+            throw new IOException("Chunk index out of range: " + chunkIndex);
+        }
+        long offset = (long) chunkIndex * FileTransferHandler.CHUNK_SIZE;
+        if (chunkData.length > FileTransferHandler.CHUNK_SIZE || offset + chunkData.length > metadata.getFileSize()) {
+            throw new IOException("Chunk " + chunkIndex + " runs past the end of the file");
+        }
+        if (completed.get(chunkIndex)) {
+            return; // Duplicate after resume - already on disk
+        }
+
+        partialFile.seek(offset);
+        partialFile.write(chunkData);
+        partialFile.getFD().sync(); // On disk before the bitmap claims it
+        completed.set(chunkIndex);
+        saveBitmap();
+    }
+
+    public synchronized boolean hasChunk(int chunkIndex) {
+        return completed.get(chunkIndex);
+    }
+
+    public synchronized int getCompletedCount() {
+        return completed.cardinality();
+    }
+
+    public synchronized boolean isComplete() {
+        return completed.cardinality() == metadata.getTotalChunks();
+    }
+
+    public synchronized int getProgressPercentage() {
+        if (metadata.getTotalChunks() == 0) return 100;
+        return (int) (completed.cardinality() * 100.0 / metadata.getTotalChunks());
+    }
+
+    /**
+     * Missing chunk indexes as compact ranges, e.g. "0-3,7,9-12"
+     */
+    public synchronized String getMissingRanges() {
+        BitSet missing = new BitSet(metadata.getTotalChunks());
+        missing.set(0, metadata.getTotalChunks());
+        missing.andNot(completed);
+        return encodeRanges(missing);
+    }
+
+    /**
+     * Verify the assembled file against the SHA-256 checksum from the metadata
+     */
+    public synchronized boolean verifyChecksum() throws IOException {
+        partialFile.setLength(metadata.getFileSize());
+        partialFile.getFD().sync();
+        return FileTransferHandler.calculateChecksum(getPartialFile()).equals(metadata.getChecksum());
+    }
+
+    /**
+     * Finish the transfer: drop the bitmap and metadata, rename the output
+     *
+     * @return Completed file (still inside the transfer directory)
+     */
+    public synchronized File complete() throws IOException {
+        partialFile.close();
+        Files.deleteIfExists(new File(directory, metadata.getChecksum() + ".bitmap").toPath());
+        Files.deleteIfExists(new File(directory, metadata.getChecksum() + ".meta").toPath());
+
+        File doneFile = new File(directory, metadata.getChecksum() + ".done");
+        Files.move(getPartialFile().toPath(), doneFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        return doneFile;
+    }
+
+    public synchronized void close() {
+        try {
+            partialFile.close();
+        } catch (IOException e) {
+            // Ignore
+        }
+    }
+
+    /**
+     * Abandon the transfer: close and delete the partial file, bitmap and metadata
+     */
+    public synchronized void discard() throws IOException {
+        close();
+        deleteFiles(directory, metadata.getChecksum());
+    }
+
+    private void saveBitmap() throws IOException {
+        // Write-then-rename so a crash never leaves a torn bitmap behind
+        Path bitmap = new File(directory, metadata.getChecksum() + ".bitmap").toPath();
+        Path temp = new File(directory, metadata.getChecksum() + ".bitmap.tmp").toPath();
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer bytes = ByteBuffer.wrap(completed.toByteArray());
+            while (bytes.hasRemaining()) {
+                channel.write(bytes);
+            }
+            channel.force(false);
+        }
+        Files.move(temp, bitmap, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Encode set bits as ranges: {0,1,2,3,7} -> "0-3,7"
+     */
+    public static String encodeRanges(BitSet bits) {
+        StringBuilder sb = new StringBuilder();
+        int start = bits.nextSetBit(0);
+        while (start >= 0) {
+            int end = bits.nextClearBit(start) - 1;
+            if (sb.length() > 0) sb.append(',');
+            sb.append(start);
+            if (end > start) sb.append('-').append(end);
+            start = bits.nextSetBit(end + 1);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Decode ranges produced by encodeRanges
+     *
+     * The string comes from the peer, so every index must lie in [0, totalChunks)
+     * and every range must run forwards - otherwise nothing is allocated.
+     *
+     * @throws IllegalArgumentException if the list is malformed or out of range
+     */
+    public static BitSet decodeRanges(String ranges, int totalChunks) {
+        BitSet bits = new BitSet();
+        if (ranges == null || ranges.isEmpty()) {
+            return bits;
+        }
+        for (String range : ranges.split(",", -1)) {
+            int dash = range.indexOf('-');
+            int from = Integer.parseInt((dash < 0 ? range : range.substring(0, dash)).trim());
+            int to = dash < 0 ? from : Integer.parseInt(range.substring(dash + 1).trim());
+            if (from < 0 || from > to || to >= totalChunks) {
+                throw new IllegalArgumentException("Chunk range " + range + " outside 0-" + (totalChunks - 1));
+            }
+            bits.set(from, to + 1);
+        }
+        return bits;
+    }
+}
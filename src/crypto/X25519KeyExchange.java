@@ -0,0 +1,105 @@
+package crypto;
+
+import java.nio.charset.StandardCharsets;
+import java.security.KeyFactory;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.security.spec.X509EncodedKeySpec;
+import java.util.Base64;
+import java.util.HexFormat;
+import javax.crypto.KeyAgreement;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Ephemeral X25519 key agreement for the session key
+ *
+ * Alternative to RSA key transport (client picks the key, RSA-encrypts it,
+ * server decrypts). Both sides send an ephemeral X25519 public key signed
+ * with their RSA key, and each derives the same 128-bit BlockCipher key:
+ *
+ *   shared  = X25519(myPrivate, peerPublic)
+ *   prk     = HMAC-SHA256(salt = clientShare | serverShare, shared)   (HKDF-Extract)
+ *   key     = HMAC-SHA256(prk, info | 0x01)[0..16]                    (HKDF-Expand)
+ *
+ * Ephemeral keys also give forward secrecy: a leaked RSA key does not
+ * reveal past session keys.
+ */
+public class X25519KeyExchange {
+
+    private static final byte[] KDF_INFO = "fleurdelyx session key v1".getBytes(StandardCharsets.UTF_8);
+
+    private final KeyPair ephemeral;
+
+    public X25519KeyExchange() throws Exception {
+        this.ephemeral = KeyPairGenerator.getInstance("X25519").generateKeyPair();
+    }
+
+    public PublicKey getPublicKey() {
+        return ephemeral.getPublic();
+    }
+
+    /**
+     * Format: KEX||x25519||publicKey||SIG||rsaSignature
+     */
+    public String createAnnouncement(PrivateKey rsaIdentityKey) {
+        String statement = "x25519||" + Base64.getEncoder().encodeToString(ephemeral.getPublic().getEncoded());
+        return "KEX||" + statement + "||SIG||" + RSAUtil.signMessage(statement, rsaIdentityKey);
+    }
+
+    /**
+     * Parse a KEX line and check it was signed by the peer's RSA key
+     */
+    public static PublicKey readAnnouncement(String line, PublicKey rsaIdentityKey) throws Exception {
+        if (line == null || !line.startsWith("KEX||")) {
+            throw new IllegalArgumentException("Expected KEX key share");
+        }
+        String[] parts = line.substring("KEX||".length()).split("\\|\\|SIG\\|\\|");
+        if (parts.length != 2 || !RSAUtil.verifySignature(parts[0], parts[1], rsaIdentityKey)) {
+            throw new SecurityException("KEX key share not signed by peer identity");
+        }
+        String[] fields = parts[0].split("\\|\\|");
+        if (fields.length != 2 || !fields[0].equals("x25519")) {
+            throw new IllegalArgumentException("Unsupported key exchange: " + fields[0]);
+        }
+        byte[] keyBytes = Base64.getDecoder().decode(fields[1]);
+        return KeyFactory.getInstance("X25519").generatePublic(new X509EncodedKeySpec(keyBytes));
+    }
+
+    /**
+     * Derive the 32-hex-character session key for BlockCipher
+     *
+     * @param isServer orders the key shares in the salt so both sides agree
+     */
+    public String deriveSessionKey(PublicKey peerShare, boolean isServer) throws Exception {
+        KeyAgreement agreement = KeyAgreement.getInstance("X25519");
+        agreement.init(ephemeral.getPrivate());
+        agreement.doPhase(peerShare, true);
+        byte[] shared = agreement.generateSecret();
+
+        byte[] mine = ephemeral.getPublic().getEncoded();
+        byte[] theirs = peerShare.getEncoded();
+        byte[] salt = isServer ? concat(theirs, mine) : concat(mine, theirs);
+
+        byte[] prk = hmac(salt, shared);
+        byte[] okm = hmac(prk, concat(KDF_INFO, new byte[] {1}));
+        byte[] key = new byte[16];
+        System.arraycopy(okm, 0, key, 0, key.length);
+        return HexFormat.of().formatHex(key);
+    }
+
+    private static byte[] hmac(byte[] key, byte[] data) throws Exception {
+        Mac mac = Mac.getInstance("HmacSHA256");
+        mac.init(new SecretKeySpec(key, "HmacSHA256"));
+        return mac.doFinal(data);
+    }
+
+    private static byte[] concat(byte[] a, byte[] b) {
+        byte[] result = new byte[a.length + b.length];
+        System.arraycopy(a, 0, result, 0, a.length);
+        System.arraycopy(b, 0, result, a.length, b.length);
+        return result;
+    }
+}
@@ -0,0 +1,304 @@
+package network;
+
+import crypto.*;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Pipelined connection handshake shared by server and client
+ *
+ * Each side sends everything it can in a single flight (one write):
+ *
+ *   client: [RESUME||...]  publicKey  CAPS||...  [SIGKEY||...]  [KEX||...]
+ *   server: [RESUMED||... | RESUME_REJECTED||...]  publicKey  CAPS||...  [SIGKEY||...]  [KEX||...]  TICKET||...
+ *
+ * With X25519 both sides have the session key after one round trip and the
+ * server's flight already carries the next resumption ticket. A client
+ * holding a ticket still sends its full flight behind RESUME, so a
+ * declined ticket costs no extra round trip; an accepted one makes the
+ * server skip all public-key work. Only RSA key transport (X25519 disabled
+ * on either side) needs the extra client line with the encrypted key.
+ */
+public class Handshake {
+
+    private final KeyPair identity;
+    private final SessionCapabilities localCapabilities;
+    private PeerKeyCache peerKeyCache;
+    private String peerName;
+
+    /**
+     * Outcome of a handshake, everything the session needs to start
+     */
+    public static class Result {
+        private String sessionKey;
+        private PublicKey peerPublicKey;
+        private String peerPublicKeyString;
+        private SessionCapabilities capabilities;
+        private SignatureSuite signatureSuite = SignatureSuite.RSA;
+        private PrivateKey signingKey;
+        private PublicKey peerSigningKey;
+        private boolean resumed;
+        private boolean keyAgreed;
+        private PeerKeyCache.Status peerIdentityStatus; // null when no key is pinned for the peer (never CHANGED)
+        private String resumeDeclinedReason;            // client only, null unless a ticket was declined
+
+        public String getSessionKey() { return sessionKey; }
+        public PublicKey getPeerPublicKey() { return peerPublicKey; }
+        public String getPeerPublicKeyString() { return peerPublicKeyString; }
+        public SessionCapabilities getCapabilities() { return capabilities; }
+        public SignatureSuite getSignatureSuite() { return signatureSuite; }
+        public PrivateKey getSigningKey() { return signingKey; }
+        public PublicKey getPeerSigningKey() { return peerSigningKey; }
+        public boolean isResumed() { return resumed; }
+        public boolean isKeyAgreed() { return keyAgreed; }
+        public PeerKeyCache.Status getPeerIdentityStatus() { return peerIdentityStatus; }
+        public String getResumeDeclinedReason() { return resumeDeclinedReason; }
+    }
+
+    /**
+     * Our half of a full handshake, kept until the peer's flight arrives
+     */
+    private static class LocalFlight {
+        final List<String> lines = new ArrayList<>();
+        KeyPair ed25519Keys;
+        X25519KeyExchange keyExchange;
+    }
+
+    /**
+     * The peer's full-handshake flight
+     */
+    private static class PeerFlight {
+        String publicKey;
+        SessionCapabilities capabilities;
+        String signingKeyAnnouncement;
+        String keyShare;
+    }
+
+    public Handshake(KeyPair identity, SessionCapabilities localCapabilities) {
+        this.identity = identity;
+        this.localCapabilities = localCapabilities;
+    }
+
+    /**
+     * Pin the peer's identity key (trust on first use) under the given name
+     *
+     * A pinned key is checked on every handshake, full or resumed, whatever
+     * the peer advertises; a different key aborts the handshake.
+     */
+    public Handshake withPeerKeyCache(PeerKeyCache peerKeyCache, String peerName) {
+        this.peerKeyCache = peerKeyCache;
+        this.peerName = peerName;
+        return this;
+    }
+
+    public Result runClient(BufferedReader in, PrintWriter out, SessionTicket ticket) throws Exception {
+        LocalFlight local = createLocalFlight();
+        String clientNonce = null;
+        if (ticket != null && !ticket.isExpired()) {
+            clientNonce = SessionTicket.createNonce();
+            local.lines.add(0, ticket.createResumeRequest(clientNonce, RSAUtil.publicKeyToString(identity.getPublic())));
+        }
+        sendFlight(out, local.lines);
+
+        Result result = new Result();
+        String firstLine = in.readLine();
+        if (clientNonce != null) {
+            if (firstLine != null && firstLine.startsWith("RESUMED||")) {
+                return completeClientResume(firstLine, ticket, clientNonce, result);
+            }
+            result.resumeDeclinedReason = firstLine != null && firstLine.startsWith("RESUME_REJECTED||")
+                ? firstLine.substring("RESUME_REJECTED||".length()) : "no answer";
+            firstLine = in.readLine();
+        }
+
+        PeerFlight peer = readPeerFlight(firstLine, in);
+        completeFullHandshake(local, peer, false, result);
+        if (!result.keyAgreed) {
+            // RSA key transport: the client picks the key (needs the server's public key first)
+            result.sessionKey = KeyGenerator.generate128BitKeyHex();
+            out.println(RSAUtil.encryptWithPublicKey(result.sessionKey, result.peerPublicKey));
+        }
+        return result;
+    }
+
+    /**
+     * @param ticketIssuer null = no resumption (relay peers): RESUME is declined and no TICKET is sent
+     */
+    public Result runServer(BufferedReader in, PrintWriter out, TicketIssuer ticketIssuer) throws Exception {
+        Result result = new Result();
+        String firstLine = in.readLine();
+        String resumeRequest = null;
+        if (firstLine != null && firstLine.startsWith("RESUME||")) {
+            resumeRequest = firstLine;
+            firstLine = in.readLine();
+        }
+        PeerFlight peer = readPeerFlight(firstLine, in);
+
+        List<String> reply = new ArrayList<>();
+        if (resumeRequest != null) {
+            String[] parts = resumeRequest.substring("RESUME||".length()).split("\\|\\|");
+            try {
+                if (ticketIssuer == null) throw new GeneralSecurityException("resumption not offered");
+                if (parts.length != 4) throw new GeneralSecurityException("malformed request");
+                // The ticket only redeems for the client key it was issued to
+                TicketIssuer.Redemption redemption = ticketIssuer.redeem(parts[0], parts[1], parts[2], parts[3]);
+
+                // Fresh key from the ticket's key and both nonces - no public-key work on this path
+                String serverNonce = SessionTicket.createNonce();
+                String myPublicKey = RSAUtil.publicKeyToString(identity.getPublic());
+                result.sessionKey = SessionTicket.deriveResumedKey(redemption.getSessionKey(), parts[1], serverNonce);
+                reply.add("RESUMED||" + serverNonce + "||" + myPublicKey + "||" +
+                    SessionTicket.resumedMac(result.sessionKey, parts[1], serverNonce, myPublicKey));
+                applyResumed(result, parts[2], SessionCapabilities.fromProtocolString(redemption.getCapabilities()), true);
+                reply.add(ticketIssuer.issue(result.sessionKey, result.capabilities, parts[2]));
+                sendFlight(out, reply);
+                return result;
+            } catch (GeneralSecurityException e) {
+                System.out.println("[RESUME] Rejected: " + e.getMessage());
+                reply.add("RESUME_REJECTED||" + e.getMessage());
+            }
+        }
+
+        LocalFlight local = createLocalFlight();
+        reply.addAll(local.lines);
+        completeFullHandshake(local, peer, true, result);
+        if (result.keyAgreed) {
+            if (ticketIssuer != null) {
+                reply.add(ticketIssuer.issue(result.sessionKey, result.capabilities, result.peerPublicKeyString));
+            }
+            sendFlight(out, reply);
+        } else {
+            sendFlight(out, reply);
+            result.sessionKey = RSAUtil.decryptWithPrivateKey(in.readLine(), identity.getPrivate());
+            if (ticketIssuer != null) {
+                out.println(ticketIssuer.issue(result.sessionKey, result.capabilities, result.peerPublicKeyString));
+            }
+        }
+        return result;
+    }
+
+    private LocalFlight createLocalFlight() throws Exception {
+        LocalFlight flight = new LocalFlight();
+        flight.lines.add(RSAUtil.publicKeyToString(identity.getPublic()));
+        flight.lines.add(localCapabilities.toProtocolString());
+
+        // Ed25519 signing key for this session, vouched for by the RSA key
+        if (localCapabilities.supports(SessionCapabilities.ED25519_SIGNATURES)) {
+            flight.ed25519Keys = SignatureSuite.ED25519.generateKeyPair();
+            flight.lines.add(SignatureSuite.ED25519.createKeyAnnouncement(flight.ed25519Keys.getPublic(), identity.getPrivate()));
+        }
+
+        // Ephemeral X25519 share, so the session key needs no extra RSA-encrypted line
+        if (localCapabilities.supports(SessionCapabilities.X25519_KEY_AGREEMENT)) {
+            flight.keyExchange = new X25519KeyExchange();
+            flight.lines.add(flight.keyExchange.createAnnouncement(identity.getPrivate()));
+        }
+        return flight;
+    }
+
+    private static PeerFlight readPeerFlight(String firstLine, BufferedReader in) throws IOException {
+        if (firstLine == null) {
+            throw new IOException("Connection closed during handshake");
+        }
+        PeerFlight peer = new PeerFlight();
+        peer.publicKey = firstLine;
+        peer.capabilities = SessionCapabilities.fromProtocolString(in.readLine());
+        if (peer.capabilities.supports(SessionCapabilities.ED25519_SIGNATURES)) {
+            peer.signingKeyAnnouncement = in.readLine();
+        }
+        if (peer.capabilities.supports(SessionCapabilities.X25519_KEY_AGREEMENT)) {
+            peer.keyShare = in.readLine();
+        }
+        return peer;
+    }
+
+    private void completeFullHandshake(LocalFlight local, PeerFlight peer, boolean isServer, Result result) throws Exception {
+        result.peerPublicKeyString = peer.publicKey;
+        result.peerPublicKey = RSAUtil.stringToPublicKey(peer.publicKey);
+        result.capabilities = localCapabilities.negotiate(peer.capabilities);
+        checkPeerIdentity(peer.capabilities, isServer, result);
+
+        if (result.capabilities.supports(SessionCapabilities.X25519_KEY_AGREEMENT)) {
+            PublicKey peerShare = X25519KeyExchange.readAnnouncement(peer.keyShare, result.peerPublicKey);
+            result.sessionKey = local.keyExchange.deriveSessionKey(peerShare, isServer);
+            result.keyAgreed = true;
+        }
+
+        if (result.capabilities.supports(SessionCapabilities.ED25519_SIGNATURES)) {
+            result.signatureSuite = SignatureSuite.ED25519;
+            result.signingKey = local.ed25519Keys.getPrivate();
+            result.peerSigningKey = SignatureSuite.ED25519.readKeyAnnouncement(peer.signingKeyAnnouncement, result.peerPublicKey);
+        } else {
+            result.signingKey = identity.getPrivate();
+            result.peerSigningKey = result.peerPublicKey;
+        }
+        System.out.println("[HANDSHAKE] Negotiated features: " + result.capabilities);
+    }
+
+    private Result completeClientResume(String reply, SessionTicket ticket, String clientNonce, Result result) throws Exception {
+        // Server must prove it derived the same fresh key
+        String[] parts = reply.substring("RESUMED||".length()).split("\\|\\|");
+        if (parts.length != 3) throw new SecurityException("Malformed RESUMED reply");
+        String resumedKey = SessionTicket.deriveResumedKey(ticket.getSessionKey(), clientNonce, parts[0]);
+        if (!SessionTicket.macEquals(SessionTicket.resumedMac(resumedKey, clientNonce, parts[0], parts[1]), parts[2])) {
+            throw new SecurityException("Server could not prove the resumed session key");
+        }
+        if (!parts[1].equals(ticket.getServerPublicKey())) {
+            throw new SecurityException("Server resumed with another key than the ticket's session");
+        }
+        result.sessionKey = resumedKey;
+        applyResumed(result, parts[1], ticket.getCapabilities(), false);
+        return result;
+    }
+
+    private void applyResumed(Result result, String peerPublicKey, SessionCapabilities ticketCapabilities,
+                              boolean isServer) throws Exception {
+        // Handshake-only features (X25519, Ed25519 session keys) do not carry over
+        result.resumed = true;
+        result.peerPublicKeyString = peerPublicKey;
+        result.peerPublicKey = RSAUtil.stringToPublicKey(peerPublicKey);
+        result.capabilities = localCapabilities.negotiate(ticketCapabilities);
+        checkPeerIdentity(result.capabilities, isServer, result);
+        result.signingKey = identity.getPrivate();
+        result.peerSigningKey = result.peerPublicKey;
+        System.out.println("[HANDSHAKE] Resumed with features: " + result.capabilities);
+    }
+
+    /**
+     * Compare the peer's key with its pinned one; CAPS is not authenticated, so a pinned key is checked
+     * whether or not the peer advertises a persistent identity (only an advertised one gets pinned)
+     */
+    private void checkPeerIdentity(SessionCapabilities peerCapabilities, boolean isServer, Result result)
+            throws IOException {
+        if (peerKeyCache == null) return;
+        result.peerIdentityStatus = peerKeyCache.check(peerName, result.peerPublicKey,
+            peerCapabilities.supports(SessionCapabilities.PERSISTENT_IDENTITY));
+        if (result.peerIdentityStatus == null) return;
+        String fingerprint = IdentityStore.fingerprint(result.peerPublicKey);
+        System.out.println("[IDENTITY] " + peerName + " " + fingerprint + " " + result.peerIdentityStatus);
+        if (result.peerIdentityStatus == PeerKeyCache.Status.CHANGED) {
+            throw new SecurityException("Identity key of " + peerName + " changed (now " + fingerprint + "); if that is " +
+                "expected, run: IdentityStore forget " + (isServer ? "server" : "client") + " " + peerName);
+        }
+    }
+
+    /**
+     * Write all lines of a flight with a single flush (one segment instead of one per line)
+     */
+    private static void sendFlight(PrintWriter out, List<String> lines) {
+        StringBuilder flight = new StringBuilder();
+        for (String line : lines) {
+            flight.append(line).append('\n');
+        }
+        out.print(flight);
+        out.flush();
+    }
+}
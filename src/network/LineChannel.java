@@ -0,0 +1,51 @@
+package network;
+
+/**
+ * Connection that carries the chat protocol, one text line per frame
+ *
+ * Received lines go to the handler in arrival order, on the transport's
+ * own thread (a reader task or an event loop); sendLine() may be called
+ * from any thread.
+ */
+public interface LineChannel {
+
+    interface Handler {
+        /**
+         * One received line without its terminator; throwing closes the connection
+         */
+        void onLine(String line) throws Exception;
+
+        /**
+         * Connection ended; cause is null when the peer closed it cleanly
+         */
+        void onClosed(Exception cause);
+    }
+
+    /**
+     * Start delivering received lines to the handler
+     */
+    void start(Handler handler);
+
+    void sendLine(String line);
+
+    /**
+     * Send a line encoded once for many connections (broadcasts); written as text unless the channel can share it
+     */
+    default void sendFrame(SharedFrame frame) {
+        sendLine(frame.line());
+    }
+
+    /**
+     * Bytes accepted by sendLine()/sendFrame() but not yet written to the socket (0 if writes block instead)
+     */
+    default long getQueuedBytes() {
+        return 0;
+    }
+
+    /**
+     * Stop or resume reading from the peer; while paused its sends back up into the TCP window
+     */
+    void pauseReading(boolean paused);
+
+    void close();
+}
@@ -0,0 +1,59 @@
+package network;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Input stream that fails once a line grows past a limit
+ *
+ * Sits under the reader of a connection, so a peer that never sends a
+ * newline costs at most the limit plus one read buffer instead of whatever
+ * it can push before readLine() returns. Checked as bytes arrive, not after
+ * the line is complete.
+ *
+ * A stream rather than a Reader on purpose: BufferedReader synchronizes on
+ * any Reader subclass it wraps, which pins a virtual thread to its carrier
+ * for as long as it waits on the socket.
+ */
+public class LineLimitInputStream extends FilterInputStream {
+
+    private final int maxLineLength;
+    private int lineLength; // bytes since the last newline
+
+    public LineLimitInputStream(InputStream in, int maxLineLength) {
+        super(in);
+        if (maxLineLength < 1) {
+            throw new IllegalArgumentException("Line limit must be positive: " + maxLineLength);
+        }
+        this.maxLineLength = maxLineLength;
+    }
+
+    public int getMaxLineLength() {
+        return maxLineLength;
+    }
+
+    @Override
+    public int read() throws IOException {
+        int b = in.read();
+        if (b != -1) count(b);
+        return b;
+    }
+
+    @Override
+    public int read(byte[] buffer, int off, int len) throws IOException {
+        int n = in.read(buffer, off, len);
+        for (int i = off; i < off + n; i++) {
+            count(buffer[i]);
+        }
+        return n;
+    }
+
+    private void count(int b) throws IOException {
+        if (b == '\n' || b == '\r') {
+            lineLength = 0;
+        } else if (++lineLength > maxLineLength) {
+            throw new IOException("Line longer than " + maxLineLength + " bytes");
+        }
+    }
+}
@@ -0,0 +1,252 @@
+package network;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Line channel on a non-blocking SocketChannel, driven by an NioEventLoop
+ *
+ * Read side: one heap ByteBuffer per connection that holds only the
+ * current partial line. It starts at 1KB, doubles for long lines up to the
+ * line limit and shrinks back once the line is done, so an idle connection
+ * costs about 1KB and no thread. Pausing takes effect before the next line,
+ * even within one read; lines already buffered are handed over on resume.
+ *
+ * Write side: sendLine() encodes the line into its own ByteBuffer and
+ * queues it; sendFrame() queues a view of a frame encoded once for many
+ * connections. The loop writes the queue until the socket buffer is full
+ * and then waits for OP_WRITE. Callers never block on a slow peer.
+ */
+public class NioConnection implements LineChannel, NioEventLoop.KeyHandler {
+
+    public static final int INITIAL_READ_BUFFER = 1024;
+    public static final int DEFAULT_MAX_LINE_LENGTH = 16 * 1024 * 1024; // file chunks are megabytes per line
+
+    private final SocketChannel channel;
+    private final NioEventLoop loop;
+    private final int maxLineLength;
+    private final Queue<ByteBuffer> writeQueue = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean flushScheduled = new AtomicBoolean();
+    private final AtomicBoolean closed = new AtomicBoolean();
+    private final AtomicLong queuedBytes = new AtomicLong();
+
+    // Event loop thread only
+    private ByteBuffer readBuffer;   // [0, position) = unprocessed bytes
+    private int scanned;             // bytes at the front already known to hold no newline
+    private SelectionKey key;
+    private Handler handler;
+
+    private volatile boolean readPaused; // set by any thread, applied to the key on the loop thread
+    private volatile boolean registered;
+
+    /**
+     * @param alreadyRead bytes the handshake's reader had buffered past its last line
+     */
+    public NioConnection(SocketChannel channel, NioEventLoop loop, byte[] alreadyRead, int maxLineLength) {
+        this.channel = channel;
+        this.loop = loop;
+        this.maxLineLength = maxLineLength;
+        this.readBuffer = ByteBuffer.allocate(Math.max(INITIAL_READ_BUFFER, alreadyRead.length));
+        this.readBuffer.put(alreadyRead);
+        loop.connectionAssigned();
+    }
+
+    public NioEventLoop getLoop() {
+        return loop;
+    }
+
+    /**
+     * Bytes queued for the peer but not yet written to the socket
+     */
+    @Override
+    public long getQueuedBytes() {
+        return queuedBytes.get();
+    }
+
+    public boolean isClosed() {
+        return closed.get();
+    }
+
+    @Override
+    public void start(Handler handler) {
+        this.handler = handler;
+        loop.execute(this::register);
+    }
+
+    @Override
+    public void sendLine(String line) {
+        if (closed.get()) return;
+        enqueue(ByteBuffer.wrap((line + "\n").getBytes(StandardCharsets.UTF_8)));
+    }
+
+    @Override
+    public void sendFrame(SharedFrame frame) {
+        if (closed.get()) return;
+        enqueue(frame.view()); // counted in full, though the bytes are shared
+    }
+
+    @Override
+    public void pauseReading(boolean paused) {
+        readPaused = paused; // drainLines() checks it before every line
+        loop.execute(this::applyPause);
+    }
+
+    /**
+     * Match the read interest to the latest pauseReading() call; on resume, hand over the lines that waited
+     */
+    private void applyPause() {
+        if (key == null || !key.isValid()) return; // register() applies it
+        boolean paused = readPaused;
+        key.interestOps(paused ? key.interestOps() & ~SelectionKey.OP_READ : key.interestOps() | SelectionKey.OP_READ);
+        if (!paused) {
+            try {
+                drainLines();
+            } catch (Exception e) {
+                fail(e);
+            }
+        }
+    }
+
+    private void enqueue(ByteBuffer buffer) {
+        queuedBytes.addAndGet(buffer.remaining());
+        writeQueue.add(buffer);
+        if (flushScheduled.compareAndSet(false, true)) {
+            loop.execute(this::flush);
+        }
+    }
+
+    @Override
+    public void close() {
+        if (!closed.compareAndSet(false, true)) return;
+        try {
+            channel.close(); // also cancels the selection key
+        } catch (IOException e) {
+            // Ignore
+        }
+        writeQueue.clear();
+        queuedBytes.set(0);
+        loop.connectionClosed();
+    }
+
+    private void register() {
+        if (closed.get()) return;
+        try {
+            channel.configureBlocking(false);
+            key = channel.register(loop.selector(), readPaused ? 0 : SelectionKey.OP_READ, this);
+            registered = true;
+            drainLines(); // lines that arrived together with the handshake
+            flush();
+        } catch (Exception e) {
+            fail(e);
+        }
+    }
+
+    /**
+     * Called by the loop for a selected key
+     */
+    @Override
+    public void onReady(SelectionKey key) {
+        try {
+            if (key.isReadable()) {
+                read();
+            }
+            if (key.isValid() && key.isWritable()) {
+                flush();
+            }
+        } catch (Exception e) {
+            fail(e);
+        }
+    }
+
+    private void read() throws Exception {
+        int n = channel.read(readBuffer);
+        if (n < 0) {
+            close();
+            handler.onClosed(null);
+            return;
+        }
+        loop.recordRead(n, 0);
+        drainLines();
+    }
+
+    /**
+     * Hand every complete line to the handler, until it pauses reading, and keep the rest
+     */
+    private void drainLines() throws Exception {
+        byte[] data = readBuffer.array();
+        int end = readBuffer.position();
+        int start = 0;
+        int lines = 0;
+        int i = scanned;
+        for (; i < end && !closed.get() && !readPaused; i++) {
+            if (data[i] == '\n') {
+                int lineEnd = i > start && data[i - 1] == '\r' ? i - 1 : i;
+                handler.onLine(new String(data, start, lineEnd - start, StandardCharsets.UTF_8));
+                start = i + 1;
+                lines++;
+            }
+        }
+        loop.recordRead(0, lines);
+        if (closed.get()) return;
+
+        if (i < end) {
+            // Paused with lines left: keep them for applyPause(), no more reads until then
+            System.arraycopy(data, start, data, 0, end - start);
+            readBuffer.position(end - start);
+            scanned = i - start;
+            return;
+        }
+        int partial = end - start;
+        if (partial > maxLineLength) {
+            throw new IOException("Line longer than " + maxLineLength + " bytes");
+        }
+        if (partial == 0 && readBuffer.capacity() > INITIAL_READ_BUFFER) {
+            readBuffer = ByteBuffer.allocate(INITIAL_READ_BUFFER); // long line done - give the memory back
+        } else if (partial == readBuffer.capacity()) {
+            ByteBuffer larger = ByteBuffer.allocate((int) Math.min((long) readBuffer.capacity() * 2, maxLineLength + 2L));
+            larger.put(data, 0, partial);
+            readBuffer = larger;
+        } else if (start > 0) {
+            System.arraycopy(data, start, data, 0, partial);
+            readBuffer.position(partial);
+        }
+        scanned = partial;
+    }
+
+    private void flush() {
+        flushScheduled.set(false); // lines queued from here on schedule another flush
+        if (!registered || closed.get()) return; // register() flushes what was queued before
+        try {
+            ByteBuffer head;
+            while ((head = writeQueue.peek()) != null) {
+                int written = channel.write(head);
+                queuedBytes.addAndGet(-written);
+                loop.recordWrite(written);
+                if (head.hasRemaining()) {
+                    // Socket buffer full: continue when the peer has read some
+                    key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+                    return;
+                }
+                writeQueue.poll();
+            }
+            if ((key.interestOps() & SelectionKey.OP_WRITE) != 0) {
+                key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+            }
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+
+    private void fail(Exception e) {
+        if (closed.get()) return;
+        close();
+        handler.onClosed(e);
+    }
+}
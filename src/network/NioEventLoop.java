@@ -0,0 +1,216 @@
+package network;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * One selector thread serving many non-blocking connections
+ *
+ * Everything that touches a connection's selection key or read buffer runs
+ * on this thread; other threads hand work over with execute(). Line
+ * handlers are called here as well, so they must not block - decryption
+ * goes to the crypto workers (OrderedPipeline).
+ *
+ * Counters (lines, bytes, tasks, busy time) are plain fields of the loop
+ * thread and published once per select round, so the hot path takes no
+ * locks and no atomic instructions for metrics.
+ */
+public class NioEventLoop implements AutoCloseable {
+
+    private final String name;
+    private final Selector selector;
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean wakeupPending = new AtomicBoolean();
+    private final AtomicInteger connectionCount = new AtomicInteger();
+    private final Thread thread;
+    private final long startNanos = System.nanoTime();
+    private ByteBuffer transferBuffer;   // event loop thread only, see transferBuffer()
+    private volatile boolean running = true;
+
+    // Event loop thread only, published to stats() by publish()
+    private long linesIn;
+    private long bytesIn;
+    private long bytesOut;
+    private long tasksRun;
+    private long busyNanos;
+    private volatile Counters published = new Counters(0, 0, 0, 0, 0);
+
+    /**
+     * What a selection key of this loop is attached to (a line connection or a relay link)
+     */
+    interface KeyHandler {
+        void onReady(SelectionKey key);
+
+        void close();
+    }
+
+    private record Counters(long linesIn, long bytesIn, long bytesOut, long tasks, long busyNanos) {}
+
+    /**
+     * Snapshot of one loop's load
+     *
+     * @param busyNanos time spent handling events and tasks rather than waiting in select
+     */
+    public record Stats(String name, int connections, long linesIn, long bytesIn, long bytesOut,
+                        long tasks, long busyNanos, long uptimeNanos) {
+
+        public double busyPercent() {
+            return uptimeNanos > 0 ? 100.0 * busyNanos / uptimeNanos : 0;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s: %d connections, %d lines, %d KB in, %d KB out, %d tasks, %.1f%% busy",
+                name, connections, linesIn, bytesIn / 1024, bytesOut / 1024, tasks, busyPercent());
+        }
+    }
+
+    public NioEventLoop(String name) throws IOException {
+        this.name = name;
+        this.selector = Selector.open();
+        this.thread = Thread.ofPlatform().name(name).daemon().start(this::run);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public boolean inEventLoop() {
+        return Thread.currentThread() == thread;
+    }
+
+    /**
+     * Run a task on the loop thread (one selector wakeup per batch of tasks)
+     */
+    public void execute(Runnable task) {
+        tasks.add(task);
+        if (!inEventLoop() && wakeupPending.compareAndSet(false, true)) {
+            selector.wakeup();
+        }
+    }
+
+    /**
+     * Connections assigned to this loop and not closed yet (including ones still registering)
+     */
+    public int getConnectionCount() {
+        return connectionCount.get();
+    }
+
+    /**
+     * Load counters as of the last select round
+     */
+    public Stats stats() {
+        Counters counters = published;
+        return new Stats(name, connectionCount.get(), counters.linesIn(), counters.bytesIn(), counters.bytesOut(),
+            counters.tasks(), counters.busyNanos(), System.nanoTime() - startNanos);
+    }
+
+    Selector selector() {
+        return selector;
+    }
+
+    /**
+     * Scratch buffer for bytes that pass straight through the loop (relay links);
+     * one per loop, since only the loop thread uses it
+     */
+    ByteBuffer transferBuffer() {
+        if (transferBuffer == null) {
+            transferBuffer = ByteBuffer.allocateDirect(64 * 1024);
+        }
+        return transferBuffer.clear();
+    }
+
+    void connectionAssigned() {
+        connectionCount.incrementAndGet();
+    }
+
+    void connectionClosed() {
+        connectionCount.decrementAndGet();
+    }
+
+    // Called by connections on the loop thread
+
+    void recordRead(int bytes, int lines) {
+        bytesIn += bytes;
+        linesIn += lines;
+    }
+
+    void recordWrite(int bytes) {
+        bytesOut += bytes;
+    }
+
+    private void run() {
+        while (running) {
+            try {
+                // Tasks queued by the loop itself (a handler sending a line) need no wakeup
+                if (tasks.isEmpty()) {
+                    selector.select();
+                } else {
+                    selector.selectNow();
+                }
+                long awake = System.nanoTime();
+                wakeupPending.set(false); // tasks added from here on wake the next select
+                runTasks();
+                Set<SelectionKey> selected = selector.selectedKeys();
+                for (SelectionKey key : selected) {
+                    if (key.isValid()) { // may have been closed by an earlier key in this round
+                        ((KeyHandler) key.attachment()).onReady(key);
+                    }
+                }
+                selected.clear();
+                busyNanos += System.nanoTime() - awake;
+                publish();
+            } catch (IOException e) {
+                System.out.println("[NIO] " + name + ": " + e.getMessage());
+            }
+        }
+        for (SelectionKey key : selector.keys()) {
+            ((KeyHandler) key.attachment()).close();
+        }
+        try {
+            selector.close();
+        } catch (IOException e) {
+            // Ignore
+        }
+    }
+
+    private void runTasks() {
+        Runnable task;
+        while ((task = tasks.poll()) != null) {
+            tasksRun++;
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                System.out.println("[NIO] " + name + ": task failed: " + e);
+            }
+        }
+    }
+
+    private void publish() {
+        Counters last = published;
+        if (last.tasks() != tasksRun || last.linesIn() != linesIn || last.bytesIn() != bytesIn || last.bytesOut() != bytesOut) {
+            published = new Counters(linesIn, bytesIn, bytesOut, tasksRun, busyNanos);
+        }
+    }
+
+    /**
+     * Stop the loop and close its connections
+     */
+    @Override
+    public void close() {
+        running = false;
+        selector.wakeup();
+        try {
+            thread.join(2000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
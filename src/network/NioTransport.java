@@ -0,0 +1,188 @@
+package network;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.ToLongFunction;
+
+/**
+ * Event loop shards shared by all non-blocking connections
+ *
+ * One loop per core by default. A connection is assigned to a shard when it
+ * is adopted after the handshake and stays there: its read buffer, selection
+ * key and line handler (the session's MAC check and receive pipeline) are
+ * only touched by that shard's thread, so the per-session locks on the
+ * receive path are never contended. Traffic for a connection on another
+ * shard - a hub routing a message from one client to the others - crosses
+ * over through the target connection's write queue and the shard's task
+ * queue, both lock-free.
+ *
+ * A handful of loops is enough for tens of thousands of mostly idle
+ * connections - they only wake up when a peer sends something. stats()
+ * shows how evenly the work is spread.
+ */
+public class NioTransport implements AutoCloseable {
+
+    /**
+     * How adopted connections are assigned to shards
+     */
+    public enum Placement {
+        /** In turn, ignoring load */
+        ROUND_ROBIN,
+        /** By client address: reconnects from one host land on the same shard */
+        HASH,
+        /** Shard with the fewest open connections */
+        LEAST_LOADED
+    }
+
+    private final NioEventLoop[] loops;
+    private final Placement placement;
+    private final AtomicInteger nextLoop = new AtomicInteger();
+
+    public NioTransport(int loopCount) throws IOException {
+        this(loopCount, Placement.LEAST_LOADED);
+    }
+
+    public NioTransport(int loopCount, Placement placement) throws IOException {
+        this.loops = new NioEventLoop[loopCount];
+        this.placement = placement;
+        for (int i = 0; i < loopCount; i++) {
+            loops[i] = new NioEventLoop("nio-loop-" + i);
+        }
+    }
+
+    /**
+     * Number of event loops (fleurdelyx.nioLoops, default one per core)
+     */
+    public static int loopCount() {
+        int configured = Integer.getInteger("fleurdelyx.nioLoops", 0);
+        return configured > 0 ? configured : Runtime.getRuntime().availableProcessors();
+    }
+
+    /**
+     * Shard assignment (fleurdelyx.nioPlacement = round-robin, hash or least-loaded)
+     */
+    public static Placement placement() {
+        String configured = System.getProperty("fleurdelyx.nioPlacement", "least-loaded");
+        return Placement.valueOf(configured.toUpperCase(Locale.ROOT).replace('-', '_'));
+    }
+
+    /**
+     * Take over a connected channel whose handshake ran in blocking mode
+     */
+    public NioConnection adopt(SocketChannel channel, byte[] alreadyRead, int maxLineLength) {
+        return new NioConnection(channel, select(channel), alreadyRead, maxLineLength);
+    }
+
+    /**
+     * Splice two connected channels on one loop (the relay); both must be in blocking mode with nothing buffered
+     */
+    public RelayLink splice(SocketChannel first, SocketChannel second) {
+        return new RelayLink(first, second, select(first));
+    }
+
+    private NioEventLoop select(SocketChannel channel) {
+        int next = Math.floorMod(nextLoop.getAndIncrement(), loops.length);
+        return switch (placement) {
+            case ROUND_ROBIN -> loops[next];
+            case HASH -> {
+                int hash = addressHash(channel);
+                yield loops[Math.floorMod(hash != 0 ? hash : next, loops.length)];
+            }
+            case LEAST_LOADED -> {
+                // Scan from the round-robin position so equal loads still rotate
+                NioEventLoop best = loops[next];
+                for (int i = 1; i < loops.length; i++) {
+                    NioEventLoop loop = loops[(next + i) % loops.length];
+                    if (loop.getConnectionCount() < best.getConnectionCount()) {
+                        best = loop;
+                    }
+                }
+                yield best;
+            }
+        };
+    }
+
+    private static int addressHash(SocketChannel channel) {
+        try {
+            SocketAddress remote = channel.getRemoteAddress();
+            if (remote instanceof InetSocketAddress address && address.getAddress() != null) {
+                int h = address.getAddress().hashCode();
+                return h ^ (h >>> 16); // spread the low octets of IPv4 addresses
+            }
+        } catch (IOException e) {
+            // Not connected - fall back to round-robin
+        }
+        return 0;
+    }
+
+    public int getLoopCount() {
+        return loops.length;
+    }
+
+    public Placement getPlacement() {
+        return placement;
+    }
+
+    public int getConnectionCount() {
+        int count = 0;
+        for (NioEventLoop loop : loops) {
+            count += loop.getConnectionCount();
+        }
+        return count;
+    }
+
+    /**
+     * Per-shard load, in shard order
+     */
+    public List<NioEventLoop.Stats> stats() {
+        List<NioEventLoop.Stats> stats = new ArrayList<>(loops.length);
+        for (NioEventLoop loop : loops) {
+            stats.add(loop.stats());
+        }
+        return stats;
+    }
+
+    /**
+     * Busiest shard relative to the average: 1.0 = perfectly even, 2.0 = one shard has twice its share
+     */
+    public static double imbalance(List<NioEventLoop.Stats> stats, ToLongFunction<NioEventLoop.Stats> load) {
+        long total = 0;
+        long max = 0;
+        for (NioEventLoop.Stats s : stats) {
+            long value = load.applyAsLong(s);
+            total += value;
+            max = Math.max(max, value);
+        }
+        return total == 0 ? 1.0 : (double) max * stats.size() / total;
+    }
+
+    /**
+     * One line per shard plus the imbalance of connections, traffic and busy time
+     */
+    public String describeStats() {
+        List<NioEventLoop.Stats> stats = stats();
+        StringBuilder sb = new StringBuilder();
+        for (NioEventLoop.Stats s : stats) {
+            sb.append(s).append('\n');
+        }
+        sb.append(String.format("imbalance (%s): connections %.2fx, lines %.2fx, busy %.2fx",
+            placement.name().toLowerCase(Locale.ROOT).replace('_', '-'),
+            imbalance(stats, NioEventLoop.Stats::connections),
+            imbalance(stats, NioEventLoop.Stats::linesIn),
+            imbalance(stats, NioEventLoop.Stats::busyNanos)));
+        return sb.toString();
+    }
+
+    @Override
+    public void close() {
+        for (NioEventLoop loop : loops) {
+            loop.close();
+        }
+    }
+}
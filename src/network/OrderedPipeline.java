@@ -0,0 +1,186 @@
+package network;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+/**
+ * Runs receive-side crypto on worker threads and delivers the results in arrival order
+ *
+ * The socket reader only parses a frame and submits the expensive part
+ * (decryption, signature verification) as a task. Tasks run in parallel on
+ * a shared pool; a sequencer hands the results to the sink strictly in
+ * submission order, so anything order-dependent (stream decompression,
+ * counters, the chat view) still sees frames one at a time.
+ *
+ * At most maxInFlight frames are pending; beyond that submit() blocks the
+ * reader, which pushes back on the sender through TCP. A reader that must
+ * not block (an event loop serving many connections) passes pauseReading
+ * instead: the frame in hand is taken past the limit, reading stops, and it
+ * resumes once half the limit is free again.
+ */
+public class OrderedPipeline<T> {
+
+    private static final int DEFAULT_IN_FLIGHT_PER_WORKER = 8;
+
+    private static ExecutorService sharedWorkers;
+
+    /**
+     * Ordered stage, called for each result in submission order
+     */
+    public interface Sink<T> {
+        void accept(T result) throws Exception;
+    }
+
+    private final ExecutorService workers;
+    private final Sink<T> sink;
+    private final Consumer<Exception> onError;
+    private final Semaphore inFlight;
+    private final Consumer<Boolean> pauseReading;  // null = submit() blocks instead
+    private final int resumeAt;                    // free permits before reading resumes
+    private final AtomicInteger overdrawn = new AtomicInteger(); // frames taken past the limit, holding no permit
+    private final ReentrantLock pauseLock = new ReentrantLock();
+    private volatile boolean readerPaused;         // changed under pauseLock
+
+    private final Map<Long, Object> completed = new HashMap<>(); // sequence -> result or Failure
+    private long nextSequence;   // submit() side (one reader thread)
+    private long nextDelivery;   // guarded by this
+    private volatile boolean closed;
+
+    private static final class Failure {
+        final Exception error;
+
+        Failure(Exception error) {
+            this.error = error;
+        }
+    }
+
+    public OrderedPipeline(ExecutorService workers, int maxInFlight, Sink<T> sink, Consumer<Exception> onError) {
+        this(workers, maxInFlight, sink, onError, null);
+    }
+
+    /**
+     * @param pauseReading stops (true) or resumes (false) the reader when the pipeline is full; null = block in submit()
+     */
+    public OrderedPipeline(ExecutorService workers, int maxInFlight, Sink<T> sink, Consumer<Exception> onError,
+                           Consumer<Boolean> pauseReading) {
+        this.workers = workers;
+        this.inFlight = new Semaphore(maxInFlight);
+        this.sink = sink;
+        this.onError = onError;
+        this.pauseReading = pauseReading;
+        this.resumeAt = Math.max(1, maxInFlight / 2);
+    }
+
+    /**
+     * Pipeline on the shared crypto pool with the default in-flight limit; a full pipeline pauses the reader
+     */
+    public static <T> OrderedPipeline<T> onSharedWorkers(Sink<T> sink, Consumer<Exception> onError,
+                                                         Consumer<Boolean> pauseReading) {
+        return new OrderedPipeline<>(sharedWorkers(), workerCount() * DEFAULT_IN_FLIGHT_PER_WORKER, sink, onError,
+            pauseReading);
+    }
+
+    /**
+     * Worker count from -Dfleurdelyx.cryptoWorkers (default one per core)
+     */
+    public static int workerCount() {
+        int cores = Runtime.getRuntime().availableProcessors();
+        return Math.max(1, Integer.getInteger("fleurdelyx.cryptoWorkers", cores));
+    }
+
+    public static synchronized ExecutorService sharedWorkers() {
+        if (sharedWorkers == null) {
+            AtomicInteger count = new AtomicInteger();
+            sharedWorkers = Executors.newFixedThreadPool(workerCount(), r -> {
+                Thread thread = new Thread(r, "crypto-worker-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return sharedWorkers;
+    }
+
+    /**
+     * Queue one frame's work (called by the reader thread; while the pipeline is full it blocks, or
+     * pauses the reader if there is pauseReading)
+     */
+    public void submit(Callable<T> task) throws InterruptedException {
+        if (pauseReading == null) {
+            inFlight.acquire();
+        } else if (!inFlight.tryAcquire()) {
+            // The reader has read the frame already: take it anyway and stop reading more
+            overdrawn.incrementAndGet();
+            pauseReader(true);
+        }
+        long sequence = nextSequence++;
+        workers.execute(() -> {
+            Object result;
+            try {
+                result = task.call();
+            } catch (Exception e) {
+                result = new Failure(e);
+            }
+            complete(sequence, result);
+        });
+    }
+
+    /**
+     * Drop everything not delivered yet (session ended)
+     */
+    public void close() {
+        closed = true;
+    }
+
+    @SuppressWarnings("unchecked")
+    private synchronized void complete(long sequence, Object result) {
+        completed.put(sequence, result);
+        while (completed.containsKey(nextDelivery)) {
+            Object next = completed.remove(nextDelivery++);
+            releasePermit();
+            if (closed) continue;
+            try {
+                if (next instanceof Failure failure) {
+                    onError.accept(failure.error);
+                } else {
+                    sink.accept((T) next);
+                }
+            } catch (Exception e) {
+                onError.accept(e);
+            }
+        }
+    }
+
+    /**
+     * One frame less in flight: repay a frame taken past the limit first, then free a permit
+     */
+    private void releasePermit() {
+        int owed;
+        do {
+            owed = overdrawn.get();
+        } while (owed > 0 && !overdrawn.compareAndSet(owed, owed - 1));
+        if (owed == 0) inFlight.release();
+        if (readerPaused) pauseReader(false);
+    }
+
+    /**
+     * Pause the reader, or resume it once nothing is overdrawn and half the limit is free
+     */
+    private void pauseReader(boolean paused) {
+        pauseLock.lock();
+        try {
+            if (readerPaused == paused) return;
+            if (!paused && (overdrawn.get() > 0 || inFlight.availablePermits() < resumeAt)) return;
+            readerPaused = paused;
+            pauseReading.accept(paused);
+        } finally {
+            pauseLock.unlock();
+        }
+    }
+}
@@ -0,0 +1,153 @@
+package network;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Per-connection and global limits on what peers may send, in frames and bytes per second
+ *
+ * limit() wraps a connection so every received line is charged to four
+ * token buckets: the connection's own frame and byte buckets and the two
+ * shared by all connections of this limiter. When any of them runs dry the
+ * connection stops reading (pauseReading) until the debt is paid back; the
+ * peer's further frames wait in TCP buffers and, once the window is full,
+ * in the peer's own send call. Nothing is dropped, so MAC sequence numbers
+ * and the receive order stay intact - a flooding client just gets the
+ * rate it is allowed and its neighbours keep theirs.
+ *
+ * Bursts up to one second's worth pass without delay.
+ */
+public class RateLimiter {
+
+    /**
+     * Rates for one bucket pair; rates of 0 mean unlimited
+     */
+    public record Limits(double framesPerSecond, double bytesPerSecond) {
+        public static final Limits UNLIMITED = new Limits(0, 0);
+
+        TokenBucket frameBucket() {
+            return framesPerSecond > 0 ? new TokenBucket(framesPerSecond, framesPerSecond) : null;
+        }
+
+        TokenBucket byteBucket() {
+            return bytesPerSecond > 0 ? new TokenBucket(bytesPerSecond, bytesPerSecond) : null;
+        }
+    }
+
+    private final Limits perConnection;
+    private final TokenBucket globalFrames;
+    private final TokenBucket globalBytes;
+    private final AtomicLong throttled = new AtomicLong();
+    private final AtomicLong throttledNanos = new AtomicLong();
+
+    public RateLimiter(Limits perConnection, Limits global) {
+        this.perConnection = perConnection;
+        this.globalFrames = global.frameBucket();
+        this.globalBytes = global.byteBucket();
+    }
+
+    /**
+     * Connection that enforces the limits on what it receives
+     */
+    public LineChannel limit(LineChannel channel) {
+        return new Throttled(channel);
+    }
+
+    /**
+     * Times a connection was paused for exceeding a limit
+     */
+    public long getThrottled() {
+        return throttled.get();
+    }
+
+    /**
+     * Total time connections spent paused by the limits
+     */
+    public long getThrottledMillis() {
+        return throttledNanos.get() / 1_000_000;
+    }
+
+    private static long take(TokenBucket bucket, double amount) {
+        return bucket != null ? bucket.take(amount) : 0;
+    }
+
+    private final class Throttled implements LineChannel {
+        private final LineChannel channel;
+        private final TokenBucket frames = perConnection.frameBucket();
+        private final TokenBucket bytes = perConnection.byteBucket();
+        private boolean pausedByOwner;  // guarded by this
+        private boolean pausedByLimit;  // guarded by this
+
+        Throttled(LineChannel channel) {
+            this.channel = channel;
+        }
+
+        @Override
+        public void start(Handler handler) {
+            channel.start(new Handler() {
+                @Override
+                public void onLine(String line) throws Exception {
+                    charge(line.length() + 1);
+                    handler.onLine(line);
+                }
+
+                @Override
+                public void onClosed(Exception cause) {
+                    handler.onClosed(cause);
+                }
+            });
+        }
+
+        /**
+         * Charge one frame; pause reading for the longest wait any bucket asks for
+         */
+        private void charge(int size) {
+            long wait = Math.max(Math.max(take(frames, 1), take(bytes, size)),
+                                 Math.max(take(globalFrames, 1), take(globalBytes, size)));
+            if (wait == 0) return;
+            synchronized (this) {
+                if (pausedByLimit) return; // already waiting; the debt carries over to the next check
+                pausedByLimit = true;
+                if (!pausedByOwner) channel.pauseReading(true);
+            }
+            throttled.incrementAndGet();
+            throttledNanos.addAndGet(wait);
+            Thread.ofVirtual().name("rate-limit").start(() -> {
+                try {
+                    Thread.sleep(wait / 1_000_000, (int) (wait % 1_000_000));
+                } catch (InterruptedException e) {
+                    // Resume early
+                }
+                synchronized (this) {
+                    pausedByLimit = false;
+                    if (!pausedByOwner) channel.pauseReading(false);
+                }
+            });
+        }
+
+        @Override
+        public synchronized void pauseReading(boolean paused) {
+            pausedByOwner = paused;
+            if (!pausedByLimit) channel.pauseReading(paused);
+        }
+
+        @Override
+        public void sendLine(String line) {
+            channel.sendLine(line);
+        }
+
+        @Override
+        public void sendFrame(SharedFrame frame) {
+            channel.sendFrame(frame);
+        }
+
+        @Override
+        public long getQueuedBytes() {
+            return channel.getQueuedBytes();
+        }
+
+        @Override
+        public void close() {
+            channel.close();
+        }
+    }
+}
@@ -0,0 +1,159 @@
+package network;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Two connections spliced together on one event loop, bytes forwarded as is
+ *
+ * Whatever one peer sends is read into the loop's transfer buffer and
+ * written straight to the other peer - no line framing, no decoding, no
+ * Strings. Only when the receiving socket is full are the leftover bytes
+ * copied aside; reading from the sender then pauses until they are written,
+ * so a slow peer throttles the fast one instead of growing a buffer. An
+ * idle link holds no buffer at all.
+ *
+ * Both ends sit on the same loop, so forwarding never crosses threads.
+ */
+public class RelayLink {
+
+    private final NioEventLoop loop;
+    private final End first;
+    private final End second;
+    private final AtomicBoolean closed = new AtomicBoolean();
+
+    /**
+     * One spliced connection; bytes read here go to the other end
+     */
+    private final class End implements NioEventLoop.KeyHandler {
+        final SocketChannel channel;
+        End other;
+        SelectionKey key;
+        ByteBuffer pending;   // bytes for this end the socket did not take yet (loop thread only)
+        boolean ended;        // this end sent EOF; close once the other end is flushed
+        volatile boolean throttled; // reading from this end paused until the other end drains
+
+        End(SocketChannel channel) {
+            this.channel = channel;
+        }
+
+        @Override
+        public void onReady(SelectionKey key) {
+            if (!key.isValid()) return; // the other end closed the link earlier in this round
+            try {
+                if (key.isReadable()) {
+                    forward();
+                }
+                if (key.isValid() && key.isWritable()) {
+                    flushPending();
+                }
+            } catch (IOException | CancelledKeyException e) {
+                RelayLink.this.close();
+            }
+        }
+
+        @Override
+        public void close() {
+            RelayLink.this.close();
+        }
+
+        private void forward() throws IOException {
+            ByteBuffer buffer = loop.transferBuffer();
+            int n = channel.read(buffer);
+            if (n < 0) {
+                ended = true;
+                if (other.pending == null) RelayLink.this.close();
+                else key.interestOps(0); // close after the last bytes are out
+                return;
+            }
+            loop.recordRead(n, 0);
+            buffer.flip();
+            other.write(buffer);
+            if (buffer.hasRemaining()) {
+                // Receiver full: keep the rest and stop reading until it is written
+                other.pending = ByteBuffer.allocate(buffer.remaining()).put(buffer).flip();
+                other.key.interestOps(other.key.interestOps() | SelectionKey.OP_WRITE);
+                key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+                throttled = true;
+            }
+        }
+
+        private void flushPending() throws IOException {
+            write(pending);
+            if (pending.hasRemaining()) return;
+            pending = null;
+            key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+            if (other.ended) {
+                RelayLink.this.close();
+            } else {
+                other.key.interestOps(other.key.interestOps() | SelectionKey.OP_READ);
+                other.throttled = false;
+            }
+        }
+
+        private void write(ByteBuffer buffer) throws IOException {
+            while (buffer.hasRemaining()) {
+                int written = channel.write(buffer);
+                if (written == 0) return;
+                loop.recordWrite(written);
+            }
+        }
+    }
+
+    RelayLink(SocketChannel first, SocketChannel second, NioEventLoop loop) {
+        this.loop = loop;
+        this.first = new End(first);
+        this.second = new End(second);
+        this.first.other = this.second;
+        this.second.other = this.first;
+        loop.connectionAssigned();
+        loop.connectionAssigned();
+        loop.execute(this::register);
+    }
+
+    public NioEventLoop getLoop() {
+        return loop;
+    }
+
+    public boolean isClosed() {
+        return closed.get();
+    }
+
+    /**
+     * True while reading from either peer is paused because the other one is not keeping up
+     */
+    public boolean isThrottled() {
+        return first.throttled || second.throttled;
+    }
+
+    /**
+     * Close both connections
+     */
+    public void close() {
+        if (!closed.compareAndSet(false, true)) return;
+        for (End end : new End[] { first, second }) {
+            try {
+                end.channel.close();
+            } catch (IOException e) {
+                // Ignore
+            }
+            loop.connectionClosed();
+        }
+    }
+
+    private void register() {
+        if (closed.get()) return;
+        try {
+            for (End end : new End[] { first, second }) {
+                end.channel.configureBlocking(false);
+                end.key = end.channel.register(loop.selector(), SelectionKey.OP_READ, end);
+            }
+        } catch (IOException e) {
+            close();
+        }
+    }
+}
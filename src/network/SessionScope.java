@@ -0,0 +1,72 @@
+package network;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Owner of every task that belongs to one connection (one virtual thread per task)
+ *
+ * Connection setup, the socket reader, senders and file transfers are
+ * forked into the scope of their session. Tasks mostly block on sockets
+ * and files, so virtual threads let any number of them wait at once -
+ * two transfers can no longer starve each other or the reader the way
+ * they could on a fixed pool of three threads.
+ *
+ * cancel() interrupts whatever is still running (virtual threads blocked on
+ * a socket are woken by the interrupt); close() also waits for the tasks to
+ * finish, so no task outlives its session. This is the shape of
+ * StructuredTaskScope, which is still a preview API in Java 21.
+ */
+public class SessionScope implements AutoCloseable {
+
+    private static final long CLOSE_TIMEOUT_MS = 2000;
+
+    private final String name;
+    private final ExecutorService executor;
+
+    public SessionScope(String name) {
+        this.name = name;
+        this.executor = Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name(name + "-", 0).factory());
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public Future<?> fork(Runnable task) {
+        return executor.submit(task);
+    }
+
+    public <T> Future<T> fork(Callable<T> task) {
+        return executor.submit(task);
+    }
+
+    public boolean isOpen() {
+        return !executor.isShutdown();
+    }
+
+    /**
+     * Interrupt all running tasks of this session without waiting (safe on the FX thread)
+     */
+    public void cancel() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Cancel all running tasks of this session and wait for them to stop
+     */
+    @Override
+    public void close() {
+        cancel();
+        try {
+            if (!executor.awaitTermination(CLOSE_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+                System.out.println("[SESSION] " + name + ": tasks still running after close");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
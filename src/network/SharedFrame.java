@@ -0,0 +1,53 @@
+package network;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * One protocol line, encoded once and shared by every connection it goes to
+ *
+ * The bytes (line plus newline) sit in a read-only buffer; a connection
+ * queues its own duplicate() - a view with its own position over the same
+ * bytes - so a 1MB broadcast to 500 clients holds 1MB, not 500 copies.
+ * Always a heap buffer: direct memory is only returned when GC gets round
+ * to it, so one direct buffer per broadcast could run out of it under load.
+ * The socket copies each write through its thread's cached temporary direct
+ * buffer instead. There is nothing to release: the bytes are collected once
+ * the last view is written.
+ */
+public final class SharedFrame {
+
+    private final String line;
+    private final ByteBuffer encoded;
+
+    private SharedFrame(String line, ByteBuffer encoded) {
+        this.line = line;
+        this.encoded = encoded;
+    }
+
+    public static SharedFrame of(String line) {
+        byte[] bytes = (line + "\n").getBytes(StandardCharsets.UTF_8);
+        return new SharedFrame(line, ByteBuffer.wrap(bytes).asReadOnlyBuffer());
+    }
+
+    /**
+     * The line without its newline (for channels that write text)
+     */
+    public String line() {
+        return line;
+    }
+
+    /**
+     * Encoded size in bytes, newline included
+     */
+    public int size() {
+        return encoded.capacity();
+    }
+
+    /**
+     * Independent view for one connection's write queue
+     */
+    ByteBuffer view() {
+        return encoded.duplicate();
+    }
+}
@@ -0,0 +1,84 @@
+package network;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.net.Socket;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Line channel over a blocking socket, read by one task in the session's scope
+ */
+public class SocketLineChannel implements LineChannel {
+
+    private final Socket socket;
+    private final BufferedReader in;
+    private final PrintWriter out;
+    private final SessionScope scope;
+    private final ReentrantLock pauseLock = new ReentrantLock();
+    private final Condition resumed = pauseLock.newCondition();
+    private boolean paused; // guarded by pauseLock
+
+    public SocketLineChannel(Socket socket, BufferedReader in, PrintWriter out, SessionScope scope) {
+        this.socket = socket;
+        this.in = in;
+        this.out = out;
+        this.scope = scope;
+    }
+
+    @Override
+    public void start(Handler handler) {
+        scope.fork(() -> {
+            try {
+                String line;
+                while (awaitResumed() && (line = in.readLine()) != null) {
+                    handler.onLine(line);
+                }
+                handler.onClosed(null);
+            } catch (Exception e) {
+                handler.onClosed(e);
+            }
+        });
+    }
+
+    @Override
+    public void pauseReading(boolean paused) {
+        pauseLock.lock();
+        try {
+            this.paused = paused;
+            if (!paused) resumed.signalAll();
+        } finally {
+            pauseLock.unlock();
+        }
+    }
+
+    /**
+     * Hold the reader before its next line while paused
+     */
+    private boolean awaitResumed() throws InterruptedException {
+        pauseLock.lock();
+        try {
+            while (paused) {
+                resumed.await();
+            }
+            return true;
+        } finally {
+            pauseLock.unlock();
+        }
+    }
+
+    @Override
+    public void sendLine(String line) {
+        out.println(line);
+    }
+
+    @Override
+    public void close() {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            // Ignore
+        }
+    }
+}
@@ -0,0 +1,340 @@
+package network;
+
+import crypto.SessionAuthenticator;
+
+import java.io.*;
+import java.net.*;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.IntConsumer;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Extra data sockets for large file transfers ("stripes")
+ *
+ * A single TCP connection is limited by its congestion window on
+ * high-latency links. Chunks are spread across N additional sockets,
+ * each with its own writer thread, and the receiver reassembles them
+ * by chunk index.
+ *
+ * Stripes are bound to the existing session. The server opens every
+ * accepted socket with CHALLENGE||challenge (fresh per socket), the client
+ * answers STRIPE||index||hmac, keyed from the session key and covering the
+ * offer nonce, the challenge and the index - a captured hello is useless
+ * for the next socket. Every line on a stripe then carries a MAC trailer
+ * (body||MAC||seq||mac) under a key of its own stripe, so chunks cannot be
+ * altered, replayed or moved between stripes.
+ */
+public class StripedChannel {
+
+    // Hard upper bound regardless of configuration
+    public static final int MAX_STRIPES = 8;
+
+    // Auto-tuning never starts more stripes than one per 4 chunks (4MB)
+    private static final int CHUNKS_PER_STRIPE = 4;
+
+    private static final int ACCEPT_TIMEOUT_MS = 10_000;
+    private static final int HELLO_TIMEOUT_MS = 2_000; // connect() answers the challenge right away
+
+    private static final String KEY_LABEL = "fleurdelyx stripe v1";
+
+    private final boolean isServer;
+    private final List<Socket> sockets = new ArrayList<>();
+    private final List<PrintWriter> writers = new ArrayList<>();
+    private final List<BufferedReader> readers = new ArrayList<>();
+    private final List<SessionAuthenticator> authenticators = new ArrayList<>();
+
+    /**
+     * Encodes one chunk into a protocol line (runs on the stripe's writer thread)
+     */
+    public interface ChunkEncoder {
+        String encode(int chunkIndex) throws Exception;
+    }
+
+    private StripedChannel(boolean isServer) {
+        this.isServer = isServer;
+    }
+
+    /**
+     * Stripe count from -Dfleurdelyx.stripes (number, or "auto" = one per core, max 4)
+     */
+    public static int configuredStripes() {
+        String setting = System.getProperty("fleurdelyx.stripes", "auto");
+        if (setting.equalsIgnoreCase("auto")) {
+            return Math.min(4, Runtime.getRuntime().availableProcessors());
+        }
+        try {
+            return Math.max(1, Math.min(MAX_STRIPES, Integer.parseInt(setting)));
+        } catch (NumberFormatException e) {
+            return 1;
+        }
+    }
+
+    /**
+     * How many of the available stripes are worth using for a transfer of this size
+     */
+    public static int stripesFor(int chunkCount, int available) {
+        int wanted = (chunkCount + CHUNKS_PER_STRIPE - 1) / CHUNKS_PER_STRIPE;
+        return Math.max(1, Math.min(available, wanted));
+    }
+
+    public static String createNonce() {
+        byte[] nonce = new byte[16];
+        new SecureRandom().nextBytes(nonce);
+        StringBuilder hex = new StringBuilder();
+        for (byte b : nonce) {
+            hex.append(String.format("%02x", b & 0xFF));
+        }
+        return hex.toString();
+    }
+
+    /**
+     * Key of one stripe, derived from the session key and the offer nonce
+     */
+    static String stripeKey(String sessionKey, String nonce, int stripeIndex) {
+        return HexFormat.of().formatHex(hmac(sessionKey, KEY_LABEL + "|" + nonce + "|" + stripeIndex));
+    }
+
+    /**
+     * Answer to the server's challenge, proving the stripe belongs to the session that owns the key
+     */
+    public static String helloMac(String sessionKey, String nonce, String challenge, int stripeIndex) {
+        return HexFormat.of().formatHex(hmac(stripeKey(sessionKey, nonce, stripeIndex), "hello|" + challenge));
+    }
+
+    static boolean verifyHello(String sessionKey, String nonce, String challenge, int stripeIndex, String mac) {
+        try {
+            return MessageDigest.isEqual(HexFormat.of().parseHex(helloMac(sessionKey, nonce, challenge, stripeIndex)),
+                HexFormat.of().parseHex(mac));
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    private static byte[] hmac(String key, String data) {
+        try {
+            Mac mac = Mac.getInstance("HmacSHA256");
+            mac.init(new SecretKeySpec(key.getBytes(StandardCharsets.UTF_8), "HmacSHA256"));
+            return mac.doFinal(data.getBytes(StandardCharsets.UTF_8));
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Server side: accept and authenticate the stripes announced with STRIPES||count||port||nonce
+     */
+    public static StripedChannel accept(ServerSocket dataServer, int count, String sessionKey, String nonce) throws IOException {
+        return accept(dataServer, count, sessionKey, nonce, ACCEPT_TIMEOUT_MS);
+    }
+
+    /**
+     * Accept stripes until all are in or the timeout runs out; a connection
+     * that sends no hello within HELLO_TIMEOUT_MS is dropped like one with a bad answer
+     */
+    static StripedChannel accept(ServerSocket dataServer, int count, String sessionKey, String nonce, int timeoutMs) throws IOException {
+        StripedChannel channel = new StripedChannel(true);
+        boolean[] seen = new boolean[count];
+        long deadline = System.currentTimeMillis() + timeoutMs;
+
+        try {
+            while (channel.size() < count) {
+                dataServer.setSoTimeout(remainingMs(deadline));
+                Socket socket = dataServer.accept();
+                socket.setSoTimeout((int) Math.max(1, Math.min(HELLO_TIMEOUT_MS, deadline - System.currentTimeMillis())));
+                BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+                String challenge = createNonce();
+                String line;
+                try {
+                    PrintWriter out = new PrintWriter(socket.getOutputStream(), true);
+                    out.println("CHALLENGE||" + challenge);
+                    line = in.readLine();
+                } catch (SocketTimeoutException | SocketException e) {
+                    line = null;
+                }
+
+                String[] hello = line != null ? line.split("\\|\\|") : new String[0];
+                int index = hello.length == 3 && hello[0].equals("STRIPE") ? parseIndex(hello[1]) : -1;
+                if (index < 0 || index >= count || seen[index] || !verifyHello(sessionKey, nonce, challenge, index, hello[2])) {
+                    System.out.println("Rejected unauthenticated stripe from " + socket.getInetAddress().getHostAddress() +
+                        (line == null ? " (no hello)" : ""));
+                    socket.close();
+                    continue;
+                }
+
+                socket.setSoTimeout(0); // Stripes idle between transfers
+                seen[index] = true;
+                channel.add(socket, in, sessionKey, nonce, index);
+            }
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        return channel;
+    }
+
+    private static int remainingMs(long deadline) throws SocketTimeoutException {
+        long remaining = deadline - System.currentTimeMillis();
+        if (remaining <= 0) {
+            throw new SocketTimeoutException("Timed out waiting for stripes");
+        }
+        return (int) remaining;
+    }
+
+    /**
+     * Client side: open and authenticate the stripes offered by the server
+     */
+    public static StripedChannel connect(String host, int port, int count, String sessionKey, String nonce) throws IOException {
+        StripedChannel channel = new StripedChannel(false);
+        try {
+            for (int i = 0; i < count; i++) {
+                Socket socket = new Socket(host, port);
+                socket.setTcpNoDelay(true);
+                BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+                channel.add(socket, in, sessionKey, nonce, i);
+
+                socket.setSoTimeout(ACCEPT_TIMEOUT_MS);
+                String line = in.readLine();
+                if (line == null || !line.startsWith("CHALLENGE||")) {
+                    throw new IOException("Stripe " + i + " was not challenged");
+                }
+                socket.setSoTimeout(0);
+                String challenge = line.substring("CHALLENGE||".length());
+                channel.writers.get(i).println("STRIPE||" + i + "||" + helloMac(sessionKey, nonce, challenge, i));
+                channel.writers.get(i).flush();
+            }
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        return channel;
+    }
+
+    private static int parseIndex(String value) {
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private void add(Socket socket, BufferedReader in, String sessionKey, String nonce, int index) throws IOException {
+        sockets.add(socket);
+        readers.add(in);
+        writers.add(new PrintWriter(new BufferedWriter(new OutputStreamWriter(socket.getOutputStream())), false));
+        try {
+            authenticators.add(new SessionAuthenticator(stripeKey(sessionKey, nonce, index), isServer));
+        } catch (Exception e) {
+            throw new IOException("Stripe " + index + " MAC setup failed", e);
+        }
+    }
+
+    public int size() {
+        return sockets.size();
+    }
+
+    /**
+     * Start one (virtual) reader thread per stripe; every received line with a valid MAC goes to the handler
+     *
+     * @param onClosed Called when a stripe ends - closed by the peer, broken, or dropped
+     *                 after a line failed its MAC; chunks still missing are the caller's to recover
+     */
+    public void startReaders(Consumer<String> handler, Runnable onClosed) {
+        for (int i = 0; i < readers.size(); i++) {
+            final int stripe = i;
+            BufferedReader in = readers.get(i);
+            SessionAuthenticator authenticator = authenticators.get(i);
+            Thread.ofVirtual().name("stripe-reader-" + i).start(() -> {
+                try {
+                    String line;
+                    while ((line = in.readLine()) != null) {
+                        int macIndex = line.lastIndexOf(SessionAuthenticator.MAC_MARKER);
+                        String body = macIndex >= 0 ? line.substring(0, macIndex) : null;
+                        if (body == null || !authenticator.verify(body, line.substring(macIndex + SessionAuthenticator.MAC_MARKER.length()))) {
+                            System.out.println("Dropping stripe " + stripe + ": line failed its MAC");
+                            sockets.get(stripe).close();
+                            break;
+                        }
+                        handler.accept(body);
+                    }
+                } catch (IOException e) {
+                    // Stripe closed
+                }
+                onClosed.run();
+            });
+        }
+    }
+
+    /**
+     * Send the given chunks spread across the stripes, one writer thread per stripe
+     *
+     * @param chunks Chunk indexes to send
+     * @param encoder Builds the protocol line for a chunk (encryption happens here, in parallel)
+     * @param onChunkSent Called with the running count after each chunk is written
+     */
+    public void sendAll(BitSet chunks, ChunkEncoder encoder, IntConsumer onChunkSent) throws Exception {
+        int stripes = stripesFor(chunks.cardinality(), size());
+        ExecutorService writerPool = Executors.newVirtualThreadPerTaskExecutor();
+        AtomicInteger sent = new AtomicInteger();
+
+        try {
+            List<Future<?>> results = new ArrayList<>();
+            for (int s = 0; s < stripes; s++) {
+                final int stripe = s;
+                results.add(writerPool.submit(() -> {
+                    PrintWriter writer = writers.get(stripe);
+                    SessionAuthenticator authenticator = authenticators.get(stripe);
+                    int position = 0;
+                    for (int i = chunks.nextSetBit(0); i >= 0; i = chunks.nextSetBit(i + 1), position++) {
+                        if (position % stripes != stripe) continue;
+                        String line = encoder.encode(i);
+                        synchronized (writer) { // Sequence numbers must hit the wire in order
+                            writer.println(authenticator.seal(line));
+                        }
+                        onChunkSent.accept(sent.incrementAndGet());
+                    }
+                    synchronized (writer) {
+                        writer.flush();
+                    }
+                    if (writer.checkError()) {
+                        throw new IOException("Stripe " + stripe + " write failed");
+                    }
+                    return null;
+                }));
+            }
+
+            for (Future<?> result : results) {
+                try {
+                    result.get();
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof Exception cause) {
+                        throw cause;
+                    }
+                    throw new IOException(e.getCause());
+                }
+            }
+        } finally {
+            writerPool.shutdownNow();
+        }
+    }
+
+    public void close() {
+        for (Socket socket : sockets) {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // Ignore
+            }
+        }
+    }
+}
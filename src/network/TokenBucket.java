@@ -0,0 +1,68 @@
+package network;
+
+import java.util.function.LongSupplier;
+
+/**
+ * Token bucket that may go into debt, for shaping traffic rather than dropping it
+ *
+ * Tokens refill at a fixed rate up to the burst size. take() always takes
+ * what was asked for and returns how long the caller should wait before
+ * its next unit: zero while the bucket has tokens, otherwise the time the
+ * refill needs to pay back the debt. A frame that has already been read
+ * cannot be un-read, so the debt model charges it in full and makes the
+ * sender wait for it afterwards.
+ *
+ * take() is a few arithmetic operations under the bucket's monitor, cheap
+ * enough to share one bucket between event loops.
+ */
+public class TokenBucket {
+
+    private final double ratePerNano;
+    private final double burst;
+    private final LongSupplier clock;
+
+    private double tokens;  // negative = debt; guarded by this
+    private long updated;   // guarded by this
+
+    /**
+     * @param ratePerSecond tokens added per second
+     * @param burst         most tokens the bucket holds after an idle spell
+     */
+    public TokenBucket(double ratePerSecond, double burst) {
+        this(ratePerSecond, burst, System::nanoTime);
+    }
+
+    TokenBucket(double ratePerSecond, double burst, LongSupplier clock) {
+        if (ratePerSecond <= 0 || burst <= 0) throw new IllegalArgumentException("Rate and burst must be positive");
+        this.ratePerNano = ratePerSecond / 1e9;
+        this.burst = burst;
+        this.clock = clock;
+        this.tokens = burst;
+        this.updated = clock.getAsLong();
+    }
+
+    /**
+     * Take tokens, even into debt
+     *
+     * @return nanoseconds until the bucket is out of debt (0 = go ahead)
+     */
+    public synchronized long take(double amount) {
+        refill();
+        tokens -= amount;
+        return tokens >= 0 ? 0 : (long) Math.ceil(-tokens / ratePerNano);
+    }
+
+    /**
+     * Tokens available now (negative while in debt)
+     */
+    public synchronized double available() {
+        refill();
+        return tokens;
+    }
+
+    private void refill() {
+        long now = clock.getAsLong();
+        tokens = Math.min(burst, tokens + (now - updated) * ratePerNano);
+        updated = now;
+    }
+}
@@ -10,6 +10,11 @@ public class ChatClientFX extends Application {
 
     @Override
     public void start(Stage primaryStage) throws Exception {
+        // Start generating RSA keys while the UI loads (not needed once an identity is stored)
+        if (!crypto.IdentityStore.isEnabled() || !crypto.IdentityStore.forRole("client").exists()) {
+            crypto.KeyPairPool.shared();
+        }
+        
         // Load FXML
         FXMLLoader loader = new FXMLLoader(getClass().getResource("/fxml/chat_client.fxml"));
         Parent root = loader.load();
@@ -10,6 +10,11 @@ public class ChatServerFX extends Application {
 
     @Override
     public void start(Stage primaryStage) throws Exception {
+        // Start generating RSA keys while the UI loads (not needed once an identity is stored)
+        if (!crypto.IdentityStore.isEnabled() || !crypto.IdentityStore.forRole("server").exists()) {
+            crypto.KeyPairPool.shared();
+        }
+        
         // Load FXML
         FXMLLoader loader = new FXMLLoader(getClass().getResource("/fxml/chat_server.fxml"));
         Parent root = loader.load();
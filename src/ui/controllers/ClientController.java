@@ -14,7 +14,15 @@ import javafx.animation.Animation;
 import javafx.util.Duration;
 import javafx.stage.Popup;
 
+import core.ChatEngine;
+import core.ChatRelay;
+import core.ChatSession;
+import core.ChatSessionListener;
+import core.FileTransferListener;
+import core.FileTransfers;
 import crypto.*;
+import network.Handshake;
+import network.SessionScope;
 
 import java.io.*;
 import java.net.*;
@@ -23,7 +31,7 @@ import java.time.LocalTime;
 import java.time.format.DateTimeFormatter;
 import java.util.concurrent.*;
 
-public class ClientController {
+public class ClientController implements ChatSessionListener, FileTransferListener {
     
     // FXML Components
     @FXML private VBox chatContainer;
@@ -38,6 +46,7 @@ public class ClientController {
     @FXML private Label encryptionInfoLabel;
     @FXML private Label messagesSentLabel;
     @FXML private Label messagesReceivedLabel;
+    @FXML private Label compressionStatsLabel;
     @FXML private Label sessionTimeLabel;
     @FXML private Label encryptionModeLabel;
     @FXML private Label networkQualityLabel;
@@ -48,16 +57,12 @@ public class ClientController {
     // Network
     private final int PORT = 12345;
     private final String SERVER_IP = "127.0.0.1";
-    private Socket socket;
-    private PrintWriter out;
-    private BufferedReader in;
-    private ExecutorService executor = Executors.newFixedThreadPool(3);
+    private final String RELAY_TOKEN = System.getProperty("fleurdelyx.relay"); // set = chat with another client through ChatRelay
+    private SessionScope sessionScope = new SessionScope("client-session"); // virtual thread per task, one scope per connection
     
-    // Crypto
-    private PublicKey otherPublicKey;
-    private PrivateKey myPrivateKey;
-    private PublicKey myPublicKey;
-    private String symmetricKey128Bit;
+    // Handshake and text messaging (identity, pinned keys and tickets outlive restartConnection)
+    private final ChatEngine engine = ChatEngine.client();
+    private volatile ChatSession session;
     
     // Statistics
     private int messagesSent = 0;
@@ -72,13 +77,13 @@ public class ClientController {
     
     // File Transfer
     @FXML private Button attachFileButton;
-    private FileTransferHandler fileTransferHandler;
-    private java.util.Map<String, java.util.List<EncryptedFileChunk>> incomingFileChunks = new java.util.concurrent.ConcurrentHashMap<>();
-    private java.util.Map<String, FileMetadata> incomingFileMetadata = new java.util.concurrent.ConcurrentHashMap<>();
-    private java.util.Map<String, byte[]> receivedFilesData = new java.util.concurrent.ConcurrentHashMap<>(); // Store received file data
     private javafx.stage.Stage stage;
     private File selectedFileToSend = null; // File waiting to be sent
     
+    // Offers, resumes, stripes and deduplication happen in core; this controller only shows them
+    private final FileTransfers transfers = new FileTransfers(new File(TransferCheckpoint.DEFAULT_DIRECTORY, "client"),
+        new File(ChunkStore.DEFAULT_DIRECTORY, "client"), this).withStripeHost(SERVER_IP);
+    
     @FXML
     public void initialize() {
         // Defer all initialization until FXML components are fully injected
@@ -86,23 +91,7 @@ public class ClientController {
             // Redirect System.out to encryption log
             redirectSystemOut();
             
-            // Setup RSA keys
-            try {
-                KeyPair keyPair = RSAUtil.generateRSAKeyPair();
-                myPrivateKey = keyPair.getPrivate();
-                myPublicKey = keyPair.getPublic();
-                
-                if (keyInfoArea != null) {
-                    keyInfoArea.appendText("RSA Key Pair Generated\n");
-                    keyInfoArea.appendText("Public Key: " + 
-                        RSAUtil.publicKeyToString(myPublicKey).substring(0, 50) + "...\n");
-                }
-            } catch (Exception e) {
-                showError("RSA Key Generation Failed: " + e.getMessage());
-                return;
-            }
-            
-            // Start network connection
+            // Start network connection (RSA keys are taken from the background pool there)
             setupNetworking();
             
             // Start session timer
@@ -118,22 +107,17 @@ public class ClientController {
     }
     
     private void setupNetworking() {
-        executor.submit(() -> {
+        sessionScope.fork(() -> {
             try {
                 Platform.runLater(() -> updateStatus("Connecting...", "🟡 Connecting", false));
                 
-                socket = new Socket(SERVER_IP, PORT);
-                out = new PrintWriter(socket.getOutputStream(), true);
-                in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
-                
-                Platform.runLater(() -> {
-                    updateStatus("Connected", "🟢 Connected", true);
-                    addSystemMessage("✅ Connected to server at " + SERVER_IP + ":" + PORT);
-                });
-                
-                exchangePublicKeys();
-                performSymmetricKeyExchange();
-                startChatting();
+                // Handshake (with the last resumption ticket, if any); the session reports back through the listener
+                if (RELAY_TOKEN != null) {
+                    engine.connectViaRelay(SERVER_IP, ChatRelay.DEFAULT_PORT, RELAY_TOKEN, sessionScope, this);
+                } else {
+                    engine.connect(SERVER_IP, PORT, sessionScope, this);
+                }
+                transfers.announceIncomplete();
                 
             } catch (Exception ex) {
                 Platform.runLater(() -> {
@@ -144,34 +128,97 @@ public class ClientController {
         });
     }
     
-    private void exchangePublicKeys() throws Exception {
-        String myPubKeyStr = RSAUtil.publicKeyToString(myPublicKey);
-        out.println(myPubKeyStr);
-        
-        String theirPubKeyStr = in.readLine();
-        otherPublicKey = RSAUtil.stringToPublicKey(theirPubKeyStr);
+    @Override
+    public void onConnected(String peer) {
+        Platform.runLater(() -> {
+            updateStatus("Connected", "🟢 Connected", true);
+            addSystemMessage("✅ Connected to server at " + peer);
+        });
+    }
+
+    /**
+     * Show the connection's RSA identity
+     */
+    @Override
+    public void onIdentityLoaded(KeyPair identity, boolean persistent) {
+        Platform.runLater(() -> {
+            if (keyInfoArea != null) {
+                keyInfoArea.appendText(persistent
+                    ? "RSA Identity Loaded (" + IdentityStore.fingerprint(identity.getPublic()) + ")\n"
+                    : "RSA Key Pair Generated\n");
+                keyInfoArea.appendText("Public Key: " + 
+                    RSAUtil.publicKeyToString(identity.getPublic()).substring(0, 50) + "...\n");
+            }
+        });
+    }
+    
+    /**
+     * Handshake done: take over the session before its reader starts
+     */
+    @Override
+    public void onSessionReady(ChatSession session, Handshake.Result handshake) {
+        this.session = session;
+        transfers.attach(session);
+        applyHandshake(session, handshake);
+    }
+    
+    /**
+     * Report the negotiated keys and features
+     */
+    private void applyHandshake(ChatSession session, Handshake.Result handshake) {
+        if (handshake.getResumeDeclinedReason() != null) {
+            String reason = handshake.getResumeDeclinedReason();
+            Platform.runLater(() -> addSystemMessage("↩️ Session resumption declined (" + reason + ") - full handshake"));
+        }
+        if (handshake.getPeerIdentityStatus() != null) {
+            showPeerIdentity(session, handshake.getPeerIdentityStatus());
+        }
+        if (handshake.isResumed()) {
+            activateSession(session, "♻️ Session resumed from ticket (1 round trip)");
+            return;
+        }
         
+        String theirPubKeyStr = handshake.getPeerPublicKeyString();
         Platform.runLater(() -> {
             addSystemMessage("🔑 Public keys exchanged securely");
+            addSystemMessage("✍️ Signature suite: " + (session.getSignatureSuite() == SignatureSuite.ED25519 ? "Ed25519" : "RSA-2048"));
+            if (session.isStreamCompressed()) {
+                addSystemMessage("🗜️ Message stream compression enabled");
+            }
             keyInfoArea.appendText("\nServer Public Key: " + 
                 theirPubKeyStr.substring(0, 50) + "...\n");
         });
+        activateSession(session, handshake.isKeyAgreed() ? "🔐 Symmetric key derived (X25519 key agreement)"
+            : "🔐 Symmetric key sent (RSA encrypted)");
     }
     
-    private void performSymmetricKeyExchange() throws Exception {
-        String symKey = KeyGenerator.generate128BitKeyHex();
-        symmetricKey128Bit = symKey;
-        
-        // Initialize file transfer handler with cipher
-        BlockCipher cipher = new BlockCipher(symmetricKey128Bit);
-        fileTransferHandler = new FileTransferHandler(cipher);
-        
-        String encryptedKey = RSAUtil.encryptWithPublicKey(symmetricKey128Bit, otherPublicKey);
-        out.println(encryptedKey);
-        
+    /**
+     * Report the result of comparing the peer's identity key with the pinned one
+     */
+    private void showPeerIdentity(ChatSession session, PeerKeyCache.Status status) {
+        String peer = session.getPeer();
+        String fingerprint = IdentityStore.fingerprint(session.getPeerPublicKey());
+        Platform.runLater(() -> {
+            switch (status) {
+                case NEW -> addSystemMessage("📌 First contact with " + peer + " - identity pinned (" + fingerprint + ")");
+                case MATCH -> addSystemMessage("🪪 Peer identity matches pinned key (" + fingerprint + ")");
+                case CHANGED -> addSystemMessage("⚠️ Identity of " + peer + " CHANGED since last session (" + fingerprint +
+                    ") - possible impersonation. If the peer rotated its key, run: IdentityStore forget client " + peer);
+            }
+        });
+    }
+    
+    /**
+     * Enable the chat once the session is up
+     */
+    private void activateSession(ChatSession session, String keyMessage) {
         Platform.runLater(() -> {
-            addSystemMessage("🔐 Symmetric key sent (RSA encrypted)");
+            addSystemMessage(keyMessage);
             addSystemMessage("✅ Secure channel established - Ready to chat!");
+            if (session.isMacAuthenticated()) {
+                addSystemMessage("🔏 Messages authenticated with HMAC-SHA256 (RSA checkpoint every " +
+                    SessionAuthenticator.CHECKPOINT_INTERVAL + " messages)");
+            }
             addSystemMessage("═══════════════════════════════════════");
             sendButton.setDisable(false);
             messageInputField.setDisable(false);
@@ -179,55 +226,37 @@ public class ClientController {
         });
     }
     
-    private void startChatting() {
-        executor.submit(() -> {
-            try {
-                String receivedLine;
-                while ((receivedLine = in.readLine()) != null) {
-                    
-                    // Check if this is a file transfer message
-                    if (receivedLine.startsWith("FILE_START||")) {
-                        handleFileStart(receivedLine);
-                        continue;
-                    } else if (receivedLine.startsWith("FILE_CHUNK||")) {
-                        handleFileChunk(receivedLine);
-                        continue;
-                    } else if (receivedLine.startsWith("FILE_END||")) {
-                        handleFileEnd(receivedLine);
-                        continue;
-                    }
-                    
-                    // Regular text message
-                    String[] parts = receivedLine.split("\\|\\|SIG\\|\\|");
-                    if (parts.length == 2) {
-                        String encryptedMsg = parts[0];
-                        String receivedSignature = parts[1];
-                        
-                        // Decrypt message
-                        BlockCipher cipher = new BlockCipher(symmetricKey128Bit);
-                        String decryptedMsg = cipher.decrypt(encryptedMsg);
-                        
-                        // Verify signature
-                        boolean isAuthentic = RSAUtil.verifySignature(
-                            decryptedMsg, receivedSignature, otherPublicKey
-                        );
-                        
-                        messagesReceived++;
-                        final String msg = decryptedMsg;
-                        final boolean verified = isAuthentic;
-                        
-                        Platform.runLater(() -> {
-                            addReceivedMessage(msg, verified);
-                            messagesReceivedLabel.setText(String.valueOf(messagesReceived));
-                        });
-                    }
-                }
-            } catch (Exception e) {
-                Platform.runLater(() -> {
-                    updateStatus("Disconnected", "🔴 Disconnected", false);
-                    addSystemMessage("❌ Connection lost: " + e.getMessage());
-                });
-            }
+    /**
+     * Decrypted text message from the session, in arrival order
+     */
+    @Override
+    public void onMessage(ChatSession session, String text, boolean verified) {
+        Platform.runLater(() -> {
+            messagesReceived++;
+            addReceivedMessage(text, verified);
+            messagesReceivedLabel.setText(String.valueOf(messagesReceived));
+            updateCompressionStatsLabel();
+        });
+    }
+    
+    /**
+     * File transfer and stripe lines (the session handles text, checkpoints and tickets)
+     */
+    @Override
+    public void onControlLine(ChatSession session, String receivedLine) {
+        transfers.handle(receivedLine);
+    }
+    
+    @Override
+    public void onWarning(ChatSession session, String message) {
+        Platform.runLater(() -> addSystemMessage("⚠️ " + message));
+    }
+    
+    @Override
+    public void onDisconnected(ChatSession session, Exception cause) {
+        Platform.runLater(() -> {
+            updateStatus("Disconnected", "🔴 Disconnected", false);
+            addSystemMessage("❌ Connection lost: " + (cause != null ? cause.getMessage() : "closed by peer"));
         });
     }
     
@@ -247,30 +276,36 @@ public class ClientController {
         
         // Otherwise send text message
         String msg = messageInputField.getText().trim();
-        if (msg.isEmpty() || out == null) return;
+        ChatSession current = session;
+        if (msg.isEmpty() || current == null) return;
         
         messageInputField.clear();
         
         try {
-            // Encrypt message
-            BlockCipher cipher = new BlockCipher(symmetricKey128Bit);
-            String encryptedMsg = cipher.encrypt(msg);
-            
-            // Sign message
-            String signature = RSAUtil.signMessage(msg, myPrivateKey);
-            
-            // Send
-            out.println(encryptedMsg + "||SIG||" + signature);
+            // Compression, encryption and MAC/signature happen in the session
+            current.sendMessage(msg);
             
             messagesSent++;
             addSentMessage(msg, true);
             messagesSentLabel.setText(String.valueOf(messagesSent));
+            updateCompressionStatsLabel();
             
         } catch (Exception e) {
             showError("Send Error: " + e.getMessage());
         }
     }
     
+    /**
+     * Show bytes saved by message compression this session
+     */
+    private void updateCompressionStatsLabel() {
+        if (compressionStatsLabel == null) return;
+        ChatSession current = session;
+        CompressionStats stats = current != null ? current.getCompressionStats() : new CompressionStats();
+        compressionStatsLabel.setText(FileMetadata.formatSize(Math.max(0, stats.getSavedBytes())) +
+            " saved (" + String.format("%.1fx", stats.getRatio()) + ")");
+    }
+    
     @FXML
     private void onEmojiClicked() {
         // Create emoji picker popup with grid layout
@@ -352,14 +387,15 @@ public class ClientController {
     }
     
     private void restartConnection() {
-        // Close existing connections
-        try {
-            if (socket != null) socket.close();
-            if (out != null) out.close();
-            if (in != null) in.close();
-        } catch (IOException e) {
-            // Ignore
-        }
+        // Close existing connections and cancel every task of the old session
+        // The old session drops undelivered frames and its compression stream
+        if (session != null) session.close();
+        session = null;
+        sessionScope.cancel();
+        sessionScope = new SessionScope("client-session");
+        
+        // Close stripes and release open checkpoints (reloaded and re-announced after reconnect)
+        transfers.detach();
         
         // Reset state
         chatContainer.getChildren().clear();
@@ -368,22 +404,13 @@ public class ClientController {
         messagesReceived = 0;
         messagesSentLabel.setText("0");
         messagesReceivedLabel.setText("0");
+        updateCompressionStatsLabel();
         sendButton.setDisable(true);
         messageInputField.setDisable(true);
         
         addSystemMessage("🔄 Restarting connection...");
         
-        // Regenerate RSA keys
-        try {
-            KeyPair keyPair = RSAUtil.generateRSAKeyPair();
-            myPrivateKey = keyPair.getPrivate();
-            myPublicKey = keyPair.getPublic();
-        } catch (Exception e) {
-            showError("Key regeneration failed: " + e.getMessage());
-            return;
-        }
-        
-        // Reconnect
+        // Reconnect (takes fresh RSA keys from the pool)
         setupNetworking();
     }
     
@@ -544,10 +571,9 @@ public class ClientController {
         File selectedFile = fileChooser.showOpenDialog(stage);
         
         if (selectedFile != null) {
-            // Check file size (max 100MB)
-            long maxSize = 100 * 1024 * 1024; // 100MB
-            if (selectedFile.length() > maxSize) {
-                showError("File too large! Maximum size is 100MB");
+            // Check file size (resumable transfers stream from disk, max 4GB)
+            if (selectedFile.length() > FileTransferHandler.MAX_RESUMABLE_FILE_SIZE) {
+                showError("File too large! Maximum size is " + FileMetadata.formatSize(FileTransferHandler.MAX_RESUMABLE_FILE_SIZE));
                 return;
             }
             
@@ -562,179 +588,62 @@ public class ClientController {
     }
     
     /**
-     * Send a file through the encrypted channel
+     * Offer a file to the peer as a resumable transfer
+     * 
+     * Only metadata is sent here; chunks are streamed once the receiver
+     * answers with FILE_RESUME listing the chunk ranges it still needs.
      */
     private void sendFile(File file) {
-        // Disable attach button during transfer
         attachFileButton.setDisable(true);
-        
-        Platform.runLater(() -> addSystemMessage("📤 Sending file: " + file.getName()));
-        
-        executor.submit(() -> {
-            try {
-                // Prepare file for transfer
-                Object[] prepared = fileTransferHandler.prepareFileForTransfer(file);
-                FileMetadata metadata = (FileMetadata) prepared[0];
-                @SuppressWarnings("unchecked")
-                java.util.List<EncryptedFileChunk> chunks = (java.util.List<EncryptedFileChunk>) prepared[1];
-                
-                // Send FILE_START with metadata
-                String metadataString = metadata.toProtocolString();
-                out.println("FILE_START||" + metadataString);
-                
-                Platform.runLater(() -> addSystemMessage("📋 Metadata sent: " + metadata.getFormattedSize()));
-                
-                // Send each chunk
-                for (int i = 0; i < chunks.size(); i++) {
-                    EncryptedFileChunk chunk = chunks.get(i);
-                    String chunkString = chunk.toProtocolString();
-                    out.println("FILE_CHUNK||" + chunkString);
-                    
-                    final int progress = chunk.getProgressPercentage();
-                    final int current = i + 1;
-                    final int total = chunks.size();
-                    
-                    Platform.runLater(() -> 
-                        updateStatus("Sending file: " + progress + "% (" + current + "/" + total + ")", 
-                                    "🟢 Client Connected", true)
-                    );
-                    
-                    // Small delay to avoid overwhelming the network
-                    Thread.sleep(10);
-                }
-                
-                // Send FILE_END with signature
-                String signature = RSAUtil.signMessage(metadata.getChecksum(), myPrivateKey);
-                out.println("FILE_END||" + metadata.getChecksum() + "||SIG||" + signature);
-                
-                Platform.runLater(() -> {
-                    addSentFileMessage(metadata);
-                    addSystemMessage("✅ File sent successfully: " + file.getName());
-                    updateStatus("Connected", "🟢 Client Connected", true);
-                    attachFileButton.setDisable(false);
-                });
-                
-            } catch (Exception e) {
-                e.printStackTrace();
-                Platform.runLater(() -> {
-                    showError("File send failed: " + e.getMessage());
-                    attachFileButton.setDisable(false);
-                });
-            }
-        });
+        transfers.send(file);
     }
     
     /**
-     * Handle FILE_START message
+     * Compression decision, resume and stripe notices from the transfer
      */
-    private void handleFileStart(String message) {
-        try {
-            String metadataString = message.substring("FILE_START||".length());
-            FileMetadata metadata = FileMetadata.fromProtocolString(metadataString);
-            
-            // Store metadata
-            incomingFileMetadata.put(metadata.getFilename(), metadata);
-            incomingFileChunks.put(metadata.getFilename(), new java.util.ArrayList<>());
-            
-            Platform.runLater(() -> {
-                addSystemMessage("📥 Receiving file: " + metadata.getFilename() + 
-                               " (" + metadata.getFormattedSize() + ")");
-            });
-            
-        } catch (Exception e) {
-            e.printStackTrace();
-            Platform.runLater(() -> showError("File receive error: " + e.getMessage()));
-        }
+    @Override
+    public void onTransferNotice(String message) {
+        Platform.runLater(() -> addSystemMessage("📁 " + message));
+    }
+    
+    @Override
+    public void onTransferProgress(String status) {
+        Platform.runLater(() -> updateStatus(status, "🟢 Client Connected", true));
     }
     
     /**
-     * Handle FILE_CHUNK message
+     * Server verified and stored a file we sent
      */
-    private void handleFileChunk(String message) {
-        try {
-            String chunkString = message.substring("FILE_CHUNK||".length());
-            EncryptedFileChunk chunk = EncryptedFileChunk.fromProtocolString(chunkString);
-            
-            // Find which file this chunk belongs to
-            for (FileMetadata metadata : incomingFileMetadata.values()) {
-                java.util.List<EncryptedFileChunk> chunks = incomingFileChunks.get(metadata.getFilename());
-                if (chunks != null && chunks.size() == chunk.getChunkIndex()) {
-                    chunks.add(chunk);
-                    
-                    final int progress = chunk.getProgressPercentage();
-                    Platform.runLater(() -> 
-                        updateStatus("Receiving file: " + progress + "%", "🟢 Client Connected", true)
-                    );
-                    break;
-                }
-            }
-            
-        } catch (Exception e) {
-            e.printStackTrace();
-        }
+    @Override
+    public void onFileSent(FileMetadata metadata) {
+        Platform.runLater(() -> {
+            addSentFileMessage(metadata);
+            addSystemMessage("✅ File sent successfully: " + metadata.getFilename());
+            updateStatus("Connected", "🟢 Client Connected", true);
+            attachFileButton.setDisable(false);
+        });
     }
     
     /**
-     * Handle FILE_END message
+     * File received and verified; it stays in core until the user saves it
      */
-    private void handleFileEnd(String message) {
-        executor.submit(() -> {
-            try {
-                String[] parts = message.substring("FILE_END||".length()).split("\\|\\|SIG\\|\\|");
-                String checksum = parts[0];
-                String signature = parts[1];
-                
-                // Find the file by checksum
-                FileMetadata metadata = null;
-                for (FileMetadata meta : incomingFileMetadata.values()) {
-                    if (meta.getChecksum().equals(checksum)) {
-                        metadata = meta;
-                        break;
-                    }
-                }
-                
-                if (metadata == null) {
-                    Platform.runLater(() -> showError("File metadata not found"));
-                    return;
-                }
-                
-                // Verify signature
-                boolean isAuthentic = RSAUtil.verifySignature(checksum, signature, otherPublicKey);
-                if (!isAuthentic) {
-                    Platform.runLater(() -> showError("File signature verification failed!"));
-                    return;
-                }
-                
-                // Get chunks
-                java.util.List<EncryptedFileChunk> chunks = incomingFileChunks.get(metadata.getFilename());
-                
-                // Decrypt and reassemble file (this happens in background thread)
-                byte[] fileData = fileTransferHandler.receiveAndDecryptFile(metadata, chunks);
-                
-                // Store file data in memory for later download
-                receivedFilesData.put(metadata.getFilename(), fileData);
-                
-                // Show file message with download button
-                final FileMetadata finalMetadata = metadata;
-                Platform.runLater(() -> {
-                    addReceivedFileMessage(finalMetadata);
-                    addSystemMessage("✅ File received: " + finalMetadata.getFilename() + " - Click to download");
-                    messagesReceived++;
-                    messagesReceivedLabel.setText(String.valueOf(messagesReceived));
-                    
-                    // Cleanup chunk storage
-                    incomingFileMetadata.remove(finalMetadata.getFilename());
-                    incomingFileChunks.remove(finalMetadata.getFilename());
-                    updateStatus("Connected", "🟢 Client Connected", true);
-                });
-                
-            } catch (Exception e) {
-                e.printStackTrace();
-                Platform.runLater(() -> {
-                    showError("File receive error: " + e.getMessage());
-                    updateStatus("Connected", "🟢 Client Connected", true);
-                });
-            }
+    @Override
+    public void onFileReceived(FileMetadata metadata) {
+        Platform.runLater(() -> {
+            addReceivedFileMessage(metadata);
+            addSystemMessage("✅ File received: " + metadata.getFilename() + " - Click to download");
+            messagesReceived++;
+            messagesReceivedLabel.setText(String.valueOf(messagesReceived));
+            updateStatus("Connected", "🟢 Client Connected", true);
+        });
+    }
+    
+    @Override
+    public void onTransferFailed(String message) {
+        Platform.runLater(() -> {
+            showError(message);
+            attachFileButton.setDisable(false);
+            updateStatus("Connected", "🟢 Client Connected", true);
         });
     }
     
@@ -829,12 +738,6 @@ public class ClientController {
      * Download a received file when user clicks on it
      */
     private void downloadReceivedFile(FileMetadata metadata) {
-        byte[] fileData = receivedFilesData.get(metadata.getFilename());
-        if (fileData == null) {
-            showError("File data not found. It may have been already downloaded or cleared.");
-            return;
-        }
-        
         javafx.stage.FileChooser saveDialog = new javafx.stage.FileChooser();
         saveDialog.setTitle("Save File");
         saveDialog.setInitialFileName(metadata.getFilename());
@@ -842,12 +745,8 @@ public class ClientController {
         File saveLocation = saveDialog.showSaveDialog(stage);
         if (saveLocation != null) {
             try {
-                fileTransferHandler.saveFile(fileData, saveLocation);
+                transfers.saveReceivedFile(metadata, saveLocation);
                 addSystemMessage("💾 File saved: " + saveLocation.getName());
-                
-                // Optionally remove from memory after download
-                // receivedFilesData.remove(metadata.getFilename());
-                
             } catch (IOException e) {
                 showError("Failed to save file: " + e.getMessage());
             }
@@ -14,7 +14,15 @@ import javafx.animation.Animation;
 import javafx.util.Duration;
 import javafx.stage.Popup;
 
+import core.ChatEngine;
+import core.ChatSession;
+import core.ChatSessionListener;
+import core.FileTransferListener;
+import core.FileTransfers;
 import crypto.*;
+import network.Handshake;
+import network.SessionScope;
+import network.StripedChannel;
 
 import java.io.*;
 import java.net.*;
@@ -23,7 +31,7 @@ import java.time.LocalTime;
 import java.time.format.DateTimeFormatter;
 import java.util.concurrent.*;
 
-public class ServerController {
+public class ServerController implements ChatSessionListener, FileTransferListener {
     
     // FXML Components
     @FXML private VBox chatContainer;
@@ -39,6 +47,7 @@ public class ServerController {
     @FXML private Label encryptionInfoLabel;
     @FXML private Label messagesSentLabel;
     @FXML private Label messagesReceivedLabel;
+    @FXML private Label compressionStatsLabel;
     @FXML private Label sessionTimeLabel;
     @FXML private Label encryptionModeLabel;
     @FXML private Label networkQualityLabel;
@@ -49,16 +58,13 @@ public class ServerController {
     // Network
     private final int PORT = 12345;
     private ServerSocket serverSocket;
-    private Socket socket;
-    private PrintWriter out;
-    private BufferedReader in;
-    private ExecutorService executor = Executors.newFixedThreadPool(3);
+    private final int DATA_PORT = PORT + 1; // Striped file transfer sockets
+    private ServerSocket dataServerSocket;
+    private SessionScope sessionScope = new SessionScope("server-session"); // virtual thread per task, one scope per connection
     
-    // Crypto
-    private PublicKey otherPublicKey;
-    private PrivateKey myPrivateKey;
-    private PublicKey myPublicKey;
-    private String symmetricKey128Bit;
+    // Handshake and text messaging (identity, pinned keys and tickets outlive restartConnection)
+    private final ChatEngine engine = ChatEngine.server();
+    private volatile ChatSession session;
     
     // Statistics
     private int messagesSent = 0;
@@ -73,13 +79,13 @@ public class ServerController {
     
     // File Transfer
     @FXML private Button attachFileButton;
-    private FileTransferHandler fileTransferHandler;
-    private java.util.Map<String, java.util.List<EncryptedFileChunk>> incomingFileChunks = new java.util.concurrent.ConcurrentHashMap<>();
-    private java.util.Map<String, FileMetadata> incomingFileMetadata = new java.util.concurrent.ConcurrentHashMap<>();
-    private java.util.Map<String, byte[]> receivedFilesData = new java.util.concurrent.ConcurrentHashMap<>(); // Store received file data
     private javafx.stage.Stage stage;
     private File selectedFileToSend = null; // File waiting to be sent
     
+    // Offers, resumes and deduplication happen in core; this controller only shows them
+    private final FileTransfers transfers = new FileTransfers(new File(TransferCheckpoint.DEFAULT_DIRECTORY, "server"),
+        new File(ChunkStore.DEFAULT_DIRECTORY, "server"), this);
+    
     @FXML
     public void initialize() {
         // Defer all initialization until FXML components are fully injected
@@ -87,23 +93,7 @@ public class ServerController {
             // Redirect System.out to encryption log
             redirectSystemOut();
             
-            // Setup RSA keys
-            try {
-                KeyPair keyPair = RSAUtil.generateRSAKeyPair();
-                myPrivateKey = keyPair.getPrivate();
-                myPublicKey = keyPair.getPublic();
-                
-                if (keyInfoArea != null) {
-                    keyInfoArea.appendText("RSA Key Pair Generated\n");
-                    keyInfoArea.appendText("Public Key: " + 
-                        RSAUtil.publicKeyToString(myPublicKey).substring(0, 50) + "...\n");
-                }
-            } catch (Exception e) {
-                showError("RSA Key Generation Failed: " + e.getMessage());
-                return;
-            }
-            
-            // Start network connection
+            // Start network connection (RSA keys are taken from the background pool there)
             setupNetworking();
             
             // Start session timer
@@ -119,7 +109,7 @@ public class ServerController {
     }
     
     private void setupNetworking() {
-        executor.submit(() -> {
+        sessionScope.fork(() -> {
             try {
                 Platform.runLater(() -> updateStatus("Starting server...", "🟡 Starting", false));
                 
@@ -133,23 +123,10 @@ public class ServerController {
                     }
                 });
                 
-                socket = serverSocket.accept();
-                
-                String clientIp = socket.getInetAddress().getHostAddress();
-                out = new PrintWriter(socket.getOutputStream(), true);
-                in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
-                
-                Platform.runLater(() -> {
-                    updateStatus("Connected", "🟢 Client Connected", true);
-                    addSystemMessage("✅ Client connected from " + clientIp);
-                    if (clientIpLabel != null) {
-                        clientIpLabel.setText(clientIp);
-                    }
-                });
-                
-                exchangePublicKeys();
-                receiveSymmetricKey();
-                startChatting();
+                // One flight each way; the session reports back through the listener
+                engine.accept(serverSocket, sessionScope, this);
+                transfers.announceIncomplete();
+                offerStripes();
                 
             } catch (Exception ex) {
                 Platform.runLater(() -> {
@@ -160,31 +137,93 @@ public class ServerController {
         });
     }
     
-    private void exchangePublicKeys() throws Exception {
-        String myPubKeyStr = RSAUtil.publicKeyToString(myPublicKey);
-        out.println(myPubKeyStr);
-        
-        String theirPubKeyStr = in.readLine();
-        otherPublicKey = RSAUtil.stringToPublicKey(theirPubKeyStr);
+    private void offerStripes() {
+        if (StripedChannel.configuredStripes() < 2) return;
+        try {
+            if (dataServerSocket == null || dataServerSocket.isClosed()) {
+                dataServerSocket = new ServerSocket(DATA_PORT);
+            }
+            transfers.offerStripes(dataServerSocket);
+        } catch (IOException e) {
+            Platform.runLater(() -> addSystemMessage("⚠️ Striped transfer unavailable: " + e.getMessage()));
+        }
+    }
+    
+    @Override
+    public void onConnected(String clientIp) {
+        Platform.runLater(() -> {
+            updateStatus("Connected", "🟢 Client Connected", true);
+            addSystemMessage("✅ Client connected from " + clientIp);
+            if (clientIpLabel != null) {
+                clientIpLabel.setText(clientIp);
+            }
+        });
+    }
+
+    @Override
+    public void onIdentityLoaded(KeyPair identity, boolean persistent) {
+        Platform.runLater(() -> {
+            if (keyInfoArea != null) {
+                keyInfoArea.appendText(persistent
+                    ? "RSA Identity Loaded (" + IdentityStore.fingerprint(identity.getPublic()) + ")\n"
+                    : "RSA Key Pair Generated\n");
+                keyInfoArea.appendText("Public Key: " + 
+                    RSAUtil.publicKeyToString(identity.getPublic()).substring(0, 50) + "...\n");
+            }
+        });
+    }
+    
+    @Override
+    public void onSessionReady(ChatSession session, Handshake.Result handshake) {
+        this.session = session;
+        transfers.attach(session);
+        applyHandshake(session, handshake);
+    }
+    
+    private void applyHandshake(ChatSession session, Handshake.Result handshake) {
+        if (handshake.getPeerIdentityStatus() != null) {
+            showPeerIdentity(session, handshake.getPeerIdentityStatus());
+        }
+        if (handshake.isResumed()) {
+            activateSession(session, "♻️ Session resumed from ticket (1 round trip)");
+            return;
+        }
         
+        String theirPubKeyStr = handshake.getPeerPublicKeyString();
         Platform.runLater(() -> {
             addSystemMessage("🔑 Public keys exchanged securely");
+            addSystemMessage("✍️ Signature suite: " + (session.getSignatureSuite() == SignatureSuite.ED25519 ? "Ed25519" : "RSA-2048"));
+            if (session.isStreamCompressed()) {
+                addSystemMessage("🗜️ Message stream compression enabled");
+            }
             keyInfoArea.appendText("\nServer Public Key: " + 
                 theirPubKeyStr.substring(0, 50) + "...\n");
         });
+        activateSession(session, handshake.isKeyAgreed() ? "🔐 Symmetric key derived (X25519 key agreement)"
+            : "🔐 Symmetric key received and decrypted");
     }
     
-    private void receiveSymmetricKey() throws Exception {
-        String encryptedSymmetricKey = in.readLine();
-        symmetricKey128Bit = RSAUtil.decryptWithPrivateKey(encryptedSymmetricKey, myPrivateKey);
-        
-        // Initialize file transfer handler with cipher
-        BlockCipher cipher = new BlockCipher(symmetricKey128Bit);
-        fileTransferHandler = new FileTransferHandler(cipher);
-        
+    private void showPeerIdentity(ChatSession session, PeerKeyCache.Status status) {
+        String peer = session.getPeer();
+        String fingerprint = IdentityStore.fingerprint(session.getPeerPublicKey());
+        Platform.runLater(() -> {
+            switch (status) {
+                case NEW -> addSystemMessage("📌 First contact with " + peer + " - identity pinned (" + fingerprint + ")");
+                case MATCH -> addSystemMessage("🪪 Peer identity matches pinned key (" + fingerprint + ")");
+                case CHANGED -> addSystemMessage("⚠️ Identity of " + peer + " CHANGED since last session (" + fingerprint +
+                    ") - possible impersonation. If the peer rotated its key, run: IdentityStore forget server " + peer);
+            }
+        });
+    }
+    
+    private void activateSession(ChatSession session, String keyMessage) {
         Platform.runLater(() -> {
-            addSystemMessage("🔐 Symmetric key received and decrypted");
+            addSystemMessage(keyMessage);
             addSystemMessage("✅ Secure channel established - Ready to chat!");
+            if (session.isMacAuthenticated()) {
+                addSystemMessage("🔏 Messages authenticated with HMAC-SHA256 (RSA checkpoint every " +
+                    SessionAuthenticator.CHECKPOINT_INTERVAL + " messages)");
+            }
             addSystemMessage("═══════════════════════════════════════");
             sendButton.setDisable(false);
             messageInputField.setDisable(false);
@@ -192,55 +231,31 @@ public class ServerController {
         });
     }
     
-    private void startChatting() {
-        executor.submit(() -> {
-            try {
-                String receivedLine;
-                while ((receivedLine = in.readLine()) != null) {
-                    
-                    // Check if this is a file transfer message
-                    if (receivedLine.startsWith("FILE_START||")) {
-                        handleFileStart(receivedLine);
-                        continue;
-                    } else if (receivedLine.startsWith("FILE_CHUNK||")) {
-                        handleFileChunk(receivedLine);
-                        continue;
-                    } else if (receivedLine.startsWith("FILE_END||")) {
-                        handleFileEnd(receivedLine);
-                        continue;
-                    }
-                    
-                    // Regular text message
-                    String[] parts = receivedLine.split("\\|\\|SIG\\|\\|");
-                    if (parts.length == 2) {
-                        String encryptedMsg = parts[0];
-                        String receivedSignature = parts[1];
-                        
-                        // Decrypt message
-                        BlockCipher cipher = new BlockCipher(symmetricKey128Bit);
-                        String decryptedMsg = cipher.decrypt(encryptedMsg);
-                        
-                        // Verify signature
-                        boolean isAuthentic = RSAUtil.verifySignature(
-                            decryptedMsg, receivedSignature, otherPublicKey
-                        );
-                        
-                        messagesReceived++;
-                        final String msg = decryptedMsg;
-                        final boolean verified = isAuthentic;
-                        
-                        Platform.runLater(() -> {
-                            addReceivedMessage(msg, verified);
-                            messagesReceivedLabel.setText(String.valueOf(messagesReceived));
-                        });
-                    }
-                }
-            } catch (Exception e) {
-                Platform.runLater(() -> {
-                    updateStatus("Disconnected", "🔴 Disconnected", false);
-                    addSystemMessage("❌ Connection lost: " + e.getMessage());
-                });
-            }
+    @Override
+    public void onMessage(ChatSession session, String text, boolean verified) {
+        Platform.runLater(() -> {
+            messagesReceived++;
+            addReceivedMessage(text, verified);
+            messagesReceivedLabel.setText(String.valueOf(messagesReceived));
+            updateCompressionStatsLabel();
+        });
+    }
+    
+    @Override
+    public void onControlLine(ChatSession session, String receivedLine) {
+        transfers.handle(receivedLine);
+    }
+    
+    @Override
+    public void onWarning(ChatSession session, String message) {
+        Platform.runLater(() -> addSystemMessage("⚠️ " + message));
+    }
+    
+    @Override
+    public void onDisconnected(ChatSession session, Exception cause) {
+        Platform.runLater(() -> {
+            updateStatus("Disconnected", "🔴 Disconnected", false);
+            addSystemMessage("❌ Connection lost: " + (cause != null ? cause.getMessage() : "closed by peer"));
         });
     }
     
@@ -260,30 +275,33 @@ public class ServerController {
         
         // Otherwise send text message
         String msg = messageInputField.getText().trim();
-        if (msg.isEmpty() || out == null) return;
+        ChatSession current = session;
+        if (msg.isEmpty() || current == null) return;
         
         messageInputField.clear();
         
         try {
-            // Encrypt message
-            BlockCipher cipher = new BlockCipher(symmetricKey128Bit);
-            String encryptedMsg = cipher.encrypt(msg);
-            
-            // Sign message
-            String signature = RSAUtil.signMessage(msg, myPrivateKey);
-            
-            // Send
-            out.println(encryptedMsg + "||SIG||" + signature);
+            // Compression, encryption and MAC/signature happen in the session
+            current.sendMessage(msg);
             
             messagesSent++;
             addSentMessage(msg, true);
             messagesSentLabel.setText(String.valueOf(messagesSent));
+            updateCompressionStatsLabel();
             
         } catch (Exception e) {
             showError("Send Error: " + e.getMessage());
         }
     }
     
+    private void updateCompressionStatsLabel() {
+        if (compressionStatsLabel == null) return;
+        ChatSession current = session;
+        CompressionStats stats = current != null ? current.getCompressionStats() : new CompressionStats();
+        compressionStatsLabel.setText(FileMetadata.formatSize(Math.max(0, stats.getSavedBytes())) +
+            " saved (" + String.format("%.1fx", stats.getRatio()) + ")");
+    }
+    
     @FXML
     private void onEmojiClicked() {
         // Create emoji picker popup with grid layout
@@ -365,15 +383,21 @@ public class ServerController {
     }
     
     private void restartConnection() {
-        // Close existing connections
+        // Close existing connections and cancel every task of the old session
         try {
-            if (socket != null) socket.close();
             if (serverSocket != null) serverSocket.close();
-            if (out != null) out.close();
-            if (in != null) in.close();
+            if (dataServerSocket != null) dataServerSocket.close();
         } catch (IOException e) {
             // Ignore
         }
+        // The old session drops undelivered frames and its compression stream
+        if (session != null) session.close();
+        session = null;
+        sessionScope.cancel();
+        sessionScope = new SessionScope("server-session");
+        
+        // Close stripes and release open checkpoints (reloaded and re-announced after reconnect)
+        transfers.detach();
         
         // Reset state
         chatContainer.getChildren().clear();
@@ -382,22 +406,13 @@ public class ServerController {
         messagesReceived = 0;
         messagesSentLabel.setText("0");
         messagesReceivedLabel.setText("0");
+        updateCompressionStatsLabel();
         sendButton.setDisable(true);
         messageInputField.setDisable(true);
         
         addSystemMessage("🔄 Restarting connection...");
         
-        // Regenerate RSA keys
-        try {
-            KeyPair keyPair = RSAUtil.generateRSAKeyPair();
-            myPrivateKey = keyPair.getPrivate();
-            myPublicKey = keyPair.getPublic();
-        } catch (Exception e) {
-            showError("Key regeneration failed: " + e.getMessage());
-            return;
-        }
-        
-        // Reconnect
+        // Reconnect (takes fresh RSA keys from the pool)
         setupNetworking();
     }
     
@@ -546,10 +561,9 @@ public class ServerController {
         );
         File selectedFile = fileChooser.showOpenDialog(stage);
         if (selectedFile != null) {
-            // Check file size (max 100MB)
-            long maxSize = 100 * 1024 * 1024; // 100MB
-            if (selectedFile.length() > maxSize) {
-                showError("File too large! Maximum size is 100MB");
+            // Check file size (resumable transfers stream from disk, max 4GB)
+            if (selectedFile.length() > FileTransferHandler.MAX_RESUMABLE_FILE_SIZE) {
+                showError("File too large! Maximum size is " + FileMetadata.formatSize(FileTransferHandler.MAX_RESUMABLE_FILE_SIZE));
                 return;
             }
             
@@ -565,107 +579,46 @@ public class ServerController {
     
     private void sendFile(File file) {
         attachFileButton.setDisable(true);
-        Platform.runLater(() -> addSystemMessage("📤 Sending file: " + file.getName()));
-        executor.submit(() -> {
-            try {
-                Object[] prepared = fileTransferHandler.prepareFileForTransfer(file);
-                FileMetadata metadata = (FileMetadata) prepared[0];
-                @SuppressWarnings("unchecked")
-                java.util.List<EncryptedFileChunk> chunks = (java.util.List<EncryptedFileChunk>) prepared[1];
-                out.println("FILE_START||" + metadata.toProtocolString());
-                Platform.runLater(() -> addSystemMessage("📋 Metadata sent: " + metadata.getFormattedSize()));
-                for (int i = 0; i < chunks.size(); i++) {
-                    EncryptedFileChunk chunk = chunks.get(i);
-                    out.println("FILE_CHUNK||" + chunk.toProtocolString());
-                    final int progress = chunk.getProgressPercentage();
-                    final int current = i + 1;
-                    final int total = chunks.size();
-                    Platform.runLater(() -> updateStatus("Sending file: " + progress + "% (" + current + "/" + total + ")", "🟢 Client Connected", true));
-                    Thread.sleep(10);
-                }
-                String signature = RSAUtil.signMessage(metadata.getChecksum(), myPrivateKey);
-                out.println("FILE_END||" + metadata.getChecksum() + "||SIG||" + signature);
-                Platform.runLater(() -> {
-                    addSentFileMessage(metadata);
-                    addSystemMessage("✅ File sent successfully: " + file.getName());
-                    updateStatus("Client Connected", "🟢 Client Connected", true);
-                    attachFileButton.setDisable(false);
-                });
-            } catch (Exception e) {
-                e.printStackTrace();
-                Platform.runLater(() -> { showError("File send failed: " + e.getMessage()); attachFileButton.setDisable(false); });
-            }
-        });
+        transfers.send(file);
     }
     
-    private void handleFileStart(String message) {
-        try {
-            String metadataString = message.substring("FILE_START||".length());
-            FileMetadata metadata = FileMetadata.fromProtocolString(metadataString);
-            incomingFileMetadata.put(metadata.getFilename(), metadata);
-            incomingFileChunks.put(metadata.getFilename(), new java.util.ArrayList<>());
-            Platform.runLater(() -> addSystemMessage("📥 Receiving file: " + metadata.getFilename() + " (" + metadata.getFormattedSize() + ")"));
-        } catch (Exception e) {
-            e.printStackTrace();
-            Platform.runLater(() -> showError("File receive error: " + e.getMessage()));
-        }
+    @Override
+    public void onTransferNotice(String message) {
+        Platform.runLater(() -> addSystemMessage("📁 " + message));
     }
     
-    private void handleFileChunk(String message) {
-        try {
-            String chunkString = message.substring("FILE_CHUNK||".length());
-            EncryptedFileChunk chunk = EncryptedFileChunk.fromProtocolString(chunkString);
-            for (FileMetadata metadata : incomingFileMetadata.values()) {
-                java.util.List<EncryptedFileChunk> chunks = incomingFileChunks.get(metadata.getFilename());
-                if (chunks != null && chunks.size() == chunk.getChunkIndex()) {
-                    chunks.add(chunk);
-                    final int progress = chunk.getProgressPercentage();
-                    Platform.runLater(() -> updateStatus("Receiving file: " + progress + "%", "🟢 Client Connected", true));
-                    break;
-                }
-            }
-        } catch (Exception e) {
-            e.printStackTrace();
-        }
+    @Override
+    public void onTransferProgress(String status) {
+        Platform.runLater(() -> updateStatus(status, "🟢 Client Connected", true));
     }
     
-    private void handleFileEnd(String message) {
-        executor.submit(() -> {
-            try {
-                String[] parts = message.substring("FILE_END||".length()).split("\\|\\|SIG\\|\\|");
-                String checksum = parts[0];
-                String signature = parts[1];
-                FileMetadata metadata = null;
-                for (FileMetadata meta : incomingFileMetadata.values()) {
-                    if (meta.getChecksum().equals(checksum)) { metadata = meta; break; }
-                }
-                if (metadata == null) { Platform.runLater(() -> showError("File metadata not found")); return; }
-                boolean isAuthentic = RSAUtil.verifySignature(checksum, signature, otherPublicKey);
-                if (!isAuthentic) { Platform.runLater(() -> showError("File signature verification failed!")); return; }
-                java.util.List<EncryptedFileChunk> chunks = incomingFileChunks.get(metadata.getFilename());
-                
-                // Decrypt and reassemble file (this happens in background thread)
-                byte[] fileData = fileTransferHandler.receiveAndDecryptFile(metadata, chunks);
-                
-                // Store file data in memory for later download
-                receivedFilesData.put(metadata.getFilename(), fileData);
-                
-                final FileMetadata finalMetadata = metadata;
-                Platform.runLater(() -> {
-                    addReceivedFileMessage(finalMetadata);
-                    addSystemMessage("✅ File received: " + finalMetadata.getFilename() + " - Click to download");
-                    messagesReceived++;
-                    messagesReceivedLabel.setText(String.valueOf(messagesReceived));
-                    
-                    // Cleanup chunk storage
-                    incomingFileMetadata.remove(finalMetadata.getFilename());
-                    incomingFileChunks.remove(finalMetadata.getFilename());
-                    updateStatus("Client Connected", "🟢 Client Connected", true);
-                });
-            } catch (Exception e) {
-                e.printStackTrace();
-                Platform.runLater(() -> { showError("File receive error: " + e.getMessage()); updateStatus("Client Connected", "🟢 Client Connected", true); });
-            }
+    @Override
+    public void onFileSent(FileMetadata metadata) {
+        Platform.runLater(() -> {
+            addSentFileMessage(metadata);
+            addSystemMessage("✅ File sent successfully: " + metadata.getFilename());
+            updateStatus("Client Connected", "🟢 Client Connected", true);
+            attachFileButton.setDisable(false);
+        });
+    }
+    
+    @Override
+    public void onFileReceived(FileMetadata metadata) {
+        Platform.runLater(() -> {
+            addReceivedFileMessage(metadata);
+            addSystemMessage("✅ File received: " + metadata.getFilename() + " - Click to download");
+            messagesReceived++;
+            messagesReceivedLabel.setText(String.valueOf(messagesReceived));
+            updateStatus("Client Connected", "🟢 Client Connected", true);
+        });
+    }
+    
+    @Override
+    public void onTransferFailed(String message) {
+        Platform.runLater(() -> {
+            showError(message);
+            attachFileButton.setDisable(false);
+            updateStatus("Client Connected", "🟢 Client Connected", true);
         });
     }
     
@@ -726,12 +679,6 @@ public class ServerController {
     }
     
     private void downloadReceivedFile(FileMetadata metadata) {
-        byte[] fileData = receivedFilesData.get(metadata.getFilename());
-        if (fileData == null) {
-            showError("File data not found. It may have been already downloaded or cleared.");
-            return;
-        }
-        
         javafx.stage.FileChooser saveDialog = new javafx.stage.FileChooser();
         saveDialog.setTitle("Save File");
         saveDialog.setInitialFileName(metadata.getFilename());
@@ -739,7 +686,7 @@ public class ServerController {
         File saveLocation = saveDialog.showSaveDialog(stage);
         if (saveLocation != null) {
             try {
-                fileTransferHandler.saveFile(fileData, saveLocation);
+                transfers.saveReceivedFile(metadata, saveLocation);
                 addSystemMessage("💾 File saved: " + saveLocation.getName());
             } catch (IOException e) {
                 showError("Failed to save file: " + e.getMessage());
@@ -0,0 +1,487 @@
+package core;
+
+import crypto.SessionCapabilities;
+import network.NioTransport;
+import network.SessionScope;
+import org.junit.jupiter.api.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.channels.ServerSocketChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tests for the multi-client hub:
+ * - A message from one client reaches every other client, not the sender
+ * - A client that leaves is removed and the rest keep chatting
+ * - The same over the NIO transport
+ * - Group-key and per-member clients in one room; a departure rekeys the group
+ * - A client that stops reading is skipped, waited for or dropped, per policy,
+ *   while the others keep receiving
+ * - Connections beyond the handshake slots and queue are closed before any RSA work
+ * - Room messages reach the room's members only; parting rekeys the room
+ * - Concurrent senders in one room: nothing lost, each sender's messages in order
+ */
+public class ChatHubTest {
+
+    @BeforeAll
+    public static void useEphemeralKeys() {
+        System.setProperty("fleurdelyx.identity", "false");
+        System.setOut(new PrintStream(OutputStream.nullOutputStream())); // BlockCipher traces every round
+    }
+
+    private static class Inbox implements ChatSessionListener {
+        final List<String> chat = Collections.synchronizedList(new ArrayList<>());
+        final List<String> notices = Collections.synchronizedList(new ArrayList<>());
+        final CountDownLatch received;
+
+        Inbox(int expected) {
+            received = new CountDownLatch(expected);
+        }
+
+        @Override
+        public void onMessage(ChatSession session, String text, boolean verified) {
+            if (text.startsWith("***")) { // join/leave notices
+                notices.add(text);
+                return;
+            }
+            chat.add(text);
+            received.countDown();
+        }
+    }
+
+    private static void awaitMembers(ChatHub hub, int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (hub.getMemberCount() != count && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(count, hub.getMemberCount());
+    }
+
+    @Test
+    @DisplayName("Messages are routed to every other client")
+    public void testRouting() throws Exception {
+        routeMessages(ChatEngine.server(), new ServerSocket(0));
+    }
+
+    @Test
+    @DisplayName("Routing over the NIO transport")
+    public void testRoutingNio() throws Exception {
+        try (NioTransport transport = new NioTransport(2)) {
+            ServerSocketChannel serverChannel = ServerSocketChannel.open();
+            serverChannel.bind(new InetSocketAddress("localhost", 0));
+            routeMessages(ChatEngine.server().withTransport(transport), serverChannel.socket());
+        }
+    }
+
+    @Test
+    @DisplayName("Group key for capable clients, per-member encryption for the rest")
+    public void testGroupKeys() throws Exception {
+        ChatHub hub = new ChatHub(ChatEngine.server(), ChatHub.DEFAULT_MAX_LINE_LENGTH, ChatHub.DEFAULT_OUTBOUND_CAPACITY,
+            new PrintStream(OutputStream.nullOutputStream()));
+        LinkedHashSet<String> withoutGroupKeys = new LinkedHashSet<>(SessionCapabilities.local().getFeatures());
+        withoutGroupKeys.remove(SessionCapabilities.GROUP_KEYS);
+        try (ServerSocket serverSocket = new ServerSocket(0);
+             SessionScope hubScope = new SessionScope("test-hub");
+             SessionScope clientScope = new SessionScope("test-clients")) {
+            hubScope.fork(() -> {
+                hub.serve(serverSocket);
+                return null;
+            });
+
+            Inbox[] inboxes = { new Inbox(1), new Inbox(2), new Inbox(1), new Inbox(2) };
+            ChatSession[] clients = new ChatSession[inboxes.length];
+            for (int i = 0; i < clients.length; i++) {
+                ChatEngine engine = ChatEngine.client();
+                if (i == 3) engine.withCapabilities(new SessionCapabilities(withoutGroupKeys));
+                clients[i] = engine.connect("localhost", serverSocket.getLocalPort(), clientScope, inboxes[i]);
+            }
+            awaitMembers(hub, 4);
+            assertTrue(clients[1].isGroupKeyCapable());
+            assertFalse(clients[3].isGroupKeyCapable());
+            assertEquals("1.3", hub.getGroupEpoch()); // one ratchet step per capable join
+
+            clients[0].sendMessage("to everyone");
+            assertTrue(inboxes[2].received.await(10, TimeUnit.SECONDS));
+            assertTrue(inboxes[2].chat.get(0).endsWith(": to everyone"));
+
+            // A capable member leaves: fresh key for the rest, and they keep reading
+            clients[2].close();
+            awaitMembers(hub, 3);
+            assertEquals(1, hub.getGroupRekeys());
+            assertEquals("2.0", hub.getGroupEpoch());
+            clients[0].sendMessage("after the rekey");
+            assertTrue(inboxes[1].received.await(10, TimeUnit.SECONDS));
+            assertTrue(inboxes[3].received.await(10, TimeUnit.SECONDS));
+            assertTrue(inboxes[1].chat.get(1).endsWith(": after the rekey"));
+            assertTrue(inboxes[3].chat.get(1).endsWith(": after the rekey"));
+            clients[3].sendMessage("from the legacy client");
+            assertTrue(inboxes[0].received.await(10, TimeUnit.SECONDS));
+            assertTrue(inboxes[0].chat.get(0).endsWith(": from the legacy client"));
+
+            hub.closeAll();
+            serverSocket.close();
+        }
+    }
+
+    @Test
+    @DisplayName("Drop-bulk policy skips messages for a stalled client and tells it afterwards")
+    public void testSlowConsumerDropBulk() throws Exception {
+        SlowConsumerRun run = stallOneClient(ChatHub.SlowConsumerPolicy.DROP_BULK);
+        assertTrue(run.hub.getFramesDropped() > 0);
+        assertEquals(0, run.hub.getSlowMembersDropped());
+        assertEquals(0, run.hub.getIntakePauses());
+        ChatHub.MemberStats lagging = run.lagging;
+        assertTrue(lagging.isLagging());
+        assertEquals(run.hub.getFramesDropped(), lagging.framesDropped());
+
+        // Reading again: the backlog drains, the lag clears and the client learns how much it missed
+        run.slow.pauseReading(false);
+        String notice = awaitNotice(run.slowInbox, "skipped");
+        int skipped = Integer.parseInt(notice.split(" ")[1]);
+        assertEquals(run.hub.getFramesDropped(), skipped);
+        assertEquals(STALL_MESSAGES, run.slowInbox.chat.size() + skipped);
+        assertFalse(run.hub.getMemberStats().get(0).isLagging());
+        run.close();
+    }
+
+    @Test
+    @DisplayName("Pause policy stops reading from everyone until the stalled client catches up")
+    public void testSlowConsumerPause() throws Exception {
+        SlowConsumerRun run = stallOneClient(ChatHub.SlowConsumerPolicy.PAUSE);
+        assertEquals(1, run.hub.getIntakePauses());
+        run.slow.pauseReading(false);
+        assertTrue(run.slowInbox.received.await(30, TimeUnit.SECONDS));
+        assertTrue(run.fastInbox.received.await(30, TimeUnit.SECONDS));
+        assertEquals(0, run.hub.getFramesDropped());
+        assertEquals(0, run.hub.getSlowMembersDropped());
+        run.close();
+    }
+
+    @Test
+    @DisplayName("Disconnect policy drops the stalled client")
+    public void testSlowConsumerDisconnect() throws Exception {
+        SlowConsumerRun run = stallOneClient(ChatHub.SlowConsumerPolicy.DISCONNECT);
+        awaitMembers(run.hub, 2);
+        assertEquals(1, run.hub.getSlowMembersDropped());
+        assertFalse(run.hub.getMemberStats().get(0).isLagging());
+        run.close();
+    }
+
+    @Test
+    @DisplayName("Rooms route to their members only")
+    public void testRooms() throws Exception {
+        ChatHub hub = new ChatHub(ChatEngine.server(), ChatHub.DEFAULT_MAX_LINE_LENGTH, ChatHub.DEFAULT_OUTBOUND_CAPACITY,
+            new PrintStream(OutputStream.nullOutputStream()));
+        LinkedHashSet<String> withoutGroupKeys = new LinkedHashSet<>(SessionCapabilities.local().getFeatures());
+        withoutGroupKeys.remove(SessionCapabilities.GROUP_KEYS);
+        try (ServerSocket serverSocket = new ServerSocket(0);
+             SessionScope hubScope = new SessionScope("test-hub");
+             SessionScope clientScope = new SessionScope("test-clients")) {
+            hubScope.fork(() -> {
+                hub.serve(serverSocket);
+                return null;
+            });
+
+            // 0, 1 and 3 (without group keys) in #dev, 2 only in the lobby
+            Inbox[] inboxes = { new Inbox(1), new Inbox(4), new Inbox(2), new Inbox(5) };
+            ChatSession[] clients = new ChatSession[inboxes.length];
+            for (int i = 0; i < clients.length; i++) {
+                ChatEngine engine = ChatEngine.client();
+                if (i == 3) engine.withCapabilities(new SessionCapabilities(withoutGroupKeys));
+                clients[i] = engine.connect("localhost", serverSocket.getLocalPort(), clientScope, inboxes[i]);
+                awaitMembers(hub, i + 1);
+            }
+            clients[0].sendMessage("/join #dev");
+            clients[1].sendMessage("/join dev");
+            clients[3].sendMessage("/join #dev");
+            awaitRoomSize(hub, "dev", 3);
+            assertEquals(1, hub.getRoomCount());
+
+            // One at a time, so the order across senders is known
+            clients[0].sendMessage("#dev hello room");
+            awaitChat(inboxes[1], 1);
+            clients[2].sendMessage("plain to all");
+            assertTrue(inboxes[0].received.await(10, TimeUnit.SECONDS));
+            clients[0].sendMessage("everyone again");
+            awaitChat(inboxes[2], 1);
+            assertTrue(inboxes[2].chat.get(0).endsWith(": everyone again")); // the room message never came
+
+            // Parting: fresh room key for the rest, nothing more for the one who left
+            String epoch = hub.getRoomEpoch("dev");
+            clients[1].sendMessage("/part #dev");
+            awaitRoomSize(hub, "dev", 2);
+            assertTrue(epoch.startsWith("dev:1."));
+            assertTrue(hub.getRoomEpoch("dev").startsWith("dev:2."));
+            clients[0].sendMessage("#dev after part");
+            clients[0].sendMessage("last");
+            assertTrue(inboxes[1].received.await(10, TimeUnit.SECONDS));
+            assertTrue(inboxes[2].received.await(10, TimeUnit.SECONDS));
+            assertTrue(inboxes[3].received.await(10, TimeUnit.SECONDS));
+            assertEquals(List.of("#dev client-1: hello room", "client-3: plain to all", "client-1: everyone again",
+                "client-1: last"), inboxes[1].chat);
+            assertEquals("#dev client-1: after part", inboxes[3].chat.get(3));
+            assertEquals("#dev client-1: hello room", inboxes[3].chat.get(0));
+
+            // Leaving the hub leaves its rooms too; the last one out removes the room
+            clients[3].close();
+            awaitRoomSize(hub, "dev", 1);
+            clients[0].sendMessage("/part #dev");
+            awaitRoomSize(hub, "dev", 0);
+            assertEquals(0, hub.getRoomCount());
+
+            hub.closeAll();
+            serverSocket.close();
+        }
+    }
+
+    @Test
+    @DisplayName("Concurrent senders in one room: every frame arrives, each sender's in order")
+    public void testRoomConcurrentSenders() throws Exception {
+        ChatHub hub = new ChatHub(ChatEngine.server(), ChatHub.DEFAULT_MAX_LINE_LENGTH, ChatHub.DEFAULT_OUTBOUND_CAPACITY,
+            new PrintStream(OutputStream.nullOutputStream()));
+        int clientCount = 4;
+        int perSender = 50;
+        try (ServerSocket serverSocket = new ServerSocket(0);
+             SessionScope hubScope = new SessionScope("test-hub");
+             SessionScope clientScope = new SessionScope("test-clients")) {
+            hubScope.fork(() -> {
+                hub.serve(serverSocket);
+                return null;
+            });
+
+            Inbox[] inboxes = new Inbox[clientCount];
+            ChatSession[] clients = new ChatSession[clientCount];
+            for (int i = 0; i < clientCount; i++) {
+                inboxes[i] = new Inbox((clientCount - 1) * perSender);
+                clients[i] = ChatEngine.client().connect("localhost", serverSocket.getLocalPort(), clientScope, inboxes[i]);
+                awaitMembers(hub, i + 1);
+                clients[i].sendMessage("/join #busy");
+                awaitRoomSize(hub, "busy", i + 1);
+            }
+
+            // The senders fan out side by side, so members get the room's frames a little out of sequence order;
+            // none may be dropped as a replay, and each sender's own messages stay in order
+            CountDownLatch start = new CountDownLatch(1);
+            List<Future<Void>> senders = new ArrayList<>();
+            for (ChatSession client : clients) {
+                senders.add(clientScope.fork(() -> {
+                    start.await();
+                    for (int k = 0; k < perSender; k++) {
+                        client.sendMessage("#busy m" + k);
+                    }
+                    return null;
+                }));
+            }
+            start.countDown();
+            for (Future<Void> sender : senders) {
+                sender.get(10, TimeUnit.SECONDS);
+            }
+
+            for (int i = 0; i < clientCount; i++) {
+                assertTrue(inboxes[i].received.await(10, TimeUnit.SECONDS), "client-" + (i + 1) + " missed room messages");
+                for (int j = 0; j < clientCount; j++) {
+                    if (j == i) continue;
+                    String prefix = "#busy client-" + (j + 1) + ": ";
+                    List<String> fromSender = new ArrayList<>();
+                    synchronized (inboxes[i].chat) {
+                        for (String line : inboxes[i].chat) {
+                            if (line.startsWith(prefix)) fromSender.add(line.substring(prefix.length()));
+                        }
+                    }
+                    assertEquals(perSender, fromSender.size());
+                    for (int k = 0; k < perSender; k++) {
+                        assertEquals("m" + k, fromSender.get(k));
+                    }
+                }
+            }
+
+            hub.closeAll();
+            serverSocket.close();
+        }
+    }
+
+    private static void awaitRoomSize(ChatHub hub, String room, int size) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (hub.getRoomSize(room) != size && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(size, hub.getRoomSize(room));
+    }
+
+    private static void awaitChat(Inbox inbox, int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (inbox.chat.size() < count && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertTrue(inbox.chat.size() >= count);
+    }
+
+    @Test
+    @DisplayName("Admission: one handshake at a time, one waiting, the rest rejected")
+    public void testAdmission() throws Exception {
+        ChatHub hub = new ChatHub(ChatEngine.server(), ChatHub.DEFAULT_MAX_LINE_LENGTH, ChatHub.DEFAULT_OUTBOUND_CAPACITY,
+            new PrintStream(OutputStream.nullOutputStream()))
+            .withAdmission(1, 1);
+        try (ServerSocket serverSocket = new ServerSocket(0);
+             SessionScope hubScope = new SessionScope("test-hub");
+             SessionScope clientScope = new SessionScope("test-clients")) {
+            hubScope.fork(() -> {
+                hub.serve(serverSocket);
+                return null;
+            });
+            int port = serverSocket.getLocalPort();
+
+            // A silent connection takes the only slot; a real client queues behind it
+            Socket silent = new Socket("localhost", port);
+            long deadline = System.currentTimeMillis() + 10_000;
+            while (hub.getHandshakesInProgress() != 1 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            Future<ChatSession> queued = clientScope.fork(
+                () -> ChatEngine.client().connect("localhost", port, clientScope, new Inbox(0)));
+            while (hub.getHandshakesQueued() != 1 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            assertEquals(1, hub.getHandshakesQueued());
+
+            // Queue full: the next one is closed without a handshake
+            try (Socket extra = new Socket("localhost", port)) {
+                extra.setSoTimeout(10_000);
+                assertEquals(-1, extra.getInputStream().read());
+            }
+            assertEquals(1, hub.getConnectionsRejected());
+
+            // The slot frees up and the queued client gets in
+            silent.close();
+            assertFalse(queued.get(30, TimeUnit.SECONDS).isClosed());
+            awaitMembers(hub, 1);
+            assertTrue(hub.describeAdmission().contains("1 rejected"));
+
+            hub.closeAll();
+            serverSocket.close();
+        }
+    }
+
+    private static final int STALL_MESSAGES = 80;
+
+    private record SlowConsumerRun(ChatHub hub, ChatSession slow, Inbox slowInbox, Inbox fastInbox,
+                                   ChatHub.MemberStats lagging, NioTransport transport, SessionScope hubScope,
+                                   SessionScope clientScope, ServerSocketChannel serverChannel) {
+        void close() throws Exception {
+            hub.closeAll();
+            serverChannel.close();
+            clientScope.close();
+            hubScope.close();
+            transport.close();
+        }
+    }
+
+    /**
+     * Three clients on an NIO hub with small watermarks; one stops reading while another sends
+     */
+    private SlowConsumerRun stallOneClient(ChatHub.SlowConsumerPolicy policy) throws Exception {
+        NioTransport transport = new NioTransport(2);
+        ServerSocketChannel serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(new InetSocketAddress("localhost", 0));
+        ChatHub hub = new ChatHub(ChatEngine.server().withTransport(transport), ChatHub.DEFAULT_MAX_LINE_LENGTH,
+            ChatHub.DEFAULT_OUTBOUND_CAPACITY, new PrintStream(OutputStream.nullOutputStream()))
+            .withSlowConsumerPolicy(policy, 32 * 1024, 256 * 1024) // room for ~20 frames of ordinary jitter
+            .withSendBufferSize(8 * 1024);
+        SessionScope hubScope = new SessionScope("test-hub");
+        SessionScope clientScope = new SessionScope("test-clients");
+        hubScope.fork(() -> {
+            hub.serve(serverChannel.socket());
+            return null;
+        });
+
+        int port = serverChannel.socket().getLocalPort();
+        Inbox slowInbox = new Inbox(STALL_MESSAGES);
+        Inbox fastInbox = new Inbox(STALL_MESSAGES);
+        ChatSession sender = ChatEngine.client().connect("localhost", port, clientScope, new Inbox(0));
+        ChatSession slow = ChatEngine.client().connect("localhost", port, clientScope, slowInbox);
+        ChatEngine.client().connect("localhost", port, clientScope, fastInbox);
+        awaitMembers(hub, 3);
+
+        slow.pauseReading(true);
+        String filler = "x".repeat(8 * 1024);
+        for (int i = 0; i < STALL_MESSAGES; i++) {
+            sender.sendMessage(i + " " + filler);
+        }
+
+        // The client that kept reading is not held up (under PAUSE, everybody waits for the stalled one)
+        if (policy == ChatHub.SlowConsumerPolicy.PAUSE) {
+            long deadline = System.currentTimeMillis() + 30_000;
+            while (hub.getIntakePauses() == 0 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            return new SlowConsumerRun(hub, slow, slowInbox, fastInbox, null, transport, hubScope, clientScope, serverChannel);
+        }
+        assertTrue(fastInbox.received.await(30, TimeUnit.SECONDS));
+        assertTrue(fastInbox.chat.get(STALL_MESSAGES - 1).contains(": " + (STALL_MESSAGES - 1) + " x"));
+        return new SlowConsumerRun(hub, slow, slowInbox, fastInbox, hub.getMemberStats().get(0),
+            transport, hubScope, clientScope, serverChannel);
+    }
+
+    private static String awaitNotice(Inbox inbox, String containing) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 30_000;
+        while (System.currentTimeMillis() < deadline) {
+            for (String notice : List.copyOf(inbox.notices)) {
+                if (notice.contains(containing)) return notice;
+            }
+            Thread.sleep(10);
+        }
+        fail("no notice containing '" + containing + "'");
+        return null;
+    }
+
+    private void routeMessages(ChatEngine engine, ServerSocket listening) throws Exception {
+        ChatHub hub = new ChatHub(engine, ChatHub.DEFAULT_MAX_LINE_LENGTH, ChatHub.DEFAULT_OUTBOUND_CAPACITY,
+            new PrintStream(OutputStream.nullOutputStream()));
+        try (ServerSocket serverSocket = listening;
+             SessionScope hubScope = new SessionScope("test-hub");
+             SessionScope clientScope = new SessionScope("test-clients")) {
+            hubScope.fork(() -> {
+                hub.serve(serverSocket);
+                return null;
+            });
+
+            Inbox[] inboxes = { new Inbox(1), new Inbox(1), new Inbox(1) };
+            ChatSession[] clients = new ChatSession[inboxes.length];
+            for (int i = 0; i < clients.length; i++) {
+                clients[i] = ChatEngine.client().connect("localhost", serverSocket.getLocalPort(), clientScope, inboxes[i]);
+            }
+            awaitMembers(hub, 3);
+
+            clients[0].sendMessage("hello from 1");
+            assertTrue(inboxes[1].received.await(10, TimeUnit.SECONDS));
+            assertTrue(inboxes[2].received.await(10, TimeUnit.SECONDS));
+            // Names follow the order handshakes finish in, so only the text is known here
+            String routed = inboxes[1].chat.get(0);
+            assertTrue(routed.matches("client-\\d: hello from 1"), routed);
+            assertEquals(List.of(routed), inboxes[2].chat);
+
+            // Client 3 leaves, the others keep going
+            clients[2].close();
+            awaitMembers(hub, 2);
+            clients[1].sendMessage("still here");
+            assertTrue(inboxes[0].received.await(10, TimeUnit.SECONDS));
+            assertEquals(1, inboxes[0].chat.size());
+            assertTrue(inboxes[0].chat.get(0).endsWith(": still here"));
+            assertEquals(1, inboxes[1].chat.size()); // not echoed to the sender
+
+            hub.closeAll();
+            serverSocket.close();
+        }
+    }
+}
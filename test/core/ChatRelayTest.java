@@ -0,0 +1,147 @@
+package core;
+
+import network.NioEventLoop;
+import network.NioTransport;
+import network.SessionScope;
+import org.junit.jupiter.api.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.channels.ServerSocketChannel;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tests for the relay:
+ * - Two clients with the same token chat end to end, the relay never frames a line
+ * - Requests that are not RELAY||token are rejected
+ */
+public class ChatRelayTest {
+
+    @BeforeAll
+    public static void useEphemeralKeys() {
+        System.setProperty("fleurdelyx.identity", "false");
+    }
+
+    private static class Inbox implements ChatSessionListener {
+        final BlockingQueue<String> messages = new LinkedBlockingQueue<>();
+
+        @Override
+        public void onMessage(ChatSession session, String text, boolean verified) {
+            messages.add(text + (verified ? "" : " (unverified)"));
+        }
+
+        String next() throws InterruptedException {
+            String message = messages.poll(10, TimeUnit.SECONDS);
+            assertNotNull(message);
+            return message;
+        }
+    }
+
+    @Test
+    @DisplayName("Paired clients chat end to end through the relay")
+    public void testEndToEnd() throws Exception {
+        try (NioTransport transport = new NioTransport(2);
+             ServerSocketChannel serverChannel = ServerSocketChannel.open();
+             SessionScope relayScope = new SessionScope("test-relay");
+             SessionScope clientScope = new SessionScope("test-clients")) {
+            serverChannel.bind(new InetSocketAddress("localhost", 0));
+            int port = serverChannel.socket().getLocalPort();
+            ChatRelay relay = new ChatRelay(transport, ChatRelay.DEFAULT_MAX_WAITING,
+                new PrintStream(OutputStream.nullOutputStream()));
+            relayScope.fork(() -> {
+                relay.serve(serverChannel);
+                return null;
+            });
+
+            // The first client blocks until its peer arrives
+            Inbox aliceInbox = new Inbox();
+            Inbox bobInbox = new Inbox();
+            var alice = clientScope.fork(() -> ChatEngine.client().connectViaRelay("localhost", port, "room-42", clientScope, aliceInbox));
+            long deadline = System.currentTimeMillis() + 10_000;
+            while (relay.getWaitingCount() == 0 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            assertEquals(1, relay.getWaitingCount());
+            ChatSession bob = ChatEngine.client().connectViaRelay("localhost", port, "room-42", clientScope, bobInbox);
+            ChatSession aliceSession = alice.get(10, TimeUnit.SECONDS);
+
+            assertTrue(aliceSession.isServer()); // waited, so plays the server side
+            assertFalse(bob.isServer());
+            assertEquals(aliceSession.getSessionKey(), bob.getSessionKey());
+            assertEquals(1, relay.getPairsOpened());
+            assertEquals(1, relay.getLinkCount());
+
+            aliceSession.sendMessage("hi bob");
+            assertEquals("hi bob", bobInbox.next());
+            bob.sendMessage("hi alice");
+            assertEquals("hi alice", aliceInbox.next());
+
+            // Bytes went through, but the relay never looked for line ends
+            long statsDeadline = System.currentTimeMillis() + 5000;
+            while (bytesForwarded(transport) == 0 && System.currentTimeMillis() < statsDeadline) {
+                Thread.sleep(10);
+            }
+            assertTrue(bytesForwarded(transport) > 0);
+            assertEquals(0, transport.stats().stream().mapToLong(NioEventLoop.Stats::linesIn).sum());
+
+            // One side leaving closes the link
+            bob.close();
+            deadline = System.currentTimeMillis() + 10_000;
+            while (relay.getLinkCount() > 0 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            assertEquals(0, relay.getLinkCount());
+            aliceSession.close();
+            serverChannel.close();
+        }
+    }
+
+    private static long bytesForwarded(NioTransport transport) {
+        return transport.stats().stream().mapToLong(NioEventLoop.Stats::bytesOut).sum();
+    }
+
+    @Test
+    @DisplayName("Malformed rendezvous is rejected")
+    public void testRejected() throws Exception {
+        try (NioTransport transport = new NioTransport(1);
+             ServerSocketChannel serverChannel = ServerSocketChannel.open();
+             SessionScope relayScope = new SessionScope("test-relay")) {
+            serverChannel.bind(new InetSocketAddress("localhost", 0));
+            ChatRelay relay = new ChatRelay(transport, 1, new PrintStream(OutputStream.nullOutputStream()));
+            relayScope.fork(() -> {
+                relay.serve(serverChannel);
+                return null;
+            });
+            int port = serverChannel.socket().getLocalPort();
+
+            try (Socket socket = new Socket("localhost", port)) {
+                new PrintWriter(socket.getOutputStream(), true).println("HELLO");
+                String reply = new BufferedReader(new InputStreamReader(socket.getInputStream())).readLine();
+                assertEquals("RELAY_REJECTED||not a relay request", reply);
+            }
+
+            // Waiting list is full after one client
+            try (Socket waiting = new Socket("localhost", port);
+                 Socket second = new Socket("localhost", port)) {
+                new PrintWriter(waiting.getOutputStream(), true).println("RELAY||a");
+                long deadline = System.currentTimeMillis() + 10_000;
+                while (relay.getWaitingCount() == 0 && System.currentTimeMillis() < deadline) {
+                    Thread.sleep(10);
+                }
+                new PrintWriter(second.getOutputStream(), true).println("RELAY||b");
+                String reply = new BufferedReader(new InputStreamReader(second.getInputStream())).readLine();
+                assertEquals("RELAY_REJECTED||too many clients waiting", reply);
+            }
+            assertEquals(2, relay.getRejected());
+            serverChannel.close();
+        }
+    }
+}
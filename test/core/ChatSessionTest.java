@@ -0,0 +1,181 @@
+package core;
+
+import crypto.SessionAuthenticator;
+import crypto.SessionCapabilities;
+import network.SessionScope;
+import org.junit.jupiter.api.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tests for the headless chat core:
+ * - Messages arrive in order and verified with session MAC + stream compression
+ * - The same with per-message signatures and no stream compression
+ * - Control lines go to the listener untouched
+ * - Concurrent senders on a MAC session never put sequence numbers out of order
+ * - Transcript checkpoints are checked on the crypto workers, in order with the messages around them
+ */
+public class ChatSessionTest {
+
+    @BeforeAll
+    public static void useEphemeralKeys() {
+        System.setProperty("fleurdelyx.identity", "false"); // keep the user's keystore out of tests
+    }
+
+    private static class Recorder implements ChatSessionListener {
+        final List<String> messages = Collections.synchronizedList(new ArrayList<>());
+        final List<String> controlLines = Collections.synchronizedList(new ArrayList<>());
+        final List<String> warningThreads = Collections.synchronizedList(new ArrayList<>());
+        final CountDownLatch received;
+
+        Recorder(int expected) {
+            received = new CountDownLatch(expected);
+        }
+
+        @Override
+        public void onMessage(ChatSession session, String text, boolean verified) {
+            messages.add(verified ? text : "UNVERIFIED " + text);
+            received.countDown();
+        }
+
+        @Override
+        public void onControlLine(ChatSession session, String line) {
+            controlLines.add(line);
+            received.countDown();
+        }
+
+        @Override
+        public void onWarning(ChatSession session, String message) {
+            messages.add("WARNING " + message);
+            warningThreads.add(Thread.currentThread().getName());
+        }
+    }
+
+    private void exchange(SessionCapabilities capabilities) throws Exception {
+        int count = 50;
+        Recorder serverSide = new Recorder(count + 1);
+        Recorder clientSide = new Recorder(count);
+        try (ServerSocket serverSocket = new ServerSocket(0);
+             SessionScope serverScope = new SessionScope("test-server");
+             SessionScope clientScope = new SessionScope("test-client")) {
+            ChatEngine server = ChatEngine.server().withCapabilities(capabilities);
+            ChatEngine client = ChatEngine.client().withCapabilities(capabilities);
+            Future<ChatSession> accepted = serverScope.fork(() -> server.accept(serverSocket, serverScope, serverSide));
+            ChatSession clientSession = client.connect("localhost", serverSocket.getLocalPort(), clientScope, clientSide);
+            ChatSession serverSession = accepted.get(10, TimeUnit.SECONDS);
+            assertEquals(serverSession.getSessionKey(), clientSession.getSessionKey());
+
+            for (int i = 0; i < count; i++) {
+                clientSession.sendMessage("hello " + i);
+                serverSession.sendMessage("reply " + i + " " + "x".repeat(i * 20));
+            }
+            clientSession.sendLine("FILE_DONE||abc");
+
+            assertTrue(serverSide.received.await(20, TimeUnit.SECONDS));
+            assertTrue(clientSide.received.await(20, TimeUnit.SECONDS));
+            for (int i = 0; i < count; i++) {
+                assertEquals("hello " + i, serverSide.messages.get(i));
+                assertEquals("reply " + i + " " + "x".repeat(i * 20), clientSide.messages.get(i));
+            }
+            assertEquals(List.of("FILE_DONE||abc"), serverSide.controlLines);
+            assertEquals(count, serverSession.getMessagesReceived());
+            assertEquals(count, clientSession.getMessagesSent());
+
+            clientSession.close();
+            serverSession.close();
+        }
+    }
+
+    @Test
+    @DisplayName("Session MAC and stream compression")
+    public void testMacAndStream() throws Exception {
+        exchange(new SessionCapabilities(Set.of(SessionCapabilities.SESSION_MAC, SessionCapabilities.STREAM_COMPRESSION,
+            SessionCapabilities.X25519_KEY_AGREEMENT)));
+    }
+
+    @Test
+    @DisplayName("Per-message signatures without stream compression")
+    public void testSignatures() throws Exception {
+        exchange(new SessionCapabilities(Set.of()));
+    }
+
+    @Test
+    @DisplayName("Concurrent senders keep MAC sequence order")
+    public void testConcurrentMacSenders() throws Exception {
+        int senders = 4;
+        int perSender = 100;
+        Recorder serverSide = new Recorder(senders * perSender);
+        SessionCapabilities capabilities = new SessionCapabilities(Set.of(SessionCapabilities.SESSION_MAC));
+        try (ServerSocket serverSocket = new ServerSocket(0);
+             SessionScope serverScope = new SessionScope("test-server");
+             SessionScope clientScope = new SessionScope("test-client")) {
+            ChatEngine server = ChatEngine.server().withCapabilities(capabilities);
+            ChatEngine client = ChatEngine.client().withCapabilities(capabilities);
+            Future<ChatSession> accepted = serverScope.fork(() -> server.accept(serverSocket, serverScope, serverSide));
+            ChatSession clientSession = client.connect("localhost", serverSocket.getLocalPort(), clientScope, new Recorder(0));
+            ChatSession serverSession = accepted.get(10, TimeUnit.SECONDS);
+            assertTrue(clientSession.isMacAuthenticated());
+
+            List<Future<?>> sending = new ArrayList<>();
+            for (int t = 0; t < senders; t++) {
+                final int sender = t;
+                sending.add(clientScope.fork(() -> {
+                    for (int i = 0; i < perSender; i++) {
+                        clientSession.sendMessage("sender " + sender + " message " + i);
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> f : sending) {
+                f.get(20, TimeUnit.SECONDS);
+            }
+
+            assertTrue(serverSide.received.await(20, TimeUnit.SECONDS));
+            assertEquals(senders * perSender, serverSide.messages.size());
+            assertTrue(serverSide.messages.stream().noneMatch(m -> m.startsWith("UNVERIFIED")), "Every frame should pass the MAC check");
+
+            clientSession.close();
+            serverSession.close();
+        }
+    }
+
+    @Test
+    @DisplayName("Transcript checkpoints are checked on the crypto workers, in order")
+    public void testTranscriptCheckpoints() throws Exception {
+        int count = 2 * SessionAuthenticator.CHECKPOINT_INTERVAL;
+        Recorder serverSide = new Recorder(count + 1);
+        SessionCapabilities capabilities = new SessionCapabilities(Set.of(SessionCapabilities.SESSION_MAC));
+        try (ServerSocket serverSocket = new ServerSocket(0);
+             SessionScope serverScope = new SessionScope("test-server");
+             SessionScope clientScope = new SessionScope("test-client")) {
+            ChatEngine server = ChatEngine.server().withCapabilities(capabilities);
+            ChatEngine client = ChatEngine.client().withCapabilities(capabilities);
+            Future<ChatSession> accepted = serverScope.fork(() -> server.accept(serverSocket, serverScope, serverSide));
+            ChatSession clientSession = client.connect("localhost", serverSocket.getLocalPort(), clientScope, new Recorder(0));
+            ChatSession serverSession = accepted.get(10, TimeUnit.SECONDS);
+
+            for (int i = 0; i < count; i++) {
+                clientSession.sendMessage("message " + i);
+            }
+            clientSession.sendLine("CHECKPOINT||1||" + "00".repeat(32) + "||SIG||AAAA"); // forged
+            clientSession.sendMessage("after");
+
+            assertTrue(serverSide.received.await(30, TimeUnit.SECONDS));
+            assertEquals(count + 2, serverSide.messages.size(), "Genuine checkpoints should pass: " + serverSide.warningThreads);
+            assertTrue(serverSide.messages.get(count).startsWith("WARNING Transcript checkpoint failed"), serverSide.messages.get(count));
+            assertEquals("after", serverSide.messages.get(count + 1));
+            assertTrue(serverSide.warningThreads.get(0).startsWith("crypto-worker-"), serverSide.warningThreads.get(0));
+
+            clientSession.close();
+            serverSession.close();
+        }
+    }
+}
@@ -0,0 +1,324 @@
+package core;
+
+import crypto.FileMetadata;
+import crypto.FileTransferHandler;
+import crypto.TransferCheckpoint;
+import network.SessionScope;
+import org.junit.jupiter.api.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.File;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.ServerSocket;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tests for file transfers in core:
+ * - An offered file is checkpointed, verified and acknowledged; the sender hears FILE_DONE
+ * - A peer that does not take files answers FILE_REJECT and the sender stops waiting
+ * - A resume request outside the file is refused without ending the session
+ * - A checkpoint the sender no longer knows is dropped instead of re-announced
+ * - A large file travels over data stripes and arrives verified
+ * - Malformed or oversized stripe offers are ignored with a notice
+ */
+public class FileTransfersTest {
+
+    private File directory;
+
+    @BeforeAll
+    public static void useEphemeralKeys() {
+        System.setProperty("fleurdelyx.identity", "false");
+        System.setOut(new PrintStream(OutputStream.nullOutputStream())); // BlockCipher traces every round
+    }
+
+    @BeforeEach
+    public void setup() throws Exception {
+        directory = Files.createTempDirectory("transfers-test").toFile();
+    }
+
+    /**
+     * One end of a connection: chat session listener plus its file transfers
+     */
+    private static class Peer implements ChatSessionListener, FileTransferListener {
+        final FileTransfers transfers;
+        final List<String> failures = Collections.synchronizedList(new ArrayList<>());
+        final List<String> notices = Collections.synchronizedList(new ArrayList<>());
+        final CountDownLatch done = new CountDownLatch(1);
+        final CountDownLatch arrived = new CountDownLatch(1);
+        volatile FileMetadata received;
+        volatile FileMetadata sent;
+
+        Peer(File directory) {
+            transfers = new FileTransfers(new File(directory, "transfers"), new File(directory, "chunks"), this);
+        }
+
+        @Override
+        public void onSessionReady(ChatSession session, network.Handshake.Result handshake) {
+            transfers.attach(session);
+        }
+
+        @Override
+        public void onMessage(ChatSession session, String text, boolean verified) {}
+
+        @Override
+        public void onControlLine(ChatSession session, String line) {
+            transfers.handle(line);
+        }
+
+        @Override
+        public void onFileSent(FileMetadata metadata) {
+            sent = metadata;
+            done.countDown();
+        }
+
+        @Override
+        public void onFileReceived(FileMetadata metadata) {
+            received = metadata;
+            arrived.countDown();
+        }
+
+        @Override
+        public void onTransferFailed(String message) {
+            failures.add(message);
+            done.countDown();
+        }
+
+        @Override
+        public void onTransferNotice(String message) {
+            notices.add(message);
+        }
+
+        boolean awaitNotice(String text) throws InterruptedException {
+            long deadline = System.currentTimeMillis() + 10_000;
+            while (System.currentTimeMillis() < deadline) {
+                synchronized (notices) {
+                    if (notices.stream().anyMatch(n -> n.contains(text))) return true;
+                }
+                Thread.sleep(10);
+            }
+            return false;
+        }
+    }
+
+    private File randomFile(String name, int size) throws Exception {
+        byte[] data = new byte[size];
+        new Random(7).nextBytes(data);
+        File file = new File(directory, name);
+        Files.write(file.toPath(), data);
+        return file;
+    }
+
+    @Test
+    @DisplayName("Offered file arrives verified and is acknowledged")
+    public void testResumableTransfer() throws Exception {
+        Peer server = new Peer(new File(directory, "server"));
+        Peer client = new Peer(new File(directory, "client"));
+        File source = randomFile("notes.bin", 20_000);
+
+        try (ServerSocket serverSocket = new ServerSocket(0);
+             SessionScope serverScope = new SessionScope("test-server");
+             SessionScope clientScope = new SessionScope("test-client")) {
+            Future<ChatSession> accepted = serverScope.fork(() -> ChatEngine.server().accept(serverSocket, serverScope, server));
+            ChatSession clientSession = ChatEngine.client().connect("localhost", serverSocket.getLocalPort(), clientScope, client);
+            ChatSession serverSession = accepted.get(10, TimeUnit.SECONDS);
+
+            client.transfers.send(source);
+            assertTrue(client.done.await(30, TimeUnit.SECONDS), "Sender should hear FILE_DONE");
+            assertEquals(List.of(), client.failures);
+            assertEquals("notes.bin", client.sent.getFilename());
+            assertTrue(server.arrived.await(10, TimeUnit.SECONDS));
+
+            File stored = server.transfers.getReceivedFile(server.received);
+            assertArrayEquals(Files.readAllBytes(source.toPath()), Files.readAllBytes(stored.toPath()));
+            File saved = new File(directory, "saved.bin");
+            server.transfers.saveReceivedFile(server.received, saved);
+            assertArrayEquals(Files.readAllBytes(source.toPath()), Files.readAllBytes(saved.toPath()));
+
+            clientSession.close();
+            serverSession.close();
+        }
+    }
+
+    @Test
+    @DisplayName("Peer without file support rejects and the sender stops waiting")
+    public void testRejected() throws Exception {
+        ChatSessionListener refusing = new ChatSessionListener() {
+            @Override
+            public void onMessage(ChatSession session, String text, boolean verified) {}
+
+            @Override
+            public void onControlLine(ChatSession session, String line) {
+                FileTransfers.reject(session, line, "no files here");
+            }
+        };
+        Peer client = new Peer(new File(directory, "client"));
+
+        try (ServerSocket serverSocket = new ServerSocket(0);
+             SessionScope serverScope = new SessionScope("test-server");
+             SessionScope clientScope = new SessionScope("test-client")) {
+            Future<ChatSession> accepted = serverScope.fork(() -> ChatEngine.server().accept(serverSocket, serverScope, refusing));
+            ChatSession clientSession = ChatEngine.client().connect("localhost", serverSocket.getLocalPort(), clientScope, client);
+            ChatSession serverSession = accepted.get(10, TimeUnit.SECONDS);
+
+            client.transfers.send(randomFile("refused.bin", 1000));
+            assertTrue(client.done.await(20, TimeUnit.SECONDS), "Sender should hear FILE_REJECT");
+            assertEquals(List.of("Peer declined refused.bin: no files here"), client.failures);
+            assertNull(client.sent);
+
+            clientSession.close();
+            serverSession.close();
+        }
+    }
+
+    @Test
+    @DisplayName("Resume ranges outside the file reject the transfer, the session stays up")
+    public void testHostileResumeRanges() throws Exception {
+        List<String> answers = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch rejected = new CountDownLatch(1);
+        ChatSessionListener hostile = new ChatSessionListener() {
+            @Override
+            public void onMessage(ChatSession session, String text, boolean verified) {
+                answers.add(text);
+            }
+
+            @Override
+            public void onControlLine(ChatSession session, String line) {
+                if (line.startsWith("FILE_OFFER||")) {
+                    String checksum = FileMetadata.fromProtocolString(line.substring("FILE_OFFER||".length())).getChecksum();
+                    session.sendLine("FILE_RESUME||" + checksum + "||0-2147483647");
+                } else if (line.startsWith("FILE_REJECT||")) {
+                    answers.add(line);
+                    rejected.countDown();
+                }
+            }
+        };
+        Peer client = new Peer(new File(directory, "client"));
+
+        try (ServerSocket serverSocket = new ServerSocket(0);
+             SessionScope serverScope = new SessionScope("test-server");
+             SessionScope clientScope = new SessionScope("test-client")) {
+            Future<ChatSession> accepted = serverScope.fork(() -> ChatEngine.server().accept(serverSocket, serverScope, hostile));
+            ChatSession clientSession = ChatEngine.client().connect("localhost", serverSocket.getLocalPort(), clientScope, client);
+            ChatSession serverSession = accepted.get(10, TimeUnit.SECONDS);
+
+            client.transfers.send(randomFile("target.bin", 1000));
+            assertTrue(client.done.await(20, TimeUnit.SECONDS), "Sender should give up on the transfer");
+            assertEquals(1, client.failures.size());
+            assertTrue(client.failures.get(0).startsWith("Stopped sending target.bin: invalid resume request"), client.failures.get(0));
+            assertTrue(rejected.await(10, TimeUnit.SECONDS), "Peer should hear FILE_REJECT");
+
+            clientSession.sendMessage("still here");
+            long deadline = System.currentTimeMillis() + 10_000;
+            while (answers.size() < 2 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            assertEquals("still here", answers.get(1), "Session should survive the bad request");
+            assertFalse(clientSession.isClosed());
+
+            clientSession.close();
+            serverSession.close();
+        }
+    }
+
+    @Test
+    @DisplayName("Checkpoint for a transfer the sender does not know is dropped")
+    public void testUnknownTransferDropped() throws Exception {
+        Peer server = new Peer(new File(directory, "server"));
+        Peer client = new Peer(new File(directory, "client"));
+        File clientTransfers = new File(new File(directory, "client"), "transfers");
+        FileMetadata orphan = new FileMetadata("orphan.bin", 2L * FileTransferHandler.CHUNK_SIZE, "application/octet-stream", 2, "ab".repeat(32));
+        TransferCheckpoint checkpoint = TransferCheckpoint.open(clientTransfers, orphan);
+        checkpoint.writeChunk(0, new byte[FileTransferHandler.CHUNK_SIZE]);
+        checkpoint.close();
+
+        try (ServerSocket serverSocket = new ServerSocket(0);
+             SessionScope serverScope = new SessionScope("test-server");
+             SessionScope clientScope = new SessionScope("test-client")) {
+            Future<ChatSession> accepted = serverScope.fork(() -> ChatEngine.server().accept(serverSocket, serverScope, server));
+            ChatSession clientSession = ChatEngine.client().connect("localhost", serverSocket.getLocalPort(), clientScope, client);
+            ChatSession serverSession = accepted.get(10, TimeUnit.SECONDS);
+
+            client.transfers.announceIncomplete();
+            assertTrue(client.done.await(20, TimeUnit.SECONDS), "Receiver should hear the sender does not know the transfer");
+            assertEquals(List.of("Sender dropped orphan.bin: unknown transfer"), client.failures);
+            assertEquals(0, clientTransfers.listFiles().length, "Checkpoint files should be deleted");
+            assertTrue(TransferCheckpoint.loadIncomplete(clientTransfers).isEmpty());
+
+            clientSession.close();
+            serverSession.close();
+        }
+    }
+
+    @Test
+    @DisplayName("Large file travels over data stripes and arrives verified")
+    public void testStripedTransfer() throws Exception {
+        Peer server = new Peer(new File(directory, "server"));
+        Peer client = new Peer(new File(directory, "client"));
+        client.transfers.withStripeHost("localhost");
+        File source = new File(directory, "large.log"); // Compresses well - keeps the test cipher quick
+        Files.writeString(source.toPath(), "2026-10-19 12:00:00 INFO transfer test line\n".repeat(9 * FileTransferHandler.CHUNK_SIZE / 44));
+
+        String stripes = System.getProperty("fleurdelyx.stripes");
+        System.setProperty("fleurdelyx.stripes", "2");
+        try (ServerSocket serverSocket = new ServerSocket(0);
+             ServerSocket dataServer = new ServerSocket(0);
+             SessionScope serverScope = new SessionScope("test-server");
+             SessionScope clientScope = new SessionScope("test-client")) {
+            Future<ChatSession> accepted = serverScope.fork(() -> ChatEngine.server().accept(serverSocket, serverScope, server));
+            ChatSession clientSession = ChatEngine.client().connect("localhost", serverSocket.getLocalPort(), clientScope, client);
+            ChatSession serverSession = accepted.get(10, TimeUnit.SECONDS);
+
+            server.transfers.offerStripes(dataServer);
+            assertTrue(server.awaitNotice("2 data stripes ready"), "Server should accept the stripes: " + server.notices);
+            assertTrue(client.awaitNotice("2 data stripes ready"), "Client should open the stripes: " + client.notices);
+
+            client.transfers.send(source);
+            assertTrue(client.done.await(60, TimeUnit.SECONDS), "Sender should hear FILE_DONE");
+            assertEquals(List.of(), client.failures);
+            assertTrue(server.arrived.await(10, TimeUnit.SECONDS));
+            File stored = server.transfers.getReceivedFile(server.received);
+            assertArrayEquals(Files.readAllBytes(source.toPath()), Files.readAllBytes(stored.toPath()));
+
+            clientSession.close();
+            serverSession.close();
+        } finally {
+            if (stripes == null) System.clearProperty("fleurdelyx.stripes");
+            else System.setProperty("fleurdelyx.stripes", stripes);
+        }
+    }
+
+    @Test
+    @DisplayName("Malformed or oversized stripe offers are ignored with a notice")
+    public void testBadStripeOffers() throws Exception {
+        Peer server = new Peer(new File(directory, "server"));
+        Peer client = new Peer(new File(directory, "client"));
+        client.transfers.withStripeHost("localhost");
+
+        try (ServerSocket serverSocket = new ServerSocket(0);
+             SessionScope serverScope = new SessionScope("test-server");
+             SessionScope clientScope = new SessionScope("test-client")) {
+            Future<ChatSession> accepted = serverScope.fork(() -> ChatEngine.server().accept(serverSocket, serverScope, server));
+            ChatSession clientSession = ChatEngine.client().connect("localhost", serverSocket.getLocalPort(), clientScope, client);
+            ChatSession serverSession = accepted.get(10, TimeUnit.SECONDS);
+
+            List<String> offers = List.of("STRIPES||2", "STRIPES||two||7000||ab", "STRIPES||2||7000",
+                "STRIPES||100000||7000||ab", "STRIPES||0||7000||ab", "STRIPES||2||70000||ab", "STRIPES||2||0||ab");
+            for (String offer : offers) {
+                assertTrue(client.transfers.handle(offer));
+            }
+            assertEquals(offers.size(), client.notices.stream().filter(n -> n.startsWith("Ignoring")).count(), client.notices.toString());
+            assertFalse(clientSession.isClosed());
+
+            clientSession.close();
+            serverSession.close();
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package crypto;
+
+import org.junit.jupiter.api.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Tests for content-defined chunking and the chunk store:
+ * - Chunks cover the whole file within size limits
+ * - An edit only changes the chunks around it
+ * - Files reassemble from stored chunks
+ */
+public class ContentDefinedChunkerTest {
+
+    private File directory;
+
+    @BeforeEach
+    public void setup() throws Exception {
+        directory = Files.createTempDirectory("cdc-test").toFile();
+        System.setOut(new java.io.PrintStream(new java.io.OutputStream() {
+            public void write(int b) {}
+        }));
+    }
+
+    private File writeFile(String name, byte[] data) throws Exception {
+        File file = new File(directory, name);
+        Files.write(file.toPath(), data);
+        return file;
+    }
+
+    @Test
+    @DisplayName("Chunks cover the file and respect size limits")
+    public void testChunkBoundaries() throws Exception {
+        byte[] data = new byte[3 * 1024 * 1024];
+        new Random(1).nextBytes(data);
+        List<ContentDefinedChunker.Chunk> chunks = ContentDefinedChunker.chunk(writeFile("a.bin", data));
+
+        long covered = 0;
+        for (int i = 0; i < chunks.size(); i++) {
+            ContentDefinedChunker.Chunk chunk = chunks.get(i);
+            assertEquals(covered, chunk.getOffset(), "Chunks must be contiguous");
+            assertTrue(chunk.getLength() <= ContentDefinedChunker.MAX_CHUNK_SIZE);
+            if (i < chunks.size() - 1) {
+                assertTrue(chunk.getLength() >= ContentDefinedChunker.MIN_CHUNK_SIZE);
+            }
+            covered += chunk.getLength();
+        }
+        assertEquals(data.length, covered, "Chunks must cover the whole file");
+        assertEquals(chunks.size(), ContentDefinedChunker.fromManifest(ContentDefinedChunker.toManifest(chunks)).size());
+    }
+
+    @Test
+    @DisplayName("Inserting bytes only changes nearby chunks")
+    public void testEditLocality() throws Exception {
+        byte[] original = new byte[4 * 1024 * 1024];
+        new Random(2).nextBytes(original);
+
+        // Insert 100 bytes in the middle
+        byte[] edited = new byte[original.length + 100];
+        int middle = original.length / 2;
+        System.arraycopy(original, 0, edited, 0, middle);
+        System.arraycopy(original, middle, edited, middle + 100, original.length - middle);
+
+        Set<String> before = new HashSet<>();
+        for (ContentDefinedChunker.Chunk chunk : ContentDefinedChunker.chunk(writeFile("before.bin", original))) {
+            before.add(chunk.getHash());
+        }
+        List<ContentDefinedChunker.Chunk> after = ContentDefinedChunker.chunk(writeFile("after.bin", edited));
+
+        int changed = 0;
+        for (ContentDefinedChunker.Chunk chunk : after) {
+            if (!before.contains(chunk.getHash())) changed++;
+        }
+        assertTrue(changed <= 2, "At most the chunks around the edit should change (changed: " + changed + ")");
+    }
+
+    @Test
+    @DisplayName("Chunk store reassembles files and rejects corrupted chunks")
+    public void testChunkStoreAssemble() throws Exception {
+        byte[] data = new byte[1024 * 1024 + 77];
+        new Random(3).nextBytes(data);
+        File source = writeFile("source.bin", data);
+        List<ContentDefinedChunker.Chunk> chunks = ContentDefinedChunker.chunk(source);
+
+        ChunkStore store = new ChunkStore(new File(directory, "store"));
+        for (ContentDefinedChunker.Chunk chunk : chunks) {
+            byte[] bytes = new byte[chunk.getLength()];
+            System.arraycopy(data, (int) chunk.getOffset(), bytes, 0, chunk.getLength());
+            store.put(chunk.getHash(), bytes);
+        }
+
+        File output = new File(directory, "output.bin");
+        store.assemble(chunks, output);
+        assertArrayEquals(data, Files.readAllBytes(output.toPath()));
+
+        assertThrows(java.io.IOException.class, () -> store.put(chunks.get(0).getHash(), new byte[] {1, 2, 3}),
+            "Content that does not match the hash must be rejected");
+        assertEquals(chunks.size(), new ChunkStore(new File(directory, "store")).size(), "Index is rebuilt from disk");
+    }
+}
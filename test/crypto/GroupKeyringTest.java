@@ -0,0 +1,142 @@
+package crypto;
+
+import org.junit.jupiter.api.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.security.GeneralSecurityException;
+
+/**
+ * Tests for group keys:
+ * - A sealed frame opens for every member holding the key
+ * - Members follow a join's ratchet step on their own; the newcomer cannot read earlier frames
+ * - After a fresh key, old members are locked out
+ * - Replayed and tampered frames are rejected and do not move the key
+ * - Frames slightly out of order are accepted once; frames past the replay window are not
+ * - Named groups (rooms) label their epochs and do not accept each other's keys
+ */
+public class GroupKeyringTest {
+
+    private GroupKeyring hub;
+
+    @BeforeEach
+    public void setup() {
+        // BlockCipher traces every round to System.out
+        System.setOut(new java.io.PrintStream(java.io.OutputStream.nullOutputStream()));
+        hub = GroupKeyring.create();
+    }
+
+    private GroupKeyring member() throws GeneralSecurityException {
+        GroupKeyring member = GroupKeyring.receiver();
+        member.install(hub.getEpoch(), hub.getKey());
+        return member;
+    }
+
+    @Test
+    @DisplayName("One sealed frame opens for every member")
+    public void testSealOnce() throws Exception {
+        GroupKeyring alice = member();
+        GroupKeyring bob = member();
+        String frame = hub.seal("hello group");
+        assertTrue(frame.startsWith(GroupKeyring.FRAME_PREFIX + "1.0||1||"));
+        assertEquals("hello group", alice.open(frame).decrypt());
+        assertEquals("hello group", bob.open(frame).decrypt());
+    }
+
+    @Test
+    @DisplayName("Join: members ratchet forward, the newcomer cannot go back")
+    public void testRatchetOnJoin() throws Exception {
+        GroupKeyring alice = member();
+        String before = hub.seal("before the join");
+
+        hub.advance();
+        hub.advance();
+        GroupKeyring carol = member();
+        assertEquals("1.2", hub.getEpoch());
+
+        assertThrows(GeneralSecurityException.class, () -> carol.open(before));
+        String after = hub.seal("after the join");
+        assertEquals("after the join", alice.open(after).decrypt()); // two steps derived locally
+        assertEquals("after the join", carol.open(after).decrypt());
+
+        // Alice has moved on and forgotten the older key
+        assertThrows(GeneralSecurityException.class, () -> alice.open(before));
+    }
+
+    @Test
+    @DisplayName("Leave: a fresh key locks out whoever did not receive it")
+    public void testRenewOnLeave() throws Exception {
+        GroupKeyring alice = member();
+        GroupKeyring mallory = member();
+        hub.renew();
+        alice.install(hub.getEpoch(), hub.getKey());
+        assertEquals("2.0", hub.getEpoch());
+
+        String frame = hub.seal("without mallory");
+        assertEquals("without mallory", alice.open(frame).decrypt());
+        assertThrows(GeneralSecurityException.class, () -> mallory.open(frame));
+        assertThrows(GeneralSecurityException.class, () -> alice.install("1.0", "00112233445566778899aabbccddeeff"));
+    }
+
+    @Test
+    @DisplayName("Replayed and tampered frames are rejected")
+    public void testReplayAndTamper() throws Exception {
+        GroupKeyring alice = member();
+        String first = hub.seal("one");
+        String second = hub.seal("two");
+        alice.open(first);
+        alice.open(second);
+        assertThrows(GeneralSecurityException.class, () -> alice.open(first));
+
+        // A forged frame claiming a later step must not move alice's key
+        hub.advance();
+        String next = hub.seal("three");
+        String forged = next.substring(0, next.length() - 4) + (next.endsWith("0000") ? "1111" : "0000");
+        assertThrows(GeneralSecurityException.class, () -> alice.open(forged));
+        assertEquals("three", alice.open(next).decrypt());
+        assertThrows(GeneralSecurityException.class, () -> alice.open("GMSG||garbage"));
+    }
+
+    @Test
+    @DisplayName("Out-of-order frames within the window open once")
+    public void testReplayWindow() throws Exception {
+        GroupKeyring alice = member();
+        String first = hub.seal("one");
+        String second = hub.seal("two");
+        String third = hub.seal("three");
+        assertEquals("three", alice.open(third).decrypt());
+        assertEquals("one", alice.open(first).decrypt());
+        assertThrows(GeneralSecurityException.class, () -> alice.open(first));
+        assertThrows(GeneralSecurityException.class, () -> alice.open(third));
+        assertEquals("two", alice.open(second).decrypt());
+
+        // A frame that falls behind the whole window is refused even if it was never seen
+        String late = hub.seal("late");
+        String last = null;
+        for (int i = 0; i < GroupKeyring.REPLAY_WINDOW; i++) {
+            last = hub.seal("filler");
+        }
+        assertEquals("filler", alice.open(last).decrypt());
+        assertThrows(GeneralSecurityException.class, () -> alice.open(late));
+    }
+
+    @Test
+    @DisplayName("Named groups keep their keys apart")
+    public void testNamedGroups() throws Exception {
+        GroupKeyring room = GroupKeyring.create("dev");
+        assertEquals("dev:1.0", room.getEpoch());
+        assertEquals("dev", GroupKeyring.groupOf(room.getEpoch()));
+        assertEquals("", GroupKeyring.groupOf(hub.getEpoch()));
+
+        GroupKeyring member = GroupKeyring.receiver("dev");
+        member.install(room.getEpoch(), room.getKey());
+        String frame = room.seal("room only");
+        assertEquals("dev", GroupKeyring.groupOfFrame(frame));
+        assertEquals("", GroupKeyring.groupOfFrame(hub.seal("everyone")));
+        assertEquals("room only", member.open(frame).decrypt());
+
+        // A key or frame for another group is refused
+        assertThrows(GeneralSecurityException.class, () -> member.install(hub.getEpoch(), hub.getKey()));
+        assertThrows(GeneralSecurityException.class, () -> member().open(frame));
+        assertThrows(IllegalArgumentException.class, () -> GroupKeyring.create("a:b"));
+    }
+}
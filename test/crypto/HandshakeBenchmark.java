@@ -0,0 +1,98 @@
+package crypto;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.security.KeyPair;
+import java.security.PublicKey;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Connection setup benchmark: RSA key transport vs X25519 key agreement
+ *
+ * Both handshakes run over a loopback socket exactly like the controllers
+ * (public key lines, then either the RSA-encrypted session key or the
+ * signed KEX shares). RSA key pairs are generated up front and timed
+ * separately, since both modes need them.
+ *
+ * The optional one-way delay is added before reading each flight from the
+ * peer. It models link latency: RSA transport needs an extra half round trip
+ * (client key line) before the server can start.
+ *
+ * Run: mvn test-compile && java -cp target/classes:target/test-classes crypto.HandshakeBenchmark [rounds] [oneWayDelayMs]
+ */
+public class HandshakeBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int rounds = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+        int delayMs = args.length > 1 ? Integer.parseInt(args[1]) : 0;
+
+        long start = System.nanoTime();
+        int keygens = 10;
+        for (int i = 0; i < keygens; i++) {
+            RSAUtil.generateRSAKeyPair();
+        }
+        System.err.printf("RSA-2048 key pair generation: %.1f ms%n", (System.nanoTime() - start) / 1e6 / keygens);
+
+        KeyPair serverKeys = RSAUtil.generateRSAKeyPair();
+        KeyPair clientKeys = RSAUtil.generateRSAKeyPair();
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try (ServerSocket serverSocket = new ServerSocket(0)) {
+            for (String mode : new String[] {"rsa", "x25519", "rsa", "x25519"}) {
+                long total = 0;
+                for (int i = 0; i < rounds; i++) {
+                    Future<String> server = executor.submit(() -> {
+                        try (Socket socket = serverSocket.accept()) {
+                            return handshake(socket, mode, true, serverKeys, delayMs);
+                        }
+                    });
+                    long t = System.nanoTime();
+                    String clientKey;
+                    try (Socket socket = new Socket("localhost", serverSocket.getLocalPort())) {
+                        socket.setTcpNoDelay(true);
+                        clientKey = handshake(socket, mode, false, clientKeys, delayMs);
+                        // The chat can only start once the server has the key too
+                        if (!clientKey.equals(server.get())) {
+                            throw new IllegalStateException("Session keys differ");
+                        }
+                    }
+                    total += System.nanoTime() - t;
+                }
+                System.err.printf("%-7s handshake (keys ready, %d ms one-way): %.2f ms%n", mode, delayMs, total / 1e6 / rounds);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static String handshake(Socket socket, String mode, boolean isServer, KeyPair keys, int delayMs) throws Exception {
+        PrintWriter out = new PrintWriter(socket.getOutputStream(), true);
+        BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+
+        out.println(RSAUtil.publicKeyToString(keys.getPublic()));
+        X25519KeyExchange keyExchange = null;
+        if (mode.equals("x25519")) {
+            keyExchange = new X25519KeyExchange();
+            out.println(keyExchange.createAnnouncement(keys.getPrivate()));
+        }
+        Thread.sleep(delayMs);
+        PublicKey peerKey = RSAUtil.stringToPublicKey(in.readLine());
+
+        if (keyExchange != null) {
+            PublicKey peerShare = X25519KeyExchange.readAnnouncement(in.readLine(), peerKey);
+            return keyExchange.deriveSessionKey(peerShare, isServer);
+        }
+        if (isServer) {
+            Thread.sleep(delayMs);
+            return RSAUtil.decryptWithPrivateKey(in.readLine(), keys.getPrivate());
+        }
+        String sessionKey = KeyGenerator.generate128BitKeyHex();
+        out.println(RSAUtil.encryptWithPublicKey(sessionKey, peerKey));
+        return sessionKey;
+    }
+}
@@ -0,0 +1,62 @@
+package crypto;
+
+import org.junit.jupiter.api.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.security.KeyPair;
+
+/**
+ * Tests for the persistent identity and pinned peer keys:
+ * - The identity survives a reload and signs like the original
+ * - Rotation replaces the key and keeps the old file
+ * - Peer keys are pinned on first use and changes are reported
+ */
+public class IdentityStoreTest {
+
+    private File directory;
+
+    @BeforeEach
+    public void setup() throws Exception {
+        directory = Files.createTempDirectory("identity-test").toFile();
+    }
+
+    @Test
+    @DisplayName("Stored identity reloads with the same key pair")
+    public void testLoadOrCreate() throws Exception {
+        IdentityStore store = new IdentityStore(new File(directory, "identity.p12"));
+        assertFalse(store.exists());
+        KeyPair created = store.loadOrCreate(null);
+        assertTrue(store.exists());
+
+        KeyPair loaded = new IdentityStore(store.getFile()).load();
+        assertEquals(created.getPublic(), loaded.getPublic());
+        String signature = RSAUtil.signMessage("hello", loaded.getPrivate());
+        assertTrue(RSAUtil.verifySignature("hello", signature, created.getPublic()));
+
+        KeyPair rotated = store.rotate();
+        assertNotEquals(created.getPublic(), rotated.getPublic());
+        assertEquals(rotated.getPublic(), store.load().getPublic());
+        assertTrue(new File(store.getFile().getPath() + ".old").isFile(), "Old identity should be kept");
+    }
+
+    @Test
+    @DisplayName("Peer keys are pinned on first use")
+    public void testPeerKeyCache() throws Exception {
+        File file = new File(directory, "known_peers.properties");
+        KeyPair peer = RSAUtil.generateRSAKeyPair();
+        KeyPair impostor = RSAUtil.generateRSAKeyPair();
+
+        PeerKeyCache cache = new PeerKeyCache(file);
+        assertEquals(PeerKeyCache.Status.NEW, cache.check("localhost:12345", peer.getPublic()));
+        assertEquals(PeerKeyCache.Status.MATCH, cache.check("localhost:12345", peer.getPublic()));
+
+        PeerKeyCache reloaded = new PeerKeyCache(file);
+        assertEquals(PeerKeyCache.Status.CHANGED, reloaded.check("localhost:12345", impostor.getPublic()));
+        assertEquals(peer.getPublic(), reloaded.get("localhost:12345"), "A changed key must not replace the pin");
+
+        assertTrue(reloaded.forget("localhost:12345"));
+        assertEquals(PeerKeyCache.Status.NEW, reloaded.check("localhost:12345", impostor.getPublic()));
+    }
+}
@@ -0,0 +1,74 @@
+package crypto;
+
+import org.junit.jupiter.api.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.security.KeyPair;
+
+/**
+ * Tests for session MAC authentication:
+ * - Sealed frames verify on the other side
+ * - Tampered, replayed and reflected frames are rejected
+ * - Transcript checkpoints match after a run of messages
+ */
+public class SessionAuthenticatorTest {
+
+    private static final String SESSION_KEY = "00112233445566778899aabbccddeeff";
+
+    private SessionAuthenticator client;
+    private SessionAuthenticator server;
+
+    @BeforeEach
+    public void setup() throws Exception {
+        client = new SessionAuthenticator(SESSION_KEY, false);
+        server = new SessionAuthenticator(SESSION_KEY, true);
+    }
+
+    private static String body(String frame) {
+        return frame.substring(0, frame.lastIndexOf(SessionAuthenticator.MAC_MARKER));
+    }
+
+    private static String trailer(String frame) {
+        return frame.substring(frame.lastIndexOf(SessionAuthenticator.MAC_MARKER) + SessionAuthenticator.MAC_MARKER.length());
+    }
+
+    @Test
+    @DisplayName("Sealed frames verify and tampered frames do not")
+    public void testSealAndVerify() {
+        String frame = client.seal("SMSG||ciphertext");
+        assertTrue(server.verify(body(frame), trailer(frame)));
+
+        String next = client.seal("ciphertext-2");
+        assertFalse(server.verify("ciphertext-X", trailer(next)), "Modified body must fail");
+        assertTrue(server.verify(body(next), trailer(next)));
+    }
+
+    @Test
+    @DisplayName("Replayed and reflected frames are rejected")
+    public void testReplayAndReflection() {
+        String frame = client.seal("hello");
+        assertTrue(server.verify(body(frame), trailer(frame)));
+        assertFalse(server.verify(body(frame), trailer(frame)), "Replay must fail");
+
+        String own = server.seal("echo");
+        assertFalse(server.verify(body(own), trailer(own)), "A frame sent back to its sender must fail");
+    }
+
+    @Test
+    @DisplayName("Transcript checkpoint verifies after a run of messages")
+    public void testCheckpoint() throws Exception {
+        KeyPair clientKeys = RSAUtil.generateRSAKeyPair();
+        for (int i = 0; i < SessionAuthenticator.CHECKPOINT_INTERVAL; i++) {
+            String frame = client.seal("message " + i);
+            assertTrue(server.verify(body(frame), trailer(frame)));
+        }
+        assertTrue(client.checkpointDue());
+        String checkpoint = client.createCheckpoint(clientKeys.getPrivate());
+        assertTrue(SessionAuthenticator.verifyCheckpoint(checkpoint, server.receivedStatement(), clientKeys.getPublic()));
+
+        client.seal("not delivered");
+        assertFalse(SessionAuthenticator.verifyCheckpoint(client.createCheckpoint(clientKeys.getPrivate()),
+                server.receivedStatement(), clientKeys.getPublic()),
+            "A dropped frame must show up at the next checkpoint");
+    }
+}
@@ -0,0 +1,89 @@
+package crypto;
+
+import org.junit.jupiter.api.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.security.GeneralSecurityException;
+import java.util.Set;
+
+/**
+ * Tests for session resumption tickets:
+ * - A ticket resumes once and both sides derive the same fresh key
+ * - Reuse, wrong binders, foreign tickets and expired tickets are rejected
+ * - A ticket only resumes for the client key it was issued to
+ */
+public class SessionTicketTest {
+
+    private static final String SESSION_KEY = "00112233445566778899aabbccddeeff";
+    private static final String CLIENT_KEY = "client-public-key";
+    private static final String SERVER_KEY = "server-public-key";
+
+    private final SessionCapabilities capabilities = new SessionCapabilities(Set.of(SessionCapabilities.SESSION_MAC));
+
+    private SessionTicket issue(TicketIssuer issuer) throws GeneralSecurityException {
+        return SessionTicket.fromProtocolString(issuer.issue(SESSION_KEY, capabilities, CLIENT_KEY), SESSION_KEY,
+            capabilities, SERVER_KEY);
+    }
+
+    private String[] resumeFields(SessionTicket ticket, String nonce) {
+        return ticket.createResumeRequest(nonce, CLIENT_KEY).substring("RESUME||".length()).split("\\|\\|");
+    }
+
+    @Test
+    @DisplayName("Ticket resumes once with a fresh shared key")
+    public void testResumeOnce() throws Exception {
+        TicketIssuer issuer = new TicketIssuer();
+        SessionTicket ticket = issue(issuer);
+        String clientNonce = SessionTicket.createNonce();
+        String[] request = resumeFields(ticket, clientNonce);
+
+        TicketIssuer.Redemption redemption = issuer.redeem(request[0], request[1], request[2], request[3]);
+        assertEquals(SESSION_KEY, redemption.getSessionKey());
+        assertTrue(SessionCapabilities.fromProtocolString(redemption.getCapabilities()).supports(SessionCapabilities.SESSION_MAC));
+
+        String serverNonce = SessionTicket.createNonce();
+        String serverKey = SessionTicket.deriveResumedKey(redemption.getSessionKey(), clientNonce, serverNonce);
+        String clientKey = SessionTicket.deriveResumedKey(ticket.getSessionKey(), clientNonce, serverNonce);
+        assertEquals(serverKey, clientKey);
+        assertNotEquals(SESSION_KEY, serverKey, "Resumed sessions must use a fresh key");
+        new BlockCipher(serverKey); // valid BlockCipher key
+
+        GeneralSecurityException reuse = assertThrows(GeneralSecurityException.class,
+            () -> issuer.redeem(request[0], request[1], request[2], request[3]));
+        assertEquals("ticket already used", reuse.getMessage());
+    }
+
+    @Test
+    @DisplayName("Forged, foreign and expired tickets are rejected")
+    public void testRejections() throws Exception {
+        TicketIssuer issuer = new TicketIssuer();
+        SessionTicket ticket = issue(issuer);
+        String[] request = resumeFields(ticket, SessionTicket.createNonce());
+
+        // Someone who saw the ticket but does not know the session key
+        SessionTicket stolen = new SessionTicket(ticket.getTicket(), "ffeeddccbbaa99887766554433221100", capabilities,
+            SERVER_KEY, Long.MAX_VALUE);
+        String[] forged = resumeFields(stolen, request[1]);
+        assertThrows(GeneralSecurityException.class, () -> issuer.redeem(forged[0], forged[1], forged[2], forged[3]));
+        // ... and the real client can still use it afterwards
+        assertNotNull(issuer.redeem(request[0], request[1], request[2], request[3]));
+
+        TicketIssuer otherServer = new TicketIssuer();
+        String[] again = resumeFields(ticket, SessionTicket.createNonce());
+        assertThrows(GeneralSecurityException.class, () -> otherServer.redeem(again[0], again[1], again[2], again[3]));
+
+        TicketIssuer expiring = new TicketIssuer(0);
+        SessionTicket expired = issue(expiring);
+        assertTrue(expired.isExpired());
+        String[] late = resumeFields(expired, SessionTicket.createNonce());
+        assertThrows(GeneralSecurityException.class, () -> expiring.redeem(late[0], late[1], late[2], late[3]));
+
+        // The session key alone is not enough: the ticket names the client's public key
+        SessionTicket issued = issue(issuer);
+        String[] otherKey = issued.createResumeRequest(SessionTicket.createNonce(), "other-public-key")
+            .substring("RESUME||".length()).split("\\|\\|");
+        GeneralSecurityException mismatch = assertThrows(GeneralSecurityException.class,
+            () -> issuer.redeem(otherKey[0], otherKey[1], otherKey[2], otherKey[3]));
+        assertEquals("ticket issued to another key", mismatch.getMessage());
+    }
+}
@@ -0,0 +1,58 @@
+package crypto;
+
+import org.junit.jupiter.api.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.security.KeyPair;
+import java.security.Signature;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Tests for the signature suites:
+ * - Both suites sign and verify, and reject modified messages
+ * - SIGKEY announcements are bound to the RSA identity key
+ * - JCA engines are reused on platform threads, never kept for virtual threads
+ */
+public class SignatureSuiteTest {
+
+    @Test
+    @DisplayName("Each suite signs, verifies and rejects tampering")
+    public void testSignVerify() throws Exception {
+        for (SignatureSuite suite : SignatureSuite.values()) {
+            KeyPair keys = suite.generateKeyPair();
+            String signature = suite.sign("hello ✅", keys.getPrivate());
+            assertTrue(suite.verify("hello ✅", signature, keys.getPublic()), suite + " should verify");
+            assertFalse(suite.verify("hello ❌", signature, keys.getPublic()), suite + " should reject tampering");
+            assertEquals(keys.getPublic(), suite.stringToPublicKey(suite.publicKeyToString(keys.getPublic())));
+        }
+    }
+
+    @Test
+    @DisplayName("Ed25519 key announcement must be signed by the peer's RSA key")
+    public void testKeyAnnouncement() throws Exception {
+        KeyPair identity = RSAUtil.generateRSAKeyPair();
+        KeyPair impostor = RSAUtil.generateRSAKeyPair();
+        KeyPair signing = SignatureSuite.ED25519.generateKeyPair();
+
+        String line = SignatureSuite.ED25519.createKeyAnnouncement(signing.getPublic(), identity.getPrivate());
+        assertEquals(signing.getPublic(), SignatureSuite.ED25519.readKeyAnnouncement(line, identity.getPublic()));
+        assertThrows(SecurityException.class,
+            () -> SignatureSuite.ED25519.readKeyAnnouncement(line, impostor.getPublic()));
+    }
+
+    @Test
+    @DisplayName("Engines are cached per platform thread only")
+    public void testEngineCache() throws Exception {
+        RSAUtil.EngineCache<Signature> cache = new RSAUtil.EngineCache<>(() -> Signature.getInstance("SHA256withRSA"));
+        assertSame(cache.get(), cache.get(), "A platform thread should reuse its engine");
+
+        AtomicReference<Signature> first = new AtomicReference<>();
+        AtomicReference<Signature> second = new AtomicReference<>();
+        Thread.ofVirtual().start(() -> {
+            first.set(cache.get());
+            second.set(cache.get());
+        }).join();
+        assertNotNull(first.get());
+        assertNotSame(first.get(), second.get(), "A virtual thread should get a fresh engine");
+    }
+}
@@ -0,0 +1,78 @@
+package crypto;
+
+import org.junit.jupiter.api.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Set;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+
+/**
+ * Tests for the per-session message compression stream:
+ * - Frames round-trip in order across many messages
+ * - Repeated content shrinks once it is in the dictionary
+ * - A frame that ends the deflate stream is rejected instead of spinning
+ * - Capabilities negotiate to the common subset
+ */
+public class StreamingCompressorTest {
+
+    @Test
+    @DisplayName("Messages round-trip through the session stream")
+    public void testRoundTrip() throws Exception {
+        StreamingCompressor sender = new StreamingCompressor();
+        StreamingCompressor receiver = new StreamingCompressor();
+        for (int i = 0; i < 200; i++) {
+            String message = "message #" + i + " {\"user\":\"alice\",\"status\":\"online\"} ✅";
+            byte[] frame = sender.compressFrame(message.getBytes(StandardCharsets.UTF_8));
+            byte[] restored = receiver.decompressFrame(frame, CompressionStage.MAX_TEXT_SIZE);
+            assertEquals(message, new String(restored, StandardCharsets.UTF_8));
+        }
+        sender.close();
+        receiver.close();
+    }
+
+    @Test
+    @DisplayName("Repeated short messages compress below their raw size")
+    public void testDictionaryReuse() throws Exception {
+        StreamingCompressor sender = new StreamingCompressor();
+        byte[] message = "{\"type\":\"chat\",\"from\":\"server\",\"text\":\"ok\"}".getBytes(StandardCharsets.UTF_8);
+
+        byte[] first = sender.compressFrame(message);
+        byte[] second = sender.compressFrame(message);
+        assertTrue(second.length < first.length, "Second frame should reuse the dictionary");
+        assertTrue(second.length < message.length / 2, "Repeated message should shrink well (" + second.length + " bytes)");
+        sender.close();
+    }
+
+    @Test
+    @DisplayName("A frame with a final deflate block is rejected")
+    public void testFinalBlock() throws Exception {
+        // A peer that finishes its stream: the last block has BFINAL set
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED, true);
+        deflater.setInput("the end".getBytes(StandardCharsets.UTF_8));
+        deflater.finish();
+        byte[] buffer = new byte[256];
+        int length = deflater.deflate(buffer);
+        deflater.end();
+        byte[] frame = Arrays.copyOf(buffer, length);
+
+        StreamingCompressor receiver = new StreamingCompressor();
+        assertTimeoutPreemptively(Duration.ofSeconds(5), () ->
+            assertThrows(DataFormatException.class, () -> receiver.decompressFrame(frame, CompressionStage.MAX_TEXT_SIZE)));
+        receiver.close();
+    }
+
+    @Test
+    @DisplayName("Capabilities negotiate to features both sides support")
+    public void testCapabilityNegotiation() {
+        SessionCapabilities local = new SessionCapabilities(Set.of(SessionCapabilities.STREAM_COMPRESSION));
+        SessionCapabilities peer = SessionCapabilities.fromProtocolString(local.toProtocolString());
+        assertTrue(local.negotiate(peer).supports(SessionCapabilities.STREAM_COMPRESSION));
+
+        SessionCapabilities legacy = SessionCapabilities.fromProtocolString("CAPS||");
+        assertFalse(local.negotiate(legacy).supports(SessionCapabilities.STREAM_COMPRESSION));
+    }
+}
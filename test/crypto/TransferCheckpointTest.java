@@ -0,0 +1,166 @@
+package crypto;
+
+import org.junit.jupiter.api.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.time.Duration;
+import java.util.BitSet;
+import java.util.Random;
+
+/**
+ * Tests for resumable transfer checkpoints:
+ * - Range encoding of the chunk bitmap, and peer ranges outside the file refused
+ * - Resume after the checkpoint is reopened
+ * - Expired or discarded checkpoints leave nothing behind
+ * - End-to-end reassembly and checksum verification
+ * - Checksums that could escape the transfer directory are refused
+ * - Negative or inconsistent sizes and chunk counts are refused
+ */
+public class TransferCheckpointTest {
+
+    private static final String TEST_KEY = "0123456789abcdef0123456789abcdef";
+    private File directory;
+
+    @BeforeEach
+    public void setup() throws Exception {
+        directory = Files.createTempDirectory("checkpoint-test").toFile();
+        System.setOut(new java.io.PrintStream(new java.io.OutputStream() {
+            public void write(int b) {}
+        }));
+    }
+
+    @Test
+    @DisplayName("Ranges round-trip through encode/decode")
+    public void testRangeEncoding() {
+        BitSet bits = new BitSet();
+        bits.set(0, 4);
+        bits.set(7);
+        bits.set(9, 13);
+
+        String encoded = TransferCheckpoint.encodeRanges(bits);
+        assertEquals("0-3,7,9-12", encoded);
+        assertEquals(bits, TransferCheckpoint.decodeRanges(encoded, 13));
+        assertTrue(TransferCheckpoint.decodeRanges("", 13).isEmpty(), "Empty string means nothing missing");
+    }
+
+    @Test
+    @DisplayName("Ranges outside the file or malformed are refused")
+    public void testRangeBounds() {
+        assertThrows(IllegalArgumentException.class, () -> TransferCheckpoint.decodeRanges("0-2147483646", 10));
+        assertThrows(IllegalArgumentException.class, () -> TransferCheckpoint.decodeRanges("5-2147483647", 10));
+        assertThrows(IllegalArgumentException.class, () -> TransferCheckpoint.decodeRanges("10", 10));
+        assertThrows(IllegalArgumentException.class, () -> TransferCheckpoint.decodeRanges("-1", 10));
+        assertThrows(IllegalArgumentException.class, () -> TransferCheckpoint.decodeRanges("7-3", 10));
+        assertThrows(IllegalArgumentException.class, () -> TransferCheckpoint.decodeRanges("1,,2", 10));
+        assertThrows(IllegalArgumentException.class, () -> TransferCheckpoint.decodeRanges("x", 10));
+        assertEquals(10, TransferCheckpoint.decodeRanges("0-9", 10).cardinality());
+    }
+
+    @Test
+    @DisplayName("Expired checkpoints are deleted, discarded ones leave no files")
+    public void testExpiryAndDiscard() throws Exception {
+        FileMetadata stale = new FileMetadata("old.bin", 2L * FileTransferHandler.CHUNK_SIZE, "application/octet-stream", 2, "cd".repeat(32));
+        TransferCheckpoint old = TransferCheckpoint.open(directory, stale);
+        old.writeChunk(0, new byte[FileTransferHandler.CHUNK_SIZE]);
+        old.close();
+        long lastWeek = System.currentTimeMillis() - Duration.ofDays(8).toMillis();
+        for (File file : directory.listFiles()) {
+            assertTrue(file.setLastModified(lastWeek));
+        }
+
+        FileMetadata fresh = new FileMetadata("new.bin", 2L * FileTransferHandler.CHUNK_SIZE, "application/octet-stream", 2, "ef".repeat(32));
+        TransferCheckpoint recent = TransferCheckpoint.open(directory, fresh);
+        recent.writeChunk(1, new byte[FileTransferHandler.CHUNK_SIZE]);
+        recent.close();
+
+        var loaded = TransferCheckpoint.loadIncomplete(directory, Duration.ofDays(7));
+        assertEquals(1, loaded.size(), "Only the recent checkpoint should be resumed");
+        assertEquals("new.bin", loaded.get(0).getMetadata().getFilename());
+        assertEquals(0, directory.listFiles((dir, name) -> name.startsWith("cd")).length, "Expired checkpoint files should be gone");
+
+        loaded.get(0).discard();
+        assertEquals(0, directory.listFiles().length, "Discarded checkpoint should leave no files");
+        assertTrue(TransferCheckpoint.loadIncomplete(directory).isEmpty());
+    }
+
+    @Test
+    @DisplayName("Reopened checkpoint remembers completed chunks")
+    public void testResumeAfterReopen() throws Exception {
+        FileMetadata metadata = new FileMetadata("data.bin", 3L * FileTransferHandler.CHUNK_SIZE, "application/octet-stream", 3, "ab".repeat(32));
+
+        TransferCheckpoint first = TransferCheckpoint.open(directory, metadata);
+        first.writeChunk(0, new byte[FileTransferHandler.CHUNK_SIZE]);
+        first.writeChunk(2, new byte[FileTransferHandler.CHUNK_SIZE]);
+        first.close();
+
+        TransferCheckpoint reopened = TransferCheckpoint.open(directory, metadata);
+        assertEquals("1", reopened.getMissingRanges(), "Only chunk 1 should still be missing");
+        assertEquals(1, TransferCheckpoint.loadIncomplete(directory).size(), "Incomplete transfer should be found on disk");
+        reopened.close();
+    }
+
+    @Test
+    @DisplayName("Out-of-order chunks reassemble into a verified file")
+    public void testReassembleOutOfOrder() throws Exception {
+        byte[] original = new byte[FileTransferHandler.CHUNK_SIZE * 2 + 1234];
+        new Random(42).nextBytes(original);
+        File source = new File(directory, "source.bin");
+        Files.write(source.toPath(), original);
+
+        FileTransferHandler handler = new FileTransferHandler(new BlockCipher(TEST_KEY));
+        FileMetadata metadata = handler.prepareFileMetadata(source);
+        File receiveDir = new File(directory, "received");
+        TransferCheckpoint checkpoint = TransferCheckpoint.open(receiveDir, metadata);
+
+        for (int i = metadata.getTotalChunks() - 1; i >= 0; i--) {
+            EncryptedFileChunk chunk = handler.encryptChunk(source, i, metadata.getTotalChunks(), null);
+            checkpoint.writeChunk(i, handler.decryptChunk(chunk, null));
+        }
+
+        assertTrue(checkpoint.isComplete());
+        assertTrue(checkpoint.verifyChecksum(), "Reassembled file should match the original checksum");
+        File done = checkpoint.complete();
+        assertArrayEquals(original, Files.readAllBytes(done.toPath()));
+        assertTrue(TransferCheckpoint.loadIncomplete(receiveDir).isEmpty(), "Completed transfer leaves no checkpoint");
+    }
+
+    @Test
+    @DisplayName("Checksum that is not SHA-256 hex is refused")
+    public void testRejectsBadChecksum() {
+        for (String checksum : new String[] {"../../escape", "ab".repeat(31), "AB".repeat(32), "ab".repeat(31) + "/x"}) {
+            assertThrows(IllegalArgumentException.class,
+                () -> FileMetadata.fromProtocolString("a.bin|10|application/octet-stream|1|" + checksum), checksum);
+            FileMetadata forged = new FileMetadata("a.bin", 10, "application/octet-stream", 1, checksum);
+            assertThrows(java.io.IOException.class, () -> TransferCheckpoint.open(directory, forged), checksum);
+        }
+        assertEquals(0, directory.list().length, "Nothing may be written for a refused offer");
+        assertFalse(new File(directory.getParentFile(), "escape.meta").exists());
+    }
+
+    @Test
+    @DisplayName("Negative or inconsistent sizes and chunk counts are refused")
+    public void testRejectsBadSizes() {
+        String checksum = "ab".repeat(32);
+        for (String sizes : new String[] {"-1|0", "10|-1", "10|0", "10|999999", "-5|1", "99999999999999|1"}) {
+            assertThrows(IllegalArgumentException.class,
+                () -> FileMetadata.fromProtocolString("a.bin|" + sizes.replace("|", "|application/octet-stream|") + "|" + checksum), sizes);
+        }
+        // Content-defined chunk counts parse, but a checkpoint needs the fixed-size count
+        FileMetadata manifest = FileMetadata.fromProtocolString("a.bin|" + (3 * FileTransferHandler.CHUNK_SIZE) + "|application/octet-stream|40|" + checksum);
+        assertThrows(java.io.IOException.class, () -> TransferCheckpoint.open(directory, manifest));
+        FileMetadata negative = new FileMetadata("a.bin", -1, "application/octet-stream", 0, checksum);
+        assertThrows(java.io.IOException.class, () -> TransferCheckpoint.open(directory, negative));
+    }
+
+    @Test
+    @DisplayName("Chunk that runs past the end of the file is refused")
+    public void testRejectsOversizedChunk() throws Exception {
+        FileMetadata metadata = new FileMetadata("a.bin", 10, "application/octet-stream", 1, "cd".repeat(32));
+        TransferCheckpoint checkpoint = TransferCheckpoint.open(directory, metadata);
+        assertThrows(java.io.IOException.class, () -> checkpoint.writeChunk(0, new byte[11]));
+        assertEquals(0, checkpoint.getCompletedCount());
+        checkpoint.close();
+    }
+}
@@ -0,0 +1,45 @@
+package crypto;
+
+import org.junit.jupiter.api.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.security.KeyPair;
+import java.security.PublicKey;
+
+/**
+ * Tests for the X25519 handshake:
+ * - Both sides derive the same BlockCipher key
+ * - Key shares must be signed by the peer's RSA key
+ */
+public class X25519KeyExchangeTest {
+
+    @Test
+    @DisplayName("Client and server derive the same session key")
+    public void testAgreement() throws Exception {
+        KeyPair serverIdentity = RSAUtil.generateRSAKeyPair();
+        KeyPair clientIdentity = RSAUtil.generateRSAKeyPair();
+        X25519KeyExchange server = new X25519KeyExchange();
+        X25519KeyExchange client = new X25519KeyExchange();
+
+        PublicKey clientShare = X25519KeyExchange.readAnnouncement(
+            client.createAnnouncement(clientIdentity.getPrivate()), clientIdentity.getPublic());
+        PublicKey serverShare = X25519KeyExchange.readAnnouncement(
+            server.createAnnouncement(serverIdentity.getPrivate()), serverIdentity.getPublic());
+
+        String serverKey = server.deriveSessionKey(clientShare, true);
+        String clientKey = client.deriveSessionKey(serverShare, false);
+        assertEquals(serverKey, clientKey);
+        assertEquals(32, serverKey.length(), "BlockCipher expects 32 hex characters");
+        assertNotEquals(serverKey, new X25519KeyExchange().deriveSessionKey(serverShare, false),
+            "Each exchange must produce a fresh key");
+    }
+
+    @Test
+    @DisplayName("Key share signed by another key is rejected")
+    public void testForgedShare() throws Exception {
+        KeyPair identity = RSAUtil.generateRSAKeyPair();
+        KeyPair attacker = RSAUtil.generateRSAKeyPair();
+        String line = new X25519KeyExchange().createAnnouncement(attacker.getPrivate());
+        assertThrows(SecurityException.class, () -> X25519KeyExchange.readAnnouncement(line, identity.getPublic()));
+    }
+}
@@ -0,0 +1,97 @@
+package network;
+
+import java.lang.management.BufferPoolMXBean;
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.StandardSocketOptions;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Memory held by one large broadcast queued to many slow connections:
+ * sendLine() per connection vs one SharedFrame
+ *
+ * Clients never read and both socket buffers are small, so nearly the whole
+ * frame stays queued on the server side of every connection.
+ *
+ * Run: mvn test-compile && java -cp target/classes:target/test-classes network.BroadcastMemoryBenchmark [connections] [frameKB] [line|frame]
+ *      (one mode per JVM gives cleaner numbers)
+ */
+public class BroadcastMemoryBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int connections = args.length > 0 ? Integer.parseInt(args[0]) : 500;
+        int frameKb = args.length > 1 ? Integer.parseInt(args[1]) : 1024;
+        String mode = args.length > 2 ? args[2] : "both";
+        System.out.println("connections: " + connections + ", frame: " + frameKb + " KB");
+        if (!mode.equals("frame")) run("sendLine per connection", connections, frameKb, false);
+        if (!mode.equals("line")) run("shared frame", connections, frameKb, true);
+    }
+
+    private static void run(String label, int connections, int frameKb, boolean shared) throws Exception {
+        List<Socket> clients = new ArrayList<>();
+        List<NioConnection> servers = new ArrayList<>();
+        try (ServerSocketChannel listening = ServerSocketChannel.open();
+             NioTransport transport = new NioTransport(NioTransport.loopCount())) {
+            listening.bind(new InetSocketAddress("localhost", 0), connections);
+            int port = listening.socket().getLocalPort();
+            for (int i = 0; i < connections; i++) {
+                Socket client = new Socket();
+                client.setReceiveBufferSize(4096);
+                client.connect(new InetSocketAddress("localhost", port));
+                clients.add(client);
+                SocketChannel accepted = listening.accept();
+                accepted.setOption(StandardSocketOptions.SO_SNDBUF, 4096);
+                NioConnection connection = transport.adopt(accepted, new byte[0], 4096);
+                connection.start(new LineChannel.Handler() {
+                    @Override
+                    public void onLine(String line) {}
+
+                    @Override
+                    public void onClosed(Exception cause) {}
+                });
+                servers.add(connection);
+            }
+            Thread.sleep(300);
+
+            String line = "x".repeat(frameKb * 1024);
+            long heapBefore = usedHeap();
+            long directBefore = usedDirect();
+            long start = System.nanoTime();
+            SharedFrame frame = shared ? SharedFrame.of(line) : null;
+            for (NioConnection connection : servers) {
+                if (shared) connection.sendFrame(frame);
+                else connection.sendLine(line);
+            }
+            long queueNanos = System.nanoTime() - start;
+            frame = null;
+            Thread.sleep(500);
+
+            long queued = servers.stream().mapToLong(NioConnection::getQueuedBytes).sum();
+            System.out.printf("%-24s queued %6.1f MB logical, heap +%6.1f MB, direct +%5.1f MB, fan-out %6.1f ms%n", label,
+                queued / 1048576.0, (usedHeap() - heapBefore) / 1048576.0, (usedDirect() - directBefore) / 1048576.0,
+                queueNanos / 1e6);
+
+            for (NioConnection connection : servers) connection.close();
+            for (Socket client : clients) client.close();
+        }
+    }
+
+    private static long usedHeap() throws InterruptedException {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            Thread.sleep(100);
+        }
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+
+    private static long usedDirect() {
+        for (BufferPoolMXBean pool : ManagementFactory.getPlatformMXBeans(BufferPoolMXBean.class)) {
+            if (pool.getName().equals("direct")) return pool.getMemoryUsed();
+        }
+        return 0;
+    }
+}
@@ -0,0 +1,172 @@
+package network;
+
+import crypto.RSAUtil;
+import crypto.SessionCapabilities;
+import crypto.SessionTicket;
+import crypto.TicketIssuer;
+
+import java.io.BufferedReader;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.security.KeyPair;
+import java.util.Arrays;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * Handshake time over a simulated WAN link (default 50 ms round trip)
+ *
+ * Runs the real Handshake class on both ends, with a relay in between that
+ * delivers every chunk after a fixed one-way delay (ordering kept, no
+ * bandwidth limit). Time is measured on the client from connect until both
+ * sides hold the session key.
+ *
+ *   rsa      - X25519 disabled, RSA key transport (1.5 round trips)
+ *   x25519   - pipelined key agreement (1 round trip)
+ *   resumed  - ticket accepted (1 round trip, no public-key work on the server)
+ *   declined - stale ticket, full X25519 handshake in the same round trip
+ *
+ * Run: mvn test-compile && java -cp target/classes:target/test-classes network.HandshakeLatencyBenchmark [rounds] [rttMs]
+ */
+public class HandshakeLatencyBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int rounds = args.length > 0 ? Integer.parseInt(args[0]) : 20;
+        int rttMs = args.length > 1 ? Integer.parseInt(args[1]) : 50;
+
+        KeyPair serverKeys = RSAUtil.generateRSAKeyPair();
+        KeyPair clientKeys = RSAUtil.generateRSAKeyPair();
+        SessionCapabilities withX25519 = new SessionCapabilities(Set.of(
+            SessionCapabilities.STREAM_COMPRESSION, SessionCapabilities.SESSION_MAC, SessionCapabilities.X25519_KEY_AGREEMENT));
+        SessionCapabilities rsaOnly = new SessionCapabilities(Set.of(
+            SessionCapabilities.STREAM_COMPRESSION, SessionCapabilities.SESSION_MAC));
+        TicketIssuer ticketIssuer = new TicketIssuer();
+
+        ExecutorService executor = Executors.newCachedThreadPool(r -> {
+            Thread thread = new Thread(r);
+            thread.setDaemon(true);
+            return thread;
+        });
+        try (ServerSocket serverSocket = new ServerSocket(0); ServerSocket relaySocket = new ServerSocket(0)) {
+            executor.submit(() -> relay(relaySocket, serverSocket.getLocalPort(), rttMs / 2, executor));
+
+            // Warm up the JIT and the crypto providers without link delay
+            for (int i = 0; i < 20; i++) {
+                run(serverSocket, serverSocket.getLocalPort(), withX25519, serverKeys, clientKeys, ticketIssuer, null, executor);
+            }
+
+            for (String mode : new String[] {"rsa", "x25519", "resumed", "declined"}) {
+                SessionCapabilities capabilities = mode.equals("rsa") ? rsaOnly : withX25519;
+                long total = 0;
+                for (int i = 0; i < rounds; i++) {
+                    SessionTicket ticket = null;
+                    if (mode.equals("resumed")) {
+                        ticket = issueTicket(ticketIssuer, capabilities, serverKeys, clientKeys);
+                    } else if (mode.equals("declined")) {
+                        ticket = issueTicket(new TicketIssuer(), capabilities, serverKeys, clientKeys); // unknown to this server
+                    }
+                    total += run(serverSocket, relaySocket.getLocalPort(), capabilities, serverKeys, clientKeys,
+                        ticketIssuer, ticket, executor);
+                }
+                System.err.printf("%-8s handshake (%d ms RTT): %6.1f ms = %.2f RTT%n",
+                    mode, rttMs, total / 1e6 / rounds, rttMs == 0 ? 0 : total / 1e6 / rounds / rttMs);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static long run(ServerSocket serverSocket, int port, SessionCapabilities capabilities, KeyPair serverKeys,
+                            KeyPair clientKeys, TicketIssuer ticketIssuer, SessionTicket ticket,
+                            ExecutorService executor) throws Exception {
+        Future<Handshake.Result> server = executor.submit(() -> {
+            try (Socket socket = serverSocket.accept()) {
+                socket.setTcpNoDelay(true);
+                return new Handshake(serverKeys, capabilities).runServer(reader(socket), writer(socket), ticketIssuer);
+            }
+        });
+
+        long start = System.nanoTime();
+        try (Socket socket = new Socket("localhost", port)) {
+            socket.setTcpNoDelay(true);
+            Handshake.Result client = new Handshake(clientKeys, capabilities).runClient(reader(socket), writer(socket), ticket);
+            // The chat can only start once the server has the key too
+            Handshake.Result result = server.get();
+            long elapsed = System.nanoTime() - start;
+            if (!client.getSessionKey().equals(result.getSessionKey())) {
+                throw new IllegalStateException("Session keys differ");
+            }
+            if ((ticket != null && client.getResumeDeclinedReason() == null) != client.isResumed()) {
+                throw new IllegalStateException("Unexpected resumption outcome");
+            }
+            return elapsed;
+        }
+    }
+
+    private static SessionTicket issueTicket(TicketIssuer issuer, SessionCapabilities capabilities, KeyPair serverKeys,
+                                             KeyPair clientKeys) throws Exception {
+        String sessionKey = SessionTicket.createNonce();
+        return SessionTicket.fromProtocolString(issuer.issue(sessionKey, capabilities,
+            RSAUtil.publicKeyToString(clientKeys.getPublic())), sessionKey, capabilities,
+            RSAUtil.publicKeyToString(serverKeys.getPublic()));
+    }
+
+    private static BufferedReader reader(Socket socket) throws Exception {
+        return new BufferedReader(new InputStreamReader(socket.getInputStream()));
+    }
+
+    private static PrintWriter writer(Socket socket) throws Exception {
+        return new PrintWriter(socket.getOutputStream(), true);
+    }
+
+    /**
+     * Accept connections and forward both directions with the given one-way delay
+     */
+    private static Void relay(ServerSocket relaySocket, int targetPort, int delayMs, ExecutorService executor) throws Exception {
+        while (!relaySocket.isClosed()) {
+            Socket client = relaySocket.accept();
+            Socket server = new Socket("localhost", targetPort);
+            client.setTcpNoDelay(true);
+            server.setTcpNoDelay(true);
+            forward(client, server, delayMs, executor);
+            forward(server, client, delayMs, executor);
+        }
+        return null;
+    }
+
+    private static void forward(Socket from, Socket to, int delayMs, ExecutorService executor) {
+        LinkedBlockingQueue<Object[]> link = new LinkedBlockingQueue<>(); // {deliverAt, bytes}, empty bytes = closed
+        executor.submit(() -> {
+            InputStream in = from.getInputStream();
+            byte[] buffer = new byte[16384];
+            int n;
+            while ((n = in.read(buffer)) > 0) {
+                link.put(new Object[] {System.nanoTime() + delayMs * 1_000_000L, Arrays.copyOf(buffer, n)});
+            }
+            link.put(new Object[] {System.nanoTime() + delayMs * 1_000_000L, new byte[0]});
+            return null;
+        });
+        executor.submit(() -> {
+            OutputStream out = to.getOutputStream();
+            while (true) {
+                Object[] chunk = link.take();
+                long wait = (long) chunk[0] - System.nanoTime();
+                if (wait > 0) Thread.sleep(wait / 1_000_000L, (int) (wait % 1_000_000L));
+                byte[] bytes = (byte[]) chunk[1];
+                if (bytes.length == 0) {
+                    to.shutdownOutput();
+                    return null;
+                }
+                out.write(bytes);
+                out.flush();
+            }
+        });
+    }
+}
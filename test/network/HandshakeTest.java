@@ -0,0 +1,162 @@
+package network;
+
+import crypto.*;
+import org.junit.jupiter.api.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.security.KeyPair;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Tests for the pipelined handshake:
+ * - X25519 and RSA key transport both end with the same session key
+ * - A valid ticket resumes, a declined one falls back within the same flight
+ * - A pinned key is checked even if the peer stops advertising it, and a changed one aborts
+ * - A resumed server must present the key of the ticket's session
+ */
+public class HandshakeTest {
+
+    private static KeyPair serverKeys;
+    private static KeyPair clientKeys;
+    private static ExecutorService executor;
+
+    private final SessionCapabilities withX25519 = new SessionCapabilities(Set.of(
+        SessionCapabilities.SESSION_MAC, SessionCapabilities.X25519_KEY_AGREEMENT));
+    private final SessionCapabilities rsaOnly = new SessionCapabilities(Set.of(SessionCapabilities.SESSION_MAC));
+
+    @BeforeAll
+    public static void setUp() throws Exception {
+        serverKeys = RSAUtil.generateRSAKeyPair();
+        clientKeys = RSAUtil.generateRSAKeyPair();
+        executor = Executors.newSingleThreadExecutor();
+    }
+
+    @AfterAll
+    public static void tearDown() {
+        executor.shutdownNow();
+    }
+
+    private Handshake.Result[] connect(SessionCapabilities serverCapabilities, SessionCapabilities clientCapabilities,
+                                       TicketIssuer issuer, SessionTicket ticket) throws Exception {
+        return connect(serverKeys, serverCapabilities, clientCapabilities, issuer, ticket, null);
+    }
+
+    /**
+     * @param pins client-side pinned server keys, null = no pinning
+     */
+    private Handshake.Result[] connect(KeyPair serverIdentity, SessionCapabilities serverCapabilities,
+                                       SessionCapabilities clientCapabilities, TicketIssuer issuer, SessionTicket ticket,
+                                       PeerKeyCache pins) throws Exception {
+        try (ServerSocket serverSocket = new ServerSocket(0)) {
+            Future<Handshake.Result> server = executor.submit(() -> {
+                try (Socket socket = serverSocket.accept()) {
+                    return new Handshake(serverIdentity, serverCapabilities).runServer(
+                        new BufferedReader(new InputStreamReader(socket.getInputStream())),
+                        new PrintWriter(socket.getOutputStream(), true), issuer);
+                }
+            });
+            try (Socket socket = new Socket("localhost", serverSocket.getLocalPort())) {
+                Handshake.Result client = new Handshake(clientKeys, clientCapabilities)
+                    .withPeerKeyCache(pins, "hub.example:7777").runClient(
+                    new BufferedReader(new InputStreamReader(socket.getInputStream())),
+                    new PrintWriter(socket.getOutputStream(), true), ticket);
+                return new Handshake.Result[] {server.get(), client};
+            }
+        }
+    }
+
+    @Test
+    @DisplayName("Full handshake agrees on a key with and without X25519")
+    public void testFullHandshake() throws Exception {
+        TicketIssuer issuer = new TicketIssuer();
+
+        Handshake.Result[] agreed = connect(withX25519, withX25519, issuer, null);
+        assertEquals(agreed[0].getSessionKey(), agreed[1].getSessionKey());
+        assertTrue(agreed[0].isKeyAgreed() && agreed[1].isKeyAgreed());
+        assertEquals(clientKeys.getPublic(), agreed[0].getPeerPublicKey());
+        assertEquals(serverKeys.getPublic(), agreed[1].getPeerPublicKey());
+
+        // One side without X25519 falls back to RSA key transport
+        Handshake.Result[] transported = connect(withX25519, rsaOnly, issuer, null);
+        assertEquals(transported[0].getSessionKey(), transported[1].getSessionKey());
+        assertFalse(transported[0].isKeyAgreed() || transported[1].isKeyAgreed());
+        assertFalse(transported[1].getCapabilities().supports(SessionCapabilities.X25519_KEY_AGREEMENT));
+        new BlockCipher(transported[1].getSessionKey()); // valid BlockCipher key
+    }
+
+    @Test
+    @DisplayName("Tickets resume once, declined tickets fall back to a full handshake")
+    public void testResumption() throws Exception {
+        TicketIssuer issuer = new TicketIssuer();
+        String sessionKey = KeyGenerator.generate128BitKeyHex();
+        SessionTicket ticket = SessionTicket.fromProtocolString(issuer.issue(sessionKey, withX25519,
+            RSAUtil.publicKeyToString(clientKeys.getPublic())), sessionKey, withX25519,
+            RSAUtil.publicKeyToString(serverKeys.getPublic()));
+
+        Handshake.Result[] resumed = connect(withX25519, withX25519, issuer, ticket);
+        assertTrue(resumed[0].isResumed() && resumed[1].isResumed());
+        assertEquals(resumed[0].getSessionKey(), resumed[1].getSessionKey());
+        assertNotEquals(sessionKey, resumed[1].getSessionKey());
+
+        Handshake.Result[] declined = connect(withX25519, withX25519, issuer, ticket);
+        assertFalse(declined[0].isResumed() || declined[1].isResumed());
+        assertEquals("ticket already used", declined[1].getResumeDeclinedReason());
+        assertEquals(declined[0].getSessionKey(), declined[1].getSessionKey());
+        assertTrue(declined[1].isKeyAgreed());
+    }
+
+    @Test
+    @DisplayName("Pinned keys are checked whatever the peer advertises; a changed key aborts")
+    public void testPinnedIdentity() throws Exception {
+        File file = File.createTempFile("known_peers", ".properties");
+        file.delete();
+        try {
+            PeerKeyCache pins = new PeerKeyCache(file);
+            Set<String> features = new HashSet<>(withX25519.getFeatures());
+            features.add(SessionCapabilities.PERSISTENT_IDENTITY);
+            SessionCapabilities persistent = new SessionCapabilities(features);
+
+            // An ephemeral key is not pinned
+            assertNull(connect(serverKeys, withX25519, withX25519, null, null, pins)[1].getPeerIdentityStatus());
+            assertEquals(PeerKeyCache.Status.NEW, connect(serverKeys, persistent, withX25519, null, null, pins)[1]
+                .getPeerIdentityStatus());
+            assertEquals(PeerKeyCache.Status.MATCH, connect(serverKeys, withX25519, withX25519, null, null, pins)[1]
+                .getPeerIdentityStatus());
+
+            // Someone in the middle with its own key, "identity" stripped from CAPS
+            KeyPair impostor = RSAUtil.generateRSAKeyPair();
+            SecurityException changed = assertThrows(SecurityException.class,
+                () -> connect(impostor, withX25519, withX25519, null, null, pins));
+            assertTrue(changed.getMessage().contains("IdentityStore forget client hub.example:7777"));
+            assertThrows(SecurityException.class, () -> connect(impostor, persistent, withX25519, null, null, pins));
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    @DisplayName("Resumption is tied to the server key of the ticket's session")
+    public void testResumedServerKey() throws Exception {
+        TicketIssuer issuer = new TicketIssuer();
+        String sessionKey = KeyGenerator.generate128BitKeyHex();
+        SessionTicket ticket = SessionTicket.fromProtocolString(issuer.issue(sessionKey, withX25519,
+            RSAUtil.publicKeyToString(clientKeys.getPublic())), sessionKey, withX25519,
+            RSAUtil.publicKeyToString(serverKeys.getPublic()));
+
+        // Same ticket key, different identity: the client refuses the RESUMED reply
+        KeyPair impostor = RSAUtil.generateRSAKeyPair();
+        SecurityException refused = assertThrows(SecurityException.class,
+            () -> connect(impostor, withX25519, withX25519, issuer, ticket, null));
+        assertTrue(refused.getMessage().contains("another key"));
+    }
+}
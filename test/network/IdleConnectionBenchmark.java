@@ -0,0 +1,101 @@
+package network;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Cost of many idle connections: blocking reader task per connection vs NIO event loops
+ *
+ * Opens N loopback connections, leaves them idle and reports the heap and
+ * thread count they hold on the server side (client sockets are the same in
+ * both runs), then times one echo round trip while the rest stay idle.
+ *
+ * Run: mvn test-compile && java -cp target/classes:target/test-classes network.IdleConnectionBenchmark [connections] [blocking|nio]
+ *      (one mode per JVM gives cleaner heap numbers)
+ */
+public class IdleConnectionBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int connections = args.length > 0 ? Integer.parseInt(args[0]) : 5000;
+        String mode = args.length > 1 ? args[1] : "both";
+        System.out.println("connections: " + connections);
+        if (!mode.equals("nio")) run("blocking (virtual thread reader)", connections, false);
+        if (!mode.equals("blocking")) run("nio (" + NioTransport.loopCount() + " loops)", connections, true);
+    }
+
+    private static void run(String label, int connections, boolean nio) throws Exception {
+        List<Socket> clients = new ArrayList<>();
+        List<LineChannel> servers = new ArrayList<>();
+        long heapBefore = usedHeap();
+        int threadsBefore = Thread.activeCount();
+
+        try (ServerSocketChannel listening = ServerSocketChannel.open();
+             NioTransport transport = new NioTransport(NioTransport.loopCount());
+             SessionScope scope = new SessionScope("idle")) {
+            listening.bind(new InetSocketAddress("localhost", 0), connections);
+            int port = listening.socket().getLocalPort();
+
+            for (int i = 0; i < connections; i++) {
+                clients.add(new Socket("localhost", port));
+                SocketChannel accepted = listening.accept();
+                LineChannel channel;
+                if (nio) {
+                    channel = transport.adopt(accepted, new byte[0], 4096);
+                } else {
+                    Socket socket = accepted.socket();
+                    channel = new SocketLineChannel(socket,
+                        new BufferedReader(new InputStreamReader(socket.getInputStream())),
+                        new PrintWriter(socket.getOutputStream(), true), scope);
+                }
+                LineChannel self = channel;
+                channel.start(new LineChannel.Handler() {
+                    @Override
+                    public void onLine(String line) {
+                        self.sendLine(line); // echo
+                    }
+
+                    @Override
+                    public void onClosed(Exception cause) {
+                    }
+                });
+                servers.add(channel);
+            }
+            Thread.sleep(500);
+            long heapAfter = usedHeap();
+            System.out.printf("%-34s heap %6.1f KB/connection, %d extra platform threads%n", label,
+                (heapAfter - heapBefore) / 1024.0 / connections, Thread.activeCount() - threadsBefore);
+
+            // Round trips on a few connections while the others idle
+            Socket probe = clients.get(connections / 2);
+            PrintWriter out = new PrintWriter(probe.getOutputStream(), true);
+            BufferedReader in = new BufferedReader(new InputStreamReader(probe.getInputStream()));
+            int rounds = 2000;
+            for (int i = 0; i < 200; i++) { out.println("warm"); in.readLine(); }
+            long start = System.nanoTime();
+            for (int i = 0; i < rounds; i++) {
+                out.println("ping " + i);
+                in.readLine();
+            }
+            System.out.printf("%-34s echo round trip %.1f us%n", label, (System.nanoTime() - start) / 1000.0 / rounds);
+
+            for (LineChannel channel : servers) channel.close();
+            for (Socket client : clients) client.close();
+        }
+    }
+
+    private static long usedHeap() throws InterruptedException {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            Thread.sleep(100);
+        }
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+}
@@ -0,0 +1,43 @@
+package network;
+
+import org.junit.jupiter.api.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Tests for LineLimitInputStream:
+ * - Lines up to the limit pass through, the count restarts after each newline
+ * - A longer line fails while it is still being read
+ */
+public class LineLimitInputStreamTest {
+
+    private static BufferedReader reader(String text, int limit) {
+        return new BufferedReader(new InputStreamReader(
+            new LineLimitInputStream(new ByteArrayInputStream(text.getBytes(StandardCharsets.UTF_8)), limit)));
+    }
+
+    @Test
+    @DisplayName("Lines within the limit")
+    public void testWithinLimit() throws IOException {
+        BufferedReader in = reader("abcd\r\nefgh\nij", 4);
+        assertEquals("abcd", in.readLine());
+        assertEquals("efgh", in.readLine());
+        assertEquals("ij", in.readLine());
+        assertNull(in.readLine());
+    }
+
+    @Test
+    @DisplayName("Line over the limit fails")
+    public void testOverLimit() {
+        BufferedReader in = reader("ok\n" + "x".repeat(100_000) + "\n", 1000);
+        assertThrows(IOException.class, () -> {
+            in.readLine();
+            in.readLine();
+        });
+    }
+}
@@ -0,0 +1,183 @@
+package network;
+
+import org.junit.jupiter.api.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tests for NioConnection on an event loop:
+ * - Lines split across reads, CRLF, and bytes buffered before the switch
+ * - Lines longer than the read buffer; a line over the limit closes the connection
+ * - Lines sent from several threads arrive whole
+ * - One shared frame is delivered whole to several connections
+ * - Peer close is reported without a cause
+ */
+public class NioConnectionTest {
+
+    private static NioEventLoop loop;
+
+    @BeforeAll
+    public static void startLoop() throws IOException {
+        loop = new NioEventLoop("test-loop");
+    }
+
+    @AfterAll
+    public static void stopLoop() {
+        loop.close();
+    }
+
+    private static class Recorder implements LineChannel.Handler {
+        final BlockingQueue<String> lines = new LinkedBlockingQueue<>();
+        final CompletableFuture<Exception> closed = new CompletableFuture<>();
+
+        @Override
+        public void onLine(String line) {
+            lines.add(line);
+        }
+
+        @Override
+        public void onClosed(Exception cause) {
+            closed.complete(cause);
+        }
+
+        String next() throws InterruptedException {
+            String line = lines.poll(10, TimeUnit.SECONDS);
+            assertNotNull(line);
+            return line;
+        }
+    }
+
+    /**
+     * Connected pair: plain client socket and the server side as a channel
+     */
+    private static Object[] connect() throws IOException {
+        try (ServerSocketChannel server = ServerSocketChannel.open()) {
+            server.bind(new InetSocketAddress("localhost", 0));
+            Socket client = new Socket("localhost", server.socket().getLocalPort());
+            return new Object[] { client, server.accept() };
+        }
+    }
+
+    @Test
+    @DisplayName("Line framing across reads")
+    public void testFraming() throws Exception {
+        Object[] pair = connect();
+        try (Socket client = (Socket) pair[0]) {
+            NioConnection connection = new NioConnection((SocketChannel) pair[1], loop,
+                "first\nsec".getBytes(StandardCharsets.UTF_8), 1024);
+            Recorder recorder = new Recorder();
+            connection.start(recorder);
+
+            OutputStream out = client.getOutputStream();
+            out.write("ond\r\nthi".getBytes(StandardCharsets.UTF_8));
+            out.flush();
+            Thread.sleep(50);
+            out.write("rd\n".getBytes(StandardCharsets.UTF_8));
+            out.flush();
+
+            assertEquals("first", recorder.next());
+            assertEquals("second", recorder.next());
+            assertEquals("third", recorder.next());
+
+            client.close();
+            assertNull(recorder.closed.get(10, TimeUnit.SECONDS));
+            assertTrue(connection.isClosed());
+        }
+    }
+
+    @Test
+    @DisplayName("Long lines and the line limit")
+    public void testLongLines() throws Exception {
+        Object[] pair = connect();
+        try (Socket client = (Socket) pair[0]) {
+            NioConnection connection = new NioConnection((SocketChannel) pair[1], loop, new byte[0], 200_000);
+            Recorder recorder = new Recorder();
+            connection.start(recorder);
+
+            String longLine = "x".repeat(150_000);
+            OutputStream out = client.getOutputStream();
+            out.write((longLine + "\nshort\n").getBytes(StandardCharsets.UTF_8));
+            out.flush();
+            assertEquals(longLine, recorder.next());
+            assertEquals("short", recorder.next());
+
+            out.write("y".repeat(300_000).getBytes(StandardCharsets.UTF_8));
+            out.flush();
+            assertTrue(recorder.closed.get(10, TimeUnit.SECONDS) instanceof IOException);
+        }
+    }
+
+    @Test
+    @DisplayName("Concurrent senders")
+    public void testConcurrentSend() throws Exception {
+        Object[] pair = connect();
+        try (Socket client = (Socket) pair[0]) {
+            NioConnection connection = new NioConnection((SocketChannel) pair[1], loop, new byte[0], 1024);
+            connection.start(new Recorder());
+
+            int threads = 4;
+            int perThread = 2000;
+            String padding = "p".repeat(200);
+            Thread[] senders = new Thread[threads];
+            for (int t = 0; t < threads; t++) {
+                int id = t;
+                senders[t] = Thread.ofVirtual().start(() -> {
+                    for (int i = 0; i < perThread; i++) {
+                        connection.sendLine(id + ":" + i + ":" + padding);
+                    }
+                });
+            }
+
+            BufferedReader in = new BufferedReader(new InputStreamReader(client.getInputStream(), StandardCharsets.UTF_8));
+            Set<String> received = new HashSet<>();
+            for (int i = 0; i < threads * perThread; i++) {
+                String line = in.readLine();
+                assertTrue(line.endsWith(":" + padding), line);
+                received.add(line);
+            }
+            for (Thread sender : senders) sender.join();
+            assertEquals(threads * perThread, received.size());
+            connection.close();
+        }
+    }
+
+    @Test
+    @DisplayName("Shared frame to several connections")
+    public void testSharedFrame() throws Exception {
+        SharedFrame small = SharedFrame.of("small frame");
+        SharedFrame large = SharedFrame.of("L".repeat(64 * 1024)); // larger than one socket write
+        assertEquals(12, small.size());
+
+        for (int i = 0; i < 3; i++) {
+            Object[] pair = connect();
+            try (Socket client = (Socket) pair[0]) {
+                NioConnection connection = new NioConnection((SocketChannel) pair[1], loop, new byte[0], 1024);
+                connection.start(new Recorder());
+                connection.sendFrame(small);
+                connection.sendFrame(large);
+                connection.sendLine("after");
+
+                BufferedReader in = new BufferedReader(new InputStreamReader(client.getInputStream(), StandardCharsets.UTF_8));
+                assertEquals("small frame", in.readLine());
+                assertEquals(large.line(), in.readLine()); // every connection gets the whole frame
+                assertEquals("after", in.readLine());
+                connection.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,155 @@
+package network;
+
+import org.junit.jupiter.api.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tests for shard assignment and per-shard stats in NioTransport:
+ * - Least-loaded placement fills the shard that lost connections first
+ * - Hash placement keeps every connection from one host on one shard
+ * - Stats count lines and bytes per shard and report the imbalance
+ */
+public class NioTransportTest {
+
+    private static ServerSocketChannel server;
+
+    @BeforeAll
+    public static void listen() throws IOException {
+        server = ServerSocketChannel.open();
+        server.bind(new InetSocketAddress("localhost", 0));
+    }
+
+    @AfterAll
+    public static void stopListening() throws IOException {
+        server.close();
+    }
+
+    /**
+     * Client socket plus the server side adopted by the transport
+     */
+    private record Pair(Socket client, NioConnection connection) {}
+
+    private static Pair connect(NioTransport transport, LineChannel.Handler handler) throws IOException {
+        Socket client = new Socket("localhost", server.socket().getLocalPort());
+        NioConnection connection = transport.adopt(server.accept(), new byte[0], NioConnection.DEFAULT_MAX_LINE_LENGTH);
+        connection.start(handler);
+        return new Pair(client, connection);
+    }
+
+    private static final LineChannel.Handler IGNORE = new LineChannel.Handler() {
+        @Override
+        public void onLine(String line) {}
+
+        @Override
+        public void onClosed(Exception cause) {}
+    };
+
+    private static List<Integer> connectionsPerShard(NioTransport transport) {
+        return transport.stats().stream().map(NioEventLoop.Stats::connections).toList();
+    }
+
+    @Test
+    @DisplayName("Least-loaded placement evens out after disconnects")
+    public void testLeastLoaded() throws Exception {
+        List<Pair> pairs = new ArrayList<>();
+        try (NioTransport transport = new NioTransport(3, NioTransport.Placement.LEAST_LOADED)) {
+            for (int i = 0; i < 6; i++) {
+                pairs.add(connect(transport, IGNORE));
+            }
+            assertEquals(List.of(2, 2, 2), connectionsPerShard(transport));
+
+            // Empty one shard; the next two connections must both go there
+            NioEventLoop drained = pairs.get(0).connection().getLoop();
+            for (Pair pair : pairs) {
+                if (pair.connection().getLoop() == drained) pair.connection().close();
+            }
+            Pair first = connect(transport, IGNORE);
+            Pair second = connect(transport, IGNORE);
+            pairs.add(first);
+            pairs.add(second);
+            assertSame(drained, first.connection().getLoop());
+            assertSame(drained, second.connection().getLoop());
+            assertEquals(6, transport.getConnectionCount());
+            assertEquals(1.0, NioTransport.imbalance(transport.stats(), NioEventLoop.Stats::connections), 1e-9);
+        } finally {
+            for (Pair pair : pairs) pair.client().close();
+        }
+    }
+
+    @Test
+    @DisplayName("Hash placement is sticky per client address")
+    public void testHash() throws Exception {
+        List<Pair> pairs = new ArrayList<>();
+        try (NioTransport transport = new NioTransport(4, NioTransport.Placement.HASH)) {
+            for (int i = 0; i < 5; i++) {
+                pairs.add(connect(transport, IGNORE));
+            }
+            for (Pair pair : pairs) {
+                assertSame(pairs.get(0).connection().getLoop(), pair.connection().getLoop());
+            }
+            // Everything from localhost on one of four shards
+            assertEquals(4.0, NioTransport.imbalance(transport.stats(), NioEventLoop.Stats::connections), 1e-9);
+        } finally {
+            for (Pair pair : pairs) pair.client().close();
+        }
+    }
+
+    @Test
+    @DisplayName("Per-shard stats count traffic")
+    public void testStats() throws Exception {
+        List<Pair> pairs = new ArrayList<>();
+        CountDownLatch received = new CountDownLatch(30);
+        LineChannel.Handler counting = new LineChannel.Handler() {
+            @Override
+            public void onLine(String line) {
+                received.countDown();
+            }
+
+            @Override
+            public void onClosed(Exception cause) {}
+        };
+        try (NioTransport transport = new NioTransport(2, NioTransport.Placement.ROUND_ROBIN)) {
+            pairs.add(connect(transport, counting));
+            pairs.add(connect(transport, counting));
+            assertTrue(pairs.get(0).connection().getLoop() != pairs.get(1).connection().getLoop());
+
+            // 25 lines on the first shard, 5 on the second
+            OutputStream busy = pairs.get(0).client().getOutputStream();
+            for (int i = 0; i < 25; i++) busy.write("0123456789\n".getBytes(StandardCharsets.UTF_8));
+            busy.flush();
+            OutputStream quiet = pairs.get(1).client().getOutputStream();
+            for (int i = 0; i < 5; i++) quiet.write("0123456789\n".getBytes(StandardCharsets.UTF_8));
+            quiet.flush();
+            pairs.get(1).connection().sendLine("reply");
+            assertTrue(received.await(10, TimeUnit.SECONDS));
+            assertEquals("reply\n", new String(pairs.get(1).client().getInputStream().readNBytes(6), StandardCharsets.UTF_8));
+
+            // Counters are published at the end of each select round
+            long deadline = System.currentTimeMillis() + 5000;
+            List<NioEventLoop.Stats> stats = transport.stats();
+            while ((stats.get(0).linesIn() < 25 || stats.get(1).bytesOut() < 6) && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+                stats = transport.stats();
+            }
+            assertEquals(25, stats.get(0).linesIn());
+            assertEquals(25 * 11, stats.get(0).bytesIn());
+            assertEquals(5, stats.get(1).linesIn());
+            assertEquals(6, stats.get(1).bytesOut());
+            assertEquals(25.0 * 2 / 30, NioTransport.imbalance(stats, NioEventLoop.Stats::linesIn), 1e-9);
+            assertTrue(transport.describeStats().contains("imbalance (round-robin)"));
+        } finally {
+            for (Pair pair : pairs) pair.client().close();
+        }
+    }
+}
@@ -0,0 +1,182 @@
+package network;
+
+import org.junit.jupiter.api.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.PrintWriter;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tests for the ordered receive pipeline:
+ * - Results reach the sink in submission order whatever order workers finish in
+ * - Failed tasks are reported in their place without stopping later results
+ * - On an event loop a full pipeline pauses its connection instead of blocking,
+ *   and the other connections of the loop keep going
+ */
+public class OrderedPipelineTest {
+
+    private ExecutorService workers;
+
+    @BeforeEach
+    public void setUp() {
+        workers = Executors.newFixedThreadPool(4);
+    }
+
+    @AfterEach
+    public void tearDown() {
+        workers.shutdownNow();
+    }
+
+    @Test
+    @DisplayName("Results are delivered in submission order")
+    public void testOrder() throws Exception {
+        int count = 200;
+        List<Integer> delivered = Collections.synchronizedList(new ArrayList<>());
+        List<Exception> errors = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch done = new CountDownLatch(count);
+        OrderedPipeline<Integer> pipeline = new OrderedPipeline<>(workers, 16, value -> {
+            delivered.add(value);
+            done.countDown();
+        }, errors::add);
+
+        for (int i = 0; i < count; i++) {
+            int value = i;
+            pipeline.submit(() -> {
+                Thread.sleep(ThreadLocalRandom.current().nextInt(3));
+                return value;
+            });
+        }
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        assertTrue(errors.isEmpty());
+        for (int i = 0; i < count; i++) {
+            assertEquals(i, (int) delivered.get(i));
+        }
+    }
+
+    @Test
+    @DisplayName("Failures are reported in order and later results still arrive")
+    public void testFailures() throws Exception {
+        List<String> events = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch done = new CountDownLatch(3);
+        OrderedPipeline<String> pipeline = new OrderedPipeline<>(workers, 4, value -> {
+            events.add(value);
+            done.countDown();
+        }, e -> {
+            events.add("error:" + e.getMessage());
+            done.countDown();
+        });
+
+        pipeline.submit(() -> {
+            Thread.sleep(50);
+            return "first";
+        });
+        pipeline.submit(() -> {
+            throw new IllegalStateException("bad frame");
+        });
+        pipeline.submit(() -> "third");
+
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals(List.of("first", "error:bad frame", "third"), events);
+    }
+
+    @Test
+    @DisplayName("A full pipeline pauses its connection, not the event loop")
+    public void testPauseOnEventLoop() throws Exception {
+        int limit = 4;
+        int count = 100;
+        CountDownLatch stalled = new CountDownLatch(1);
+        AtomicInteger submitted = new AtomicInteger();
+        List<String> delivered = Collections.synchronizedList(new ArrayList<>());
+        List<Exception> errors = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch done = new CountDownLatch(count);
+        CountDownLatch otherDone = new CountDownLatch(count);
+
+        try (NioEventLoop loop = new NioEventLoop("test-loop");
+             ServerSocketChannel server = ServerSocketChannel.open()) {
+            server.bind(new InetSocketAddress("localhost", 0));
+            Socket busyClient = new Socket("localhost", server.socket().getLocalPort());
+            NioConnection busy = connection(server.accept(), loop);
+            Socket otherClient = new Socket("localhost", server.socket().getLocalPort());
+            NioConnection other = connection(server.accept(), loop);
+
+            // Workers stall until released, so the busy connection's pipeline fills up
+            OrderedPipeline<String> pipeline = new OrderedPipeline<>(workers, limit, line -> {
+                delivered.add(line);
+                done.countDown();
+            }, errors::add, busy::pauseReading);
+            busy.start(handler(line -> {
+                submitted.incrementAndGet();
+                pipeline.submit(() -> {
+                    stalled.await();
+                    return line;
+                });
+            }));
+            other.start(handler(line -> otherDone.countDown()));
+
+            lines(busyClient, "busy", count);
+            long deadline = System.currentTimeMillis() + 10_000;
+            while (submitted.get() <= limit && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+
+            // The loop still serves the other connection while the busy one is paused
+            lines(otherClient, "other", count);
+            assertTrue(otherDone.await(10, TimeUnit.SECONDS), "Other connection on the loop should keep moving");
+            assertEquals(limit + 1, submitted.get(), "Busy connection should pause after the line past the limit");
+
+            // Once the workers catch up, reading resumes and every line arrives in order
+            stalled.countDown();
+            assertTrue(done.await(10, TimeUnit.SECONDS));
+            assertTrue(errors.isEmpty());
+            for (int i = 0; i < count; i++) {
+                assertEquals("busy " + i, delivered.get(i));
+            }
+
+            busy.close();
+            other.close();
+            busyClient.close();
+            otherClient.close();
+        }
+    }
+
+    private static NioConnection connection(SocketChannel channel, NioEventLoop loop) {
+        return new NioConnection(channel, loop, new byte[0], NioConnection.DEFAULT_MAX_LINE_LENGTH);
+    }
+
+    private interface LineHandler {
+        void onLine(String line) throws Exception;
+    }
+
+    private static LineChannel.Handler handler(LineHandler onLine) {
+        return new LineChannel.Handler() {
+            @Override
+            public void onLine(String line) throws Exception {
+                onLine.onLine(line);
+            }
+
+            @Override
+            public void onClosed(Exception cause) {
+            }
+        };
+    }
+
+    private static void lines(Socket socket, String prefix, int count) throws Exception {
+        PrintWriter out = new PrintWriter(socket.getOutputStream());
+        for (int i = 0; i < count; i++) {
+            out.println(prefix + " " + i);
+        }
+        out.flush();
+    }
+}
@@ -0,0 +1,138 @@
+package network;
+
+import org.junit.jupiter.api.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Tests for TokenBucket and RateLimiter:
+ * - A burst passes, then the debt is turned into a wait at the refill rate
+ * - An idle bucket refills only up to its burst size
+ * - A connection over its frame rate pauses reading and resumes by itself
+ * - The limiter's pause and the owner's pause do not undo each other
+ */
+public class RateLimiterTest {
+
+    private static final long MS = 1_000_000;
+
+    /**
+     * Clock the test moves by hand
+     */
+    private static class FakeClock {
+        long now;
+
+        long read() {
+            return now;
+        }
+    }
+
+    /**
+     * Channel that records pause changes; the test feeds lines to its handler
+     */
+    private static class StubChannel implements LineChannel {
+        final List<Boolean> pauses = Collections.synchronizedList(new ArrayList<>());
+        Handler handler;
+
+        @Override
+        public void start(Handler handler) {
+            this.handler = handler;
+        }
+
+        @Override
+        public void pauseReading(boolean paused) {
+            pauses.add(paused);
+        }
+
+        @Override
+        public void sendLine(String line) {}
+
+        @Override
+        public void close() {}
+    }
+
+    private static final LineChannel.Handler IGNORE = new LineChannel.Handler() {
+        @Override
+        public void onLine(String line) {}
+
+        @Override
+        public void onClosed(Exception cause) {}
+    };
+
+    private static void awaitPauses(StubChannel channel, int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (channel.pauses.size() < count && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        assertEquals(count, channel.pauses.size());
+    }
+
+    @Test
+    @DisplayName("Burst passes, debt becomes a wait")
+    public void testDebt() {
+        FakeClock clock = new FakeClock();
+        TokenBucket bucket = new TokenBucket(100, 10, clock::read);
+        for (int i = 0; i < 10; i++) {
+            assertEquals(0, bucket.take(1));
+        }
+        // Five over: 50ms at 100 per second
+        assertEquals(50 * MS, bucket.take(5));
+        clock.now += 20 * MS;
+        assertEquals(30 * MS, bucket.take(0));
+        clock.now += 30 * MS;
+        assertEquals(0, bucket.take(0));
+    }
+
+    @Test
+    @DisplayName("Refill stops at the burst size")
+    public void testBurstCap() {
+        FakeClock clock = new FakeClock();
+        TokenBucket bucket = new TokenBucket(1000, 50, clock::read);
+        bucket.take(50);
+        clock.now += 10_000 * MS;
+        assertEquals(50, bucket.available(), 1e-9);
+        assertEquals(0, bucket.take(50));
+        assertTrue(bucket.take(1) > 0);
+    }
+
+    @Test
+    @DisplayName("Connection over its frame rate pauses and resumes")
+    public void testThrottle() throws Exception {
+        RateLimiter limiter = new RateLimiter(new RateLimiter.Limits(20, 0), RateLimiter.Limits.UNLIMITED);
+        StubChannel stub = new StubChannel();
+        LineChannel channel = limiter.limit(stub);
+        channel.start(IGNORE);
+
+        for (int i = 0; i < 20; i++) {
+            stub.handler.onLine("within the burst");
+        }
+        assertTrue(stub.pauses.isEmpty());
+
+        // Two over the burst: paused once for about 100ms, not once per line
+        stub.handler.onLine("over");
+        stub.handler.onLine("over");
+        assertEquals(List.of(true), stub.pauses);
+        awaitPauses(stub, 2);
+        assertEquals(List.of(true, false), stub.pauses);
+        assertEquals(1, limiter.getThrottled());
+    }
+
+    @Test
+    @DisplayName("Owner pause survives the limiter's resume")
+    public void testOwnerPause() throws Exception {
+        RateLimiter limiter = new RateLimiter(new RateLimiter.Limits(0, 1000), RateLimiter.Limits.UNLIMITED);
+        StubChannel stub = new StubChannel();
+        LineChannel channel = limiter.limit(stub);
+        channel.start(IGNORE);
+
+        stub.handler.onLine("x".repeat(1100)); // 100 bytes over: about 100ms
+        channel.pauseReading(true);            // owner pauses meanwhile (the hub's PAUSE policy)
+        Thread.sleep(300);
+        assertEquals(List.of(true), stub.pauses); // the limiter's resume left it paused
+
+        channel.pauseReading(false);
+        assertEquals(List.of(true, false), stub.pauses);
+    }
+}
@@ -0,0 +1,78 @@
+package network;
+
+import crypto.BlockCipher;
+import crypto.KeyGenerator;
+import crypto.SignatureSuite;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.security.KeyPair;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Receive rate for signed text frames: inline on the reader vs OrderedPipeline
+ *
+ * Frames are prepared up front (encrypted + RSA signed, as sent without a
+ * session MAC); the "reader" then opens them either inline, like the old
+ * reader loop, or through an OrderedPipeline with 1..cores workers.
+ *
+ * Run: mvn test-compile && java -cp target/classes:target/test-classes network.ReceivePipelineBenchmark [frames]
+ */
+public class ReceivePipelineBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int frames = args.length > 0 ? Integer.parseInt(args[0]) : 4000;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream())); // BlockCipher traces every round
+        String key = KeyGenerator.generate128BitKeyHex();
+        KeyPair keys = SignatureSuite.RSA.generateKeyPair();
+        BlockCipher cipher = new BlockCipher(key);
+
+        List<String[]> wire = new ArrayList<>();
+        for (int i = 0; i < frames; i++) {
+            String msg = "Message number " + i + " in a burst from the peer";
+            wire.add(new String[] {cipher.encrypt(msg), SignatureSuite.RSA.sign(msg, keys.getPrivate())});
+        }
+
+        int cores = Runtime.getRuntime().availableProcessors();
+        for (int round = 0; round < 2; round++) {
+            long start = System.nanoTime();
+            int verified = 0;
+            for (String[] frame : wire) {
+                if (open(key, frame, keys)) verified++;
+            }
+            report("inline", frames, verified, start);
+
+            for (int workers = 1; workers <= cores; workers *= 2) {
+                ExecutorService pool = Executors.newFixedThreadPool(workers);
+                CountDownLatch done = new CountDownLatch(frames);
+                int[] ok = new int[1];
+                OrderedPipeline<Boolean> pipeline = new OrderedPipeline<>(pool, workers * 8, result -> {
+                    if (result) ok[0]++;
+                    done.countDown();
+                }, e -> done.countDown());
+
+                start = System.nanoTime();
+                for (String[] frame : wire) {
+                    pipeline.submit(() -> open(key, frame, keys));
+                }
+                done.await();
+                report("pipeline x" + workers, frames, ok[0], start);
+                pool.shutdown();
+            }
+        }
+    }
+
+    private static boolean open(String key, String[] frame, KeyPair keys) {
+        String msg = new BlockCipher(key).decrypt(frame[0]);
+        return SignatureSuite.RSA.verify(msg, frame[1], keys.getPublic());
+    }
+
+    private static void report(String mode, int frames, int verified, long start) {
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.err.printf("%-12s %7.0f frames/s  (%d/%d verified)%n", mode, frames / seconds, verified, frames);
+    }
+}
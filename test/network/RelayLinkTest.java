@@ -0,0 +1,120 @@
+package network;
+
+import org.junit.jupiter.api.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tests for RelayLink:
+ * - Bytes arrive unchanged in both directions, also when the receiver reads late
+ * - One side closing closes the other after the last bytes are delivered
+ */
+public class RelayLinkTest {
+
+    private static NioTransport transport;
+    private static ServerSocketChannel server;
+
+    @BeforeAll
+    public static void start() throws IOException {
+        transport = new NioTransport(1);
+        server = ServerSocketChannel.open();
+        server.bind(new InetSocketAddress("localhost", 0));
+    }
+
+    @AfterAll
+    public static void stop() throws IOException {
+        server.close();
+        transport.close();
+    }
+
+    private static final int SOCKET_BUFFER = 64 * 1024;
+
+    /**
+     * Two clients whose server-side channels are spliced together
+     */
+    private static Socket[] splice() throws IOException {
+        return splice(new RelayLink[1]);
+    }
+
+    /**
+     * Same, with small socket buffers from a to b so the relay has to throttle
+     */
+    private static Socket[] splice(RelayLink[] link) throws IOException {
+        Socket a = new Socket();
+        a.setSendBufferSize(SOCKET_BUFFER);
+        a.connect(new InetSocketAddress("localhost", server.socket().getLocalPort()));
+        SocketChannel aChannel = server.accept();
+        aChannel.socket().setReceiveBufferSize(SOCKET_BUFFER);
+        Socket b = new Socket();
+        b.setReceiveBufferSize(SOCKET_BUFFER);
+        b.connect(new InetSocketAddress("localhost", server.socket().getLocalPort()));
+        SocketChannel bChannel = server.accept();
+        bChannel.socket().setSendBufferSize(SOCKET_BUFFER);
+        link[0] = transport.splice(aChannel, bChannel);
+        return new Socket[] { a, b };
+    }
+
+    @Test
+    @DisplayName("Bulk transfer with a late reader arrives intact")
+    public void testBackpressure() throws Exception {
+        RelayLink[] link = new RelayLink[1];
+        Socket[] pair = splice(link);
+        try (Socket a = pair[0]; Socket b = pair[1]) {
+            byte[] data = new byte[8 * 1024 * 1024]; // far more than the (shrunk) socket buffers
+            new Random(7).nextBytes(data);
+            CompletableFuture<Void> sent = CompletableFuture.runAsync(() -> {
+                try {
+                    OutputStream out = a.getOutputStream();
+                    out.write(data);
+                    out.flush();
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            });
+
+            // Nobody reads b yet: once its buffers are full the relay must stop reading from a
+            long deadline = System.currentTimeMillis() + 10_000;
+            while (!link[0].isThrottled() && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            assertTrue(link[0].isThrottled(), "Relay should pause reading from a while b is full");
+
+            byte[] received = b.getInputStream().readNBytes(data.length);
+            sent.get(10, TimeUnit.SECONDS);
+            assertTrue(Arrays.equals(data, received));
+
+            // And back the other way
+            b.getOutputStream().write("pong\n".getBytes());
+            assertEquals("pong\n", new String(a.getInputStream().readNBytes(5)));
+        }
+    }
+
+    @Test
+    @DisplayName("Close propagates after the last bytes")
+    public void testClose() throws Exception {
+        Socket[] pair = splice();
+        try (Socket a = pair[0]; Socket b = pair[1]) {
+            a.getOutputStream().write("last words".getBytes());
+            a.close();
+            InputStream in = b.getInputStream();
+            assertEquals("last words", new String(in.readNBytes(10)));
+            assertEquals(-1, in.read());
+        }
+        long deadline = System.currentTimeMillis() + 5000;
+        while (transport.getConnectionCount() > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(0, transport.getConnectionCount());
+    }
+}
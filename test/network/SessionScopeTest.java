@@ -0,0 +1,67 @@
+package network;
+
+import org.junit.jupiter.api.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Tests for the per-connection task scope:
+ * - Thousands of blocking tasks run at once (no fixed pool to starve)
+ * - Closing the scope interrupts blocked tasks and waits for them
+ */
+public class SessionScopeTest {
+
+    @Test
+    @DisplayName("10000 blocking tasks run concurrently")
+    public void testManyBlockingTasks() throws Exception {
+        int tasks = 10_000;
+        CountDownLatch allStarted = new CountDownLatch(tasks);
+        CountDownLatch release = new CountDownLatch(1);
+        try (SessionScope scope = new SessionScope("test")) {
+            List<Future<?>> results = new ArrayList<>();
+            for (int i = 0; i < tasks; i++) {
+                results.add(scope.fork(() -> {
+                    allStarted.countDown();
+                    release.await();
+                    return null;
+                }));
+            }
+            // Every task is blocked at the same time - impossible with a small fixed pool
+            assertTrue(allStarted.await(10, TimeUnit.SECONDS));
+            release.countDown();
+            for (Future<?> result : results) {
+                result.get(10, TimeUnit.SECONDS);
+            }
+        }
+    }
+
+    @Test
+    @DisplayName("Close interrupts blocked tasks and waits for them")
+    public void testCloseCancels() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        AtomicBoolean interrupted = new AtomicBoolean();
+        AtomicBoolean finished = new AtomicBoolean();
+        SessionScope scope = new SessionScope("test");
+        scope.fork(() -> {
+            started.countDown();
+            try {
+                Thread.sleep(60_000);
+            } catch (InterruptedException e) {
+                interrupted.set(true);
+            }
+            finished.set(true);
+        });
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+
+        scope.close();
+        assertFalse(scope.isOpen());
+        assertTrue(interrupted.get());
+        assertTrue(finished.get(), "close() returns only after the task has stopped");
+    }
+}
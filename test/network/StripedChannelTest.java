@@ -0,0 +1,226 @@
+package network;
+
+import crypto.SessionAuthenticator;
+import org.junit.jupiter.api.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.UnaryOperator;
+
+/**
+ * Tests for StripedChannel:
+ * - Stripes answering with another key, nonce or challenge, a duplicate index or an index past the count are refused
+ * - A connection that never says hello is dropped and does not hold up setup
+ * - Chunks spread over the stripes reassemble in index order
+ * - A line altered on a stripe is not delivered and the stripe is reported closed
+ */
+public class StripedChannelTest {
+
+    private static final String KEY = "0123456789abcdef0123456789abcdef";
+    private static final String OTHER_KEY = "fedcba9876543210fedcba9876543210";
+
+    private ExecutorService executor;
+
+    @BeforeAll
+    public static void quiet() {
+        System.setOut(new PrintStream(OutputStream.nullOutputStream())); // Rejections are logged
+    }
+
+    @BeforeEach
+    public void setup() {
+        executor = Executors.newVirtualThreadPerTaskExecutor();
+    }
+
+    @AfterEach
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Open a data socket, read the server's challenge and answer it as a stripe of the given key and nonce
+     */
+    private static Socket hello(int port, int index, String key, String nonce) throws Exception {
+        return hello(port, challenge -> "STRIPE||" + index + "||" + StripedChannel.helloMac(key, nonce, challenge, index));
+    }
+
+    /**
+     * Open a data socket, read the server's challenge and send the hello built from it; returns the socket
+     */
+    private static Socket hello(int port, UnaryOperator<String> answer) throws Exception {
+        Socket socket = new Socket("localhost", port);
+        socket.setSoTimeout(10_000);
+        String challenge = new BufferedReader(new InputStreamReader(socket.getInputStream())).readLine();
+        assertTrue(challenge.startsWith("CHALLENGE||"), "Server should challenge every data socket");
+        PrintWriter out = new PrintWriter(socket.getOutputStream(), true);
+        out.println(answer.apply(challenge.substring("CHALLENGE||".length())));
+        return socket;
+    }
+
+    /**
+     * True once the server closed the connection on us (a challenge still unread is skipped)
+     */
+    private static boolean refused(Socket socket) throws Exception {
+        socket.setSoTimeout(10_000);
+        BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+        String line;
+        do {
+            line = in.readLine();
+        } while (line != null && line.startsWith("CHALLENGE||"));
+        return line == null;
+    }
+
+    @Test
+    @DisplayName("Wrong answers, replayed hellos, duplicate and out-of-range stripes are refused")
+    public void testRejections() throws Exception {
+        String nonce = StripedChannel.createNonce();
+
+        try (ServerSocket dataServer = new ServerSocket(0)) {
+            int port = dataServer.getLocalPort();
+            Future<StripedChannel> accepted = executor.submit(() -> StripedChannel.accept(dataServer, 2, KEY, nonce, 10_000));
+
+            Socket wrongKey = hello(port, 0, OTHER_KEY, nonce);
+            assertTrue(refused(wrongKey), "Answer from another key should be refused");
+            Socket wrongNonce = hello(port, 0, KEY, "00".repeat(16));
+            assertTrue(refused(wrongNonce), "Answer for another offer should be refused");
+            Socket replayed = hello(port, challenge -> "STRIPE||0||" + StripedChannel.helloMac(KEY, nonce, "00".repeat(16), 0));
+            assertTrue(refused(replayed), "Answer to another challenge should be refused");
+            Socket outOfRange = hello(port, 2, KEY, nonce);
+            assertTrue(refused(outOfRange), "Index past the announced count should be refused");
+            Socket garbage = hello(port, challenge -> "hello");
+            assertTrue(refused(garbage), "Malformed hello should be refused");
+
+            Socket first = hello(port, 0, KEY, nonce);
+            Socket duplicate = hello(port, 0, KEY, nonce);
+            assertTrue(refused(duplicate), "Second stripe with the same index should be refused");
+            Socket second = hello(port, 1, KEY, nonce);
+
+            StripedChannel channel = accepted.get(10, TimeUnit.SECONDS);
+            assertEquals(2, channel.size());
+            channel.close();
+            for (Socket socket : new Socket[] {wrongKey, wrongNonce, replayed, outOfRange, garbage, first, duplicate, second}) {
+                socket.close();
+            }
+        }
+    }
+
+    @Test
+    @DisplayName("A silent connection is dropped and setup still completes")
+    public void testSilentConnection() throws Exception {
+        String nonce = StripedChannel.createNonce();
+
+        try (ServerSocket dataServer = new ServerSocket(0)) {
+            Future<StripedChannel> accepted = executor.submit(() -> StripedChannel.accept(dataServer, 1, KEY, nonce, 1_000));
+            try (Socket silent = new Socket("localhost", dataServer.getLocalPort())) {
+                ExecutionException failure = assertThrows(ExecutionException.class, () -> accepted.get(10, TimeUnit.SECONDS));
+                assertInstanceOf(SocketTimeoutException.class, failure.getCause());
+                assertTrue(refused(silent), "Silent connection should be closed");
+            }
+
+            // Same server socket, a silent connection first, then a real stripe within the timeout
+            Future<StripedChannel> retry = executor.submit(() -> StripedChannel.accept(dataServer, 1, KEY, nonce, 5_000));
+            try (Socket silent = new Socket("localhost", dataServer.getLocalPort());
+                 Socket stripe = hello(dataServer.getLocalPort(), 0, KEY, nonce)) {
+                StripedChannel channel = retry.get(10, TimeUnit.SECONDS);
+                assertEquals(1, channel.size());
+                assertTrue(refused(silent));
+                channel.close();
+            }
+        }
+    }
+
+    @Test
+    @DisplayName("Chunks sent over the stripes reassemble in index order")
+    public void testReassembly() throws Exception {
+        String nonce = StripedChannel.createNonce();
+        int chunkSize = 4096;
+        int chunkCount = 40;
+        byte[] data = new byte[chunkSize * chunkCount - 100];
+        new Random(3).nextBytes(data);
+
+        try (ServerSocket dataServer = new ServerSocket(0)) {
+            Future<StripedChannel> accepted = executor.submit(() -> StripedChannel.accept(dataServer, 4, KEY, nonce));
+            StripedChannel sender = StripedChannel.connect("localhost", dataServer.getLocalPort(), 4, KEY, nonce);
+            StripedChannel receiver = accepted.get(10, TimeUnit.SECONDS);
+            assertEquals(4, sender.size());
+
+            Map<Integer, byte[]> chunks = new ConcurrentHashMap<>();
+            CountDownLatch arrived = new CountDownLatch(chunkCount);
+            receiver.startReaders(line -> {
+                String[] parts = line.split("\\|\\|");
+                chunks.put(Integer.parseInt(parts[0]), Base64.getDecoder().decode(parts[1]));
+                arrived.countDown();
+            }, () -> {});
+
+            BitSet all = new BitSet();
+            all.set(0, chunkCount);
+            sender.sendAll(all, i -> {
+                int from = i * chunkSize;
+                int to = Math.min(data.length, from + chunkSize);
+                return i + "||" + Base64.getEncoder().encodeToString(java.util.Arrays.copyOfRange(data, from, to));
+            }, sent -> {});
+            assertTrue(arrived.await(10, TimeUnit.SECONDS), "Every chunk should arrive");
+
+            byte[] reassembled = new byte[data.length];
+            int offset = 0;
+            for (int i = 0; i < chunkCount; i++) {
+                byte[] chunk = chunks.get(i);
+                System.arraycopy(chunk, 0, reassembled, offset, chunk.length);
+                offset += chunk.length;
+            }
+            assertEquals(data.length, offset);
+            assertArrayEquals(data, reassembled);
+
+            sender.close();
+            receiver.close();
+        }
+    }
+
+    @Test
+    @DisplayName("A line altered on a stripe is dropped and the stripe reported closed")
+    public void testTamperedLine() throws Exception {
+        String nonce = StripedChannel.createNonce();
+
+        try (ServerSocket dataServer = new ServerSocket(0)) {
+            int port = dataServer.getLocalPort();
+            Future<StripedChannel> accepted = executor.submit(() -> StripedChannel.accept(dataServer, 1, KEY, nonce));
+            try (Socket stripe = hello(port, 0, KEY, nonce)) {
+                StripedChannel receiver = accepted.get(10, TimeUnit.SECONDS);
+                List<String> delivered = Collections.synchronizedList(new ArrayList<>());
+                CountDownLatch closed = new CountDownLatch(1);
+                receiver.startReaders(delivered::add, closed::countDown);
+
+                // A line sealed with the stripe's MAC, then altered on the way
+                SessionAuthenticator authenticator = new SessionAuthenticator(StripedChannel.stripeKey(KEY, nonce, 0), false);
+                String sealed = authenticator.seal("FILE_DATA||abc||0||chunk");
+                PrintWriter out = new PrintWriter(stripe.getOutputStream(), true);
+                out.println(sealed.replace("chunk", "CHUNK"));
+
+                assertTrue(closed.await(10, TimeUnit.SECONDS), "Stripe should be reported closed");
+                assertTrue(delivered.isEmpty(), "Altered line should not be delivered");
+                assertTrue(refused(stripe), "Stripe should be closed on the sender");
+                receiver.close();
+            }
+        }
+    }
+}